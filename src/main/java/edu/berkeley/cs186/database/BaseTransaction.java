@@ -6,7 +6,6 @@ import java.util.List;
 import edu.berkeley.cs186.database.common.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.io.Page;
-import edu.berkeley.cs186.database.io.PageAllocator.PageIterator;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
@@ -120,7 +119,7 @@ public abstract class BaseTransaction implements AutoCloseable {
     public abstract RecordId updateRecord(String tableName, List<DataBox> values,
                           RecordId rid)  throws DatabaseException;
 
-    public abstract PageIterator getPageIterator(String tableName) throws DatabaseException;
+    public abstract BacktrackingIterator<Page> getPageIterator(String tableName) throws DatabaseException;
 
     public abstract BacktrackingIterator<Record> getBlockIterator(String tableName,
             Page[] block) throws DatabaseException;
@@ -5,37 +5,103 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
 
 import edu.berkeley.cs186.database.common.BacktrackingIterator;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.*;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.TupleDataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.index.BPlusTree;
 import edu.berkeley.cs186.database.index.BPlusTreeException;
+import edu.berkeley.cs186.database.index.HashIndex;
+import edu.berkeley.cs186.database.index.HashIndexException;
+import edu.berkeley.cs186.database.index.LSMIndex;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.query.QueryPlanException;
 import edu.berkeley.cs186.database.query.SortOperator;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
+import edu.berkeley.cs186.database.table.RecordIdBitmap;
 import edu.berkeley.cs186.database.table.RecordIterator;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.Table;
 import edu.berkeley.cs186.database.table.stats.TableStats;
-import edu.berkeley.cs186.database.io.PageAllocator.PageIterator;
 
 public class Database {
     private Map<String, Table> tableLookup;
     private Map<String, BPlusTree> indexLookup;
+    // The hash indices (see Transaction.createHashIndex) and LSM indices (see
+    // Transaction.createLSMIndex), by index name. An index name is in at most
+    // one of indexLookup, hashIndexLookup, and lsmIndexLookup.
+    private Map<String, HashIndex> hashIndexLookup;
+    private Map<String, LSMIndex> lsmIndexLookup;
     private Map<String, List<String>> tableIndices;
     private Map<Long, Transaction> activeTransactions;
     private long numTransactions;
     private String fileDir;
     private LockManager lockManager;
     private int numMemoryPages;
+    // For every table, a latch that writers hold shared while they change the
+    // table and its indices, and that createIndex holds exclusively while it
+    // makes a new index visible.
+    private Map<String, ReadWriteLock> indexLatches;
+    // For every table, the delta logs of the indices being built on it, by
+    // index name.
+    private Map<String, Map<String, IndexDeltaLog>> indexBuilds;
+
+    // The order of the (key, page number, entry number) records from which
+    // indices are bulk loaded (see Transaction.createIndex).
+    private static final Comparator<Record> INDEX_ENTRY_ORDER =
+        Comparator.comparing((Record r) -> r.getValues().get(0))
+        .thenComparing((Record r) -> r.getValues().get(1))
+        .thenComparing((Record r) -> r.getValues().get(2));
+
+    /**
+     * The changes made to a table while an index on it is built online (see
+     * Transaction.createIndex), in the order in which they were made. Adding a
+     * record is logged as inserting its key and RecordId, deleting a record
+     * as removing them, and updating or moving a record as both.
+     */
+    private static class IndexDeltaLog {
+        private static class Change {
+            final boolean insert;
+            final DataBox key;
+            final RecordId rid;
+
+            Change(boolean insert, DataBox key, RecordId rid) {
+                this.insert = insert;
+                this.key = key;
+                this.rid = rid;
+            }
+        }
+
+        // The columns of the index being built.
+        private final List<Integer> columns;
+        private final List<Change> changes = new ArrayList<>();
+
+        IndexDeltaLog(List<Integer> columns) {
+            this.columns = columns;
+        }
+
+        synchronized void log(boolean insert, DataBox key, RecordId rid) {
+            changes.add(new Change(insert, key, rid));
+        }
+
+        /** Returns the changes logged from the i-th onwards. */
+        synchronized List<Change> changesFrom(int i) {
+            return new ArrayList<>(changes.subList(i, changes.size()));
+        }
+    }
 
     /**
      * Creates a new database with locking disabled.
@@ -73,7 +139,11 @@ public class Database {
         numTransactions = 0;
         tableLookup = new ConcurrentHashMap<>();
         indexLookup = new ConcurrentHashMap<>();
+        hashIndexLookup = new ConcurrentHashMap<>();
+        lsmIndexLookup = new ConcurrentHashMap<>();
         tableIndices = new ConcurrentHashMap<>();
+        indexLatches = new ConcurrentHashMap<>();
+        indexBuilds = new ConcurrentHashMap<>();
         activeTransactions = new ConcurrentHashMap<>();
 
         File dir = new File(fileDir);
@@ -98,6 +168,16 @@ public class Database {
                     if (!tableIndices.containsKey(tableName)) {
                         tableIndices.put(tableName, new ArrayList<>());
                     }
+                } else if (fName.endsWith(HashIndex.FILENAME_EXTENSION)) {
+                    int lastIndex = fName.lastIndexOf(HashIndex.FILENAME_EXTENSION);
+                    String indexName = fName.substring(0, lastIndex);
+                    hashIndexLookup.put(indexName, new HashIndex(f.toString(), getIndexContext(indexName),
+                                        initTransaction));
+                } else if (fName.endsWith(LSMIndex.FILENAME_EXTENSION)) {
+                    int lastIndex = fName.lastIndexOf(LSMIndex.FILENAME_EXTENSION);
+                    String indexName = fName.substring(0, lastIndex);
+                    lsmIndexLookup.put(indexName, new LSMIndex(f.toString(), getIndexContext(indexName),
+                                       initTransaction));
                 } else if (fName.endsWith(BPlusTree.FILENAME_EXTENSION)) {
                     int lastIndex = fName.lastIndexOf(BPlusTree.FILENAME_EXTENSION);
                     String indexName = fName.substring(0, lastIndex);
@@ -128,8 +208,18 @@ public class Database {
                 t.close();
             }
 
+            for (HashIndex h : this.hashIndexLookup.values()) {
+                h.close();
+            }
+
+            for (LSMIndex l : this.lsmIndexLookup.values()) {
+                l.close();
+            }
+
             this.tableLookup.clear();
             this.indexLookup.clear();
+            this.hashIndexLookup.clear();
+            this.lsmIndexLookup.clear();
             this.tableIndices.clear();
         }
     }
@@ -230,23 +320,53 @@ public class Database {
          */
         public void createTableWithIndices(Schema s, String tableName,
                                            List<String> indexColumns) throws DatabaseException {
+            createTableWithIndices(s, tableName, indexColumns, true);
+        }
+
+        /**
+         * Create a new table in this database with an index on each of the given column names.
+         *
+         * An index may also be on several columns, given as one comma-separated
+         * list of column names (e.g. "sid,cid"). Its keys are tuples of the
+         * values of those columns (see TupleDataBox), ordered by the first
+         * column, then by the second, and so on, so it can answer equality
+         * predicates on any prefix of its columns with one index descent (see
+         * lookupKey).
+         *
+         * @param s the table schema
+         * @param tableName the name of the table
+         * @param indexColumns the list of unique columnNames on the maintain an index on
+         * @param unique whether the indexed columns hold unique values; if false,
+         *               the indices allow many records with the same value
+         * @throws DatabaseException
+         */
+        public void createTableWithIndices(Schema s, String tableName, List<String> indexColumns,
+                                           boolean unique) throws DatabaseException {
             LockContext tableContext = getTableContext(tableName);
 
             List<String> schemaColNames = s.getFieldNames();
             List<Type> schemaColType = s.getFieldTypes();
 
-            HashSet<String> seenColNames = new HashSet<String>();
-            List<Integer> schemaColIndex = new ArrayList<Integer>();
+            HashSet<String> seenIndices = new HashSet<String>();
+            List<List<Integer>> schemaColIndices = new ArrayList<List<Integer>>();
             for (int i = 0; i < indexColumns.size(); i++) {
-                String col = indexColumns.get(i);
-                if (!schemaColNames.contains(col)) {
-                    throw new DatabaseException("Column desired for index does not exist");
-                }
-                if (seenColNames.contains(col)) {
+                String index = indexColumns.get(i);
+                if (seenIndices.contains(index)) {
                     throw new DatabaseException("Column desired for index has been duplicated");
                 }
-                seenColNames.add(col);
-                schemaColIndex.add(schemaColNames.indexOf(col));
+                seenIndices.add(index);
+
+                List<Integer> cols = new ArrayList<Integer>();
+                for (String col : index.split(",")) {
+                    if (!schemaColNames.contains(col)) {
+                        throw new DatabaseException("Column desired for index does not exist");
+                    }
+                    if (cols.contains(schemaColNames.indexOf(col))) {
+                        throw new DatabaseException("Column desired for index has been duplicated");
+                    }
+                    cols.add(schemaColNames.indexOf(col));
+                }
+                schemaColIndices.add(cols);
             }
 
             if (Database.this.tableLookup.containsKey(tableName)) {
@@ -257,15 +377,19 @@ public class Database {
             Database.this.tableLookup.put(tableName, newTable(tableName, s, path.toString(), tableContext,
                                           this));
             Database.this.tableIndices.put(tableName, new ArrayList<>());
-            for (int i : schemaColIndex) {
-                String colName = schemaColNames.get(i);
-                Type colType = schemaColType.get(i);
-                String indexName = tableName + "," + colName;
+            for (List<Integer> cols : schemaColIndices) {
+                List<Type> colTypes = new ArrayList<>();
+                String indexName = tableName;
+                for (int i : cols) {
+                    colTypes.add(schemaColType.get(i));
+                    indexName += "," + schemaColNames.get(i);
+                }
+                Type colType = cols.size() == 1 ? colTypes.get(0) : Type.tupleType(colTypes);
                 Path p = Paths.get(Database.this.fileDir, indexName + BPlusTree.FILENAME_EXTENSION);
                 LockContext indexContext = getIndexContext(indexName);
                 try {
                     Database.this.indexLookup.put(indexName, new BPlusTree(p.toString(), colType,
-                                                  BPlusTree.maxOrder(Page.pageSize, colType), indexContext, this));
+                                                  BPlusTree.maxOrder(Page.pageSize, colType), unique, indexContext, this));
                     Database.this.tableIndices.get(tableName).add(indexName);
                 } catch (BPlusTreeException e) {
                     throw new DatabaseException(e.getMessage());
@@ -287,8 +411,9 @@ public class Database {
             Database.this.tableLookup.get(tableName).close();
             Database.this.tableLookup.remove(tableName);
 
-            File f = new File(fileDir + tableName + Table.FILENAME_EXTENSION);
+            File f = new File(fileDir, tableName + Table.FILENAME_EXTENSION);
             f.delete();
+            new File(f.getPath() + Table.COMPRESSED_FILENAME_EXTENSION).delete();
 
             Iterator<String> indices = Database.this.tableIndices.get(tableName).iterator();
             while (indices.hasNext()) {
@@ -297,11 +422,20 @@ public class Database {
                 Database.this.indexLookup.get(indexName).close();
                 Database.this.indexLookup.remove(indexName);
 
-                File indexFile = new File(fileDir + indexName + BPlusTree.FILENAME_EXTENSION);
+                File indexFile = new File(fileDir, indexName + BPlusTree.FILENAME_EXTENSION);
                 indexFile.delete();
             }
             Database.this.tableIndices.remove(tableName);
 
+            for (String indexName : getHashIndexNames(tableName)) {
+                Database.this.hashIndexLookup.remove(indexName).close();
+                Paths.get(fileDir, indexName + HashIndex.FILENAME_EXTENSION).toFile().delete();
+            }
+
+            for (String indexName : getLSMIndexNames(tableName)) {
+                Database.this.lsmIndexLookup.remove(indexName).drop();
+            }
+
             return true;
         }
 
@@ -399,14 +533,254 @@ public class Database {
             return new RecordIterator(this, tab, index.getSecond().scanGreaterEqual(this, startValue));
         }
 
+        /**
+         * Returns an iterator over the records of tableName whose columnName
+         * is between lo and hi, using the index on columnName, in ascending
+         * order of columnName, or in descending order if reverse is true. Each
+         * bound is included in the range if its inclusive flag is set, and an
+         * empty bound leaves that end of the range open, e.g.
+         *
+         *   rangeScan("students", "gpa", Optional.of(new FloatDataBox(3.0f)), true,
+         *             Optional.of(new FloatDataBox(3.5f)), false, false)
+         *
+         * returns the students with 3.0 <= gpa < 3.5, and
+         *
+         *   rangeScan("students", "gpa", Optional.empty(), false, Optional.empty(), false, true)
+         *
+         * returns every student, from the highest gpa down. Only the leaves of
+         * the index holding the range are read (see BPlusTree.scanRange).
+         */
+        public Iterator<Record> rangeScan(String tableName, String columnName,
+                                          Optional<DataBox> lo, boolean loInclusive,
+                                          Optional<DataBox> hi, boolean hiInclusive,
+                                          boolean reverse) throws DatabaseException {
+            Table tab = getTable(tableName);
+            BPlusTree tree = resolveIndexFromName(tableName, columnName).getSecond();
+            Iterator<RecordId> rids = reverse
+                                      ? tree.scanRangeReverse(this, lo, loInclusive, hi, hiInclusive)
+                                      : tree.scanRange(this, lo, loInclusive, hi, hiInclusive);
+            return new RecordIterator(this, tab, rids);
+        }
+
+        /**
+         * Returns an iterator over the records of tableName whose columnName
+         * is key, using the index on columnName. If columnName is a
+         * comma-separated list of the columns of a multi-column index, key is a
+         * TupleDataBox of the values of any prefix of those columns, e.g.
+         *
+         *   lookupKey("enrollments", "sid,cid", new TupleDataBox(Arrays.asList(sid)))
+         *
+         * returns every enrollment of student sid.
+         */
         public Iterator<Record> lookupKey(String tableName, String columnName,
                                           DataBox key) throws DatabaseException {
             Table tab = getTable(tableName);
+            Optional<HashIndex> hashIndex = resolveHashIndexFromName(tableName, columnName);
+            if (hashIndex.isPresent()) {
+                return new RecordIterator(this, tab, hashIndex.get().scanEqual(this, key));
+            }
+            Optional<LSMIndex> lsmIndex = resolveLSMIndexFromName(tableName, columnName);
+            if (lsmIndex.isPresent()) {
+                return new RecordIterator(this, tab, lsmIndex.get().scanEqual(this, key));
+            }
             Pair<String, BPlusTree> index = resolveIndexFromName(tableName, columnName);
+            if (key instanceof TupleDataBox) {
+                return new RecordIterator(this, tab, index.getSecond().scanPrefix(this, (TupleDataBox) key));
+            }
             return new RecordIterator(this, tab, index.getSecond().scanEqual(this, key));
         }
 
+        /**
+         * Returns an iterator over the records of tableName whose columnName
+         * is any of keys (e.g. the values of an IN list), using the index on
+         * columnName. The records are returned in ascending order of
+         * columnName. The keys are looked up in one batch (see multiGet), so
+         * this is much cheaper than calling lookupKey once per key.
+         */
+        public Iterator<Record> lookupKeys(String tableName, String columnName,
+                                           Collection<DataBox> keys) throws DatabaseException {
+            Table tab = getTable(tableName);
+            List<RecordId> rids = new ArrayList<>();
+            for (List<RecordId> keyRids : multiGet(tableName, columnName, new ArrayList<>(new TreeSet<>(keys)))) {
+                rids.addAll(keyRids);
+            }
+            return new RecordIterator(this, tab, rids.iterator());
+        }
+
+        /**
+         * Returns the RecordIds of the records of tableName whose columnName is
+         * each of sortedKeys, which must be in ascending order, using the index
+         * on columnName. The index is walked once for all of the keys (see
+         * BPlusTree.multiGet).
+         */
+        public List<List<RecordId>> multiGet(String tableName, String columnName,
+                                             List<DataBox> sortedKeys) throws DatabaseException {
+            BPlusTree tree = resolveIndexFromName(tableName, columnName).getSecond();
+            return tree.multiGet(this, sortedKeys);
+        }
+
+        /**
+         * Returns the columns of every index on tableName, in the order of the
+         * keys of the index. An index on one column is a list of one column.
+         */
+        public List<List<String>> getIndexColumns(String tableName) throws DatabaseException {
+            Table tab = getTable(tableName);
+            List<String> colNames = tab.getSchema().getFieldNames();
+            List<List<String>> indices = new ArrayList<>();
+            for (String indexName : getIndexNames(tab)) {
+                List<String> cols = new ArrayList<>();
+                for (int i : getKeyColumns(tab, indexName)) {
+                    cols.add(colNames.get(i));
+                }
+                indices.add(cols);
+            }
+            return indices;
+        }
+
+        /**
+         * Returns the number of records of tableName that satisfy the predicate
+         * `columnName operator value`, if there is a counted index on
+         * columnName (see createIndex), or Optional.empty() otherwise. The
+         * index counts the matches in O(log n) time, without reading them.
+         */
+        public Optional<Long> countMatches(String tableName, String columnName,
+                                           QueryPlan.PredicateOperator operator,
+                                           DataBox value) throws DatabaseException {
+            BPlusTree tree = Database.this.indexLookup.get(getIndexName(tableName, columnName));
+            if (tree == null || !tree.isCounted()) {
+                return Optional.empty();
+            }
+            if (operator == QueryPlan.PredicateOperator.NOT_EQUALS) {
+                long all = tree.count(this, Optional.empty(), false, Optional.empty(), false);
+                return Optional.of(all - tree.count(this, Optional.of(value), true, Optional.of(value), true));
+            }
+            Pair<Optional<DataBox>, Optional<DataBox>> range = getRange(operator, value);
+            return Optional.of(tree.count(this, range.getFirst(), isInclusive(operator), range.getSecond(),
+                                          isInclusive(operator)));
+        }
+
+        /**
+         * Collects the RecordIds of the records of tableName that might satisfy
+         * the predicate `columnName operator value` into a RecordIdBitmap, using
+         * the index on columnName. EQUALS looks up value and the other
+         * comparisons scan the range of the index they match, so only
+         * NOT_EQUALS scans the whole index and needs its records filtered by
+         * the caller.
+         */
+        public RecordIdBitmap lookupRecordIds(String tableName, String columnName,
+                                              QueryPlan.PredicateOperator operator,
+                                              DataBox value) throws DatabaseException {
+            Optional<HashIndex> hashIndex = resolveHashIndexFromName(tableName, columnName);
+            if (hashIndex.isPresent() && operator != QueryPlan.PredicateOperator.EQUALS) {
+                throw new DatabaseException("A hash index can only look up EQUALS predicates");
+            }
+            Iterator<RecordId> rids;
+            if (hashIndex.isPresent()) {
+                rids = hashIndex.get().scanEqual(this, value);
+                RecordIdBitmap bitmap = new RecordIdBitmap();
+                rids.forEachRemaining(bitmap::add);
+                return bitmap;
+            }
+            Optional<LSMIndex> lsmIndex = resolveLSMIndexFromName(tableName, columnName);
+            if (lsmIndex.isPresent()) {
+                Pair<Optional<DataBox>, Optional<DataBox>> range = getRange(operator, value);
+                rids = lsmIndex.get().scanRange(this, range.getFirst(), isInclusive(operator), range.getSecond(),
+                                                isInclusive(operator));
+                RecordIdBitmap bitmap = new RecordIdBitmap();
+                rids.forEachRemaining(bitmap::add);
+                return bitmap;
+            }
+            BPlusTree tree = resolveIndexFromName(tableName, columnName).getSecond();
+            switch (operator) {
+            case EQUALS:
+                rids = tree.scanEqual(this, value);
+                break;
+            case GREATER_THAN:
+                rids = tree.scanRange(this, Optional.of(value), false, Optional.empty(), false);
+                break;
+            case GREATER_THAN_EQUALS:
+                rids = tree.scanGreaterEqual(this, value);
+                break;
+            case LESS_THAN:
+                rids = tree.scanRange(this, Optional.empty(), false, Optional.of(value), false);
+                break;
+            case LESS_THAN_EQUALS:
+                rids = tree.scanRange(this, Optional.empty(), false, Optional.of(value), true);
+                break;
+            default:
+                rids = tree.scanAll(this);
+            }
+            RecordIdBitmap bitmap = new RecordIdBitmap();
+            while (rids.hasNext()) {
+                bitmap.add(rids.next());
+            }
+            return bitmap;
+        }
+
+        /**
+         * Returns the keys of the index on columnName that might satisfy the
+         * predicate `columnName operator value`, one per record, without
+         * fetching any records. Like lookupRecordIds, EQUALS looks up value
+         * (or, for a multi-column index, the keys with prefix value), the
+         * other comparisons scan the range of the index they match, and
+         * NOT_EQUALS scans the whole index, so callers still have to filter
+         * its keys.
+         */
+        public Iterator<DataBox> lookupIndexKeys(String tableName, String columnName,
+                QueryPlan.PredicateOperator operator,
+                DataBox value) throws DatabaseException {
+            Optional<HashIndex> hashIndex = resolveHashIndexFromName(tableName, columnName);
+            if (hashIndex.isPresent() && operator != QueryPlan.PredicateOperator.EQUALS) {
+                throw new DatabaseException("A hash index can only look up EQUALS predicates");
+            }
+            Optional<LSMIndex> lsmIndex = resolveLSMIndexFromName(tableName, columnName);
+            if (lsmIndex.isPresent()) {
+                Pair<Optional<DataBox>, Optional<DataBox>> range = getRange(operator, value);
+                return lsmIndex.get().scanRangeKeys(this, range.getFirst(), isInclusive(operator),
+                                                    range.getSecond(), isInclusive(operator));
+            }
+            BPlusTree tree = hashIndex.isPresent() ? null : resolveIndexFromName(tableName, columnName).getSecond();
+            switch (operator) {
+            case EQUALS:
+                if (value instanceof TupleDataBox) {
+                    return tree.scanPrefixKeys(this, (TupleDataBox) value);
+                }
+                Iterator<RecordId> rids = hashIndex.isPresent() ? hashIndex.get().scanEqual(this, value)
+                                          : tree.scanEqual(this, value);
+                return new Iterator<DataBox>() {
+                    @Override
+                    public boolean hasNext() {
+                        return rids.hasNext();
+                    }
+
+                    @Override
+                    public DataBox next() {
+                        rids.next();
+                        return value;
+                    }
+                };
+            case GREATER_THAN:
+                return tree.scanRangeKeys(this, Optional.of(value), false, Optional.empty(), false);
+            case GREATER_THAN_EQUALS:
+                return tree.scanGreaterEqualKeys(this, value);
+            case LESS_THAN:
+                return tree.scanRangeKeys(this, Optional.empty(), false, Optional.of(value), false);
+            case LESS_THAN_EQUALS:
+                return tree.scanRangeKeys(this, Optional.empty(), false, Optional.of(value), true);
+            default:
+                return tree.scanAllKeys(this);
+            }
+        }
+
         public boolean contains(String tableName, String columnName, DataBox key) throws DatabaseException {
+            Optional<HashIndex> hashIndex = resolveHashIndexFromName(tableName, columnName);
+            if (hashIndex.isPresent()) {
+                return hashIndex.get().get(this, key).isPresent();
+            }
+            Optional<LSMIndex> lsmIndex = resolveLSMIndexFromName(tableName, columnName);
+            if (lsmIndex.isPresent()) {
+                return lsmIndex.get().get(this, key).isPresent();
+            }
             Pair<String, BPlusTree> index = resolveIndexFromName(tableName, columnName);
             return index.getSecond().get(this, key).isPresent();
         }
@@ -415,21 +789,15 @@ public class Database {
             assert(this.active);
 
             Table tab = getTable(tableName);
-            RecordId rid = tab.addRecord(this, values);
-            Schema s = tab.getSchema();
-            List<String> colNames = s.getFieldNames();
-
-            for (int i = 0; i < colNames.size(); i++) {
-                String col = colNames.get(i);
-                if (indexExists(tableName, col)) {
-                    try {
-                        resolveIndexFromName(tableName, col).getSecond().put(this, values.get(i), rid);
-                    } catch (BPlusTreeException e) {
-                        throw new DatabaseException(e.getMessage());
-                    }
-                }
+            Lock latch = getIndexLatch(tab).readLock();
+            latch.lock();
+            try {
+                RecordId rid = tab.addRecord(this, values);
+                addToIndices(tab, values, rid);
+                return rid;
+            } finally {
+                latch.unlock();
             }
-            return rid;
         }
 
         public int getNumMemoryPages() throws DatabaseException {
@@ -441,16 +809,13 @@ public class Database {
             assert(this.active);
 
             Table tab = getTable(tableName);
-            Schema s = tab.getSchema();
-
-            Record rec = tab.deleteRecord(this, rid);
-            List<DataBox> values = rec.getValues();
-            List<String> colNames = s.getFieldNames();
-            for (int i = 0; i < colNames.size(); i++) {
-                String col = colNames.get(i);
-                if (indexExists(tableName, col)) {
-                    resolveIndexFromName(tableName, col).getSecond().remove(this, values.get(i));
-                }
+            Lock latch = getIndexLatch(tab).readLock();
+            latch.lock();
+            try {
+                Record rec = tab.deleteRecord(this, rid);
+                removeFromIndices(tab, rec.getValues(), rid);
+            } finally {
+                latch.unlock();
             }
 
             return rid;
@@ -466,14 +831,114 @@ public class Database {
             return getTable(tableName).iterator(this);
         }
 
+        /**
+         * Returns an iterator over the records of tableName that skips the pages
+         * on which no record can satisfy the predicate `columnName operator value`.
+         * The records returned are not filtered.
+         */
+        public RecordIterator getRecordIterator(String tableName, String columnName,
+                                                QueryPlan.PredicateOperator operator,
+                                                DataBox value) throws DatabaseException {
+            assert(this.active);
+            Table tab = getTable(tableName);
+            return tab.iterator(this, getColumnIndex(tab, columnName), operator, value);
+        }
+
+        /**
+         * Returns an iterator over the records of tableName with the RecordIds in
+         * rids, in page order. See Table#bitmapIterator.
+         */
+        public Iterator<Record> getRecordIterator(String tableName,
+                                                  RecordIdBitmap rids) throws DatabaseException {
+            assert(this.active);
+            return getTable(tableName).bitmapIterator(this, rids);
+        }
+
+        /**
+         * Build a Bloom filter on (table, column). See Table#createBloomFilter.
+         *
+         * @param tableName the name of the table
+         * @param columnName the name of the column
+         * @throws DatabaseException if the table or column does not exist
+         */
+        public void createBloomFilter(String tableName, String columnName) throws DatabaseException {
+            assert(this.active);
+            Table tab = getTable(tableName);
+            tab.createBloomFilter(this, getColumnIndex(tab, columnName));
+        }
+
+        public boolean hasBloomFilter(String tableName, String columnName) throws DatabaseException {
+            Table tab = getTable(tableName);
+            return tab.hasBloomFilter(getColumnIndex(tab, columnName));
+        }
+
+        /**
+         * Build a bitmap index on (table, column). See Table#createBitmapIndex.
+         *
+         * @param tableName the name of the table
+         * @param columnName the name of the column
+         * @throws DatabaseException if the table or column does not exist
+         */
+        public void createBitmapIndex(String tableName, String columnName) throws DatabaseException {
+            assert(this.active);
+            Table tab = getTable(tableName);
+            tab.createBitmapIndex(this, getColumnIndex(tab, columnName));
+        }
+
+        public boolean hasBitmapIndex(String tableName, String columnName) throws DatabaseException {
+            Table tab = getTable(tableName);
+            return tab.hasBitmapIndex(getColumnIndex(tab, columnName));
+        }
+
+        /**
+         * Returns the bitmap of the records of tableName whose value of
+         * columnName is value. The bitmaps of several lookups can be combined
+         * with RecordIdBitmap#and and RecordIdBitmap#or, and their records
+         * fetched with getRecordIterator(String, RecordIdBitmap).
+         *
+         * @throws DatabaseException if there is no bitmap index on (table, column)
+         */
+        public RecordIdBitmap lookupBitmap(String tableName, String columnName,
+                                           DataBox value) throws DatabaseException {
+            assert(this.active);
+            Table tab = getTable(tableName);
+            int column = getColumnIndex(tab, columnName);
+            if (!tab.hasBitmapIndex(column)) {
+                throw new DatabaseException("There is no bitmap index on " + columnName);
+            }
+            return tab.lookupBitmap(column, value);
+        }
+
+        /**
+         * Returns false if the Bloom filter on (table, column) shows that no record
+         * of the table has value in that column, and true otherwise (including
+         * when there is no such Bloom filter).
+         */
+        public boolean mightContain(String tableName, String columnName,
+                                    DataBox value) throws DatabaseException {
+            Table tab = getTable(tableName);
+            return tab.mightContain(getColumnIndex(tab, columnName), value);
+        }
+
+        /**
+         * Dictionary encodes a string column of an empty table, so that the
+         * table stores a small integer code in place of every value of the
+         * column (see Table.encodeColumn).
+         */
+        public void encodeColumn(String tableName, String columnName) throws DatabaseException {
+            assert(this.active);
+            Table tab = getTable(tableName);
+            tab.encodeColumn(this, getColumnIndex(tab, columnName));
+        }
+
         public RecordId updateRecord(String tableName, List<DataBox> values,
                                      RecordId rid)  throws DatabaseException {
             return runUpdateRecord(tableName, values, rid);
         }
 
-        public PageIterator getPageIterator(String tableName) throws DatabaseException {
+        public BacktrackingIterator<Page> getPageIterator(String tableName) throws DatabaseException {
             assert(this.active);
-            return getTable(tableName).getAllocator().iterator(this);
+            return getTable(tableName).pageIterator(this);
         }
 
         public BacktrackingIterator<Record> getBlockIterator(String tableName,
@@ -520,27 +985,767 @@ public class Database {
                                          RecordId rid) throws DatabaseException {
             assert(this.active);
             Table tab = getTable(tableName);
-            Schema s = tab.getSchema();
+            Lock latch = getIndexLatch(tab).readLock();
+            latch.lock();
+            try {
+                Record rec = tab.updateRecord(this, values, rid);
 
-            Record rec = tab.updateRecord(this, values, rid);
+                List<DataBox> oldValues = rec.getValues();
 
-            List<DataBox> oldValues = rec.getValues();
-            List<String> colNames = s.getFieldNames();
+                removeFromIndices(tab, oldValues, rid);
+                addToIndices(tab, values, rid);
+            } finally {
+                latch.unlock();
+            }
+
+            return rid;
+        }
 
-            for (int i = 0; i < colNames.size(); i++) {
-                String col = colNames.get(i);
-                if (indexExists(tableName, col)) {
-                    BPlusTree tree = resolveIndexFromName(tableName, col).getSecond();
-                    tree.remove(this, oldValues.get(i));
+        /**
+         * Runs one increment of compaction on a table. Records are moved out of
+         * the sparsest pages at the back of the table into free slots nearer
+         * the front, every index on the table is updated with their new record
+         * ids, and pages left empty are returned to the page allocator.
+         *
+         * At most maxMoves records are moved per call, so compaction can be
+         * interleaved with other work by calling this repeatedly until it
+         * returns 0.
+         *
+         * @param tableName the name of the table
+         * @param fillThreshold only pages at most this full (a fraction between 0 and 1) are emptied
+         * @param maxMoves the maximum number of records to move
+         * @return the number of records moved
+         * @throws DatabaseException
+         */
+        public int compactTable(String tableName, float fillThreshold,
+                                int maxMoves) throws DatabaseException {
+            assert(this.active);
+            Table tab = getTable(tableName);
+
+            int numMoved = 0;
+            moving:
+            for (int pageNum : tab.getSparsePageNums(this, fillThreshold)) {
+                for (RecordId rid : tab.getRecordIds(this, pageNum)) {
+                    if (numMoved >= maxMoves) {
+                        break moving;
+                    }
+                    Lock latch = getIndexLatch(tab).readLock();
+                    latch.lock();
                     try {
-                        tree.put(this, values.get(i), rid);
-                    } catch (BPlusTreeException e) {
-                        throw new DatabaseException(e.getMessage());
+                        List<DataBox> values = tab.getRecord(this, rid).getValues();
+                        RecordId newRid = tab.moveRecord(this, rid);
+                        if (newRid == null) {
+                            // No page before this one has room; the table is as
+                            // compact as we can make it.
+                            break moving;
+                        }
+                        numMoved++;
+
+                        removeFromIndices(tab, values, rid);
+                        addToIndices(tab, values, newRid);
+                    } finally {
+                        latch.unlock();
                     }
                 }
             }
+            tab.cleanup(this);
+            return numMoved;
+        }
 
-            return rid;
+        /**
+         * Compresses the data pages of a table that inserts no longer fill
+         * (see Table.compressPages), and updates every index on the table
+         * with the new record ids of the records on them.
+         *
+         * @param tableName the name of the table
+         * @return the number of pages compressed
+         * @throws DatabaseException
+         */
+        public int compressTable(String tableName) throws DatabaseException {
+            assert(this.active);
+            Table tab = getTable(tableName);
+
+            Lock latch = getIndexLatch(tab).readLock();
+            latch.lock();
+            try {
+                Map<Integer, Integer> moved = tab.compressPages(this);
+                for (Map.Entry<Integer, Integer> e : moved.entrySet()) {
+                    for (RecordId rid : tab.getRecordIds(this, e.getValue())) {
+                        RecordId oldRid = new RecordId(e.getKey(), rid.getEntryNum());
+                        List<DataBox> values = tab.getRecord(this, rid).getValues();
+                        removeFromIndices(tab, values, oldRid);
+                        addToIndices(tab, values, rid);
+                    }
+                }
+                return moved.size();
+            } finally {
+                latch.unlock();
+            }
+        }
+
+        /**
+         * Clusters a table on one of its columns. The records of the table are
+         * sorted on the column with an external sort and written back to the
+         * table in that order, so that records with nearby keys share pages.
+         * Every index on the table is then rebuilt with bulkLoad, and the
+         * clustering is recorded in the table's header page so the optimizer
+         * can cost index scans on the column accordingly (see isClustered).
+         *
+         * Records added or updated after clustering are not kept in order; call
+         * clusterTable again to restore the clustering.
+         *
+         * @param tableName the name of the table
+         * @param columnName the column to cluster the table on
+         * @throws DatabaseException
+         */
+        public void clusterTable(String tableName, String columnName) throws DatabaseException {
+            assert(this.active);
+            Table tab = getTable(tableName);
+            int column = getColumnIndex(tab, columnName);
+
+            // The records are re-added to the table without being logged for
+            // indices being built online, so we wait for writers to finish and
+            // refuse to cluster the table during such a build.
+            ReadWriteLock latch = getIndexLatch(tab);
+            latch.writeLock().lock();
+            try {
+                if (!getIndexBuilds(tab).isEmpty()) {
+                    throw new DatabaseException("An index is being built on " + tableName);
+                }
+
+                Iterator<Record> sorted;
+                try {
+                    sorted = new SortOperator(this, tableName,
+                                              Comparator.comparing((Record r) -> r.getValues().get(column))).iterator();
+                } catch (QueryPlanException e) {
+                    throw new DatabaseException(e);
+                }
+
+                // For every index, a temporary table of (key, page number, entry
+                // number) triples from which we rebuild the index once the records
+                // have been moved.
+                Map<String, String> indexEntries = new HashMap<>();
+                for (String indexName : getIndexNames(tab)) {
+                    Schema s = new Schema(Arrays.asList("key", "pageNum", "entryNum"),
+                                          Arrays.asList(getIndexKeyType(tab, indexName), Type.intType(),
+                                                        Type.intType()));
+                    indexEntries.put(indexName, createTempTable(s));
+                }
+
+                // Hash indices are emptied, and refilled as the records are
+                // added back.
+                Map<String, HashIndex> hashIndices = new HashMap<>();
+                for (String indexName : getHashIndexNames(tab.getName())) {
+                    HashIndex old = Database.this.hashIndexLookup.get(indexName);
+                    old.close();
+                    Path p = Paths.get(Database.this.fileDir, indexName + HashIndex.FILENAME_EXTENSION);
+                    HashIndex index = new HashIndex(p.toString(), old.getKeySchema(), old.isUnique(),
+                                                    getIndexContext(indexName), this);
+                    Database.this.hashIndexLookup.put(indexName, index);
+                    hashIndices.put(indexName, index);
+                }
+                Map<String, LSMIndex> lsmIndices = new HashMap<>();
+                for (String indexName : getLSMIndexNames(tab.getName())) {
+                    LSMIndex old = Database.this.lsmIndexLookup.get(indexName);
+                    old.drop();
+                    Path p = Paths.get(Database.this.fileDir, indexName + LSMIndex.FILENAME_EXTENSION);
+                    LSMIndex index = new LSMIndex(p.toString(), old.getKeySchema(), getIndexContext(indexName), this);
+                    Database.this.lsmIndexLookup.put(indexName, index);
+                    lsmIndices.put(indexName, index);
+                }
+
+                tab.clear(this);
+                while (sorted.hasNext()) {
+                    List<DataBox> values = sorted.next().getValues();
+                    RecordId rid = tab.addRecord(this, values);
+                    for (Map.Entry<String, String> e : indexEntries.entrySet()) {
+                        addRecord(e.getValue(), Arrays.asList(getIndexKey(tab, e.getKey(), values),
+                                                              new IntDataBox(rid.getPageNum()),
+                                                              new IntDataBox(rid.getEntryNum())));
+                    }
+                    for (Map.Entry<String, HashIndex> e : hashIndices.entrySet()) {
+                        try {
+                            e.getValue().put(this, getIndexKey(tab, e.getKey(), values), rid);
+                        } catch (HashIndexException hie) {
+                            throw new DatabaseException(hie.getMessage());
+                        }
+                    }
+                    for (Map.Entry<String, LSMIndex> e : lsmIndices.entrySet()) {
+                        e.getValue().put(this, getIndexKey(tab, e.getKey(), values), rid);
+                    }
+                }
+                tab.setClusteredColumn(this, column);
+
+                for (Map.Entry<String, String> e : indexEntries.entrySet()) {
+                    Iterator<Record> entries;
+                    if (getKeyColumns(tab, e.getKey()).equals(Collections.singletonList(column))) {
+                        // The records were added in key order, so these entries are
+                        // already sorted.
+                        entries = getRecordIterator(e.getValue());
+                    } else {
+                        try {
+                            entries = new SortOperator(this, e.getValue(),
+                                                       Comparator.comparing((Record r) -> r.getValues().get(0))).iterator();
+                        } catch (QueryPlanException qpe) {
+                            throw new DatabaseException(qpe);
+                        }
+                    }
+                    rebuildIndex(e.getKey(), getIndexKeyType(tab, e.getKey()), entries);
+                    deleteTempTable(e.getValue());
+                }
+            } finally {
+                latch.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Returns whether tableName is clustered on columnName, i.e. whether its
+         * records are stored in ascending order of columnName.
+         */
+        public boolean isClustered(String tableName, String columnName) throws DatabaseException {
+            Table tab = getTable(tableName);
+            return tab.getClusteredColumn() != -1 && tab.getClusteredColumn() == getColumnIndex(tab, columnName);
+        }
+
+        /**
+         * Creates a unique index on columnName of the existing table tableName,
+         * with completely full nodes. See createIndex(String, String, boolean,
+         * float).
+         */
+        public void createIndex(String tableName, String columnName) throws DatabaseException {
+            createIndex(tableName, columnName, true, 1.0f);
+        }
+
+        /**
+         * Creates an index on columnName of the existing table tableName. See
+         * createIndex(String, String, boolean, float, boolean); the index is
+         * not built online.
+         */
+        public void createIndex(String tableName, String columnName, boolean unique,
+                                float fillFactor) throws DatabaseException {
+            createIndex(tableName, columnName, unique, fillFactor, false);
+        }
+
+        /**
+         * Creates an index on columnName of the existing table tableName. See
+         * createIndex(String, String, boolean, float, boolean, boolean); the
+         * index is not counted.
+         */
+        public void createIndex(String tableName, String columnName, boolean unique,
+                                float fillFactor, boolean online) throws DatabaseException {
+            createIndex(tableName, columnName, unique, fillFactor, online, false);
+        }
+
+        /**
+         * Creates an index on columnName of the existing table tableName, as if
+         * it had been passed to createTableWithIndices. columnName may also be
+         * a comma-separated list of columns, for a multi-column index.
+         *
+         * Rather than putting the records of the table into the index one at a
+         * time, we sort their (key, RecordId) pairs with an external sort and
+         * bulk load the index from them:
+         *
+         *   1. The data pages of the table are divided into chunks of B pages.
+         *      The chunks are scanned and sorted in memory in parallel on the
+         *      common fork-join pool, a few at a time, and each is written out
+         *      as a sorted run: a temporary table of (key, page number, entry
+         *      number) records.
+         *   2. The runs are merged B - 1 at a time until at most B - 1 of them
+         *      are left, and the final merge feeds BPlusTree.bulkLoad directly.
+         *
+         * Every node of the new index is filled up to fillFactor, which leaves
+         * room for records added later to go in without splitting nodes.
+         *
+         * If online is false, records cannot be added to, deleted from, or
+         * updated in the table until the index is built. If online is true,
+         * they can: every change made to the table while the index is built is
+         * written to a delta log (see IndexDeltaLog), and the scan of step 1
+         * sees each page as it is when the scan reaches it. Once the index is
+         * loaded, we replay the log into it, then block writers only while we
+         * replay what they logged in the meantime and make the index visible,
+         * so that QueryPlan sees either no index or a complete one. Replaying
+         * is idempotent, so it does not matter whether the scan saw a change
+         * that is also in the log.
+         *
+         * If counted is true, the index is a counted B+ tree (see
+         * BPlusTree.count), which keeps the number of entries under each child
+         * of its inner nodes. Every change to the index then also updates the
+         * inner nodes above the leaf it changes, but the number of records
+         * that match a predicate on the index can be found exactly in O(log n)
+         * time (see countMatches), and the optimizer uses it instead of the
+         * histograms of the column.
+         *
+         * @param tableName the name of the table
+         * @param columnName the column(s) to index
+         * @param unique whether the indexed columns hold unique values
+         * @param fillFactor how full to make the nodes of the index, in (0, 1]
+         * @param online whether to let the table be changed while the index is built
+         * @param counted whether the index keeps counts of its entries
+         * @throws DatabaseException if the table or a column does not exist, the
+         *         index already exists or is being built, or unique is true and
+         *         the table has two records with the same key
+         */
+        public void createIndex(String tableName, String columnName, boolean unique,
+                                float fillFactor, boolean online, boolean counted) throws DatabaseException {
+            assert(this.active);
+            if (!Database.this.tableIndices.containsKey(tableName)) {
+                throw new DatabaseException("Table: " + tableName + " does not exist");
+            }
+            if (fillFactor <= 0 || fillFactor > 1) {
+                throw new DatabaseException("Fill factor must be in (0, 1]");
+            }
+            Table tab = getTable(tableName);
+            List<String> fieldNames = tab.getSchema().getFieldNames();
+            String indexName = tableName;
+            Set<Integer> seenColumns = new HashSet<>();
+            for (String column : columnName.split(",")) {
+                int i = getColumnIndex(tab, column);
+                if (!seenColumns.add(i)) {
+                    throw new DatabaseException("Column desired for index has been duplicated");
+                }
+                indexName += "," + fieldNames.get(i);
+            }
+            if (Database.this.indexLookup.containsKey(indexName)
+                    || Database.this.hashIndexLookup.containsKey(indexName)
+                    || Database.this.lsmIndexLookup.containsKey(indexName)) {
+                throw new DatabaseException("Index already exists");
+            }
+            List<Integer> columns = getKeyColumns(tab, indexName);
+            Type keyType = getIndexKeyType(tab, indexName);
+
+            Map<String, IndexDeltaLog> builds = Database.this.indexBuilds.computeIfAbsent(tableName,
+                                                k -> new ConcurrentHashMap<>());
+            IndexDeltaLog delta = new IndexDeltaLog(columns);
+            if (builds.putIfAbsent(indexName, delta) != null) {
+                throw new DatabaseException("Index is already being built");
+            }
+            ReadWriteLock latch = getIndexLatch(tab);
+            boolean latched = false;
+            if (!online) {
+                latch.writeLock().lock();
+                latched = true;
+            }
+            BPlusTree tree = null;
+            boolean published = false;
+            try {
+                // If the index is unique, two entries with the same key can
+                // only both be in the table if the build is online, and one of
+                // them is then gone or moved by the time the log is replayed.
+                // We set all but the first aside and check them at the end.
+                List<Pair<DataBox, RecordId>> duplicates = new ArrayList<>();
+                tree = buildIndex(tab, indexName, columns, keyType, unique, counted, fillFactor, online,
+                                  duplicates);
+                if (!online && !duplicates.isEmpty()) {
+                    throw new DatabaseException("Column desired for unique index has duplicate values");
+                }
+
+                int numReplayed = online ? replayDeltaLog(delta, 0, tree) : 0;
+                if (!latched) {
+                    latch.writeLock().lock();
+                    latched = true;
+                }
+                replayDeltaLog(delta, numReplayed, tree);
+                for (Pair<DataBox, RecordId> entry : duplicates) {
+                    Record record;
+                    try {
+                        record = tab.getRecord(this, entry.getSecond());
+                    } catch (DatabaseException e) {
+                        continue;
+                    }
+                    if (getIndexKey(columns, record.getValues()).equals(entry.getFirst())) {
+                        insertIfAbsent(tree, entry.getFirst(), entry.getSecond());
+                    }
+                }
+
+                // The index becomes visible to queries when it is added to
+                // indexLookup; writers are blocked until it is also in
+                // tableIndices, which they use to maintain indices.
+                Database.this.indexLookup.put(indexName, tree);
+                List<String> indices = new ArrayList<>(getIndexNames(tab));
+                indices.add(indexName);
+                Database.this.tableIndices.put(tableName, indices);
+                published = true;
+            } finally {
+                builds.remove(indexName);
+                if (latched) {
+                    latch.writeLock().unlock();
+                }
+                if (!published && tree != null) {
+                    tree.close();
+                    new File(Database.this.fileDir, indexName + BPlusTree.FILENAME_EXTENSION).delete();
+                }
+            }
+        }
+
+        /**
+         * Creates a hash index (see HashIndex) on the column columnName of the
+         * existing table tableName. A hash index can only look up one key at a
+         * time, so queries only use it for EQUALS predicates, but a lookup
+         * reads a single bucket page rather than a path down a B+ tree. A
+         * column has either a B+ tree index or a hash index, not both.
+         *
+         * The records already in the table are put into the index one at a
+         * time, while writers to the table wait.
+         *
+         * @param tableName the name of the table
+         * @param columnName the column to index
+         * @param unique whether the column holds unique values
+         * @throws DatabaseException if the table or column does not exist, the
+         *         column already has an index, or unique is true and the table has
+         *         two records with the same value of the column
+         */
+        public void createHashIndex(String tableName, String columnName,
+                                    boolean unique) throws DatabaseException {
+            assert(this.active);
+            if (!Database.this.tableIndices.containsKey(tableName)) {
+                throw new DatabaseException("Table: " + tableName + " does not exist");
+            }
+            Table tab = getTable(tableName);
+            int column = getColumnIndex(tab, columnName);
+            String indexName = tableName + "," + tab.getSchema().getFieldNames().get(column);
+
+            ReadWriteLock latch = getIndexLatch(tab);
+            latch.writeLock().lock();
+            try {
+                if (Database.this.indexLookup.containsKey(indexName)
+                        || Database.this.hashIndexLookup.containsKey(indexName)
+                        || Database.this.lsmIndexLookup.containsKey(indexName)
+                        || Database.this.indexBuilds.getOrDefault(tableName,
+                                Collections.emptyMap()).containsKey(indexName)) {
+                    throw new DatabaseException("Index already exists");
+                }
+
+                Path p = Paths.get(Database.this.fileDir, indexName + HashIndex.FILENAME_EXTENSION);
+                HashIndex index = new HashIndex(p.toString(), tab.getSchema().getFieldTypes().get(column),
+                                                unique, getIndexContext(indexName), this);
+                try {
+                    Iterator<Pair<RecordId, Record>> entries = Spliterators.iterator(tab.entrySpliterator(this));
+                    while (entries.hasNext()) {
+                        Pair<RecordId, Record> entry = entries.next();
+                        index.put(this, entry.getSecond().getValues().get(column), entry.getFirst());
+                    }
+                } catch (HashIndexException e) {
+                    index.close();
+                    new File(p.toString()).delete();
+                    throw new DatabaseException(e.getMessage());
+                }
+                Database.this.hashIndexLookup.put(indexName, index);
+            } finally {
+                latch.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Creates an LSM index (see LSMIndex) on the column columnName of the
+         * existing table tableName. An LSM index buffers the changes to it in
+         * memory and writes them out in sorted runs, so it is much cheaper to
+         * keep up to date than a B+ tree on a table that records are added to
+         * all the time, but a lookup has to merge every run. Its keys may
+         * repeat, and queries only use it for EQUALS predicates. A column has
+         * at most one index of any kind.
+         *
+         * @param tableName the name of the table
+         * @param columnName the column to index
+         * @throws DatabaseException if the table or column does not exist, or the
+         *         column already has an index
+         */
+        public void createLSMIndex(String tableName, String columnName) throws DatabaseException {
+            assert(this.active);
+            if (!Database.this.tableIndices.containsKey(tableName)) {
+                throw new DatabaseException("Table: " + tableName + " does not exist");
+            }
+            Table tab = getTable(tableName);
+            int column = getColumnIndex(tab, columnName);
+            String indexName = tableName + "," + tab.getSchema().getFieldNames().get(column);
+
+            ReadWriteLock latch = getIndexLatch(tab);
+            latch.writeLock().lock();
+            try {
+                if (Database.this.indexLookup.containsKey(indexName)
+                        || Database.this.hashIndexLookup.containsKey(indexName)
+                        || Database.this.lsmIndexLookup.containsKey(indexName)
+                        || Database.this.indexBuilds.getOrDefault(tableName,
+                                Collections.emptyMap()).containsKey(indexName)) {
+                    throw new DatabaseException("Index already exists");
+                }
+
+                Path p = Paths.get(Database.this.fileDir, indexName + LSMIndex.FILENAME_EXTENSION);
+                LSMIndex index = new LSMIndex(p.toString(), tab.getSchema().getFieldTypes().get(column),
+                                              getIndexContext(indexName), this);
+                Iterator<Pair<RecordId, Record>> entries = Spliterators.iterator(tab.entrySpliterator(this));
+                while (entries.hasNext()) {
+                    Pair<RecordId, Record> entry = entries.next();
+                    index.put(this, entry.getSecond().getValues().get(column), entry.getFirst());
+                }
+                Database.this.lsmIndexLookup.put(indexName, index);
+            } finally {
+                latch.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Returns whether there is an LSM index on columnName of tableName (see
+         * createLSMIndex).
+         */
+        public boolean lsmIndexExists(String tableName, String columnName) {
+            try {
+                return resolveLSMIndexFromName(tableName, columnName).isPresent();
+            } catch (DatabaseException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Returns whether there is a hash index on columnName of tableName (see
+         * createHashIndex). indexExists is only true of B+ tree indices.
+         */
+        public boolean hashIndexExists(String tableName, String columnName) {
+            try {
+                return resolveHashIndexFromName(tableName, columnName).isPresent();
+            } catch (DatabaseException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Bulk loads the new index indexName on `columns` of tab (see
+         * createIndex). If the index is unique, an entry with the same key as
+         * the entry before it is left out of the index and added to duplicates
+         * instead. Unless the index is built online, we stop loading the index
+         * at the first such entry.
+         */
+        private BPlusTree buildIndex(Table tab, String indexName, List<Integer> columns, Type keyType,
+                                     boolean unique, boolean counted, float fillFactor, boolean online,
+                                     List<Pair<DataBox, RecordId>> duplicates) throws DatabaseException {
+            Schema runSchema = new Schema(Arrays.asList("key", "pageNum", "entryNum"),
+                                          Arrays.asList(keyType, Type.intType(), Type.intType()));
+            int numBuffers = getNumMemoryPages();
+
+            // Pass 0: sort chunks of B pages into runs.
+            List<Spliterator<Pair<RecordId, Record>>> chunks = new ArrayList<>();
+            splitChunks(tab.entrySpliterator(this), (long) numBuffers * tab.getNumRecordsPerPage(), chunks);
+            int parallelism = ForkJoinPool.getCommonPoolParallelism();
+            List<String> runs = new ArrayList<>();
+            try {
+                for (int i = 0; i < chunks.size(); i += parallelism) {
+                    List<List<Record>> sortedChunks = chunks.subList(i, Math.min(i + parallelism, chunks.size()))
+                                                      .parallelStream()
+                                                      .map(chunk -> sortChunk(chunk, columns))
+                                                      .collect(Collectors.toList());
+                    for (List<Record> chunk : sortedChunks) {
+                        String run = createTempTable(runSchema);
+                        runs.add(run);
+                        for (Record r : chunk) {
+                            addRecord(run, r.getValues());
+                        }
+                    }
+                }
+
+                // Merge passes, until the final merge needs at most B - 1 buffers.
+                int fanIn = Math.max(2, numBuffers - 1);
+                while (runs.size() > fanIn) {
+                    List<String> merged = new ArrayList<>();
+                    for (int i = 0; i < runs.size(); i += fanIn) {
+                        List<String> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+                        String run = createTempTable(runSchema);
+                        merged.add(run);
+                        Iterator<Record> records = mergeRuns(group);
+                        while (records.hasNext()) {
+                            addRecord(run, records.next().getValues());
+                        }
+                        group.forEach(this::deleteTempTable);
+                    }
+                    runs = merged;
+                }
+
+                Iterator<Pair<DataBox, RecordId>> entries = indexEntries(mergeRuns(runs));
+                Iterator<Pair<DataBox, RecordId>> uniqueEntries = new Iterator<Pair<DataBox, RecordId>>() {
+                    private DataBox lastKey = null;
+                    private Pair<DataBox, RecordId> next = null;
+
+                    @Override
+                    public boolean hasNext() {
+                        while (next == null && (online || duplicates.isEmpty()) && entries.hasNext()) {
+                            next = entries.next();
+                            if (unique && next.getFirst().equals(lastKey)) {
+                                duplicates.add(next);
+                                next = null;
+                            } else {
+                                lastKey = next.getFirst();
+                            }
+                        }
+                        return next != null;
+                    }
+
+                    @Override
+                    public Pair<DataBox, RecordId> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Pair<DataBox, RecordId> entry = next;
+                        next = null;
+                        return entry;
+                    }
+                };
+
+                Path p = Paths.get(Database.this.fileDir, indexName + BPlusTree.FILENAME_EXTENSION);
+                BPlusTree tree = new BPlusTree(p.toString(), keyType,
+                                               BPlusTree.maxOrder(Page.pageSize, keyType, counted), unique,
+                                               counted, getIndexContext(indexName), this);
+                try {
+                    tree.bulkLoad(this, uniqueEntries, fillFactor);
+                } catch (BPlusTreeException e) {
+                    tree.close();
+                    throw e;
+                }
+                return tree;
+            } catch (BPlusTreeException e) {
+                throw new DatabaseException(e.getMessage());
+            } finally {
+                runs.forEach(this::deleteTempTable);
+            }
+        }
+
+        /**
+         * Applies the changes logged in delta from the numReplayed-th onwards
+         * to tree, and returns the number of changes applied in total.
+         */
+        private int replayDeltaLog(IndexDeltaLog delta, int numReplayed,
+                                   BPlusTree tree) throws DatabaseException {
+            List<IndexDeltaLog.Change> changes = delta.changesFrom(numReplayed);
+            for (IndexDeltaLog.Change change : changes) {
+                if (change.insert) {
+                    insertIfAbsent(tree, change.key, change.rid);
+                } else {
+                    tree.remove(this, change.key, change.rid);
+                }
+            }
+            return numReplayed + changes.size();
+        }
+
+        /** Puts (key, rid) into tree, unless it is already there. */
+        private void insertIfAbsent(BPlusTree tree, DataBox key, RecordId rid) throws DatabaseException {
+            Iterator<RecordId> rids = tree.scanEqual(this, key);
+            while (rids.hasNext()) {
+                if (rids.next().equals(rid)) {
+                    return;
+                }
+            }
+            try {
+                tree.put(this, key, rid);
+            } catch (BPlusTreeException e) {
+                throw new DatabaseException(e.getMessage());
+            }
+        }
+
+        /**
+         * Splits s into spliterators over at most chunkSize elements each (or
+         * as close to it as s can split), and adds them to chunks.
+         */
+        private <T> void splitChunks(Spliterator<T> s, long chunkSize, List<Spliterator<T>> chunks) {
+            Spliterator<T> prefix;
+            while (s.estimateSize() > chunkSize && (prefix = s.trySplit()) != null) {
+                splitChunks(prefix, chunkSize, chunks);
+            }
+            chunks.add(s);
+        }
+
+        /**
+         * Returns the (key, page number, entry number) records of the records
+         * of chunk in the index on `columns`, in sorted order.
+         */
+        private List<Record> sortChunk(Spliterator<Pair<RecordId, Record>> chunk, List<Integer> columns) {
+            List<Record> entries = new ArrayList<>();
+            chunk.forEachRemaining(entry -> {
+                RecordId rid = entry.getFirst();
+                entries.add(new Record(Arrays.asList(getIndexKey(columns, entry.getSecond().getValues()),
+                                                     new IntDataBox(rid.getPageNum()),
+                                                     new IntDataBox(rid.getEntryNum()))));
+            });
+            entries.sort(INDEX_ENTRY_ORDER);
+            return entries;
+        }
+
+        /**
+         * Returns an iterator over the records of the sorted runs `runs`, which
+         * are temporary tables of (key, page number, entry number) records, in
+         * sorted order.
+         */
+        private Iterator<Record> mergeRuns(List<String> runs) throws DatabaseException {
+            List<Iterator<Record>> iterators = new ArrayList<>();
+            PriorityQueue<Pair<Record, Integer>> heads = new PriorityQueue<>(Math.max(1, runs.size()),
+                    (a, b) -> INDEX_ENTRY_ORDER.compare(a.getFirst(), b.getFirst()));
+            for (String run : runs) {
+                Iterator<Record> iterator = getRecordIterator(run);
+                if (iterator.hasNext()) {
+                    heads.add(new Pair<>(iterator.next(), iterators.size()));
+                }
+                iterators.add(iterator);
+            }
+
+            return new Iterator<Record>() {
+                @Override
+                public boolean hasNext() {
+                    return !heads.isEmpty();
+                }
+
+                @Override
+                public Record next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Pair<Record, Integer> head = heads.poll();
+                    Iterator<Record> iterator = iterators.get(head.getSecond());
+                    if (iterator.hasNext()) {
+                        heads.add(new Pair<>(iterator.next(), head.getSecond()));
+                    }
+                    return head.getFirst();
+                }
+            };
+        }
+
+        /**
+         * Returns the (key, RecordId) pairs of entries, which are (key, page
+         * number, entry number) records.
+         */
+        private Iterator<Pair<DataBox, RecordId>> indexEntries(Iterator<Record> entries) {
+            return new Iterator<Pair<DataBox, RecordId>>() {
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public Pair<DataBox, RecordId> next() {
+                    List<DataBox> values = entries.next().getValues();
+                    RecordId rid = new RecordId(values.get(1).getInt(), (short) values.get(2).getInt());
+                    return new Pair<>(values.get(0), rid);
+                }
+            };
+        }
+
+        /**
+         * Replaces the index indexName with a new index bulk loaded from
+         * entries, which are (key, page number, entry number) records in
+         * ascending order of key. The new index is as full as the index it
+         * replaces was when it was built (see BPlusTree.getFillFactor).
+         */
+        private void rebuildIndex(String indexName, Type keyType,
+                                  Iterator<Record> entries) throws DatabaseException {
+            boolean unique = Database.this.indexLookup.get(indexName).isUnique();
+            boolean counted = Database.this.indexLookup.get(indexName).isCounted();
+            float fillFactor = Database.this.indexLookup.get(indexName).getFillFactor();
+            Database.this.indexLookup.get(indexName).close();
+
+            Path p = Paths.get(Database.this.fileDir, indexName + BPlusTree.FILENAME_EXTENSION);
+            try {
+                BPlusTree tree = new BPlusTree(p.toString(), keyType, BPlusTree.maxOrder(Page.pageSize,
+                                               keyType, counted), unique, counted, getIndexContext(indexName), this);
+                tree.bulkLoad(this, indexEntries(entries), fillFactor);
+                Database.this.indexLookup.put(indexName, tree);
+            } catch (BPlusTreeException e) {
+                throw new DatabaseException(e.getMessage());
+            }
         }
 
         public TableStats getStats(String tableName) throws DatabaseException {
@@ -570,7 +1775,7 @@ public class Database {
 
         public int getEntrySize(String tableName) throws DatabaseException {
             assert(this.active);
-            return getTable(tableName).getSchema().getSizeInBytes();
+            return getTable(tableName).getPhysicalSchema().getSizeInBytes();
         }
 
         public long getNumRecords(String tableName) throws DatabaseException {
@@ -580,6 +1785,14 @@ public class Database {
 
         public int getNumIndexPages(String tableName, String columnName) throws DatabaseException {
             assert(this.active);
+            Optional<HashIndex> hashIndex = resolveHashIndexFromName(tableName, columnName);
+            if (hashIndex.isPresent()) {
+                return hashIndex.get().getNumPages();
+            }
+            Optional<LSMIndex> lsmIndex = resolveLSMIndexFromName(tableName, columnName);
+            if (lsmIndex.isPresent()) {
+                return lsmIndex.get().getNumPages();
+            }
             return this.resolveIndexFromName(tableName, columnName).getSecond().getNumPages();
         }
 
@@ -602,24 +1815,231 @@ public class Database {
 
         private Pair<String, BPlusTree> resolveIndexFromName(String tableName,
                 String columnName) throws DatabaseException {
+            String indexName = getIndexName(tableName, columnName);
+            if (Database.this.indexLookup.containsKey(indexName)) {
+                return new Pair<>(indexName, Database.this.indexLookup.get(indexName));
+            }
+            throw new DatabaseException("Index does not exist");
+        }
+
+        /** Returns the hash index on columnName of tableName, if there is one. */
+        private Optional<HashIndex> resolveHashIndexFromName(String tableName,
+                String columnName) throws DatabaseException {
+            return Optional.ofNullable(Database.this.hashIndexLookup.get(getIndexName(tableName, columnName)));
+        }
+
+        /** Returns the LSM index on columnName of tableName, if there is one. */
+        private Optional<LSMIndex> resolveLSMIndexFromName(String tableName,
+                String columnName) throws DatabaseException {
+            return Optional.ofNullable(Database.this.lsmIndexLookup.get(getIndexName(tableName, columnName)));
+        }
+
+        /**
+         * Returns the lower and upper bounds of the keys that satisfy
+         * `key operator value`, which are inclusive if isInclusive(operator).
+         * NOT_EQUALS is not a range, and gets no bounds.
+         */
+        private Pair<Optional<DataBox>, Optional<DataBox>> getRange(QueryPlan.PredicateOperator operator,
+                DataBox value) {
+            switch (operator) {
+            case EQUALS:
+                return new Pair<>(Optional.of(value), Optional.of(value));
+            case GREATER_THAN:
+            case GREATER_THAN_EQUALS:
+                return new Pair<>(Optional.of(value), Optional.empty());
+            case LESS_THAN:
+            case LESS_THAN_EQUALS:
+                return new Pair<>(Optional.empty(), Optional.of(value));
+            default:
+                return new Pair<>(Optional.empty(), Optional.empty());
+            }
+        }
+
+        private boolean isInclusive(QueryPlan.PredicateOperator operator) {
+            return operator == QueryPlan.PredicateOperator.EQUALS
+                   || operator == QueryPlan.PredicateOperator.GREATER_THAN_EQUALS
+                   || operator == QueryPlan.PredicateOperator.LESS_THAN_EQUALS;
+        }
+
+        /**
+         * Returns the name of the index on columnName of tableName, which may be
+         * aliases, and whose column(s) may be qualified with the name of the
+         * table.
+         */
+        private String getIndexName(String tableName, String columnName) throws DatabaseException {
             while (aliasMaps.containsKey(tableName)) {
                 tableName = aliasMaps.get(tableName);
             }
-            if (columnName.contains(".")) {
-                String columnPrefix = columnName.split("\\.")[0];
-                while (aliasMaps.containsKey(columnPrefix)) {
-                    columnPrefix = aliasMaps.get(columnPrefix);
+            // columnName is one column, or a comma-separated list of the
+            // columns of a multi-column index.
+            String indexName = tableName;
+            for (String column : columnName.split(",")) {
+                if (column.contains(".")) {
+                    String columnPrefix = column.split("\\.")[0];
+                    while (aliasMaps.containsKey(columnPrefix)) {
+                        columnPrefix = aliasMaps.get(columnPrefix);
+                    }
+                    if (!tableName.equals(columnPrefix)) {
+                        throw new DatabaseException("Column: " + column + " is not a column of " + tableName);
+                    }
+                    column = column.split("\\.")[1];
                 }
-                if (!tableName.equals(columnPrefix)) {
-                    throw new DatabaseException("Column: " + columnName + " is not a column of " + tableName);
+                indexName += "," + column;
+            }
+            return indexName;
+        }
+
+        /**
+         * Returns the latch that writers to tab hold shared and createIndex
+         * holds exclusively (see createIndex).
+         */
+        private ReadWriteLock getIndexLatch(Table tab) {
+            return Database.this.indexLatches.computeIfAbsent(tab.getName(), k -> new ReentrantReadWriteLock());
+        }
+
+        /**
+         * Adds the record of tab with values `values` and RecordId rid to every
+         * index on tab, and logs it in the delta log of every index being
+         * built on tab. The caller must hold the latch of tab.
+         */
+        private void addToIndices(Table tab, List<DataBox> values, RecordId rid) throws DatabaseException {
+            for (String indexName : getIndexNames(tab)) {
+                try {
+                    Database.this.indexLookup.get(indexName).put(this, getIndexKey(tab, indexName, values), rid);
+                } catch (BPlusTreeException e) {
+                    throw new DatabaseException(e.getMessage());
                 }
-                columnName = columnName.split("\\.")[1];
             }
-            String indexName = tableName + "," + columnName;
-            if (Database.this.indexLookup.containsKey(indexName)) {
-                return new Pair<>(indexName, Database.this.indexLookup.get(indexName));
+            for (String indexName : getHashIndexNames(tab.getName())) {
+                try {
+                    Database.this.hashIndexLookup.get(indexName).put(this, getIndexKey(tab, indexName, values), rid);
+                } catch (HashIndexException e) {
+                    throw new DatabaseException(e.getMessage());
+                }
             }
-            throw new DatabaseException("Index does not exist");
+            for (String indexName : getLSMIndexNames(tab.getName())) {
+                Database.this.lsmIndexLookup.get(indexName).put(this, getIndexKey(tab, indexName, values), rid);
+            }
+            for (IndexDeltaLog delta : getIndexBuilds(tab)) {
+                delta.log(true, getIndexKey(delta.columns, values), rid);
+            }
+        }
+
+        /**
+         * Removes the record of tab with values `values` and RecordId rid from
+         * every index on tab, and logs its removal in the delta log of every
+         * index being built on tab. The caller must hold the latch of tab.
+         */
+        private void removeFromIndices(Table tab, List<DataBox> values,
+                                       RecordId rid) throws DatabaseException {
+            for (String indexName : getIndexNames(tab)) {
+                Database.this.indexLookup.get(indexName).remove(this, getIndexKey(tab, indexName, values), rid);
+            }
+            for (String indexName : getHashIndexNames(tab.getName())) {
+                Database.this.hashIndexLookup.get(indexName).remove(this, getIndexKey(tab, indexName, values), rid);
+            }
+            for (String indexName : getLSMIndexNames(tab.getName())) {
+                Database.this.lsmIndexLookup.get(indexName).remove(this, getIndexKey(tab, indexName, values), rid);
+            }
+            for (IndexDeltaLog delta : getIndexBuilds(tab)) {
+                delta.log(false, getIndexKey(delta.columns, values), rid);
+            }
+        }
+
+        /** Returns the delta logs of the indices being built on tab. */
+        private Collection<IndexDeltaLog> getIndexBuilds(Table tab) {
+            return Database.this.indexBuilds.getOrDefault(tab.getName(),
+                    Collections.emptyMap()).values();
+        }
+
+        /** Returns the names of the hash indices on tableName. */
+        private List<String> getHashIndexNames(String tableName) {
+            List<String> indexNames = new ArrayList<>();
+            for (String indexName : Database.this.hashIndexLookup.keySet()) {
+                if (indexName.startsWith(tableName + ",")) {
+                    indexNames.add(indexName);
+                }
+            }
+            return indexNames;
+        }
+
+        /** Returns the names of the LSM indices on tableName. */
+        private List<String> getLSMIndexNames(String tableName) {
+            List<String> indexNames = new ArrayList<>();
+            for (String indexName : Database.this.lsmIndexLookup.keySet()) {
+                if (indexName.startsWith(tableName + ",")) {
+                    indexNames.add(indexName);
+                }
+            }
+            return indexNames;
+        }
+
+        /** Returns the names of the indices on tab. */
+        private List<String> getIndexNames(Table tab) {
+            return Database.this.tableIndices.getOrDefault(tab.getName(), Collections.emptyList());
+        }
+
+        /**
+         * Returns the indices in the schema of tab of the columns of the index
+         * indexName, which is named after its table and its columns.
+         */
+        private List<Integer> getKeyColumns(Table tab, String indexName) throws DatabaseException {
+            List<Integer> columns = new ArrayList<>();
+            String[] names = indexName.split(",");
+            for (int i = 1; i < names.length; ++i) {
+                columns.add(getColumnIndex(tab, names[i]));
+            }
+            return columns;
+        }
+
+        /**
+         * Returns the key of the record with values `values` in the index
+         * indexName: the value of its column, or a TupleDataBox of the values
+         * of its columns if it is a multi-column index.
+         */
+        private DataBox getIndexKey(Table tab, String indexName,
+                                    List<DataBox> values) throws DatabaseException {
+            return getIndexKey(getKeyColumns(tab, indexName), values);
+        }
+
+        /**
+         * Returns the key of the record with values `values` in an index on
+         * `columns`.
+         */
+        private DataBox getIndexKey(List<Integer> columns, List<DataBox> values) {
+            if (columns.size() == 1) {
+                return values.get(columns.get(0));
+            }
+            List<DataBox> key = new ArrayList<>();
+            for (int i : columns) {
+                key.add(values.get(i));
+            }
+            return new TupleDataBox(key);
+        }
+
+        private Type getIndexKeyType(Table tab, String indexName) throws DatabaseException {
+            List<Integer> columns = getKeyColumns(tab, indexName);
+            List<Type> types = new ArrayList<>();
+            for (int i : columns) {
+                types.add(tab.getSchema().getFieldTypes().get(i));
+            }
+            return columns.size() == 1 ? types.get(0) : Type.tupleType(types);
+        }
+
+        /**
+         * Returns the index of columnName in the schema of tab. columnName may be
+         * qualified with the name (or an alias) of the table.
+         */
+        private int getColumnIndex(Table tab, String columnName) throws DatabaseException {
+            List<String> fieldNames = tab.getSchema().getFieldNames();
+            int column = fieldNames.indexOf(columnName);
+            if (column == -1 && columnName.contains(".")) {
+                column = fieldNames.indexOf(columnName.split("\\.")[1]);
+            }
+            if (column == -1) {
+                throw new DatabaseException("Column: " + columnName + " is not a column of " + tab.getName());
+            }
+            return column;
         }
 
         private Table getTable(String tableName) throws DatabaseException {
@@ -648,8 +2068,9 @@ public class Database {
             this.tempTables.get(tempTableName).close();
             Database.this.tableLookup.remove(tempTableName);
 
-            File f = new File(Database.this.fileDir + "temp/" + tempTableName + Table.FILENAME_EXTENSION);
+            File f = Paths.get(Database.this.fileDir, "temp", tempTableName + Table.FILENAME_EXTENSION).toFile();
             f.delete();
+            new File(f.getPath() + Table.COMPRESSED_FILENAME_EXTENSION).delete();
         }
 
         private void deleteAllTempTables() {
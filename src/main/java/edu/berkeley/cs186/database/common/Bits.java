@@ -26,9 +26,12 @@ public class Bits {
      *   - getBit(new byte[]{0b00000000, 0b00000001}, 15) == ONE
      */
     public static Bit getBit(byte[] bytes, int i) {
-        String err = String.format("bytes.length = %d; i = %d.", bytes.length, i);
-        assert (bytes.length > 0) : err;
-        assert (0 <= i && i < bytes.length * 8) : err;
+        // The messages are only formatted if an assertion fails; this is called
+        // for every slot of a page's bitmap, so formatting them eagerly is slow.
+        assert (bytes.length > 0) :
+            String.format("bytes.length = %d; i = %d.", bytes.length, i);
+        assert (0 <= i && i < bytes.length * 8) :
+            String.format("bytes.length = %d; i = %d.", bytes.length, i);
         return getBit(bytes[i / 8], i % 8);
     }
 
@@ -3,6 +3,8 @@ package edu.berkeley.cs186.database.databox;
 import edu.berkeley.cs186.database.common.Buffer;
 
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A DataBox is an element of one of the primitive types specified in
@@ -10,8 +12,9 @@ import java.nio.charset.Charset;
  *
  *   - booleans with new BoolDataBox(b),
  *   - integers with new IntDataBox(i),
- *   - floats with new FloatDataBox(f), and
- *   - strings with new StringDataBox(s, n).
+ *   - floats with new FloatDataBox(f),
+ *   - strings with new StringDataBox(s, n), and
+ *   - tuples of the above with new TupleDataBox(values).
  *
  * You can unwrap a databox by first pattern matching on its type and then
  * using one of getBool, getInt, getFloat, and getString:
@@ -51,6 +54,8 @@ public abstract class DataBox implements Comparable<DataBox> {
     //     values (e.g. using ByteBuffer::putInt or ByteBuffer::putFloat).
     //   - The first byte of a serialized m-byte StringDataBox is the 4-byte
     //     number m. Then come the m bytes of the string.
+    //   - A TupleDataBox is serialized to the serializations of its values,
+    //     one after another.
     //
     // Note that when DataBoxes are serialized, they do not serialize their type.
     // That is, serialized DataBoxes are not self-descriptive; you need the type
@@ -76,6 +81,13 @@ public abstract class DataBox implements Comparable<DataBox> {
             String s = new String(bytes, Charset.forName("UTF-8"));
             return new StringDataBox(s, type.getSizeInBytes());
         }
+        case TUPLE: {
+            List<DataBox> values = new ArrayList<>();
+            for (Type t : type.getElementTypes()) {
+                values.add(DataBox.fromBytes(buf, t));
+            }
+            return new TupleDataBox(values);
+        }
         default: {
             String err = String.format("Unhandled TypeId %s.",
                                        type.getTypeId().toString());
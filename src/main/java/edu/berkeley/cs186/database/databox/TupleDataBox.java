@@ -0,0 +1,109 @@
+package edu.berkeley.cs186.database.databox;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A TupleDataBox is a tuple of primitive DataBoxes, the key of a multi-column
+ * index. Tuples are ordered lexicographically: by their first values, then by
+ * their second values, and so on. A tuple that is a proper prefix of another
+ * is smaller than it, so a prefix is smaller than all of its extensions and
+ * greater than every smaller tuple:
+ *
+ *   TupleDataBox a = new TupleDataBox(Arrays.asList(new IntDataBox(1), new IntDataBox(2)));
+ *   TupleDataBox b = new TupleDataBox(Arrays.asList(new IntDataBox(1), new IntDataBox(3)));
+ *   TupleDataBox p = new TupleDataBox(Arrays.asList(new IntDataBox(1)));
+ *   a.compareTo(b);  // < 0
+ *   p.compareTo(a);  // < 0
+ *   p.isPrefixOf(a); // true
+ *
+ * This lets us scan a B+ tree of tuples for all keys with a given prefix (see
+ * BPlusTree.scanPrefix).
+ */
+public class TupleDataBox extends DataBox {
+    private List<DataBox> values;
+
+    public TupleDataBox(List<DataBox> values) {
+        if (values.isEmpty()) {
+            throw new DataBoxException("Empty tuples are not supported.");
+        }
+        this.values = Collections.unmodifiableList(new ArrayList<>(values));
+    }
+
+    @Override
+    public Type type() {
+        List<Type> types = new ArrayList<>();
+        for (DataBox d : values) {
+            types.add(d.type());
+        }
+        return Type.tupleType(types);
+    }
+
+    public List<DataBox> getValues() {
+        return values;
+    }
+
+    /**
+     * Returns whether the values of this tuple are the first values of
+     * `other`.
+     */
+    public boolean isPrefixOf(TupleDataBox other) {
+        return values.size() <= other.values.size() &&
+               values.equals(other.values.subList(0, values.size()));
+    }
+
+    @Override
+    public byte[] toBytes() {
+        ByteBuffer buf = ByteBuffer.allocate(type().getSizeInBytes());
+        for (DataBox d : values) {
+            buf.put(d.toBytes());
+        }
+        return buf.array();
+    }
+
+    @Override
+    public String toString() {
+        List<String> strings = new ArrayList<>();
+        for (DataBox d : values) {
+            strings.add(d.toString());
+        }
+        return "(" + String.join(", ", strings) + ")";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof TupleDataBox)) {
+            return false;
+        }
+        TupleDataBox t = (TupleDataBox) o;
+        return values.equals(t.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return values.hashCode();
+    }
+
+    @Override
+    public int compareTo(DataBox d) {
+        if (!(d instanceof TupleDataBox)) {
+            String err = String.format("Invalid comparison between %s and %s.",
+                                       toString(), d.toString());
+            throw new DataBoxException(err);
+        }
+        TupleDataBox t = (TupleDataBox) d;
+        int n = Math.min(values.size(), t.values.size());
+        for (int i = 0; i < n; ++i) {
+            int cmp = values.get(i).compareTo(t.values.get(i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(values.size(), t.values.size());
+    }
+}
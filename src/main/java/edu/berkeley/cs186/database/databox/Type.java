@@ -3,6 +3,9 @@ package edu.berkeley.cs186.database.databox;
 import edu.berkeley.cs186.database.common.Buffer;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -15,6 +18,10 @@ import java.util.Objects;
  *
  * Note that n-byte strings and m-byte strings are considered different types
  * when n != m.
+ *
+ * There is also one composite type, tuples of primitive types
+ * (Type.tupleType(types)), which are the keys of multi-column indices. Two
+ * tuple types are the same type if their element types are.
  */
 public class Type {
     // The type of this type.
@@ -23,9 +30,17 @@ public class Type {
     // The size (in bytes) of an element of this type.
     private int sizeInBytes;
 
+    // The types of the elements of a tuple type, and empty otherwise.
+    private List<Type> elementTypes;
+
     private Type(TypeId typeId, int sizeInBytes) {
+        this(typeId, sizeInBytes, Collections.emptyList());
+    }
+
+    private Type(TypeId typeId, int sizeInBytes, List<Type> elementTypes) {
         this.typeId = typeId;
         this.sizeInBytes = sizeInBytes;
+        this.elementTypes = elementTypes;
     }
 
     public static Type boolType() {
@@ -55,6 +70,20 @@ public class Type {
         return new Type(TypeId.STRING, n);
     }
 
+    public static Type tupleType(List<Type> types) {
+        if (types.isEmpty()) {
+            throw new DataBoxException("Empty tuples are not supported.");
+        }
+        int sizeInBytes = 0;
+        for (Type t : types) {
+            if (t.getTypeId() == TypeId.TUPLE) {
+                throw new DataBoxException("Nested tuples are not supported.");
+            }
+            sizeInBytes += t.getSizeInBytes();
+        }
+        return new Type(TypeId.TUPLE, sizeInBytes, Collections.unmodifiableList(new ArrayList<>(types)));
+    }
+
     public TypeId getTypeId() {
         return typeId;
     }
@@ -63,6 +92,11 @@ public class Type {
         return sizeInBytes;
     }
 
+    /** Returns the element types of a tuple type. */
+    public List<Type> getElementTypes() {
+        return elementTypes;
+    }
+
     public byte[] toBytes() {
         // A Type is uniquely identified by its typeId `t` and the size (in bytes)
         // of an element of the type `s`. A Type is serialized as two integers. The
@@ -71,9 +105,28 @@ public class Type {
         // For example, the type "42-byte string" would serialized as the bytes [3,
         // 42] because 3 is the ordinal of the STRING TypeId and 42 is the number
         // of bytes in a 42-byte string (duh).
-        ByteBuffer buf = ByteBuffer.allocate(Integer.BYTES * 2);
+        //
+        // A tuple type is followed by the number of its elements and the
+        // serializations of their types.
+        List<byte[]> elements = new ArrayList<>();
+        int size = Integer.BYTES * 2;
+        if (typeId == TypeId.TUPLE) {
+            size += Integer.BYTES;
+            for (Type t : elementTypes) {
+                byte[] bytes = t.toBytes();
+                elements.add(bytes);
+                size += bytes.length;
+            }
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
         buf.putInt(typeId.ordinal());
         buf.putInt(sizeInBytes);
+        if (typeId == TypeId.TUPLE) {
+            buf.putInt(elements.size());
+            for (byte[] bytes : elements) {
+                buf.put(bytes);
+            }
+        }
         return buf.array();
     }
 
@@ -91,6 +144,15 @@ public class Type {
             return Type.floatType();
         } else if (ordinal == TypeId.STRING.ordinal()) {
             return Type.stringType(sizeInBytes);
+        } else if (ordinal == TypeId.TUPLE.ordinal()) {
+            int n = buf.getInt();
+            List<Type> types = new ArrayList<>();
+            for (int i = 0; i < n; ++i) {
+                types.add(Type.fromBytes(buf));
+            }
+            Type t = Type.tupleType(types);
+            assert(sizeInBytes == t.getSizeInBytes());
+            return t;
         } else {
             String err = String.format("Unknown TypeId ordinal %d.", ordinal);
             throw new IllegalArgumentException(err);
@@ -99,6 +161,9 @@ public class Type {
 
     @Override
     public String toString() {
+        if (typeId == TypeId.TUPLE) {
+            return String.format("(%s, %d, %s)", typeId.toString(), sizeInBytes, elementTypes);
+        }
         return String.format("(%s, %d)", typeId.toString(), sizeInBytes);
     }
 
@@ -111,11 +176,12 @@ public class Type {
             return false;
         }
         Type t = (Type) o;
-        return typeId.equals(t.typeId) && sizeInBytes == t.sizeInBytes;
+        return typeId.equals(t.typeId) && sizeInBytes == t.sizeInBytes &&
+               elementTypes.equals(t.elementTypes);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(typeId, sizeInBytes);
+        return Objects.hash(typeId, sizeInBytes, elementTypes);
     }
 }
@@ -1,5 +1,6 @@
 package edu.berkeley.cs186.database.index;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Optional;
 
@@ -41,9 +42,20 @@ abstract class BPlusNode {
      *
      * Note that inner.get(4) would return leaf0 even though leaf0 doesn't
      * actually contain 4.
+     *
+     * In a tree with non-unique keys, the entries with key x may span several
+     * leaves, and get returns the leftmost of them.
      */
     public abstract LeafNode get(BaseTransaction transaction, DataBox key);
 
+    /**
+     * n.lookup(k) returns the record id associated with k in the subtree
+     * rooted by n. It is equivalent to n.get(k).getKey(k), except that the
+     * leaf is never deserialized: its page is binary searched in place (see
+     * LeafNode.lookup), so a point lookup only decodes O(log n) of its keys.
+     */
+    public abstract Optional<RecordId> lookup(BaseTransaction transaction, DataBox key);
+
     /**
      * n.getLeftmostLeaf() returns the leftmost leaf in the subtree rooted by n.
      * In the example above, inner.getLeftmostLeaf() would return leaf0, and
@@ -51,6 +63,21 @@ abstract class BPlusNode {
      */
     public abstract LeafNode getLeftmostLeaf(BaseTransaction transaction);
 
+    /**
+     * n.getLastBefore(k, inclusive) returns the leaf holding the last entry in
+     * the subtree rooted by n whose key is less than k (or less than or equal
+     * to k if inclusive), paired with the number of entries of that leaf up to
+     * and including it, or Optional.empty() if there is no such entry. If k is
+     * Optional.empty(), the last entry of the subtree is returned. In the
+     * example above, inner.getLastBefore(11, false) would return (leaf0, 3)
+     * and inner.getLastBefore(11, true) would return (leaf1, 1).
+     *
+     * Leaves only point to their right siblings, so reverse scans descend the
+     * tree this way to find the leaf before the one they are reading.
+     */
+    public abstract Optional<Pair<LeafNode, Integer>> getLastBefore(BaseTransaction transaction,
+            Optional<DataBox> key, boolean inclusive);
+
     /**
      * n.put(k, r) inserts the pair (k, r) into the subtree rooted by n. There
      * are two cases to consider:
@@ -129,9 +156,11 @@ abstract class BPlusNode {
      * described. For example, do not move entries between nodes to avoid
      * splitting.
      *
-     * Our B+ trees do not support duplicate entries with the same key. If a
+     * Unless the tree has non-unique keys (see BPlusTreeMetadata.isUnique),
+     * our B+ trees do not support duplicate entries with the same key. If a
      * duplicate key is inserted, the tree is left unchanged and an exception is
-     * raised.
+     * raised. In a tree with non-unique keys, a new entry is inserted after
+     * every entry with the same key on its leaf.
      */
     public abstract Optional<Pair<DataBox, Integer>> put(BaseTransaction transaction, DataBox key,
             RecordId rid)
@@ -209,13 +238,102 @@ abstract class BPlusNode {
      *   leaf0                  leaf1                  leaf2
      *
      * Again, do NOT rebalance the tree.
+     *
+     * In a tree with non-unique keys, n.remove(k) removes the entries with key
+     * k from the leaf n.get(k) only; see BPlusTree.remove.
      */
     public abstract void remove(BaseTransaction transaction, DataBox key);
 
+    // Counting ////////////////////////////////////////////////////////////////
+    // The methods below are only supported by the nodes of counted trees (see
+    // BPlusTreeMetadata.isCounted), whose inner nodes know how many entries
+    // are under each of their children.
+
+    /** n.numEntries() returns the number of entries in the subtree rooted by n. */
+    abstract int numEntries();
+
+    /**
+     * n.rank(k, inclusive) returns the number of entries in the subtree rooted
+     * by n whose key is less than k (or less than or equal to k if inclusive).
+     * In the example above, inner.rank(11, false) would return 3 and
+     * inner.rank(11, true) would return 4. Only one node per level is read.
+     */
+    abstract int rank(BaseTransaction transaction, DataBox key, boolean inclusive);
+
+    /**
+     * n.removeEntries(k, r) removes the entry (k, r) from the subtree rooted by
+     * n, or every entry with key k if r is Optional.empty(), and returns the
+     * number of entries removed. Unlike n.remove(k), this finds the entries
+     * with key k wherever they are in the subtree, and keeps the entry counts
+     * of the inner nodes on the way up to date.
+     */
+    abstract int removeEntries(BaseTransaction transaction, DataBox key, Optional<RecordId> rid);
+
+    /**
+     * n.hasRoom() returns whether n can take one more entry (or, if n is an
+     * inner node, one more key from the split of a child) without splitting.
+     * A put into the subtree rooted by such a node never changes the nodes
+     * above it, unless the tree is counted (see BPlusTree.put).
+     */
+    abstract boolean hasRoom();
+
     // Helpers ///////////////////////////////////////////////////////////////////
     /** Get the page on which this node is persisted. */
     abstract Page getPage();
 
+    /** See lookup. Looks up key in the subtree stored on page pageNum. */
+    static Optional<RecordId> lookup(BaseTransaction transaction, BPlusTreeMetadata metadata,
+                                     int pageNum, DataBox key) {
+        InnerNode cached = metadata.getCachedNode(pageNum);
+        if (cached != null) {
+            return cached.lookup(transaction, key);
+        }
+        Page page = metadata.getAllocator().fetchPage(transaction, pageNum);
+        if (page.getBuffer(transaction).get() == (byte) 1) {
+            return LeafNode.lookup(transaction, metadata, page, key);
+        }
+        return InnerNode.decode(transaction, metadata, pageNum).lookup(transaction, key);
+    }
+
+    /**
+     * Returns whether page pageNum holds a leaf. A page never changes from
+     * holding a leaf to holding an inner node or back, so this may be called
+     * without latching the node.
+     */
+    static boolean isLeaf(BaseTransaction transaction, BPlusTreeMetadata metadata, int pageNum) {
+        if (metadata.isCached(pageNum)) {
+            return false;
+        }
+        Page page = metadata.getAllocator().fetchPage(transaction, pageNum);
+        return page.getBuffer(transaction).get() == (byte) 1;
+    }
+
+    /**
+     * Writes the serialization `bytes` of a node to `page`. Only the range of
+     * bytes that differs from what is already on the page is written. Entries
+     * are fixed-width, so inserting or removing an entry only rewrites the
+     * entry count and the entries after it, and updating a sibling pointer
+     * only rewrites the pointer.
+     */
+    static void writeChangedBytes(BaseTransaction transaction, Page page, byte[] bytes) {
+        byte[] old = new byte[bytes.length];
+        page.getBuffer(transaction).get(old);
+        int start = 0;
+        while (start < bytes.length && bytes[start] == old[start]) {
+            ++start;
+        }
+        if (start == bytes.length) {
+            return;
+        }
+        int end = bytes.length;
+        while (bytes[end - 1] == old[end - 1]) {
+            --end;
+        }
+        Buffer buf = page.getBuffer(transaction);
+        buf.position(start);
+        buf.put(Arrays.copyOfRange(bytes, start, end));
+    }
+
     // Pretty Printing ///////////////////////////////////////////////////////////
     /**
      * S-expressions (or sexps) are a compact way of encoding nested tree-like
@@ -251,17 +369,23 @@ abstract class BPlusNode {
 
     /**
      * BPlusNode.fromBytes(m, p) loads a BPlusNode from page p of
-     * meta.getAllocator().
+     * meta.getAllocator(). Inner nodes are served from the node cache when
+     * possible (see BPlusTreeMetadata).
      */
     public static BPlusNode fromBytes(BaseTransaction transaction, BPlusTreeMetadata metadata,
                                       int pageNum) {
+        InnerNode cached = metadata.getCachedNode(pageNum);
+        if (cached != null) {
+            return cached;
+        }
+
         Page p = metadata.getAllocator().fetchPage(transaction, pageNum);
         Buffer buf = p.getBuffer(transaction);
         byte b = buf.get();
         if (b == 1) {
             return LeafNode.fromBytes(transaction, metadata, pageNum);
         } else if (b == 0) {
-            return InnerNode.fromBytes(transaction, metadata, pageNum);
+            return InnerNode.decode(transaction, metadata, pageNum);
         } else {
             String msg = String.format("Unexpected byte %b.", b);
             throw new IllegalArgumentException(msg);
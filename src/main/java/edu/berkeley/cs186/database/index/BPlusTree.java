@@ -5,6 +5,15 @@ import java.io.IOException;
 import java.io.FileWriter;
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
 
 import edu.berkeley.cs186.database.BaseTransaction;
 import edu.berkeley.cs186.database.common.Buffer;
@@ -13,7 +22,9 @@ import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.concurrency.LockType;
 import edu.berkeley.cs186.database.concurrency.LockUtil;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.TupleDataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.io.PageAllocator;
 import edu.berkeley.cs186.database.table.RecordId;
@@ -39,6 +50,10 @@ import edu.berkeley.cs186.database.table.RecordId;
  *   tree.scanEqual(new IntDataBox(2));        // [(2, 2)]
  *   tree.scanAll();                           // [(0, 0), (1, 1), (2, 2)]
  *   tree.scanGreaterEqual(new IntDataBox(1)); // [(1, 1), (2, 2)]
+ *   tree.scanRange(Optional.of(new IntDataBox(0)), false,
+ *                  Optional.of(new IntDataBox(2)), false); // [(1, 1)]
+ *   tree.scanRangeReverse(Optional.empty(), false,
+ *                         Optional.empty(), false);        // [(2, 2), (1, 1), (0, 0)]
  *
  *   // Remove some elements from the tree.
  *   tree.get(new IntDataBox(0)); // Optional.of(RecordId(0, 0))
@@ -52,17 +67,86 @@ import edu.berkeley.cs186.database.table.RecordId;
  *   fromDisk.get(new IntDataBox(0)); // Optional.empty()
  *   fromDisk.get(new IntDataBox(1)); // Optional.of(RecordId(1, 1))
  *   fromDisk.get(new IntDataBox(2)); // Optional.of(RecordId(2, 2))
+ *
+ * By default, keys are unique. A tree constructed with unique = false instead
+ * stores one entry per (key, rid) pair, like an index on a column with
+ * repeated values, and scanEqual(k) returns the rids of every entry with key
+ * k in the order they were inserted:
+ *
+ *   BPlusTree tree = new BPlusTree("tree.txt", Type.intType(), 2, false, transaction);
+ *   tree.put(new IntDataBox(7), new RecordId(0, (short) 0));
+ *   tree.put(new IntDataBox(7), new RecordId(0, (short) 1));
+ *   tree.scanEqual(new IntDataBox(7));  // [(0, 0), (0, 1)]
+ *   tree.remove(new IntDataBox(7), new RecordId(0, (short) 0));
+ *   tree.scanEqual(new IntDataBox(7));  // [(0, 1)]
+ *
+ * A tree constructed with counted = true also stores, in each inner node, the
+ * number of entries under each of its children, and keeps these counts up to
+ * date as entries are put and removed. count then counts the entries in a
+ * range of keys by descending the tree to each end of the range, rather than
+ * by scanning the range:
+ *
+ *   BPlusTree tree = new BPlusTree("tree.txt", Type.intType(), 2, false, true, transaction);
+ *   tree.count(Optional.of(new IntDataBox(0)), true,
+ *              Optional.of(new IntDataBox(7)), false); // the number of keys in [0, 7)
+ *
+ * A BPlusTree is safe to use from multiple threads. Every node has a latch
+ * of its own (see latch), and operations only latch the nodes they read
+ * or change, so operations on different parts of the tree run in parallel.
+ * The tree is descended with latch coupling: the latch of a child is
+ * acquired before the latch of its parent is released, so a descent never
+ * reads a node in the middle of a change, nor follows a pointer that a
+ * concurrent split has made stale.
+ *
+ *   - Lookups and scans latch the nodes on their way down in shared mode.
+ *   - put descends like a lookup, but latches the leaf exclusively, which is
+ *     all it needs if the leaf has room for the entry. Otherwise, it descends
+ *     again latching every node exclusively, and releases the latches above
+ *     each node that has room (see BPlusNode.hasRoom), as a split below such
+ *     a node stops there. In a counted tree, every put changes the counts
+ *     all the way up, so the whole path stays latched.
+ *   - remove latches the leaves it changes exclusively; leaves are never
+ *     merged, so no other node changes. In a counted tree, it also latches
+ *     every inner node whose counts it may change.
+ *
+ * The page number of the root has a latch of its own (rootLatch). It is held
+ * while the root is latched, and a put that may split the root holds it
+ * exclusively until it finds that the root won't split. Latches are always
+ * acquired in the same order, parents before their children and leaves
+ * before the leaves to their right, so operations never deadlock.
+ *
+ * Scans only hold the latch of a leaf while they copy it, never between
+ * leaves: a scan copies the entries of one leaf and then follows that copy's
+ * right sibling pointer, like the right-links of a B-link tree. Because leaves are never merged or freed and
+ * a split only ever moves entries from a leaf to its new right sibling, the
+ * copy's sibling pointer always leads to the entries that come after the
+ * copy, so a scan never sees an entry twice, no matter how many inserts run
+ * concurrently with it.
  */
 public class BPlusTree implements Closeable {
     public static final String FILENAME_PREFIX = "db";
     public static final String FILENAME_EXTENSION = ".index";
 
+    // How many leaves ahead of a scan to read (see BPlusTreeIterator.copy).
+    private static final int READ_AHEAD = 4;
+
     private PageAllocator allocator;
     private BPlusTreeMetadata metadata;
     private Page headerPage;
-    private BPlusNode root;
     private LockContext lockContext;
 
+    // The page number of the root, and its latch (see the class comment).
+    private int rootPageNum;
+    private final ReadWriteLock rootLatch = new ReentrantReadWriteLock();
+
+    // The latches of the nodes that are latched or waited on, by page number
+    // (see latch).
+    private final Map<Integer, NodeLatch> latches = new ConcurrentHashMap<>();
+
+    // The fill factor the tree was bulk loaded with, so that a tree rebuilt
+    // from it can be loaded just as full (see getFillFactor).
+    private float fillFactor = 1.0f;
+
     // Constructors ////////////////////////////////////////////////////////////
     /**
      * Construct a new B+ tree which is serialized into the file `filename`,
@@ -80,14 +164,38 @@ public class BPlusTree implements Closeable {
      * page which contains:
      *
      *   - the key schema of the tree,
-     *   - the order of the tree, and
-     *   - the page number of the root of the tree.
+     *   - the order of the tree,
+     *   - the page number of the root of the tree,
+     *   - whether the keys of the tree may repeat,
+     *   - whether the tree is counted, and
+     *   - the fill factor the tree was bulk loaded with.
      *
      * All other pages are serializations of inner and leaf nodes. See
      * writeHeader for details.
      */
     public BPlusTree(String filename, Type keySchema, int order, LockContext lockContext,
                      BaseTransaction transaction)
+    throws BPlusTreeException {
+        this(filename, keySchema, order, true, lockContext, transaction);
+    }
+
+    /**
+     * Construct a new B+ tree like above, whose keys are unique if `unique`
+     * is true and may repeat otherwise.
+     */
+    public BPlusTree(String filename, Type keySchema, int order, boolean unique,
+                     LockContext lockContext, BaseTransaction transaction)
+    throws BPlusTreeException {
+        this(filename, keySchema, order, unique, false, lockContext, transaction);
+    }
+
+    /**
+     * Construct a new B+ tree like above, which is counted if `counted` is
+     * true (see count). The inner nodes of a counted tree hold fewer keys, so
+     * its max order may be smaller (see maxOrder).
+     */
+    public BPlusTree(String filename, Type keySchema, int order, boolean unique, boolean counted,
+                     LockContext lockContext, BaseTransaction transaction)
     throws BPlusTreeException {
         // Sanity checks.
         if (order < 0) {
@@ -97,7 +205,7 @@ public class BPlusTree implements Closeable {
             throw new BPlusTreeException(msg);
         }
 
-        int maxOrder = BPlusTree.maxOrder(Page.pageSize, keySchema);
+        int maxOrder = BPlusTree.maxOrder(Page.pageSize, keySchema, counted);
         if (order > maxOrder) {
             String msg = String.format(
                              "You cannot construct a B+ tree with order %d greater than the " +
@@ -110,7 +218,7 @@ public class BPlusTree implements Closeable {
 
         // Initialize the page allocator.
         this.allocator = new PageAllocator(this.lockContext, filename, true, transaction);
-        this.metadata = new BPlusTreeMetadata(allocator, keySchema, order);
+        this.metadata = new BPlusTreeMetadata(allocator, keySchema, order, unique, counted);
 
         // Allocate the header page.
         int headerPageNum = allocator.allocPage(transaction);
@@ -121,7 +229,7 @@ public class BPlusTree implements Closeable {
         List<DataBox> keys = new ArrayList<>();
         List<RecordId> rids = new ArrayList<>();
         Optional<Integer> rightSibling = Optional.empty();
-        this.root = new LeafNode(this.metadata, keys, rids, rightSibling, transaction);
+        this.rootPageNum = new LeafNode(this.metadata, keys, rids, rightSibling, transaction).getPage().getPageNum();
 
         // Initialize the header page.
         writeHeader(transaction, headerPage);
@@ -140,12 +248,16 @@ public class BPlusTree implements Closeable {
         // on exactly what is written to the header page.
         Type keySchema = Type.fromBytes(buf);
         int order = buf.getInt();
-        int rootPageNum = buf.getInt();
+        this.rootPageNum = buf.getInt();
+        boolean unique = buf.get() == 0;
+        boolean counted = buf.get() == 1;
+        // Headers written before the fill factor was stored have 0 here.
+        float fillFactor = buf.getFloat();
+        this.fillFactor = fillFactor > 0 ? fillFactor : 1.0f;
 
         // Initialize members.
-        this.metadata = new BPlusTreeMetadata(allocator, keySchema, order);
+        this.metadata = new BPlusTreeMetadata(allocator, keySchema, order, unique, counted);
         this.headerPage = allocator.fetchPage(transaction, 0);
-        this.root = BPlusNode.fromBytes(transaction, this.metadata, rootPageNum);
     }
 
     public void close() {
@@ -165,10 +277,22 @@ public class BPlusTree implements Closeable {
      *   // Get the value we put and also try to get a value we never put.
      *   tree.get(key);                 // Optional.of(rid)
      *   tree.get(new IntDataBox(100)); // Optional.empty()
+     *
+     * If the keys of the tree are not unique, returns the first of the record
+     * ids associated with `key` (see scanEqual).
      */
     public Optional<RecordId> get(BaseTransaction transaction, DataBox key) {
         typecheck(key);
-        return Optional.empty();
+        if (!metadata.isUnique()) {
+            Iterator<RecordId> rids = scanEqual(transaction, key);
+            return rids.hasNext() ? Optional.of(rids.next()) : Optional.empty();
+        }
+        int pageNum = latchLeaf(transaction, node -> node.childIndex(key), false);
+        try {
+            return BPlusNode.lookup(transaction, metadata, pageNum, key);
+        } finally {
+            unlatch(pageNum, false);
+        }
     }
 
     /**
@@ -177,9 +301,23 @@ public class BPlusTree implements Closeable {
      * then scanEqual(k) returns an empty iterator. If get(k) returns
      * Optional.of(rid) for some rid, then scanEqual(k) returns an iterator
      * over rid.
+     *
+     * If the keys of the tree are not unique, scanEqual(k) returns an iterator
+     * over every record id associated with k, which may span several leaves.
      */
     public Iterator<RecordId> scanEqual(BaseTransaction transaction, DataBox key) {
         typecheck(key);
+        if (!metadata.isUnique()) {
+            int pageNum = latchLeaf(transaction, node -> node.childIndex(key), false);
+            try {
+                LeafNode leaf = LeafNode.fromBytes(transaction, metadata, pageNum);
+                int start = InnerNode.numLessThan(key, leaf.getKeys());
+                return new BPlusTreeIterator<>(transaction, leaf, start, k -> k.compareTo(key) <= 0,
+                                               (k, rid) -> rid);
+            } finally {
+                unlatch(pageNum, false);
+            }
+        }
         Optional<RecordId> rid = get(transaction, key);
         if (rid.isPresent()) {
             ArrayList<RecordId> l = new ArrayList<>();
@@ -190,6 +328,102 @@ public class BPlusTree implements Closeable {
         }
     }
 
+    /**
+     * Returns, for each key of `sortedKeys`, the record ids scanEqual would
+     * return for it: a list of at most one record id if the keys of the tree
+     * are unique. The keys must be in ascending order.
+     *
+     *   tree.multiGet(Arrays.asList(new IntDataBox(1), new IntDataBox(4), new IntDataBox(9)));
+     *   // [[RecordId(1, 1)], [RecordId(4, 4)], []]
+     *
+     * This is much cheaper than calling get once per key. The tree is walked
+     * once for the whole batch: we keep the path from the root to the leaf of
+     * the last key, and, for each key, only go back up as far as the lowest
+     * node on the path whose subtree may hold the key before going down
+     * again. Keys that fall in the same leaf as the key before them are
+     * found without reading any other node, so every leaf is read at most
+     * once. The nodes on the path stay latched in shared mode.
+     */
+    public List<List<RecordId>> multiGet(BaseTransaction transaction, List<DataBox> sortedKeys) {
+        List<List<RecordId>> rids = new ArrayList<>();
+        // The page numbers of the nodes on the path from the root to the leaf
+        // of the last key, and the keys that all the keys found under each of
+        // them are before (see InnerNode.getChildAndBound).
+        List<Integer> path = new ArrayList<>();
+        List<Optional<DataBox>> bounds = new ArrayList<>();
+        path.add(latchRoot(transaction, p -> false));
+        bounds.add(Optional.empty());
+        try {
+
+            DataBox prev = null;
+            for (DataBox key : sortedKeys) {
+                typecheck(key);
+                if (prev != null && key.compareTo(prev) < 0) {
+                    String msg = String.format("Keys %s and %s are not in ascending order.", prev, key);
+                    throw new IllegalArgumentException(msg);
+                }
+                prev = key;
+
+                while (path.size() > 1 && isPast(key, bounds.get(bounds.size() - 1))) {
+                    unlatch(path.remove(path.size() - 1), false);
+                    bounds.remove(bounds.size() - 1);
+                }
+                BPlusNode node = BPlusNode.fromBytes(transaction, metadata, path.get(path.size() - 1));
+                while (node instanceof InnerNode) {
+                    Pair<Integer, Optional<DataBox>> child = ((InnerNode) node).getChildAndBound(key);
+                    latch(child.getFirst(), false);
+                    path.add(child.getFirst());
+                    bounds.add(child.getSecond().isPresent() ? child.getSecond() : bounds.get(bounds.size() - 1));
+                    node = BPlusNode.fromBytes(transaction, metadata, child.getFirst());
+                }
+                rids.add(getAll(transaction, (LeafNode) node, key));
+            }
+        } finally {
+            unlatch(path, false);
+        }
+        return rids;
+    }
+
+    /**
+     * Returns whether `key` is past every key found under a node whose keys
+     * are all before `bound` (see multiGet).
+     */
+    private boolean isPast(DataBox key, Optional<DataBox> bound) {
+        if (!bound.isPresent()) {
+            return false;
+        }
+        int cmp = key.compareTo(bound.get());
+        return metadata.isUnique() ? cmp >= 0 : cmp > 0;
+    }
+
+    /**
+     * Returns the record ids of the entries with key `key`, starting at
+     * `leaf`, the leaf that get(key) returns, whose latch must be held. The
+     * leaves to the right of it are latched as they are read.
+     */
+    private List<RecordId> getAll(BaseTransaction transaction, LeafNode leaf, DataBox key) {
+        int first = leaf.getPage().getPageNum();
+        List<RecordId> rids = new ArrayList<>();
+        while (true) {
+            List<DataBox> keys = leaf.getKeys();
+            for (int i = InnerNode.numLessThan(key, keys); i < keys.size() && keys.get(i).compareTo(key) == 0;
+                    ++i) {
+                rids.add(leaf.getRids().get(i));
+            }
+            int pageNum = leaf.getPage().getPageNum();
+            if (!leaf.mayContinueRightOf(key)) {
+                if (pageNum != first) {
+                    unlatch(pageNum, false);
+                }
+                return rids;
+            }
+            leaf = latchRightSibling(transaction, leaf, false);
+            if (pageNum != first) {
+                unlatch(pageNum, false);
+            }
+        }
+    }
+
     /**
      * Returns an iterator over all the RecordIds stored in the B+ tree in
      * ascending order of their corresponding keys.
@@ -216,7 +450,16 @@ public class BPlusTree implements Closeable {
      * memory will receive 0 points.
      */
     public Iterator<RecordId> scanAll(BaseTransaction transaction) {
-        return Collections.<RecordId>emptyIterator();
+        return scanRange(transaction, Optional.empty(), false, Optional.empty(), false, (k, rid) -> rid);
+    }
+
+    /**
+     * scanAllKeys is equivalent to scanAll except that it returns the key of
+     * every entry instead of its record id. Index-only scans read the values
+     * of the indexed columns this way without fetching any records.
+     */
+    public Iterator<DataBox> scanAllKeys(BaseTransaction transaction) {
+        return scanRange(transaction, Optional.empty(), false, Optional.empty(), false, (k, rid) -> k);
     }
 
     /**
@@ -244,13 +487,199 @@ public class BPlusTree implements Closeable {
      * memory will receive 0 points.
      */
     public Iterator<RecordId> scanGreaterEqual(BaseTransaction transaction, DataBox key) {
-        typecheck(key);
-        return Collections.<RecordId>emptyIterator();
+        return scanRange(transaction, Optional.of(key), true, Optional.empty(), false, (k, rid) -> rid);
+    }
+
+    /** Like scanGreaterEqual, but returns keys instead of record ids. */
+    public Iterator<DataBox> scanGreaterEqualKeys(BaseTransaction transaction, DataBox key) {
+        return scanRange(transaction, Optional.of(key), true, Optional.empty(), false, (k, rid) -> k);
+    }
+
+    /**
+     * Returns an iterator over all the RecordIds stored in the B+ tree whose
+     * keys are between `lo` and `hi`, in ascending order of their
+     * corresponding keys. Each bound is included in the range if its
+     * inclusive flag is set, and an empty bound leaves that end of the range
+     * open. The scan descends the tree once, to the first key in the range,
+     * and stops at the first key past `hi`, so it only reads the leaves
+     * holding the range, plus at most a few leaves that are read ahead of the
+     * scan in the background.
+     *
+     *   // Create a B+ tree and insert some values into it.
+     *   BPlusTree tree = new BPlusTree("t.txt", Type.intType(), 4);
+     *   tree.put(new IntDataBox(2), new RecordId(2, (short) 2));
+     *   tree.put(new IntDataBox(5), new RecordId(5, (short) 5));
+     *   tree.put(new IntDataBox(4), new RecordId(4, (short) 4));
+     *   tree.put(new IntDataBox(1), new RecordId(1, (short) 1));
+     *   tree.put(new IntDataBox(3), new RecordId(3, (short) 3));
+     *
+     *   Iterator<RecordId> iter = tree.scanRange(Optional.of(new IntDataBox(2)), false,
+     *                                            Optional.of(new IntDataBox(4)), true);
+     *   iter.next(); // RecordId(3, 3)
+     *   iter.next(); // RecordId(4, 4)
+     *   iter.next(); // NoSuchElementException
+     *
+     * scanRange(Optional.empty(), _, Optional.empty(), _) is equivalent to
+     * scanAll(), and scanRange(Optional.of(k), true, Optional.empty(), _) is
+     * equivalent to scanGreaterEqual(k).
+     */
+    public Iterator<RecordId> scanRange(BaseTransaction transaction, Optional<DataBox> lo,
+                                        boolean loInclusive, Optional<DataBox> hi, boolean hiInclusive) {
+        return scanRange(transaction, lo, loInclusive, hi, hiInclusive, (k, rid) -> rid);
+    }
+
+    /** Like scanRange, but returns keys instead of record ids. */
+    public Iterator<DataBox> scanRangeKeys(BaseTransaction transaction, Optional<DataBox> lo,
+                                           boolean loInclusive, Optional<DataBox> hi, boolean hiInclusive) {
+        return scanRange(transaction, lo, loInclusive, hi, hiInclusive, (k, rid) -> k);
+    }
+
+    /** Like scanRange, but returns (key, rid) pairs. */
+    Iterator<Pair<DataBox, RecordId>> scanRangeEntries(BaseTransaction transaction, Optional<DataBox> lo,
+            boolean loInclusive, Optional<DataBox> hi, boolean hiInclusive) {
+        return scanRange(transaction, lo, loInclusive, hi, hiInclusive, Pair::new);
+    }
+
+    private <T> Iterator<T> scanRange(BaseTransaction transaction, Optional<DataBox> lo,
+                                      boolean loInclusive, Optional<DataBox> hi, boolean hiInclusive,
+                                      BiFunction<DataBox, RecordId, T> entry) {
+        lo.ifPresent(this::typecheck);
+        hi.ifPresent(this::typecheck);
+        Predicate<DataBox> belowHi = k -> {
+            if (!hi.isPresent()) {
+                return true;
+            }
+            int cmp = k.compareTo(hi.get());
+            return hiInclusive ? cmp <= 0 : cmp < 0;
+        };
+        if (!lo.isPresent()) {
+            int pageNum = latchLeaf(transaction, node -> 0, false);
+            try {
+                LeafNode leaf = LeafNode.fromBytes(transaction, metadata, pageNum);
+                return new BPlusTreeIterator<>(transaction, leaf, 0, belowHi, entry);
+            } finally {
+                unlatch(pageNum, false);
+            }
+        }
+
+        DataBox key = lo.get();
+        LeafNode leaf = LeafNode.fromBytes(transaction, metadata,
+                                           latchLeaf(transaction, node -> node.childIndex(key), false));
+        try {
+            if (loInclusive) {
+                int start = InnerNode.numLessThan(key, leaf.getKeys());
+                return new BPlusTreeIterator<>(transaction, leaf, start, belowHi, entry);
+            }
+            // If the keys of the tree are not unique, the entries with key lo
+            // may continue into the leaves to the right of leaf.
+            int start = InnerNode.numLessThanEqual(key, leaf.getKeys());
+            while (start == leaf.getKeys().size() && leaf.mayContinueRightOf(key)) {
+                LeafNode next = latchRightSibling(transaction, leaf, false);
+                unlatch(leaf.getPage().getPageNum(), false);
+                leaf = next;
+                start = InnerNode.numLessThanEqual(key, leaf.getKeys());
+            }
+            return new BPlusTreeIterator<>(transaction, leaf, start, belowHi, entry);
+        } finally {
+            unlatch(leaf.getPage().getPageNum(), false);
+        }
+    }
+
+    /**
+     * scanRangeReverse is equivalent to scanRange except that the RecordIds
+     * are returned in descending order of their corresponding keys (and, if
+     * the keys of the tree are not unique, entries with equal keys are
+     * returned in the reverse of the order scanRange returns them in). The
+     * scan descends the tree to the last key in the range and stops at the
+     * first key before `lo`.
+     *
+     * Leaves only point to their right siblings, so whenever the scan is
+     * done with a leaf, it descends the tree again to the leaf before it (see
+     * BPlusNode.getLastBefore). The inner nodes on the way are almost always
+     * cached (see BPlusTreeMetadata.cacheNode), so this usually only reads the
+     * leaf itself, like following a left sibling pointer would.
+     */
+    public Iterator<RecordId> scanRangeReverse(BaseTransaction transaction, Optional<DataBox> lo,
+            boolean loInclusive, Optional<DataBox> hi, boolean hiInclusive) {
+        lo.ifPresent(this::typecheck);
+        hi.ifPresent(this::typecheck);
+        Predicate<DataBox> aboveLo = k -> {
+            if (!lo.isPresent()) {
+                return true;
+            }
+            int cmp = k.compareTo(lo.get());
+            return loInclusive ? cmp >= 0 : cmp > 0;
+        };
+        Optional<Pair<LeafNode, Integer>> last = latchLastBefore(transaction, latchRoot(transaction, p -> false),
+                hi, hiInclusive);
+        if (!last.isPresent()) {
+            return Collections.emptyIterator();
+        }
+        LeafNode leaf = last.get().getFirst();
+        try {
+            return new ReverseBPlusTreeIterator<>(transaction, leaf, last.get().getSecond(), aboveLo,
+                                                  (k, rid) -> rid);
+        } finally {
+            unlatch(leaf.getPage().getPageNum(), false);
+        }
+    }
+
+    /**
+     * Returns an iterator over all the RecordIds stored in a B+ tree of tuple
+     * keys whose keys start with the values of `prefix`, in ascending order of
+     * their corresponding keys. The scan descends the tree once, to the first
+     * key with the prefix, and then reads leaves until the first key without
+     * it.
+     *
+     *   // Create a B+ tree of (int, int) keys.
+     *   BPlusTree tree = new BPlusTree("t.txt", Type.tupleType(intType, intType), 4);
+     *   tree.put((1, 2), new RecordId(1, (short) 2));
+     *   tree.put((2, 1), new RecordId(2, (short) 1));
+     *   tree.put((1, 1), new RecordId(1, (short) 1));
+     *
+     *   Iterator<RecordId> iter = tree.scanPrefix((1));
+     *   iter.next(); // RecordId(1, 1)
+     *   iter.next(); // RecordId(1, 2)
+     *   iter.next(); // NoSuchElementException
+     *
+     * If prefix has as many values as the keys of the tree, scanPrefix(k) is
+     * equivalent to scanEqual(k).
+     */
+    public Iterator<RecordId> scanPrefix(BaseTransaction transaction, TupleDataBox prefix) {
+        return scanPrefix(transaction, prefix, (k, rid) -> rid);
+    }
+
+    /** Like scanPrefix, but returns keys instead of record ids. */
+    public Iterator<DataBox> scanPrefixKeys(BaseTransaction transaction, TupleDataBox prefix) {
+        return scanPrefix(transaction, prefix, (k, rid) -> k);
+    }
+
+    private <T> Iterator<T> scanPrefix(BaseTransaction transaction, TupleDataBox prefix,
+                                       BiFunction<DataBox, RecordId, T> entry) {
+        Type t = metadata.getKeySchema();
+        List<Type> prefixTypes = prefix.type().getElementTypes();
+        if (t.getTypeId() != TypeId.TUPLE || prefixTypes.size() > t.getElementTypes().size() ||
+                !prefixTypes.equals(t.getElementTypes().subList(0, prefixTypes.size()))) {
+            String msg = String.format("DataBox %s is not a prefix of type %s", prefix, t);
+            throw new IllegalArgumentException(msg);
+        }
+        // The prefix is smaller than all of its extensions, so we descend to
+        // the leaf of the first key with the prefix.
+        int pageNum = latchLeaf(transaction, node -> node.childIndex(prefix), false);
+        try {
+            LeafNode leaf = LeafNode.fromBytes(transaction, metadata, pageNum);
+            int start = InnerNode.numLessThan(prefix, leaf.getKeys());
+            return new BPlusTreeIterator<>(transaction, leaf, start,
+                                           k -> prefix.isPrefixOf((TupleDataBox) k), entry);
+        } finally {
+            unlatch(pageNum, false);
+        }
     }
 
     /**
      * Inserts a (key, rid) pair into a B+ tree. If the key already exists in
-     * the B+ tree, then the pair is not inserted and an exception is raised.
+     * the B+ tree, then the pair is not inserted and an exception is raised,
+     * unless the keys of the tree are not unique.
      *
      *   BPlusTree tree = new BPlusTree("t.txt", Type.intType(), 4);
      *   DataBox key = new IntDataBox(42);
@@ -260,13 +689,90 @@ public class BPlusTree implements Closeable {
      */
     public void put(BaseTransaction transaction, DataBox key, RecordId rid) throws BPlusTreeException {
         typecheck(key);
-        return;
+        if (metadata.isCounted() || !putIntoLeaf(transaction, key, rid)) {
+            putWithSplits(transaction, key, rid);
+        }
+    }
+
+    /**
+     * Puts (key, rid) into its leaf, with only the leaf latched exclusively,
+     * if the leaf has room for it, and returns whether it did. Most puts
+     * don't split a leaf, so most puts never latch an inner node
+     * exclusively. Counted trees can't do this, as every put changes the
+     * counts of the inner nodes above the leaf.
+     */
+    private boolean putIntoLeaf(BaseTransaction transaction, DataBox key, RecordId rid)
+    throws BPlusTreeException {
+        int pageNum = latchLeaf(transaction, node -> InnerNode.numLessThanEqual(key, node.getKeys()), true);
+        try {
+            LeafNode leaf = LeafNode.fromBytes(transaction, metadata, pageNum);
+            if (!leaf.hasRoom()) {
+                return false;
+            }
+            leaf.put(transaction, key, rid);
+            return true;
+        } finally {
+            unlatch(pageNum, true);
+        }
+    }
+
+    /**
+     * Puts (key, rid) into the tree with every node the put may change
+     * latched exclusively. We descend the tree latching every node
+     * exclusively, and, once a node has room (see BPlusNode.hasRoom),
+     * release the root latch and, unless the tree is counted, the latches of
+     * the nodes above it, since a split below it stops there. The put then
+     * starts from the highest node still latched.
+     */
+    private void putWithSplits(BaseTransaction transaction, DataBox key, RecordId rid)
+    throws BPlusTreeException {
+        List<Integer> path = new ArrayList<>();
+        boolean rootLatched = true;
+        rootLatch.writeLock().lock();
+        try {
+            int pageNum = rootPageNum;
+            while (true) {
+                latch(pageNum, true);
+                path.add(pageNum);
+                BPlusNode node = BPlusNode.fromBytes(transaction, metadata, pageNum);
+                if (node.hasRoom()) {
+                    if (rootLatched) {
+                        rootLatch.writeLock().unlock();
+                        rootLatched = false;
+                    }
+                    if (!metadata.isCounted()) {
+                        List<Integer> above = path.subList(0, path.size() - 1);
+                        unlatch(above, true);
+                        above.clear();
+                    }
+                }
+                if (node instanceof LeafNode) {
+                    break;
+                }
+                InnerNode inner = (InnerNode) node;
+                pageNum = inner.getChildren().get(InnerNode.numLessThanEqual(key, inner.getKeys()));
+            }
+
+            BPlusNode top = BPlusNode.fromBytes(transaction, metadata, path.get(0));
+            Optional<Pair<DataBox, Integer>> split = top.put(transaction, key, rid);
+            if (split.isPresent()) {
+                // Only the root splits without a latched parent, and then the
+                // root latch is still held.
+                splitRoot(transaction, split.get());
+            }
+        } finally {
+            unlatch(path, true);
+            if (rootLatched) {
+                rootLatch.writeLock().unlock();
+            }
+        }
     }
 
     /**
      * Bulk loads data into the B+ tree. Tree should be empty and the data
      * iterator should be in sorted order (by the DataBox key field) and
-     * contain no duplicates (no error checking is done for this).
+     * contain no duplicates if the keys of the tree are unique (no error
+     * checking is done for this).
      *
      * fillFactor specifies the fill factor for leaves only; inner nodes should
      * be filled up to full and split in half exactly like in put.
@@ -280,7 +786,38 @@ public class BPlusTree implements Closeable {
      */
     public void bulkLoad(BaseTransaction transaction, Iterator<Pair<DataBox, RecordId>> data,
                          float fillFactor) throws BPlusTreeException {
-        return;
+        // Bulk loading only changes the rightmost path of the tree and the
+        // nodes it creates, which other operations can only reach through
+        // that path or, once the root splits, through the root latch.
+        List<Integer> path = new ArrayList<>();
+        rootLatch.writeLock().lock();
+        try {
+            int leftmost = latchLeaf(transaction, node -> 0, false);
+            try {
+                if (LeafNode.fromBytes(transaction, metadata, leftmost).scanAll().hasNext()) {
+                    throw new BPlusTreeException("You cannot bulk load a non-empty B+ tree.");
+                }
+            } finally {
+                unlatch(leftmost, false);
+            }
+            latch(rootPageNum, true);
+            path.add(rootPageNum);
+            latchSubtree(transaction, rootPageNum, node -> IntStream.of(node.getChildren().size() - 1), true,
+                         path);
+
+            this.fillFactor = fillFactor;
+            writeHeader(transaction, headerPage);
+            while (data.hasNext()) {
+                BPlusNode root = BPlusNode.fromBytes(transaction, metadata, rootPageNum);
+                Optional<Pair<DataBox, Integer>> split = root.bulkLoad(transaction, data, fillFactor);
+                if (split.isPresent()) {
+                    splitRoot(transaction, split.get());
+                }
+            }
+        } finally {
+            unlatch(path, true);
+            rootLatch.writeLock().unlock();
+        }
     }
 
     /**
@@ -294,10 +831,134 @@ public class BPlusTree implements Closeable {
      *   tree.get(key); // Optional.of(rid)
      *   tree.remove(key);
      *   tree.get(key); // Optional.empty()
+     *
+     * If the keys of the tree are not unique, every pair with key `key` is
+     * deleted.
      */
     public void remove(BaseTransaction transaction, DataBox key) {
         typecheck(key);
-        return;
+        if (metadata.isCounted()) {
+            removeEntries(transaction, key, Optional.empty());
+            return;
+        }
+        LeafNode leaf = LeafNode.fromBytes(transaction, metadata,
+                                           latchLeaf(transaction, node -> node.childIndex(key), true));
+        try {
+            leaf.remove(transaction, key);
+            while (leaf.mayContinueRightOf(key)) {
+                LeafNode next = latchRightSibling(transaction, leaf, true);
+                unlatch(leaf.getPage().getPageNum(), true);
+                leaf = next;
+                leaf.remove(transaction, key);
+            }
+        } finally {
+            unlatch(leaf.getPage().getPageNum(), true);
+        }
+    }
+
+    /**
+     * Deletes the pair (key, rid) from a B+ tree, if it is in the tree. Other
+     * pairs with key `key`, if the keys of the tree are not unique, are left
+     * in the tree.
+     */
+    public void remove(BaseTransaction transaction, DataBox key, RecordId rid) {
+        typecheck(key);
+        if (metadata.isCounted()) {
+            removeEntries(transaction, key, Optional.of(rid));
+            return;
+        }
+        LeafNode leaf = LeafNode.fromBytes(transaction, metadata,
+                                           latchLeaf(transaction, node -> node.childIndex(key), true));
+        try {
+            while (!leaf.remove(transaction, key, rid) && leaf.mayContinueRightOf(key)) {
+                LeafNode next = latchRightSibling(transaction, leaf, true);
+                unlatch(leaf.getPage().getPageNum(), true);
+                leaf = next;
+            }
+        } finally {
+            unlatch(leaf.getPage().getPageNum(), true);
+        }
+    }
+
+    /**
+     * Removes the entry (key, rid), or every entry with key `key` if rid is
+     * empty, from a counted tree (see BPlusNode.removeEntries). Every node
+     * whose subtree may hold an entry with key `key` is latched exclusively,
+     * since its count may change.
+     */
+    private void removeEntries(BaseTransaction transaction, DataBox key, Optional<RecordId> rid) {
+        List<Integer> latched = new ArrayList<>();
+        latched.add(latchRoot(transaction, p -> true));
+        try {
+            latchSubtree(transaction, latched.get(0),
+                         node -> IntStream.rangeClosed(node.childIndex(key),
+                                                       InnerNode.numLessThanEqual(key, node.getKeys())),
+                         true, latched);
+            BPlusNode.fromBytes(transaction, metadata, latched.get(0)).removeEntries(transaction, key, rid);
+        } finally {
+            unlatch(latched, true);
+        }
+    }
+
+    /**
+     * Returns the number of entries whose keys are between `lo` and `hi`,
+     * that is, the number of record ids scanRange(lo, loInclusive, hi,
+     * hiInclusive) returns.
+     *
+     *   tree.put(new IntDataBox(1), new RecordId(1, (short) 1));
+     *   tree.put(new IntDataBox(2), new RecordId(2, (short) 2));
+     *   tree.put(new IntDataBox(3), new RecordId(3, (short) 3));
+     *   tree.count(Optional.of(new IntDataBox(1)), false,
+     *              Optional.empty(), false); // 2
+     *
+     * If the tree is counted, this reads one node per level of the tree for
+     * each bound of the range, so it takes O(log n) time no matter how many
+     * entries are in the range: the number of entries before a key is the sum
+     * of the counts of the children to the left of the path down to it (see
+     * BPlusNode.rank). Otherwise, the range is scanned.
+     */
+    public long count(BaseTransaction transaction, Optional<DataBox> lo, boolean loInclusive,
+                      Optional<DataBox> hi, boolean hiInclusive) {
+        lo.ifPresent(this::typecheck);
+        hi.ifPresent(this::typecheck);
+        if (!metadata.isCounted()) {
+            long n = 0;
+            Iterator<RecordId> rids = scanRange(transaction, lo, loInclusive, hi, hiInclusive);
+            while (rids.hasNext()) {
+                rids.next();
+                ++n;
+            }
+            return n;
+        }
+        long end = hi.isPresent() ? rank(transaction, hi.get(), hiInclusive) : numEntries(transaction);
+        long start = lo.isPresent() ? rank(transaction, lo.get(), !loInclusive) : 0;
+        return Math.max(0, end - start);
+    }
+
+    /** Returns root.rank(key, inclusive), descending the tree with latch coupling. */
+    private long rank(BaseTransaction transaction, DataBox key, boolean inclusive) {
+        // The number of entries under the children to the left of the path.
+        long[] n = {0};
+        int pageNum = latchLeaf(transaction, node -> {
+            int i = node.lastChildBefore(Optional.of(key), inclusive);
+            n[0] += node.numEntriesBefore(i);
+            return i;
+        }, false);
+        try {
+            return n[0] + LeafNode.fromBytes(transaction, metadata, pageNum).rank(transaction, key, inclusive);
+        } finally {
+            unlatch(pageNum, false);
+        }
+    }
+
+    /** Returns the number of entries in the tree, which must be counted. */
+    private long numEntries(BaseTransaction transaction) {
+        int pageNum = latchRoot(transaction, p -> false);
+        try {
+            return BPlusNode.fromBytes(transaction, metadata, pageNum).numEntries();
+        } finally {
+            unlatch(pageNum, false);
+        }
     }
 
     // Helpers /////////////////////////////////////////////////////////////////
@@ -306,7 +967,7 @@ public class BPlusTree implements Closeable {
      * more information.
      */
     public String toSexp(BaseTransaction transaction) {
-        return root.toSexp(transaction);
+        return readWholeTree(transaction, root -> root.toSexp(transaction));
     }
 
     /**
@@ -325,7 +986,7 @@ public class BPlusTree implements Closeable {
         List<String> strings = new ArrayList<>();
         strings.add("digraph g {" );
         strings.add("  node [shape=record, height=0.1];");
-        strings.add(root.toDot(transaction));
+        strings.add(readWholeTree(transaction, root -> root.toDot(transaction)));
         strings.add("}");
         return String.join("\n", strings);
     }
@@ -364,11 +1025,44 @@ public class BPlusTree implements Closeable {
      * of size `pageSizeInBytes`.
      */
     public static int maxOrder(int pageSizeInBytes, Type keySchema) {
+        return maxOrder(pageSizeInBytes, keySchema, false);
+    }
+
+    /** Like maxOrder above, for a tree that is counted if `counted` is true. */
+    public static int maxOrder(int pageSizeInBytes, Type keySchema, boolean counted) {
         int leafOrder = LeafNode.maxOrder(pageSizeInBytes, keySchema);
-        int innerOrder = InnerNode.maxOrder(pageSizeInBytes, keySchema);
+        int innerOrder = InnerNode.maxOrder(pageSizeInBytes, keySchema, counted);
         return Math.min(leafOrder, innerOrder);
     }
 
+    // For testing only.
+    BPlusTreeMetadata getMetadata() {
+        return metadata;
+    }
+
+    // For testing only.
+    int getNumLatches() {
+        return latches.size();
+    }
+
+    /** Returns whether the keys of the tree are unique. */
+    public boolean isUnique() {
+        return metadata.isUnique();
+    }
+
+    /**
+     * Returns the fill factor the tree was bulk loaded with, or 1 if it was
+     * never bulk loaded.
+     */
+    public float getFillFactor() {
+        return fillFactor;
+    }
+
+    /** Returns whether the tree is counted (see count). */
+    public boolean isCounted() {
+        return metadata.isCounted();
+    }
+
     /** Returns the number of pages used to serialize the tree. */
     public int getNumPages() {
         return metadata.getAllocator().getNumPages();
@@ -380,7 +1074,195 @@ public class BPlusTree implements Closeable {
         Buffer buf = page.getBuffer(transaction);
         buf.put(keySchema);
         buf.putInt(metadata.getOrder());
-        buf.putInt(root.getPage().getPageNum());
+        buf.putInt(rootPageNum);
+        // Headers written before trees could have non-unique keys end after
+        // the root, and the rest of the page is zeroed, so the flags are
+        // stored such that 0 means the old behavior: unique and not counted.
+        buf.put((byte) (metadata.isUnique() ? 0 : 1));
+        buf.put((byte) (metadata.isCounted() ? 1 : 0));
+        buf.putFloat(fillFactor);
+    }
+
+    /**
+     * Replaces the root with a new inner node whose children are the old root
+     * and the right node it split off. Must be called with the root latch
+     * held exclusively and the old root latched exclusively.
+     */
+    private void splitRoot(BaseTransaction transaction, Pair<DataBox, Integer> split) {
+        List<DataBox> keys = new ArrayList<>();
+        keys.add(split.getFirst());
+        List<Integer> children = new ArrayList<>();
+        children.add(rootPageNum);
+        children.add(split.getSecond());
+        List<Integer> counts = null;
+        if (metadata.isCounted()) {
+            // The old root kept the first of its entries and moved the rest
+            // to the right node.
+            counts = new ArrayList<>();
+            counts.add(BPlusNode.fromBytes(transaction, metadata, rootPageNum).numEntries());
+            counts.add(BPlusNode.fromBytes(transaction, metadata, split.getSecond()).numEntries());
+        }
+        rootPageNum = new InnerNode(metadata, keys, children, counts, transaction).getPage().getPageNum();
+        writeHeader(transaction, headerPage);
+    }
+
+    // Latches /////////////////////////////////////////////////////////////////
+    /**
+     * The latch of a node, and the number of threads that hold it or wait for
+     * it. pins is only read and written inside latches.compute, so it needs
+     * no synchronization of its own.
+     */
+    private static class NodeLatch {
+        private final ReadWriteLock latch = new ReentrantReadWriteLock();
+        private int pins = 0;
+    }
+
+    /**
+     * Latches the node on page pageNum, exclusively if exclusive is true. A
+     * node's latch only exists while some thread holds it or waits for it:
+     * it is created by the first thread to latch the node and dropped by the
+     * last one to release it (see unlatch), so a tree only keeps the latches
+     * that are in use, however many pages it has.
+     */
+    private void latch(int pageNum, boolean exclusive) {
+        NodeLatch nodeLatch = latches.compute(pageNum, (p, l) -> {
+            l = l == null ? new NodeLatch() : l;
+            l.pins++;
+            return l;
+        });
+        if (exclusive) {
+            nodeLatch.latch.writeLock().lock();
+        } else {
+            nodeLatch.latch.readLock().lock();
+        }
+    }
+
+    /** Releases the latch latch(pageNum, exclusive) acquired. */
+    private void unlatch(int pageNum, boolean exclusive) {
+        NodeLatch nodeLatch = latches.get(pageNum);
+        if (exclusive) {
+            nodeLatch.latch.writeLock().unlock();
+        } else {
+            nodeLatch.latch.readLock().unlock();
+        }
+        latches.computeIfPresent(pageNum, (p, l) -> --l.pins == 0 ? null : l);
+    }
+
+    private void unlatch(List<Integer> pageNums, boolean exclusive) {
+        for (int pageNum : pageNums) {
+            unlatch(pageNum, exclusive);
+        }
+    }
+
+    /**
+     * Latches the root, exclusively if exclusive holds for its page number,
+     * and returns its page number. The root latch is held in the meantime,
+     * so the root can't be split between reading its page number and
+     * latching it.
+     */
+    private int latchRoot(BaseTransaction transaction, IntPredicate exclusive) {
+        rootLatch.readLock().lock();
+        try {
+            latch(rootPageNum, exclusive.test(rootPageNum));
+            return rootPageNum;
+        } finally {
+            rootLatch.readLock().unlock();
+        }
+    }
+
+    /**
+     * Descends the tree from the root to a leaf with latch coupling, and
+     * returns the page number of the leaf, which is left latched. At every
+     * inner node, choose returns the index of the child to descend into.
+     * Inner nodes are latched in shared mode, and the leaf exclusively if
+     * exclusive is true.
+     */
+    private int latchLeaf(BaseTransaction transaction, ToIntFunction<InnerNode> choose, boolean exclusive) {
+        int pageNum = latchRoot(transaction, p -> exclusive && BPlusNode.isLeaf(transaction, metadata, p));
+        while (!BPlusNode.isLeaf(transaction, metadata, pageNum)) {
+            InnerNode node = (InnerNode) BPlusNode.fromBytes(transaction, metadata, pageNum);
+            int child = node.getChildren().get(choose.applyAsInt(node));
+            latch(child, exclusive && BPlusNode.isLeaf(transaction, metadata, child));
+            unlatch(pageNum, false);
+            pageNum = child;
+        }
+        return pageNum;
+    }
+
+    /**
+     * Latches the right sibling of leaf, whose latch must be held, in the
+     * same mode, and returns it.
+     */
+    private LeafNode latchRightSibling(BaseTransaction transaction, LeafNode leaf, boolean exclusive) {
+        int pageNum = leaf.getRightSiblingPageNum().get();
+        latch(pageNum, exclusive);
+        return LeafNode.fromBytes(transaction, metadata, pageNum);
+    }
+
+    /**
+     * Latches descendants of the node on page pageNum, which must be latched,
+     * in preorder, and adds their page numbers to latched. At every inner
+     * node, children returns the indices of the children to latch.
+     */
+    private void latchSubtree(BaseTransaction transaction, int pageNum, Function<InnerNode, IntStream> children,
+                              boolean exclusive, List<Integer> latched) {
+        BPlusNode node = BPlusNode.fromBytes(transaction, metadata, pageNum);
+        if (node instanceof LeafNode) {
+            return;
+        }
+        InnerNode inner = (InnerNode) node;
+        for (int i : children.apply(inner).toArray()) {
+            int child = inner.getChildren().get(i);
+            latch(child, exclusive);
+            latched.add(child);
+            latchSubtree(transaction, child, children, exclusive, latched);
+        }
+    }
+
+    /** Returns read(root) with every node of the tree latched in shared mode. */
+    private <T> T readWholeTree(BaseTransaction transaction, Function<BPlusNode, T> read) {
+        List<Integer> latched = new ArrayList<>();
+        latched.add(latchRoot(transaction, p -> false));
+        try {
+            latchSubtree(transaction, latched.get(0), node -> IntStream.range(0, node.getChildren().size()), false,
+                         latched);
+            return read.apply(BPlusNode.fromBytes(transaction, metadata, latched.get(0)));
+        } finally {
+            unlatch(latched, false);
+        }
+    }
+
+    /**
+     * Like root.getLastBefore(key, inclusive), where the root is the node on
+     * page pageNum, which must be latched in shared mode, but with latch
+     * coupling: the children of an inner node are searched from right to
+     * left, each while the inner node is latched. Releases the latch of the
+     * node, except that the leaf of the entry found, if any, is left latched.
+     */
+    private Optional<Pair<LeafNode, Integer>> latchLastBefore(BaseTransaction transaction, int pageNum,
+            Optional<DataBox> key, boolean inclusive) {
+        BPlusNode node = BPlusNode.fromBytes(transaction, metadata, pageNum);
+        if (node instanceof LeafNode) {
+            Optional<Pair<LeafNode, Integer>> last = node.getLastBefore(transaction, key, inclusive);
+            if (!last.isPresent()) {
+                unlatch(pageNum, false);
+            }
+            return last;
+        }
+        try {
+            InnerNode inner = (InnerNode) node;
+            for (int i = inner.lastChildBefore(key, inclusive); i >= 0; --i) {
+                int child = inner.getChildren().get(i);
+                latch(child, false);
+                Optional<Pair<LeafNode, Integer>> last = latchLastBefore(transaction, child, key, inclusive);
+                if (last.isPresent()) {
+                    return last;
+                }
+            }
+            return Optional.empty();
+        } finally {
+            unlatch(pageNum, false);
+        }
     }
 
     private void typecheck(DataBox key) {
@@ -392,15 +1274,223 @@ public class BPlusTree implements Closeable {
     }
 
     // Iterator ////////////////////////////////////////////////////////////////
-    private class BPlusTreeIterator implements Iterator<RecordId> {
+    /**
+     * Reads the leaf on page pageNum, and the n - 1 leaves to the right of it,
+     * into memory in the background (see PageAllocator.prefetchPage). The
+     * leaves are read without the latch, so a leaf that is split or freed in
+     * the meantime may cut the read-ahead short or send it astray, which costs
+     * nothing but the wasted reads.
+     */
+    private void readAhead(int pageNum, int n) {
+        metadata.getAllocator().prefetchPage(pageNum, page -> {
+            Optional<Integer> sibling = LeafNode.readRightSibling(page);
+            if (n > 1 && sibling.isPresent()) {
+                readAhead(sibling.get(), n - 1);
+            }
+        });
+    }
+
+    private class BPlusTreeIterator<T> implements Iterator<T> {
+        private BaseTransaction transaction;
+        // Whether a key is in the range being scanned. Keys are scanned up to
+        // the first key that is not.
+        private Predicate<DataBox> inRange;
+        // What to return for each (key, record id) entry.
+        private BiFunction<DataBox, RecordId, T> entry;
+        // A copy of the rest of the entries of the leaf being scanned, the
+        // index of the next one, and the right sibling of that leaf as of when
+        // they were copied.
+        private List<DataBox> keys;
+        private List<RecordId> rids;
+        private int index;
+        private Optional<Integer> rightSibling;
+        // The number of leaves after the one being scanned that have been
+        // read ahead.
+        private int numReadAhead = 0;
+
+        /**
+         * Constructs an iterator over the entries of leaf starting at the
+         * start'th entry and then all the entries of the leaves to the right of
+         * leaf, stopping at the first key that is not inRange. Must be called
+         * with leaf latched.
+         */
+        BPlusTreeIterator(BaseTransaction transaction, LeafNode leaf, int start,
+                          Predicate<DataBox> inRange, BiFunction<DataBox, RecordId, T> entry) {
+            this.transaction = transaction;
+            this.inRange = inRange;
+            this.entry = entry;
+            copy(leaf, start);
+        }
+
+        private void copy(LeafNode leaf, int start) {
+            List<DataBox> leafKeys = leaf.getKeys();
+            List<RecordId> leafRids = leaf.getRids();
+            keys = new ArrayList<>(leafKeys.subList(start, leafKeys.size()));
+            rids = new ArrayList<>(leafRids.subList(start, leafRids.size()));
+            index = 0;
+            rightSibling = leaf.getRightSiblingPageNum();
+
+            // If the scan may go on past this leaf, and it has caught up with
+            // the leaves read ahead of it, start reading the next READ_AHEAD
+            // leaves while the caller works through this one.
+            if (numReadAhead > 0) {
+                numReadAhead--;
+            }
+            if (numReadAhead == 0 && rightSibling.isPresent() &&
+                    (keys.isEmpty() || inRange.test(keys.get(keys.size() - 1)))) {
+                readAhead(rightSibling.get(), READ_AHEAD);
+                numReadAhead = READ_AHEAD;
+            }
+        }
+
         @Override
         public boolean hasNext() {
-            return false;
+            while (index == keys.size()) {
+                if (!rightSibling.isPresent()) {
+                    return false;
+                }
+                int pageNum = rightSibling.get();
+                latch(pageNum, false);
+                try {
+                    copy(LeafNode.fromBytes(transaction, metadata, pageNum), 0);
+                } finally {
+                    unlatch(pageNum, false);
+                }
+            }
+            if (!inRange.test(keys.get(index))) {
+                keys.clear();
+                rids.clear();
+                index = 0;
+                rightSibling = Optional.empty();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T t = entry.apply(keys.get(index), rids.get(index));
+            index++;
+            return t;
+        }
+    }
+
+    private class ReverseBPlusTreeIterator<T> implements Iterator<T> {
+        private BaseTransaction transaction;
+        // Whether a key is in the range being scanned. Keys are scanned down
+        // to the first key that is not.
+        private Predicate<DataBox> inRange;
+        // What to return for each (key, record id) entry.
+        private BiFunction<DataBox, RecordId, T> entry;
+        // A copy of the first entries of the leaf being scanned, the index of
+        // the next one, and the page number of that leaf.
+        private List<DataBox> keys;
+        private List<RecordId> rids;
+        private int index;
+        private int pageNum;
+        // The smallest key copied so far. Every entry that is left to scan is
+        // before the leaf being scanned and has a key less than or equal to
+        // bound.
+        private DataBox bound;
+        private boolean done;
+
+        /**
+         * Constructs an iterator over the first end entries of leaf, from
+         * last to first, and then all the entries of the leaves to the left of
+         * leaf, stopping at the first key that is not inRange. end must be
+         * positive. Must be called with leaf latched.
+         */
+        ReverseBPlusTreeIterator(BaseTransaction transaction, LeafNode leaf, int end,
+                                 Predicate<DataBox> inRange, BiFunction<DataBox, RecordId, T> entry) {
+            this.transaction = transaction;
+            this.inRange = inRange;
+            this.entry = entry;
+            this.done = false;
+            copy(leaf, end);
+        }
+
+        private void copy(LeafNode leaf, int end) {
+            keys = new ArrayList<>(leaf.getKeys().subList(0, end));
+            rids = new ArrayList<>(leaf.getRids().subList(0, end));
+            index = end - 1;
+            pageNum = leaf.getPage().getPageNum();
+            if (end > 0) {
+                bound = keys.get(0);
+            }
+        }
+
+        /**
+         * Copies the entries of the leaf to the left of the leaf being
+         * scanned, or returns false if there is none. We descend to the leaf
+         * of the last key less than bound and walk right from it to the leaf
+         * whose right sibling is the leaf being scanned. That is almost always
+         * the leaf we descended to; the leaves in between, if any, are empty or
+         * hold only keys equal to bound (if the keys of the tree are not
+         * unique). The walk latches each leaf before releasing the one before
+         * it.
+         */
+        private boolean copyLeftSibling() {
+            Optional<Pair<LeafNode, Integer>> last = latchLastBefore(transaction,
+                    latchRoot(transaction, p -> false), Optional.of(bound), false);
+            LeafNode leaf = last.isPresent() ? last.get().getFirst()
+                            : LeafNode.fromBytes(transaction, metadata, latchLeaf(transaction, node -> 0, false));
+            try {
+                if (leaf.getPage().getPageNum() == pageNum) {
+                    // Either the leaf being scanned is the leftmost leaf, or
+                    // keys less than bound were put into it after we copied it.
+                    if (!last.isPresent()) {
+                        return false;
+                    }
+                    copy(leaf, last.get().getSecond());
+                    return true;
+                }
+                Optional<Integer> rightSibling = leaf.getRightSiblingPageNum();
+                while (rightSibling.isPresent() && rightSibling.get() != pageNum) {
+                    LeafNode next = latchRightSibling(transaction, leaf, false);
+                    unlatch(leaf.getPage().getPageNum(), false);
+                    leaf = next;
+                    rightSibling = leaf.getRightSiblingPageNum();
+                }
+                if (!rightSibling.isPresent()) {
+                    // Leaves are never freed, so this should never happen.
+                    return false;
+                }
+                copy(leaf, leaf.getKeys().size());
+                return true;
+            } finally {
+                unlatch(leaf.getPage().getPageNum(), false);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (index < 0) {
+                if (done) {
+                    return false;
+                }
+                done = !copyLeftSibling();
+            }
+            if (!inRange.test(keys.get(index))) {
+                keys.clear();
+                rids.clear();
+                index = -1;
+                done = true;
+                return false;
+            }
+            return true;
         }
 
         @Override
-        public RecordId next() {
-            throw new NoSuchElementException();
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T t = entry.apply(keys.get(index), rids.get(index));
+            index--;
+            return t;
         }
     }
 }
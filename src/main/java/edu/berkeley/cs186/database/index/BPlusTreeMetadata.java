@@ -1,10 +1,17 @@
 package edu.berkeley.cs186.database.index;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
 import edu.berkeley.cs186.database.io.PageAllocator;
 
 /** Metadata about a B+ tree. */
 class BPlusTreeMetadata {
+    // The maximum number of decoded inner nodes cached per tree.
+    static final int NODE_CACHE_SIZE = 32;
+
     // The page allocator used to persist the B+ tree. Every node of the B+ tree
     // is stored on a single page allocated by this allocator.
     private final PageAllocator allocator;
@@ -20,10 +27,47 @@ class BPlusTreeMetadata {
     // may contain fewer than d entries.
     private final int order;
 
+    // Whether keys are unique. Trees with non-unique keys store one (key,
+    // record id) entry per record, so entries with the same key may span
+    // several leaves.
+    private final boolean unique;
+
+    // Whether inner nodes store the number of entries under each of their
+    // children (see InnerNode.counts), so that the number of entries in a
+    // range of keys can be found without scanning it (see BPlusTree.count).
+    private final boolean counted;
+
+    // A least-recently used cache of decoded inner nodes, keyed by page number,
+    // so that descending the tree doesn't deserialize the (hot) upper levels of
+    // the tree over and over again. Every inner node is cached when it is
+    // synced to its page, so the cache always holds the latest version of a
+    // node. Leaves are not cached: there are many more of them, and each of
+    // them is read far less often.
+    private final LinkedHashMap<Integer, InnerNode> nodeCache;
+    private long numNodeCacheHits = 0;
+    private long numNodeCacheMisses = 0;
+
     public BPlusTreeMetadata(PageAllocator allocator, Type keySchema, int order) {
+        this(allocator, keySchema, order, true);
+    }
+
+    public BPlusTreeMetadata(PageAllocator allocator, Type keySchema, int order, boolean unique) {
+        this(allocator, keySchema, order, unique, false);
+    }
+
+    public BPlusTreeMetadata(PageAllocator allocator, Type keySchema, int order, boolean unique,
+                             boolean counted) {
         this.allocator = allocator;
         this.keySchema = keySchema;
         this.order = order;
+        this.unique = unique;
+        this.counted = counted;
+        this.nodeCache = new LinkedHashMap<Integer, InnerNode>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, InnerNode> eldest) {
+                return size() > NODE_CACHE_SIZE;
+            }
+        };
     }
 
     public PageAllocator getAllocator() {
@@ -37,4 +81,60 @@ class BPlusTreeMetadata {
     public int getOrder() {
         return order;
     }
+
+    public boolean isUnique() {
+        return unique;
+    }
+
+    public boolean isCounted() {
+        return counted;
+    }
+
+    /**
+     * Returns whether the tree truncates its separator keys. Trees of string
+     * keys do: when a leaf splits, the key pushed up into its parent is the
+     * shortest prefix of the right leaf's first key that is still greater than
+     * the left leaf's last key (see LeafNode.split), and inner nodes store
+     * their keys without padding (see InnerNode.toBytes). Inner nodes of such
+     * trees hold as many keys as fit in the space of 2d full-width keys, so
+     * short separators mean more children per node and a shallower tree.
+     */
+    public boolean truncatesSeparators() {
+        return keySchema.getTypeId() == TypeId.STRING;
+    }
+
+    /**
+     * Returns the cached inner node on page pageNum, or null if it isn't cached
+     * or the page holds a leaf.
+     */
+    synchronized InnerNode getCachedNode(int pageNum) {
+        InnerNode node = nodeCache.get(pageNum);
+        if (node != null) {
+            numNodeCacheHits++;
+        }
+        return node;
+    }
+
+    /** Returns whether the inner node on page pageNum is cached. */
+    synchronized boolean isCached(int pageNum) {
+        return nodeCache.containsKey(pageNum);
+    }
+
+    /** Records that an inner node had to be decoded from its page. */
+    synchronized void recordNodeCacheMiss() {
+        numNodeCacheMisses++;
+    }
+
+    /** Caches node, replacing whatever node was cached for its page. */
+    synchronized void cacheNode(InnerNode node) {
+        nodeCache.put(node.getPage().getPageNum(), node);
+    }
+
+    synchronized long getNumNodeCacheHits() {
+        return numNodeCacheHits;
+    }
+
+    synchronized long getNumNodeCacheMisses() {
+        return numNodeCacheMisses;
+    }
 }
@@ -0,0 +1,425 @@
+package edu.berkeley.cs186.database.index;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import edu.berkeley.cs186.database.BaseTransaction;
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.concurrency.LockContext;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.io.PageAllocator;
+import edu.berkeley.cs186.database.table.RecordId;
+
+/**
+ * A persistent hash index that maps keys to record ids, using extendible
+ * hashing. Like a BPlusTree, a hash index is serialized into a file with a
+ * PageAllocator and its keys may or may not be unique, but it can only answer
+ * equality lookups. In exchange, a lookup reads one bucket page (and the
+ * overflow pages of the bucket, if it has any) rather than one page per level
+ * of a tree.
+ *
+ * Page 0 of the file is a header page, which holds the key schema, whether the
+ * keys are unique, the global depth d of the index, and its directory: an
+ * array of 2^d bucket page numbers. A key whose hash ends in the d bits i is in
+ * the bucket on page directory[i]. Every bucket has a local depth d' <= d, and
+ * is pointed to by each of the 2^(d - d') entries of the directory whose last
+ * d' bits are the same.
+ *
+ * When a key is put into a full bucket, the bucket is split in two on bit d'
+ * of the hashes of its keys, after doubling the directory if d' = d. The
+ * directory has to fit on the header page, so once d' reaches maxGlobalDepth,
+ * or if every key in the bucket has the same hash as the new key (e.g. they
+ * are all copies of one key of an index whose keys are not unique), a full
+ * bucket gets an overflow page instead, and then a chain of them.
+ *
+ * Buckets are never merged: removing keys leaves a bucket, and its overflow
+ * pages, in place to be refilled.
+ */
+public class HashIndex implements Closeable {
+    public static final String FILENAME_EXTENSION = ".hash";
+
+    // A bucket page starts with the local depth of the bucket, the page number
+    // of its next overflow page (or -1), and its number of entries.
+    private static final int BUCKET_HEADER_SIZE = 3 * Integer.BYTES;
+
+    private PageAllocator allocator;
+    private Page headerPage;
+    private Type keySchema;
+    private boolean unique;
+    private int globalDepth;
+    // The largest global depth whose directory fits on the header page.
+    private int maxGlobalDepth;
+    private int[] directory;
+    // The number of (key, rid) pairs that fit on a bucket page.
+    private int bucketCapacity;
+
+    // Latches the structure of the index. Lookups hold it shared, and put and
+    // remove hold it exclusively.
+    private final ReadWriteLock latch = new ReentrantReadWriteLock();
+
+    // Constructors ////////////////////////////////////////////////////////////
+    /**
+     * Construct a new, empty hash index which is serialized into the file
+     * `filename` and stores keys of type `keySchema`, which are unique if
+     * `unique` is true and may repeat otherwise.
+     */
+    public HashIndex(String filename, Type keySchema, boolean unique, LockContext lockContext,
+                     BaseTransaction transaction) {
+        this.allocator = new PageAllocator(lockContext, filename, true, transaction);
+        initialize(keySchema, unique);
+
+        int headerPageNum = allocator.allocPage(transaction);
+        assert(headerPageNum == 0);
+        this.headerPage = allocator.fetchPage(transaction, headerPageNum);
+
+        BucketPage bucket = new BucketPage(allocator.allocPage(transaction), 0, -1);
+        bucket.write(transaction);
+        this.globalDepth = 0;
+        this.directory = new int[] {bucket.pageNum};
+        writeHeader(transaction);
+    }
+
+    /** Read a hash index that was previously serialized to filename. */
+    public HashIndex(String filename, LockContext lockContext, BaseTransaction transaction) {
+        this.allocator = new PageAllocator(lockContext, filename, false, transaction);
+        this.headerPage = allocator.fetchPage(transaction, 0);
+
+        // See writeHeader.
+        Buffer buf = headerPage.getBuffer(transaction);
+        Type keySchema = Type.fromBytes(buf);
+        boolean unique = buf.get() == 1;
+        initialize(keySchema, unique);
+        this.globalDepth = buf.getInt();
+        this.directory = new int[1 << globalDepth];
+        for (int i = 0; i < directory.length; ++i) {
+            directory[i] = buf.getInt();
+        }
+    }
+
+    private void initialize(Type keySchema, boolean unique) {
+        this.keySchema = keySchema;
+        this.unique = unique;
+
+        int headerSize = keySchema.toBytes().length + 1 + Integer.BYTES;
+        int maxDirectorySize = (Page.pageSize - headerSize) / Integer.BYTES;
+        this.maxGlobalDepth = 31 - Integer.numberOfLeadingZeros(maxDirectorySize);
+
+        int entrySize = keySchema.getSizeInBytes() + RecordId.getSizeInBytes();
+        this.bucketCapacity = (Page.pageSize - BUCKET_HEADER_SIZE) / entrySize;
+    }
+
+    public void close() {
+        this.allocator.close();
+    }
+
+    // Core API ////////////////////////////////////////////////////////////////
+    /**
+     * Returns the record ids associated with `key`. If the keys of the index
+     * are unique, there is at most one.
+     */
+    public Iterator<RecordId> scanEqual(BaseTransaction transaction, DataBox key) {
+        typecheck(key);
+        latch.readLock().lock();
+        try {
+            List<RecordId> rids = new ArrayList<>();
+            int pageNum = directory[bucketIndex(key)];
+            while (pageNum != -1) {
+                BucketPage page = readPage(transaction, pageNum);
+                for (int i = 0; i < page.keys.size(); ++i) {
+                    if (page.keys.get(i).equals(key)) {
+                        rids.add(page.rids.get(i));
+                    }
+                }
+                pageNum = page.overflow;
+            }
+            return rids.iterator();
+        } finally {
+            latch.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the record id associated with `key`, or the first of them if
+     * the keys of the index are not unique.
+     */
+    public Optional<RecordId> get(BaseTransaction transaction, DataBox key) {
+        Iterator<RecordId> rids = scanEqual(transaction, key);
+        return rids.hasNext() ? Optional.of(rids.next()) : Optional.empty();
+    }
+
+    /**
+     * Inserts a (key, rid) pair into the index. If the keys of the index are
+     * unique and `key` is already in it, a HashIndexException is thrown and
+     * the index is left unchanged.
+     */
+    public void put(BaseTransaction transaction, DataBox key, RecordId rid) throws HashIndexException {
+        typecheck(key);
+        latch.writeLock().lock();
+        try {
+            while (true) {
+                List<BucketPage> chain = readChain(transaction, directory[bucketIndex(key)]);
+                if (unique) {
+                    for (BucketPage page : chain) {
+                        if (page.keys.contains(key)) {
+                            String msg = String.format("Duplicate key %s inserted into a hash index.", key);
+                            throw new HashIndexException(msg);
+                        }
+                    }
+                }
+
+                for (BucketPage page : chain) {
+                    if (page.keys.size() < bucketCapacity) {
+                        page.keys.add(key);
+                        page.rids.add(rid);
+                        page.write(transaction);
+                        return;
+                    }
+                }
+
+                BucketPage bucket = chain.get(0);
+                if (bucket.localDepth < maxGlobalDepth && canSplit(chain, key)) {
+                    split(transaction, chain);
+                    continue;
+                }
+
+                BucketPage last = chain.get(chain.size() - 1);
+                BucketPage overflow = new BucketPage(allocator.allocPage(transaction), bucket.localDepth, -1);
+                overflow.keys.add(key);
+                overflow.rids.add(rid);
+                overflow.write(transaction);
+                last.overflow = overflow.pageNum;
+                last.write(transaction);
+                return;
+            }
+        } finally {
+            latch.writeLock().unlock();
+        }
+    }
+
+    /** Deletes the pair (key, rid) from the index, if it is in the index. */
+    public void remove(BaseTransaction transaction, DataBox key, RecordId rid) {
+        typecheck(key);
+        latch.writeLock().lock();
+        try {
+            int pageNum = directory[bucketIndex(key)];
+            while (pageNum != -1) {
+                BucketPage page = readPage(transaction, pageNum);
+                for (int i = 0; i < page.keys.size(); ++i) {
+                    if (page.keys.get(i).equals(key) && page.rids.get(i).equals(rid)) {
+                        page.keys.remove(i);
+                        page.rids.remove(i);
+                        page.write(transaction);
+                        return;
+                    }
+                }
+                pageNum = page.overflow;
+            }
+        } finally {
+            latch.writeLock().unlock();
+        }
+    }
+
+    // Helpers /////////////////////////////////////////////////////////////////
+    public boolean isUnique() {
+        return unique;
+    }
+
+    public Type getKeySchema() {
+        return keySchema;
+    }
+
+    public int getNumPages() {
+        return allocator.getNumPages();
+    }
+
+    public int getGlobalDepth() {
+        return globalDepth;
+    }
+
+    /**
+     * Returns the hash of key. The hash codes of DataBoxes of small integers
+     * are the integers themselves, so we mix their bits (as in the finalizer
+     * of MurmurHash3) before using the last few of them.
+     */
+    private static int hash(DataBox key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private int bucketIndex(DataBox key) {
+        return hash(key) & ((1 << globalDepth) - 1);
+    }
+
+    /** Reads the bucket page or overflow page on page pageNum. */
+    private BucketPage readPage(BaseTransaction transaction, int pageNum) {
+        Buffer buf = allocator.fetchPage(transaction, pageNum).getBuffer(transaction);
+        BucketPage page = new BucketPage(pageNum, buf.getInt(), buf.getInt());
+        int n = buf.getInt();
+        for (int i = 0; i < n; ++i) {
+            page.keys.add(DataBox.fromBytes(buf, keySchema));
+            page.rids.add(RecordId.fromBytes(buf));
+        }
+        return page;
+    }
+
+    /** Reads the bucket on page pageNum and its overflow pages. */
+    private List<BucketPage> readChain(BaseTransaction transaction, int pageNum) {
+        List<BucketPage> chain = new ArrayList<>();
+        while (pageNum != -1) {
+            BucketPage page = readPage(transaction, pageNum);
+            chain.add(page);
+            pageNum = page.overflow;
+        }
+        return chain;
+    }
+
+    /**
+     * Returns whether splitting the bucket `chain` up to maxGlobalDepth times
+     * would move some of its keys, or key, into a different bucket than the
+     * rest.
+     */
+    private boolean canSplit(List<BucketPage> chain, DataBox key) {
+        int mask = (1 << maxGlobalDepth) - 1;
+        int h = hash(key) & mask;
+        for (BucketPage page : chain) {
+            for (DataBox k : page.keys) {
+                if ((hash(k) & mask) != h) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits the bucket `chain` with local depth d' into two buckets with
+     * local depth d' + 1, the second of which is on a new page and gets the
+     * keys whose hash has bit d' set.
+     */
+    private void split(BaseTransaction transaction, List<BucketPage> chain) {
+        BucketPage bucket = chain.get(0);
+        int depth = bucket.localDepth;
+        if (depth == globalDepth) {
+            int size = directory.length;
+            directory = Arrays.copyOf(directory, 2 * size);
+            System.arraycopy(directory, 0, directory, size, size);
+            globalDepth++;
+        }
+
+        List<DataBox> keys = new ArrayList<>();
+        List<RecordId> rids = new ArrayList<>();
+        List<DataBox> newKeys = new ArrayList<>();
+        List<RecordId> newRids = new ArrayList<>();
+        List<Integer> pageNums = new ArrayList<>();
+        for (BucketPage page : chain) {
+            pageNums.add(page.pageNum);
+            for (int i = 0; i < page.keys.size(); ++i) {
+                boolean moves = ((hash(page.keys.get(i)) >>> depth) & 1) == 1;
+                (moves ? newKeys : keys).add(page.keys.get(i));
+                (moves ? newRids : rids).add(page.rids.get(i));
+            }
+        }
+
+        int newPageNum = allocator.allocPage(transaction);
+        for (int i = 0; i < directory.length; ++i) {
+            if (directory[i] == bucket.pageNum && ((i >>> depth) & 1) == 1) {
+                directory[i] = newPageNum;
+            }
+        }
+        writeChain(transaction, pageNums, depth + 1, keys, rids);
+        writeChain(transaction, new ArrayList<>(Collections.singletonList(newPageNum)), depth + 1,
+                   newKeys, newRids);
+        writeHeader(transaction);
+    }
+
+    /**
+     * Writes a bucket with local depth `localDepth` and entries (keys, rids)
+     * to the pages pageNums, the first of which is the bucket page and the
+     * rest of which are overflow pages. Pages are allocated if pageNums is too
+     * short, and the pages left over if it is too long are freed.
+     */
+    private void writeChain(BaseTransaction transaction, List<Integer> pageNums, int localDepth,
+                            List<DataBox> keys, List<RecordId> rids) {
+        int numPages = Math.max(1, (keys.size() + bucketCapacity - 1) / bucketCapacity);
+        while (pageNums.size() < numPages) {
+            pageNums.add(allocator.allocPage(transaction));
+        }
+        for (int i = numPages; i < pageNums.size(); ++i) {
+            allocator.freePage(transaction, pageNums.get(i));
+        }
+        for (int i = 0; i < numPages; ++i) {
+            int overflow = i + 1 < numPages ? pageNums.get(i + 1) : -1;
+            BucketPage page = new BucketPage(pageNums.get(i), localDepth, overflow);
+            int from = i * bucketCapacity;
+            int to = Math.min(keys.size(), from + bucketCapacity);
+            page.keys.addAll(keys.subList(from, to));
+            page.rids.addAll(rids.subList(from, to));
+            page.write(transaction);
+        }
+    }
+
+    /**
+     * Serializes the header page. We write the key schema, whether the keys
+     * are unique (1 byte), the global depth d (4 bytes), and the 2^d page
+     * numbers (4 bytes each) of the directory.
+     */
+    private void writeHeader(BaseTransaction transaction) {
+        Buffer buf = headerPage.getBuffer(transaction);
+        buf.put(keySchema.toBytes());
+        buf.put((byte) (unique ? 1 : 0));
+        buf.putInt(globalDepth);
+        for (int pageNum : directory) {
+            buf.putInt(pageNum);
+        }
+    }
+
+    private void typecheck(DataBox key) {
+        if (!key.type().equals(keySchema)) {
+            String msg = String.format("DataBox %s is not of type %s", key, keySchema);
+            throw new IllegalArgumentException(msg);
+        }
+    }
+
+    /**
+     * A bucket page, or an overflow page of a bucket. On disk, it is the local
+     * depth of its bucket (4 bytes), the page number of the next overflow page
+     * of its bucket or -1 (4 bytes), its number n of entries (4 bytes), and n
+     * (key, rid) pairs.
+     */
+    private class BucketPage {
+        final int pageNum;
+        int localDepth;
+        int overflow;
+        final List<DataBox> keys = new ArrayList<>();
+        final List<RecordId> rids = new ArrayList<>();
+
+        BucketPage(int pageNum, int localDepth, int overflow) {
+            this.pageNum = pageNum;
+            this.localDepth = localDepth;
+            this.overflow = overflow;
+        }
+
+        void write(BaseTransaction transaction) {
+            int entrySize = keySchema.getSizeInBytes() + RecordId.getSizeInBytes();
+            ByteBuffer buf = ByteBuffer.allocate(BUCKET_HEADER_SIZE + entrySize * keys.size());
+            buf.putInt(localDepth);
+            buf.putInt(overflow);
+            buf.putInt(keys.size());
+            for (int i = 0; i < keys.size(); ++i) {
+                buf.put(keys.get(i).toBytes());
+                buf.put(rids.get(i).toBytes());
+            }
+            Page page = allocator.fetchPage(transaction, pageNum);
+            BPlusNode.writeChangedBytes(transaction, page, buf.array());
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package edu.berkeley.cs186.database.index;
+
+public class HashIndexException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public HashIndexException() {
+        super();
+    }
+
+    public HashIndexException(String message) {
+        super(message);
+    }
+}
@@ -1,13 +1,16 @@
 package edu.berkeley.cs186.database.index;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 import edu.berkeley.cs186.database.BaseTransaction;
 import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.table.RecordId;
 
@@ -23,6 +26,10 @@ import edu.berkeley.cs186.database.table.RecordId;
  *     | 10 | 20 | 30 |    |
  *     +----+----+----+----+
  *    /     |    |     \
+ *
+ * The inner nodes of a counted tree (see BPlusTreeMetadata.isCounted) also
+ * store, for each child, the number of entries in the subtree rooted by that
+ * child.
  */
 class InnerNode extends BPlusNode {
     // Metadata about the B+ tree that this node belongs to.
@@ -38,6 +45,10 @@ class InnerNode extends BPlusNode {
     private List<DataBox> keys;
     private List<Integer> children;
 
+    // counts[i] is the number of entries in the subtree rooted by children[i],
+    // if the tree is counted. Otherwise, counts is null.
+    private List<Integer> counts;
+
     // Constructors //////////////////////////////////////////////////////////////
     /**
      * Construct a brand new inner node. The inner node will be persisted on a
@@ -45,7 +56,17 @@ class InnerNode extends BPlusNode {
      */
     public InnerNode(BPlusTreeMetadata metadata, List<DataBox> keys,
                      List<Integer> children, BaseTransaction transaction) {
-        this(metadata, metadata.getAllocator().allocPage(transaction), keys, children, transaction);
+        this(metadata, keys, children, null, transaction);
+    }
+
+    /**
+     * Construct a brand new inner node like above, whose children have
+     * `counts` entries under them. counts must be given if and only if the
+     * tree is counted.
+     */
+    InnerNode(BPlusTreeMetadata metadata, List<DataBox> keys, List<Integer> children,
+              List<Integer> counts, BaseTransaction transaction) {
+        this(metadata, metadata.getAllocator().allocPage(transaction), keys, children, counts, transaction);
     }
 
     /**
@@ -53,14 +74,17 @@ class InnerNode extends BPlusNode {
      * metadata.getAllocator().
      */
     private InnerNode(BPlusTreeMetadata metadata, int pageNum, List<DataBox> keys,
-                      List<Integer> children, BaseTransaction transaction) {
-        assert(keys.size() <= 2 * metadata.getOrder());
+                      List<Integer> children, List<Integer> counts, BaseTransaction transaction) {
         assert(keys.size() + 1 == children.size());
+        assert(metadata.isCounted() == (counts != null));
+        assert(counts == null || counts.size() == children.size());
 
         this.metadata = metadata;
         this.page = metadata.getAllocator().fetchPage(transaction, pageNum);
         this.keys = keys;
         this.children = children;
+        this.counts = counts;
+        assert(!isOverfull());
         sync(transaction);
     }
 
@@ -68,20 +92,64 @@ class InnerNode extends BPlusNode {
     // See BPlusNode.get.
     @Override
     public LeafNode get(BaseTransaction transaction, DataBox key) {
-        return null;
+        return getChild(transaction, childIndex(key)).get(transaction, key);
+    }
+
+    // See BPlusNode.lookup.
+    @Override
+    public Optional<RecordId> lookup(BaseTransaction transaction, DataBox key) {
+        int pageNum = children.get(childIndex(key));
+        return BPlusNode.lookup(transaction, metadata, pageNum, key);
     }
 
     // See BPlusNode.getLeftmostLeaf.
     @Override
     public LeafNode getLeftmostLeaf(BaseTransaction transaction) {
-        return null;
+        return getChild(transaction, 0).getLeftmostLeaf(transaction);
+    }
+
+    // See BPlusNode.getLastBefore.
+    @Override
+    public Optional<Pair<LeafNode, Integer>> getLastBefore(BaseTransaction transaction,
+            Optional<DataBox> key, boolean inclusive) {
+        // The children up to lastChildBefore(key) may not hold any entry
+        // before `key` (e.g. if their leaves are empty), so we try them from
+        // right to left.
+        for (int i = lastChildBefore(key, inclusive); i >= 0; --i) {
+            Optional<Pair<LeafNode, Integer>> last = getChild(transaction, i).getLastBefore(transaction,
+                    key, inclusive);
+            if (last.isPresent()) {
+                return last;
+            }
+        }
+        return Optional.empty();
     }
 
     // See BPlusNode.put.
     @Override
     public Optional<Pair<DataBox, Integer>> put(BaseTransaction transaction, DataBox key, RecordId rid)
     throws BPlusTreeException {
-        return Optional.empty();
+        int index = numLessThanEqual(key, keys);
+        BPlusNode child = getChild(transaction, index);
+        Optional<Pair<DataBox, Integer>> split = child.put(transaction, key, rid);
+        if (!split.isPresent()) {
+            if (counts != null) {
+                counts.set(index, counts.get(index) + 1);
+                sync(transaction);
+            }
+            return Optional.empty();
+        }
+
+        keys.add(index, split.get().getFirst());
+        children.add(index + 1, split.get().getSecond());
+        if (counts != null) {
+            // child kept the first of its entries and moved the rest to the
+            // new right child.
+            int left = child.numEntries();
+            counts.add(index + 1, counts.get(index) + 1 - left);
+            counts.set(index, left);
+        }
+        return splitIfFull(transaction);
     }
 
     // See BPlusNode.bulkLoad.
@@ -90,13 +158,124 @@ class InnerNode extends BPlusNode {
             Iterator<Pair<DataBox, RecordId>> data,
             float fillFactor)
     throws BPlusTreeException {
-        return Optional.empty();
+        while (data.hasNext() && !isOverfull()) {
+            BPlusNode rightmost = getChild(transaction, children.size() - 1);
+            Optional<Pair<DataBox, Integer>> split = rightmost.bulkLoad(transaction, data, fillFactor);
+            if (counts != null) {
+                counts.set(counts.size() - 1, rightmost.numEntries());
+            }
+            if (split.isPresent()) {
+                keys.add(split.get().getFirst());
+                children.add(split.get().getSecond());
+                if (counts != null) {
+                    counts.add(getChild(transaction, children.size() - 1).numEntries());
+                }
+            }
+        }
+        return splitIfFull(transaction);
     }
 
     // See BPlusNode.remove.
     @Override
     public void remove(BaseTransaction transaction, DataBox key) {
-        return;
+        if (counts != null) {
+            removeEntries(transaction, key, Optional.empty());
+            return;
+        }
+        get(transaction, key).remove(transaction, key);
+    }
+
+    // See BPlusNode.numEntries.
+    @Override
+    int numEntries() {
+        int n = 0;
+        for (int count : counts) {
+            n += count;
+        }
+        return n;
+    }
+
+    // See BPlusNode.rank.
+    @Override
+    int rank(BaseTransaction transaction, DataBox key, boolean inclusive) {
+        // Every key under the children before child i is before `key`, and
+        // no key under the children after it is (see lastChildBefore).
+        int i = lastChildBefore(Optional.of(key), inclusive);
+        return numEntriesBefore(i) + getChild(transaction, i).rank(transaction, key, inclusive);
+    }
+
+    /** Returns the number of entries under the children before child i. */
+    int numEntriesBefore(int i) {
+        int n = 0;
+        for (int j = 0; j < i; ++j) {
+            n += counts.get(j);
+        }
+        return n;
+    }
+
+    // See BPlusNode.removeEntries.
+    @Override
+    int removeEntries(BaseTransaction transaction, DataBox key, Optional<RecordId> rid) {
+        // Entries with key `key` may be under any child from childIndex(key)
+        // up to the first child whose separator is greater than `key`.
+        int removed = 0;
+        for (int i = childIndex(key); i <= numLessThanEqual(key, keys); ++i) {
+            int n = getChild(transaction, i).removeEntries(transaction, key, rid);
+            if (n > 0) {
+                counts.set(i, counts.get(i) - n);
+                removed += n;
+                if (rid.isPresent()) {
+                    break;
+                }
+            }
+        }
+        if (removed > 0) {
+            sync(transaction);
+        }
+        return removed;
+    }
+
+    /**
+     * Syncs this node if it isn't overfull. Otherwise, keeps the first d keys,
+     * moves the last d keys to a new right node, and returns the middle key
+     * along with the page number of the right node. If the tree truncates
+     * separators, keys vary in size, so the node is instead split at the key
+     * that halves the number of bytes its keys take up.
+     */
+    private Optional<Pair<DataBox, Integer>> splitIfFull(BaseTransaction transaction) {
+        if (!isOverfull()) {
+            sync(transaction);
+            return Optional.empty();
+        }
+
+        int d = metadata.getOrder();
+        if (metadata.truncatesSeparators()) {
+            int total = 0;
+            for (DataBox key : keys) {
+                total += keySizeInBytes(key);
+            }
+            int left = 0;
+            d = 0;
+            while (left < total / 2) {
+                left += keySizeInBytes(keys.get(d++));
+            }
+            d = Math.max(1, Math.min(d, keys.size() - 2));
+        }
+
+        DataBox splitKey = keys.get(d);
+        List<DataBox> rightKeys = new ArrayList<>(keys.subList(d + 1, keys.size()));
+        List<Integer> rightChildren = new ArrayList<>(children.subList(d + 1, children.size()));
+        keys = new ArrayList<>(keys.subList(0, d));
+        children = new ArrayList<>(children.subList(0, d + 1));
+        List<Integer> rightCounts = null;
+        if (counts != null) {
+            rightCounts = new ArrayList<>(counts.subList(d + 1, counts.size()));
+            counts = new ArrayList<>(counts.subList(0, d + 1));
+        }
+
+        InnerNode right = new InnerNode(metadata, rightKeys, rightChildren, rightCounts, transaction);
+        sync(transaction);
+        return Optional.of(new Pair<>(splitKey, right.getPage().getPageNum()));
     }
 
     // Helpers ///////////////////////////////////////////////////////////////////
@@ -105,36 +284,155 @@ class InnerNode extends BPlusNode {
         return page;
     }
 
+    // See BPlusNode.hasRoom.
+    @Override
+    boolean hasRoom() {
+        int d = metadata.getOrder();
+        if (!metadata.truncatesSeparators()) {
+            return keys.size() < 2 * d;
+        }
+        // The key a split child hands up may take up as much space as a
+        // full-width key.
+        int childSize = childSizeInBytes(metadata);
+        return sizeInBytes() + Short.BYTES + metadata.getKeySchema().getSizeInBytes() + childSize
+               <= maxSizeInBytes();
+    }
+
+    /**
+     * Returns whether this node has more keys than it may hold: more than 2d
+     * keys or, if the tree truncates separators, more keys and children than
+     * take up the space of 2d full-width keys and their 2d + 1 children.
+     */
+    private boolean isOverfull() {
+        if (!metadata.truncatesSeparators()) {
+            return keys.size() > 2 * metadata.getOrder();
+        }
+        return sizeInBytes() > maxSizeInBytes();
+    }
+
+    /**
+     * Returns the number of bytes the keys and children of this node take up
+     * in its serialization, if the tree truncates separators.
+     */
+    private int sizeInBytes() {
+        int size = 0;
+        for (DataBox key : keys) {
+            size += keySizeInBytes(key);
+        }
+        return size + children.size() * childSizeInBytes(metadata);
+    }
+
+    /** Returns the space 2d full-width keys and their 2d + 1 children take up. */
+    private int maxSizeInBytes() {
+        int d = metadata.getOrder();
+        int childSize = childSizeInBytes(metadata);
+        return 2 * d * (Short.BYTES + metadata.getKeySchema().getSizeInBytes()) + (2 * d + 1) * childSize;
+    }
+
+    /**
+     * Returns the number of bytes a child takes up in the serialization of an
+     * inner node: its page number, and its entry count if the tree is
+     * counted.
+     */
+    private static int childSizeInBytes(BPlusTreeMetadata metadata) {
+        return metadata.isCounted() ? 2 * Integer.BYTES : Integer.BYTES;
+    }
+
+    /** Returns the number of bytes key takes up in the serialization of this node. */
+    private int keySizeInBytes(DataBox key) {
+        if (!metadata.truncatesSeparators()) {
+            return metadata.getKeySchema().getSizeInBytes();
+        }
+        return Short.BYTES + unpaddedLength(key.getString());
+    }
+
+    /** Returns the length of s without its trailing (padding) spaces. */
+    private static int unpaddedLength(String s) {
+        int n = s.length();
+        while (n > 0 && s.charAt(n - 1) == ' ') {
+            --n;
+        }
+        return n;
+    }
+
+    /**
+     * Returns the index of the child to descend into to find key. In a tree
+     * with non-unique keys, entries equal to a separator may be found on both
+     * sides of it, so we descend into the leftmost child that may hold key.
+     */
+    int childIndex(DataBox key) {
+        return metadata.isUnique() ? numLessThanEqual(key, keys) : numLessThan(key, keys);
+    }
+
+    /**
+     * Returns the index of the last child that may hold a key less than key
+     * (or less than or equal to it, if inclusive), or of the last child if
+     * key is empty. The children to the right of it only hold keys that are
+     * not before key.
+     */
+    int lastChildBefore(Optional<DataBox> key, boolean inclusive) {
+        if (!key.isPresent()) {
+            return children.size() - 1;
+        }
+        return inclusive ? numLessThanEqual(key.get(), keys) : numLessThan(key.get(), keys);
+    }
+
+    /**
+     * Returns the page number of the child to descend into to find key (see
+     * childIndex), paired with the key to the right of that child, if it is
+     * not the last child. Every key found in the child's subtree is less
+     * than that key (or, in a tree with non-unique keys, less than or equal
+     * to it).
+     */
+    Pair<Integer, Optional<DataBox>> getChildAndBound(DataBox key) {
+        int i = childIndex(key);
+        Optional<DataBox> bound = i < keys.size() ? Optional.of(keys.get(i)) : Optional.empty();
+        return new Pair<>(children.get(i), bound);
+    }
+
     private BPlusNode getChild(BaseTransaction transaction, int i) {
         int pageNum = children.get(i);
         return BPlusNode.fromBytes(transaction, metadata, pageNum);
     }
 
+    /**
+     * Serializes this node to its page and caches it (see
+     * BPlusTreeMetadata.cacheNode), so that later descents read this version.
+     */
     private void sync(BaseTransaction transaction) {
-        Buffer b = page.getBuffer(transaction);
-        byte[] newBytes = toBytes();
-        byte[] bytes = new byte[newBytes.length];
-        b.get(bytes);
-        if (!Arrays.equals(bytes, newBytes)) {
-            page.getBuffer(transaction).put(toBytes());
-        }
+        writeChangedBytes(transaction, page, toBytes());
+        metadata.cacheNode(this);
     }
 
-    // Just for testing.
+    // The keys and children of this node. Must not be modified.
     List<DataBox> getKeys() {
         return keys;
     }
 
-    // Just for testing.
     List<Integer> getChildren() {
         return children;
     }
 
+    // Just for testing.
+    List<Integer> getCounts() {
+        return counts;
+    }
+
     /**
      * Returns the largest number d such that the serialization of an InnerNode
      * with 2d keys will fit on a single page of size `pageSizeInBytes`.
      */
     public static int maxOrder(int pageSizeInBytes, Type keySchema) {
+        return maxOrder(pageSizeInBytes, keySchema, false);
+    }
+
+    /**
+     * Returns the largest number d such that the serialization of an InnerNode
+     * with 2d keys will fit on a single page of size `pageSizeInBytes`, in a
+     * tree that is counted if `counted` is true. Each child of a counted tree
+     * takes up 4 more bytes, for its entry count.
+     */
+    public static int maxOrder(int pageSizeInBytes, Type keySchema, boolean counted) {
         // A leaf node with n entries takes up the following number of bytes:
         //
         //   1 + 4 + (n * keySize) + ((n + 1) * 4)
@@ -144,20 +442,26 @@ class InnerNode extends BPlusNode {
         //   - 1 is the number of bytes used to store isLeaf,
         //   - 4 is the number of bytes used to store n,
         //   - keySize is the number of bytes used to store a DataBox of type
-        //     keySchema, and
-        //   - 4 is the number of bytes used to store a child pointer.
+        //     keySchema (plus 2 bytes for its length, for string keys; see
+        //     toBytes), and
+        //   - 4 is the number of bytes used to store a child pointer (or
+        //     childSize = 8 in a counted tree, which also stores its count).
         //
         // Solving the following equation
         //
-        //   5 + (n * keySize) + ((n + 1) * 4) <= pageSizeInBytes
+        //   5 + (n * keySize) + ((n + 1) * childSize) <= pageSizeInBytes
         //
         // we get
         //
-        //   n = (pageSizeInBytes - 9) / (keySize + 4)
+        //   n = (pageSizeInBytes - 5 - childSize) / (keySize + childSize)
         //
         // The order d is half of n.
         int keySize = keySchema.getSizeInBytes();
-        int n = (pageSizeInBytes - 9) / (keySize + 4);
+        if (keySchema.getTypeId() == TypeId.STRING) {
+            keySize += Short.BYTES;
+        }
+        int childSize = counted ? 8 : 4;
+        int n = (pageSizeInBytes - 5 - childSize) / (keySize + childSize);
         return n / 2;
     }
 
@@ -187,30 +491,36 @@ class InnerNode extends BPlusNode {
      * If we're searching the tree for value c, then we need to visit child 3.
      * Not coincidentally, there are also 3 values less than or equal to c (i.e.
      * a, b, c).
+     *
+     * ys is binary searched, so it should support fast random access.
      */
     public static <T extends Comparable<T>> int numLessThanEqual(T x, List<T> ys) {
-        int n = 0;
-        for (T y : ys) {
-            if (y.compareTo(x) <= 0) {
-                ++n;
+        int lo = 0;
+        int hi = ys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ys.get(mid).compareTo(x) <= 0) {
+                lo = mid + 1;
             } else {
-                break;
+                hi = mid;
             }
         }
-        return n;
+        return lo;
     }
 
     /** Same as numLessThanEqual but for < instead of <= */
     public static <T extends Comparable<T>> int numLessThan(T x, List<T> ys) {
-        int n = 0;
-        for (T y : ys) {
-            if (y.compareTo(x) < 0) {
-                ++n;
+        int lo = 0;
+        int hi = ys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ys.get(mid).compareTo(x) < 0) {
+                lo = mid + 1;
             } else {
-                break;
+                hi = mid;
             }
         }
-        return n;
+        return lo;
     }
 
     // Pretty Printing ///////////////////////////////////////////////////////////
@@ -280,7 +590,9 @@ class InnerNode extends BPlusNode {
         //   b. the number n (4 bytes) of keys this inner node contains (which is
         //      one fewer than the number of children pointers),
         //   c. the n keys, and
-        //   d. the n+1 children pointers.
+        //   d. the n+1 children pointers, and
+        //   e. if the tree is counted, the n+1 entry counts of the children
+        //      (4 bytes each).
         //
         // For example, the following bytes:
         //
@@ -292,47 +604,90 @@ class InnerNode extends BPlusNode {
         //
         // represent an inner node with one key (i.e. 1) and two children pointers
         // (i.e. page 3 and page 7).
+        //
+        // If the tree truncates separators (i.e. has string keys), each key is
+        // instead written as its length (2 bytes) followed by its characters
+        // without their trailing padding, so short separators take up little
+        // space. For example, the key "Alis" of type string(10) is written as
+        // 00 04 41 6c 69 73 rather than as 10 bytes.
 
         // All sizes are in bytes.
         int isLeafSize = 1;
         int numKeysSize = Integer.BYTES;
-        int keysSize = metadata.getKeySchema().getSizeInBytes() * keys.size();
-        int childrenSize = Integer.BYTES * children.size();
+        int keysSize = 0;
+        for (DataBox key : keys) {
+            keysSize += keySizeInBytes(key);
+        }
+        int childrenSize = childSizeInBytes(metadata) * children.size();
         int size = isLeafSize + numKeysSize + keysSize + childrenSize;
 
         ByteBuffer buf = ByteBuffer.allocate(size);
         buf.put((byte) 0);
         buf.putInt(keys.size());
         for (DataBox key : keys) {
-            buf.put(key.toBytes());
+            if (metadata.truncatesSeparators()) {
+                byte[] bytes = key.toBytes();
+                int length = unpaddedLength(key.getString());
+                buf.putShort((short) length);
+                buf.put(bytes, 0, length);
+            } else {
+                buf.put(key.toBytes());
+            }
         }
         for (Integer child : children) {
             buf.putInt(child);
         }
+        if (counts != null) {
+            for (Integer count : counts) {
+                buf.putInt(count);
+            }
+        }
         return buf.array();
     }
 
     /**
      * InnerNode.fromBytes(t, meta, p) loads a InnerNode from page p of
-     * meta.getAllocator().
+     * meta.getAllocator(). Cached nodes are returned without reading the page.
      */
     public static InnerNode fromBytes(BaseTransaction transaction, BPlusTreeMetadata metadata,
                                       int pageNum) {
+        InnerNode cached = metadata.getCachedNode(pageNum);
+        return cached != null ? cached : decode(transaction, metadata, pageNum);
+    }
+
+    /** Deserializes the InnerNode on page p of meta.getAllocator(). */
+    static InnerNode decode(BaseTransaction transaction, BPlusTreeMetadata metadata, int pageNum) {
+        metadata.recordNodeCacheMiss();
         Page page = metadata.getAllocator().fetchPage(transaction, pageNum);
         Buffer buf = page.getBuffer(transaction);
 
-        assert(buf.get() == (byte) 0);
+        byte nodeType = buf.get();
+        assert(nodeType == (byte) 0);
 
         List<DataBox> keys = new ArrayList<>();
         List<Integer> children = new ArrayList<>();
         int n = buf.getInt();
         for (int i = 0; i < n; ++i) {
-            keys.add(DataBox.fromBytes(buf, metadata.getKeySchema()));
+            if (metadata.truncatesSeparators()) {
+                byte[] bytes = new byte[buf.getShort()];
+                buf.get(bytes);
+                String s = new String(bytes, StandardCharsets.UTF_8);
+                keys.add(new StringDataBox(s, metadata.getKeySchema().getSizeInBytes()));
+            } else {
+                keys.add(DataBox.fromBytes(buf, metadata.getKeySchema()));
+            }
         }
         for (int i = 0; i < n + 1; ++i) {
             children.add(buf.getInt());
         }
-        return new InnerNode(metadata, pageNum, keys, children, transaction);
+        List<Integer> counts = null;
+        if (metadata.isCounted()) {
+            counts = new ArrayList<>();
+            for (int i = 0; i < n + 1; ++i) {
+                counts.add(buf.getInt());
+            }
+        }
+        return new InnerNode(metadata, pageNum, keys, children, counts, transaction);
     }
 
     // Builtins //////////////////////////////////////////////////////////////////
@@ -347,11 +702,12 @@ class InnerNode extends BPlusNode {
         InnerNode n = (InnerNode) o;
         return page.getPageNum() == n.page.getPageNum() &&
                keys.equals(n.keys) &&
-               children.equals(n.children);
+               children.equals(n.children) &&
+               Objects.equals(counts, n.counts);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(page.getPageNum(), keys, children);
+        return Objects.hash(page.getPageNum(), keys, children, counts);
     }
 }
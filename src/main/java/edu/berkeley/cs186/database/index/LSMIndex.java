@@ -0,0 +1,627 @@
+package edu.berkeley.cs186.database.index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import edu.berkeley.cs186.database.BaseTransaction;
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.concurrency.LockContext;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.io.PageAllocator;
+import edu.berkeley.cs186.database.table.RecordId;
+
+/**
+ * A write-optimized index that maps keys to record ids, in the style of a
+ * log-structured merge tree. Putting a pair into a BPlusTree writes the leaf
+ * its key belongs in, which for keys that arrive in no particular order is a
+ * random page per put. An LSMIndex instead absorbs puts and removes into a
+ * sorted buffer in memory. Once the buffer holds bufferCapacity changes, it
+ * is written out all at once as a new run: an immutable BPlusTree, bulk
+ * loaded in key order (see BPlusTree.bulkLoad), so that each of its pages is
+ * written once.
+ *
+ * A lookup merges the buffer and the runs. For every (key, rid) pair, the
+ * newest of them with an entry for the pair decides whether it is in the
+ * index, because a remove is recorded as an entry too: a tombstone, which
+ * hides the pair in the older runs. So that lookups don't have to read more
+ * and more runs, once there are more than maxRuns of them they are merged
+ * into one in the background, dropping the tombstones and the pairs they
+ * hide. If compaction falls behind, puts wait for it.
+ *
+ * Compactions run one at a time on a thread of the index's own, and outside
+ * of any transaction: the runs are private to the index, and the transaction
+ * whose put started a compaction may well have ended before it finishes. A
+ * compaction that fails leaves the runs as they were, and its error is kept
+ * (see getCompactionFailure); the next flush tries again.
+ *
+ *   LSMIndex index = new LSMIndex("i.lsm", Type.intType(), lockContext, transaction);
+ *   index.put(transaction, new IntDataBox(7), new RecordId(0, (short) 0));
+ *   index.put(transaction, new IntDataBox(7), new RecordId(0, (short) 1));
+ *   index.remove(transaction, new IntDataBox(7), new RecordId(0, (short) 0));
+ *   index.scanEqual(transaction, new IntDataBox(7)); // [(0, 1)]
+ *
+ * The keys of an LSMIndex may repeat. It is meant for append-heavy tables,
+ * whose indexed columns are rarely unique, and checking that a key is unique
+ * would cost a lookup per put.
+ *
+ * The index is persisted as a manifest file, `filename`, and one file per
+ * run, named `filename.<run id>`. The manifest holds the key schema, the
+ * buffer capacity and maximum number of runs, the id of the next run, and
+ * the ids of the runs, newest first. The buffer is written out as a run when
+ * the index is closed.
+ */
+public class LSMIndex implements Closeable {
+    public static final String FILENAME_EXTENSION = ".lsm";
+
+    private static final int DEFAULT_BUFFER_CAPACITY = 4096;
+    private static final int DEFAULT_MAX_RUNS = 4;
+    // Puts wait for compaction when there are more than twice maxRuns runs,
+    // and never write out the buffer while there are that many (see change),
+    // so the ids of at most 2 * MAX_MAX_RUNS + 2 runs (one more when the
+    // index is closed) have to fit on the manifest page.
+    private static final int MAX_MAX_RUNS = 64;
+
+    private String filename;
+    private LockContext lockContext;
+    private PageAllocator allocator;
+    private Page manifestPage;
+    private Type keySchema;
+    private int bufferCapacity;
+    private int maxRuns;
+
+    // Key -> rid -> whether (key, rid) was put (true) or removed (false) since
+    // the buffer was last written out.
+    private TreeMap<DataBox, TreeMap<RecordId, Boolean>> buffer;
+    // The number of (key, rid) pairs in the buffer.
+    private int bufferSize;
+
+    // The runs, newest first.
+    private List<Run> runs;
+    private int nextRunId;
+
+    // The latest compaction, which may still be running. It never completes
+    // exceptionally; see compact.
+    private volatile CompletableFuture<Void> compaction;
+    // The thread compactions run on, and the error of the last compaction
+    // that failed, if one has.
+    private ExecutorService compactor;
+    private volatile RuntimeException compactionFailure;
+
+    // Latches the buffer and the list of runs. Lookups hold it shared, and
+    // put, remove, and the end of a compaction hold it exclusively. The runs
+    // themselves are immutable.
+    private final ReadWriteLock latch = new ReentrantReadWriteLock();
+
+    private static class Run {
+        final int id;
+        final BPlusTree tree;
+
+        Run(int id, BPlusTree tree) {
+            this.id = id;
+            this.tree = tree;
+        }
+    }
+
+    // Constructors ////////////////////////////////////////////////////////////
+    /**
+     * Construct a new, empty LSM index which is serialized into the file
+     * `filename` (and the files of its runs) and stores keys of type
+     * `keySchema`.
+     */
+    public LSMIndex(String filename, Type keySchema, LockContext lockContext,
+                    BaseTransaction transaction) {
+        this(filename, keySchema, DEFAULT_BUFFER_CAPACITY, DEFAULT_MAX_RUNS, lockContext, transaction);
+    }
+
+    /**
+     * Like above, but the buffer is written out as a run once it holds
+     * bufferCapacity (key, rid) pairs, and the runs are compacted once there
+     * are more than maxRuns of them.
+     */
+    public LSMIndex(String filename, Type keySchema, int bufferCapacity, int maxRuns,
+                    LockContext lockContext, BaseTransaction transaction) {
+        if (bufferCapacity < 1 || maxRuns < 1 || maxRuns > MAX_MAX_RUNS) {
+            String msg = String.format("Invalid buffer capacity %d or maximum number of runs %d.",
+                                       bufferCapacity, maxRuns);
+            throw new IllegalArgumentException(msg);
+        }
+        this.filename = filename;
+        this.lockContext = lockContext;
+        this.allocator = new PageAllocator(lockContext, filename, true, transaction);
+        int manifestPageNum = allocator.allocPage(transaction);
+        assert(manifestPageNum == 0);
+        this.manifestPage = allocator.fetchPage(transaction, manifestPageNum);
+
+        initialize(keySchema, bufferCapacity, maxRuns);
+        this.nextRunId = 0;
+        writeManifest(transaction);
+    }
+
+    /** Read an LSM index that was previously serialized to filename. */
+    public LSMIndex(String filename, LockContext lockContext, BaseTransaction transaction) {
+        this.filename = filename;
+        this.lockContext = lockContext;
+        this.allocator = new PageAllocator(lockContext, filename, false, transaction);
+        this.manifestPage = allocator.fetchPage(transaction, 0);
+
+        // See writeManifest.
+        Buffer buf = manifestPage.getBuffer(transaction);
+        Type keySchema = Type.fromBytes(buf);
+        int bufferCapacity = buf.getInt();
+        int maxRuns = buf.getInt();
+        initialize(keySchema, bufferCapacity, maxRuns);
+        this.nextRunId = buf.getInt();
+        int numRuns = buf.getInt();
+        for (int i = 0; i < numRuns; ++i) {
+            int id = buf.getInt();
+            runs.add(new Run(id, new BPlusTree(runFilename(id), runContext(id), transaction)));
+        }
+    }
+
+    private void initialize(Type keySchema, int bufferCapacity, int maxRuns) {
+        this.keySchema = keySchema;
+        this.bufferCapacity = bufferCapacity;
+        this.maxRuns = maxRuns;
+        this.buffer = new TreeMap<>();
+        this.bufferSize = 0;
+        this.runs = new ArrayList<>();
+        this.compaction = CompletableFuture.completedFuture(null);
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "compaction of " + filename);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Waits for any compaction in progress, writes out the buffer, and closes
+     * the files of the index.
+     */
+    public void close() {
+        awaitCompaction();
+        latch.writeLock().lock();
+        try {
+            flush(null);
+            closeFiles();
+        } finally {
+            latch.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Waits for any compaction in progress, and closes and deletes the files
+     * of the index, without writing out the buffer.
+     */
+    public void drop() {
+        awaitCompaction();
+        latch.writeLock().lock();
+        try {
+            closeFiles();
+            for (Run run : runs) {
+                new File(runFilename(run.id)).delete();
+            }
+            new File(filename).delete();
+        } finally {
+            latch.writeLock().unlock();
+        }
+    }
+
+    private void closeFiles() {
+        compactor.shutdown();
+        for (Run run : runs) {
+            run.tree.close();
+        }
+        allocator.close();
+    }
+
+    // Core API ////////////////////////////////////////////////////////////////
+    /**
+     * Returns the record ids associated with `key`, in ascending order. The
+     * result is collected before it is returned, so that it doesn't hold up
+     * puts and compactions.
+     */
+    public Iterator<RecordId> scanEqual(BaseTransaction transaction, DataBox key) {
+        return scanRange(transaction, Optional.of(key), true, Optional.of(key), true);
+    }
+
+    /**
+     * Returns the first record id associated with `key`, if there is one.
+     */
+    public Optional<RecordId> get(BaseTransaction transaction, DataBox key) {
+        Iterator<RecordId> rids = scanEqual(transaction, key);
+        return rids.hasNext() ? Optional.of(rids.next()) : Optional.empty();
+    }
+
+    /**
+     * Returns the record ids of the keys in the range between lo and hi, in
+     * ascending order of key and then record id, like BPlusTree.scanRange. The
+     * result is collected before it is returned.
+     */
+    public Iterator<RecordId> scanRange(BaseTransaction transaction, Optional<DataBox> lo,
+                                        boolean loInclusive, Optional<DataBox> hi, boolean hiInclusive) {
+        List<RecordId> rids = new ArrayList<>();
+        for (Pair<DataBox, RecordId> entry : scanRangeEntries(transaction, lo, loInclusive, hi, hiInclusive)) {
+            rids.add(entry.getSecond());
+        }
+        return rids.iterator();
+    }
+
+    /** Like scanRange, but returns keys instead of record ids. */
+    public Iterator<DataBox> scanRangeKeys(BaseTransaction transaction, Optional<DataBox> lo,
+                                           boolean loInclusive, Optional<DataBox> hi, boolean hiInclusive) {
+        List<DataBox> keys = new ArrayList<>();
+        for (Pair<DataBox, RecordId> entry : scanRangeEntries(transaction, lo, loInclusive, hi, hiInclusive)) {
+            keys.add(entry.getFirst());
+        }
+        return keys.iterator();
+    }
+
+    private List<Pair<DataBox, RecordId>> scanRangeEntries(BaseTransaction transaction, Optional<DataBox> lo,
+            boolean loInclusive, Optional<DataBox> hi, boolean hiInclusive) {
+        lo.ifPresent(this::typecheck);
+        hi.ifPresent(this::typecheck);
+        List<Pair<DataBox, RecordId>> entries = new ArrayList<>();
+        if (lo.isPresent() && hi.isPresent()) {
+            int cmp = lo.get().compareTo(hi.get());
+            if (cmp > 0 || (cmp == 0 && !(loInclusive && hiInclusive))) {
+                return entries;
+            }
+        }
+
+        latch.readLock().lock();
+        try {
+            NavigableMap<DataBox, TreeMap<RecordId, Boolean>> buffered = buffer;
+            if (lo.isPresent()) {
+                buffered = buffered.tailMap(lo.get(), loInclusive);
+            }
+            if (hi.isPresent()) {
+                buffered = buffered.headMap(hi.get(), hiInclusive);
+            }
+            List<Iterator<Pair<DataBox, RecordId>>> sources = new ArrayList<>();
+            sources.add(bufferEntries(buffered));
+            for (Run run : runs) {
+                sources.add(run.tree.scanRangeEntries(transaction, lo, loInclusive, hi, hiInclusive));
+            }
+            new MergeIterator(sources).forEachRemaining(entries::add);
+            return entries;
+        } finally {
+            latch.readLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts a (key, rid) pair into the index. If the buffer is full, it is
+     * written out as a new run first.
+     */
+    public void put(BaseTransaction transaction, DataBox key, RecordId rid) {
+        change(transaction, key, rid, true);
+    }
+
+    /** Deletes the pair (key, rid) from the index, if it is in the index. */
+    public void remove(BaseTransaction transaction, DataBox key, RecordId rid) {
+        change(transaction, key, rid, false);
+    }
+
+    /**
+     * Applies a put (if present is true) or remove of (key, rid) to the
+     * buffer, writing the buffer out if it fills up.
+     *
+     * If the buffer would fill up while there are already more than twice
+     * maxRuns runs, there is no room for another run until a compaction
+     * finishes, so we wait for the compaction. If it has failed, we retry it
+     * once, and if that fails too, the change is refused with an
+     * IllegalStateException: writes stop, rather than letting the runs grow
+     * past what the manifest can hold, until a compaction succeeds.
+     */
+    private void change(BaseTransaction transaction, DataBox key, RecordId rid, boolean present) {
+        typecheck(key);
+        boolean retried = false;
+        while (true) {
+            CompletableFuture<Void> stall = null;
+            boolean changed = false;
+            latch.writeLock().lock();
+            try {
+                if (bufferSize + 1 >= bufferCapacity && runs.size() > 2 * maxRuns) {
+                    if (compaction.isDone()) {
+                        if (retried) {
+                            throw new IllegalStateException("The runs of the index can't be compacted.",
+                                                            compactionFailure);
+                        }
+                        retried = true;
+                        startCompaction(transaction);
+                    }
+                    stall = compaction;
+                } else {
+                    if (buffer.computeIfAbsent(key, k -> new TreeMap<>()).put(rid, present) == null) {
+                        bufferSize++;
+                    }
+                    if (bufferSize >= bufferCapacity) {
+                        flush(transaction);
+                        stall = startCompaction(transaction);
+                    }
+                    changed = true;
+                }
+            } finally {
+                latch.writeLock().unlock();
+            }
+            if (stall != null) {
+                stall.join();
+            }
+            if (changed) {
+                return;
+            }
+        }
+    }
+
+    /** Waits for the compaction in progress, if there is one, to finish. */
+    public void awaitCompaction() {
+        compaction.join();
+    }
+
+    /**
+     * Returns the error that the last compaction to fail failed with, if a
+     * compaction has failed.
+     */
+    public Optional<RuntimeException> getCompactionFailure() {
+        return Optional.ofNullable(compactionFailure);
+    }
+
+    public Type getKeySchema() {
+        return keySchema;
+    }
+
+    /** Returns the number of runs the buffer has been written out to. */
+    public int getNumRuns() {
+        latch.readLock().lock();
+        try {
+            return runs.size();
+        } finally {
+            latch.readLock().unlock();
+        }
+    }
+
+    /** Returns the number of pages of the manifest and the runs. */
+    public int getNumPages() {
+        latch.readLock().lock();
+        try {
+            int numPages = allocator.getNumPages();
+            for (Run run : runs) {
+                numPages += run.tree.getNumPages();
+            }
+            return numPages;
+        } finally {
+            latch.readLock().unlock();
+        }
+    }
+
+    // Helpers /////////////////////////////////////////////////////////////////
+    /**
+     * Writes the buffer out as the newest run, if it isn't empty. Must be
+     * called with the latch held exclusively.
+     */
+    private void flush(BaseTransaction transaction) {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        runs.add(0, newRun(transaction, nextRunId++, bufferEntries(buffer)));
+        buffer.clear();
+        bufferSize = 0;
+        writeManifest(transaction);
+    }
+
+    /**
+     * Starts merging every run into one in the background if there are more
+     * than maxRuns runs and no compaction is running already. Returns the
+     * compaction in progress if there are so many runs that puts should wait
+     * for it, and null otherwise. Must be called with the latch held
+     * exclusively.
+     */
+    private CompletableFuture<Void> startCompaction(BaseTransaction transaction) {
+        if (runs.size() <= maxRuns) {
+            return null;
+        }
+        if (compaction.isDone()) {
+            List<Run> merged = new ArrayList<>(runs);
+            int id = nextRunId++;
+            writeManifest(transaction);
+            compaction = CompletableFuture.runAsync(() -> compact(merged, id), compactor);
+        }
+        return runs.size() > 2 * maxRuns ? compaction : null;
+    }
+
+    /**
+     * Merges `merged`, which are the oldest runs, into a new run with id `id`,
+     * and replaces them with it. Nothing is older than the oldest run, so the
+     * new run doesn't need any tombstones, and the merge drops them.
+     *
+     * If the new run can't be written, the merged runs are kept, the error is
+     * recorded in compactionFailure, and the partly written run is deleted.
+     */
+    private void compact(List<Run> merged, int id) {
+        Run run;
+        try {
+            List<Iterator<Pair<DataBox, RecordId>>> sources = new ArrayList<>();
+            for (Run old : merged) {
+                sources.add(old.tree.scanRangeEntries(null, Optional.empty(), false, Optional.empty(), false));
+            }
+            run = newRun(null, id, new MergeIterator(sources));
+        } catch (RuntimeException e) {
+            compactionFailure = e;
+            new File(runFilename(id)).delete();
+            return;
+        }
+
+        latch.writeLock().lock();
+        try {
+            // Runs written out since the compaction started are newer than
+            // the merged ones, so the merged runs are still the last ones.
+            runs.subList(runs.size() - merged.size(), runs.size()).clear();
+            runs.add(run);
+            writeManifest(null);
+        } finally {
+            latch.writeLock().unlock();
+        }
+        for (Run old : merged) {
+            old.tree.close();
+            new File(runFilename(old.id)).delete();
+        }
+    }
+
+    /**
+     * Bulk loads the (key, rid) entries, which must be in ascending order of
+     * key and then rid, into a new run with id `id`. If that fails, the file
+     * of the run is closed before the error is thrown.
+     */
+    private Run newRun(BaseTransaction transaction, int id, Iterator<Pair<DataBox, RecordId>> entries) {
+        BPlusTree tree;
+        try {
+            tree = new BPlusTree(runFilename(id), keySchema, BPlusTree.maxOrder(Page.pageSize, keySchema),
+                                 false, runContext(id), transaction);
+        } catch (BPlusTreeException e) {
+            // The order is valid for the key type.
+            throw new IllegalStateException(e);
+        }
+        try {
+            tree.bulkLoad(transaction, entries, 1.0f);
+            return new Run(id, tree);
+        } catch (BPlusTreeException e) {
+            // The tree is new, so it is empty.
+            tree.close();
+            throw new IllegalStateException(e);
+        } catch (RuntimeException e) {
+            tree.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the entries of (part of) the buffer, in ascending order of key
+     * and then rid, with the pairs that were removed as tombstones.
+     */
+    private static Iterator<Pair<DataBox, RecordId>> bufferEntries(
+        NavigableMap<DataBox, TreeMap<RecordId, Boolean>> buffered) {
+        List<Pair<DataBox, RecordId>> entries = new ArrayList<>();
+        for (Map.Entry<DataBox, TreeMap<RecordId, Boolean>> key : buffered.entrySet()) {
+            for (Map.Entry<RecordId, Boolean> rid : key.getValue().entrySet()) {
+                entries.add(new Pair<>(key.getKey(), rid.getValue() ? rid.getKey() : tombstone(rid.getKey())));
+            }
+        }
+        return entries.iterator();
+    }
+
+    // A tombstone for the pair (key, rid) is stored in a run as the pair
+    // (key, tombstone(rid)), whose page number is negative.
+    private static RecordId tombstone(RecordId rid) {
+        return new RecordId(-rid.getPageNum() - 1, rid.getEntryNum());
+    }
+
+    private static boolean isTombstone(RecordId rid) {
+        return rid.getPageNum() < 0;
+    }
+
+    /** Returns the rid that an entry, tombstone or not, is for. */
+    private static RecordId entryRid(RecordId rid) {
+        return isTombstone(rid) ? tombstone(rid) : rid;
+    }
+
+    private static int compareEntries(Pair<DataBox, RecordId> a, Pair<DataBox, RecordId> b) {
+        int cmp = a.getFirst().compareTo(b.getFirst());
+        return cmp != 0 ? cmp : entryRid(a.getSecond()).compareTo(entryRid(b.getSecond()));
+    }
+
+    private String runFilename(int id) {
+        return filename + "." + id;
+    }
+
+    private LockContext runContext(int id) {
+        return lockContext.childContext("run-" + id);
+    }
+
+    private void writeManifest(BaseTransaction transaction) {
+        Buffer buf = manifestPage.getBuffer(transaction);
+        buf.put(keySchema.toBytes());
+        buf.putInt(bufferCapacity);
+        buf.putInt(maxRuns);
+        buf.putInt(nextRunId);
+        buf.putInt(runs.size());
+        for (Run run : runs) {
+            buf.putInt(run.id);
+        }
+    }
+
+    private void typecheck(DataBox key) {
+        if (!key.type().equals(keySchema)) {
+            String msg = String.format("DataBox %s is not of type %s", key, keySchema);
+            throw new IllegalArgumentException(msg);
+        }
+    }
+
+    /**
+     * Merges iterators over entries, each in ascending order of key and then
+     * rid, into one iterator in the same order. The sources are ordered from
+     * newest to oldest, and only the newest entry for each (key, rid) pair
+     * counts: the pair is returned if it is an insert, and skipped if it is a
+     * tombstone.
+     */
+    private static class MergeIterator implements Iterator<Pair<DataBox, RecordId>> {
+        // The next entry of each source that has one, and the index of the
+        // source, ordered by entry and then from newest to oldest.
+        private PriorityQueue<Pair<Pair<DataBox, RecordId>, Integer>> heads;
+        private List<Iterator<Pair<DataBox, RecordId>>> sources;
+        private Pair<DataBox, RecordId> next;
+
+        MergeIterator(List<Iterator<Pair<DataBox, RecordId>>> sources) {
+            this.sources = sources;
+            this.heads = new PriorityQueue<>(Math.max(1, sources.size()),
+                                             (a, b) -> {
+                                                 int cmp = compareEntries(a.getFirst(), b.getFirst());
+                                                 return cmp != 0 ? cmp : Integer.compare(a.getSecond(), b.getSecond());
+                                             });
+            for (int i = 0; i < sources.size(); ++i) {
+                advance(i);
+            }
+            this.next = null;
+        }
+
+        private void advance(int source) {
+            if (sources.get(source).hasNext()) {
+                heads.add(new Pair<>(sources.get(source).next(), source));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !heads.isEmpty()) {
+                Pair<Pair<DataBox, RecordId>, Integer> head = heads.poll();
+                Pair<DataBox, RecordId> entry = head.getFirst();
+                advance(head.getSecond());
+                // Skip the older entries for the same pair.
+                while (!heads.isEmpty() && compareEntries(heads.peek().getFirst(), entry) == 0) {
+                    advance(heads.poll().getSecond());
+                }
+                if (!isTombstone(entry.getSecond())) {
+                    next = entry;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Pair<DataBox, RecordId> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Pair<DataBox, RecordId> entry = next;
+            next = null;
+            return entry;
+        }
+    }
+}
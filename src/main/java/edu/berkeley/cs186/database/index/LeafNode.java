@@ -7,6 +7,7 @@ import edu.berkeley.cs186.database.BaseTransaction;
 import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.table.RecordId;
@@ -130,20 +131,56 @@ class LeafNode extends BPlusNode {
     // See BPlusNode.get.
     @Override
     public LeafNode get(BaseTransaction transaction, DataBox key) {
-        return null;
+        return this;
+    }
+
+    // See BPlusNode.lookup.
+    @Override
+    public Optional<RecordId> lookup(BaseTransaction transaction, DataBox key) {
+        return getKey(key);
     }
 
     // See BPlusNode.getLeftmostLeaf.
     @Override
     public LeafNode getLeftmostLeaf(BaseTransaction transaction) {
-        return null;
+        return this;
+    }
+
+    // See BPlusNode.getLastBefore.
+    @Override
+    public Optional<Pair<LeafNode, Integer>> getLastBefore(BaseTransaction transaction,
+            Optional<DataBox> key, boolean inclusive) {
+        int n = keys.size();
+        if (key.isPresent()) {
+            n = inclusive ? InnerNode.numLessThanEqual(key.get(), keys) : InnerNode.numLessThan(key.get(), keys);
+        }
+        return n == 0 ? Optional.empty() : Optional.of(new Pair<>(this, n));
     }
 
     // See BPlusNode.put.
     @Override
     public Optional<Pair<DataBox, Integer>> put(BaseTransaction transaction, DataBox key, RecordId rid)
     throws BPlusTreeException {
-        return Optional.empty();
+        int index = InnerNode.numLessThan(key, keys);
+        if (index < keys.size() && keys.get(index).equals(key)) {
+            if (metadata.isUnique()) {
+                String msg = String.format("Duplicate key %s inserted into a B+ tree.", key);
+                throw new BPlusTreeException(msg);
+            }
+            index = InnerNode.numLessThanEqual(key, keys);
+        }
+        keys.add(index, key);
+        rids.add(index, rid);
+
+        int d = metadata.getOrder();
+        if (keys.size() <= 2 * d) {
+            sync(transaction);
+            return Optional.empty();
+        }
+
+        // Keep the first d entries and move the other d + 1 to a new right
+        // sibling.
+        return Optional.of(split(transaction, d));
     }
 
     // See BPlusNode.bulkLoad.
@@ -152,20 +189,168 @@ class LeafNode extends BPlusNode {
             Iterator<Pair<DataBox, RecordId>> data,
             float fillFactor)
     throws BPlusTreeException {
-        return Optional.empty();
+        int d = metadata.getOrder();
+        int fill = (int) Math.ceil(2 * d * fillFactor);
+        while (data.hasNext() && keys.size() <= fill) {
+            Pair<DataBox, RecordId> pair = data.next();
+            keys.add(pair.getFirst());
+            rids.add(pair.getSecond());
+        }
+
+        if (keys.size() <= fill) {
+            sync(transaction);
+            return Optional.empty();
+        }
+
+        // We're one entry over the fill factor; move it to a new right sibling.
+        return Optional.of(split(transaction, fill));
     }
 
     // See BPlusNode.remove.
     @Override
     public void remove(BaseTransaction transaction, DataBox key) {
-        return;
+        int from = InnerNode.numLessThan(key, keys);
+        int to = InnerNode.numLessThanEqual(key, keys);
+        if (from == to) {
+            return;
+        }
+        keys.subList(from, to).clear();
+        rids.subList(from, to).clear();
+        sync(transaction);
+    }
+
+    /**
+     * Removes the entry (key, rid) from this leaf, returning whether it was
+     * found.
+     */
+    boolean remove(BaseTransaction transaction, DataBox key, RecordId rid) {
+        for (int i = InnerNode.numLessThan(key, keys); i < keys.size() && keys.get(i).equals(key); ++i) {
+            if (rids.get(i).equals(rid)) {
+                keys.remove(i);
+                rids.remove(i);
+                sync(transaction);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // See BPlusNode.numEntries.
+    @Override
+    int numEntries() {
+        return keys.size();
+    }
+
+    // See BPlusNode.rank.
+    @Override
+    int rank(BaseTransaction transaction, DataBox key, boolean inclusive) {
+        return inclusive ? InnerNode.numLessThanEqual(key, keys) : InnerNode.numLessThan(key, keys);
+    }
+
+    // See BPlusNode.removeEntries.
+    @Override
+    int removeEntries(BaseTransaction transaction, DataBox key, Optional<RecordId> rid) {
+        if (rid.isPresent()) {
+            return remove(transaction, key, rid.get()) ? 1 : 0;
+        }
+        int n = keys.size();
+        remove(transaction, key);
+        return n - keys.size();
+    }
+
+    // See BPlusNode.hasRoom.
+    @Override
+    boolean hasRoom() {
+        return keys.size() < 2 * metadata.getOrder();
+    }
+
+    /**
+     * Returns whether entries with key `key` may be found to the right of this
+     * leaf, i.e. whether this leaf has no key greater than `key`. Only trees
+     * with non-unique keys can have such entries.
+     */
+    boolean mayContinueRightOf(DataBox key) {
+        return !metadata.isUnique() && rightSibling.isPresent() &&
+               (keys.isEmpty() || keys.get(keys.size() - 1).compareTo(key) <= 0);
+    }
+
+    /**
+     * Keeps the first n entries of this leaf and moves the rest to a new right
+     * sibling, returning the split key and the page number of the right sibling.
+     * The split key is the first key of the right sibling, truncated if the
+     * tree truncates separators (see BPlusTreeMetadata.truncatesSeparators).
+     */
+    private Pair<DataBox, Integer> split(BaseTransaction transaction, int n) {
+        DataBox splitKey = keys.get(n);
+        if (metadata.truncatesSeparators() && n > 0) {
+            splitKey = shortestSeparator(keys.get(n - 1), keys.get(n));
+        }
+
+        List<DataBox> rightKeys = new ArrayList<>(keys.subList(n, keys.size()));
+        List<RecordId> rightRids = new ArrayList<>(rids.subList(n, rids.size()));
+        keys = new ArrayList<>(keys.subList(0, n));
+        rids = new ArrayList<>(rids.subList(0, n));
+
+        LeafNode right = new LeafNode(metadata, rightKeys, rightRids, rightSibling, transaction);
+        int rightPageNum = right.getPage().getPageNum();
+        rightSibling = Optional.of(rightPageNum);
+        sync(transaction);
+        return new Pair<>(splitKey, rightPageNum);
+    }
+
+    /**
+     * Returns the shortest prefix of `right` that is greater than `left`,
+     * given that left < right. Strings are padded with spaces, the smallest
+     * character, so the padded prefix is never greater than `right` itself.
+     * For example, the shortest separator of "Alice" and "Alison" is "Alis".
+     */
+    static DataBox shortestSeparator(DataBox left, DataBox right) {
+        String s = right.getString();
+        for (int i = 1; i < s.length(); ++i) {
+            DataBox prefix = new StringDataBox(s.substring(0, i), s.length());
+            if (prefix.compareTo(left) > 0) {
+                return prefix;
+            }
+        }
+        return right;
     }
 
     // Iterators /////////////////////////////////////////////////////////////////
     /** Return the record id associated with `key`. */
     public Optional<RecordId> getKey(DataBox key) {
-        int index = keys.indexOf(key);
-        return index == -1 ? Optional.empty() : Optional.of(rids.get(index));
+        int index = InnerNode.numLessThan(key, keys);
+        if (index == keys.size() || !keys.get(index).equals(key)) {
+            return Optional.empty();
+        }
+        return Optional.of(rids.get(index));
+    }
+
+    /**
+     * Returns the record id associated with `key` in the leaf serialized on
+     * `page`. The (fixed-width) entries of the page are binary searched in
+     * place, so only the keys that are probed are deserialized. See toBytes
+     * for the layout of the page.
+     */
+    static Optional<RecordId> lookup(BaseTransaction transaction, BPlusTreeMetadata metadata,
+                                     Page page, DataBox key) {
+        int headerSize = 1 + Integer.BYTES + Integer.BYTES;
+        int entrySize = metadata.getKeySchema().getSizeInBytes() + RecordId.getSizeInBytes();
+        Buffer buf = page.getBuffer(transaction);
+        int lo = 0;
+        int hi = buf.getInt(1 + Integer.BYTES) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            buf.position(headerSize + mid * entrySize);
+            int cmp = DataBox.fromBytes(buf, metadata.getKeySchema()).compareTo(key);
+            if (cmp == 0) {
+                return Optional.of(RecordId.fromBytes(buf));
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return Optional.empty();
     }
 
     /**
@@ -202,15 +387,17 @@ class LeafNode extends BPlusNode {
         return Optional.of(LeafNode.fromBytes(transaction, metadata, pageNum));
     }
 
+    /**
+     * Returns the page number of the right sibling of this leaf, if it has
+     * one, without reading the sibling.
+     */
+    Optional<Integer> getRightSiblingPageNum() {
+        return rightSibling;
+    }
+
     /** Serializes this leaf to its page. */
     private void sync(BaseTransaction transaction) {
-        Buffer b = page.getBuffer(transaction);
-        byte[] newBytes = toBytes();
-        byte[] bytes = new byte[newBytes.length];
-        b.get(bytes);
-        if (!Arrays.equals(bytes, newBytes)) {
-            page.getBuffer(transaction).put(toBytes());
-        }
+        writeChangedBytes(transaction, page, toBytes());
     }
 
     /**
@@ -335,13 +522,42 @@ class LeafNode extends BPlusNode {
         return buf.array();
     }
 
+    /**
+     * Returns the page number of the right sibling of the leaf stored on page,
+     * or empty if the leaf has none or page doesn't hold a leaf (any more).
+     * Unlike fromBytes, this reads page as it is, without counting an I/O.
+     */
+    static Optional<Integer> readRightSibling(Page page) {
+        Buffer buf = page.getBuffer(null);
+        if (buf.get() != (byte) 1) {
+            return Optional.empty();
+        }
+        int sibling = buf.getInt();
+        return sibling < 0 ? Optional.empty() : Optional.of(sibling);
+    }
+
     /**
      * LeafNode.fromBytes(m, p) loads a LeafNode from page p of
      * meta.getAllocator().
      */
     public static LeafNode fromBytes(BaseTransaction transaction, BPlusTreeMetadata metadata,
                                      int pageNum) {
-        return new LeafNode(metadata, Collections.emptyList(), Collections.emptyList(), Optional.empty(), transaction);
+        Page page = metadata.getAllocator().fetchPage(transaction, pageNum);
+        Buffer buf = page.getBuffer(transaction);
+
+        byte nodeType = buf.get();
+        assert(nodeType == (byte) 1);
+
+        int sibling = buf.getInt();
+        Optional<Integer> rightSibling = sibling == -1 ? Optional.empty() : Optional.of(sibling);
+        List<DataBox> keys = new ArrayList<>();
+        List<RecordId> rids = new ArrayList<>();
+        int n = buf.getInt();
+        for (int i = 0; i < n; ++i) {
+            keys.add(DataBox.fromBytes(buf, metadata.getKeySchema()));
+            rids.add(RecordId.fromBytes(buf));
+        }
+        return new LeafNode(metadata, pageNum, keys, rids, rightSibling, transaction);
     }
 
     // Builtins //////////////////////////////////////////////////////////////////
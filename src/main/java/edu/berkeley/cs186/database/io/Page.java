@@ -5,6 +5,7 @@ import edu.berkeley.cs186.database.common.AbstractBuffer;
 import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.concurrency.*;
 
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.io.IOException;
@@ -16,7 +17,9 @@ public class Page {
     public static final int pageSize = 4096;
 
     private LockContext lockContext;
-    private MappedByteBuffer pageData;
+    // The bytes of the page: mapped from a file, or, for pages made with
+    // Page(byte[], int), in memory.
+    private ByteBuffer pageData;
     private int pageNum;
     private boolean durable;
 
@@ -54,6 +57,23 @@ public class Page {
         }
     }
 
+    /**
+     * Create a page with virtual page number pageNum whose bytes are `bytes`,
+     * which must be pageSize long. The page lives in memory only: it is not
+     * backed by a file, and flush does nothing. Tables use such pages to hand
+     * out the decompressed images of their compressed pages (see
+     * Table.compressPages).
+     */
+    public Page(byte[] bytes, int pageNum) {
+        if (bytes.length != Page.pageSize) {
+            throw new PageException("an in-memory page must be " + Page.pageSize + " bytes long");
+        }
+        this.lockContext = new DummyLockContext();
+        this.pageNum = pageNum;
+        this.durable = false;
+        this.pageData = ByteBuffer.wrap(bytes);
+    }
+
     public Buffer getBuffer(BaseTransaction transaction) {
         return new PageBuffer(transaction);
     }
@@ -65,7 +85,7 @@ public class Page {
      * @param num the number of bytes to read
      * @param buf the buffer to put the bytes into
      */
-    private void readBytes(int position, int num, byte[] buf) {
+    private synchronized void readBytes(int position, int num, byte[] buf) {
         if (position < 0 || num < 0) {
             throw new PageException("position or num can't be negative");
         }
@@ -97,7 +117,7 @@ public class Page {
      * @param num the number of bytes to write
      * @param buf the source for the write
      */
-    private void writeBytes(int position, int num, byte[] buf) {
+    private synchronized void writeBytes(int position, int num, byte[] buf) {
         if (buf.length < num) {
             throw new PageException("num bytes to write is longer than buffer");
         }
@@ -121,6 +141,16 @@ public class Page {
         getBuffer(transaction).put(data);
     }
 
+    /**
+     * Read the contents of the page into memory, so that later reads of it
+     * don't have to wait on the disk.
+     */
+    public void load() {
+        if (this.pageData instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) this.pageData).load();
+        }
+    }
+
     /**
      * Completely wipe (zero out) the page.
      */
@@ -133,9 +163,9 @@ public class Page {
      * Force the page to disk.
      */
     public void flush() {
-        if (this.durable) {
+        if (this.durable && this.pageData instanceof MappedByteBuffer) {
             PageAllocator.incrementCacheMisses();
-            this.pageData.force();
+            ((MappedByteBuffer) this.pageData).force();
         }
     }
 
@@ -15,8 +15,13 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.io.Closeable;
 
 import edu.berkeley.cs186.database.BaseTransaction;
@@ -34,6 +39,9 @@ import edu.berkeley.cs186.database.concurrency.LockContext;
 public class PageAllocator implements Closeable {
     private static final int numHeaderPages = 1024;
     private static final int cacheSize = 1024;
+    // The most prefetches (see prefetchPage) that may be waiting or running at
+    // once per allocator; further ones are dropped.
+    public static final int MAX_PREFETCHES = 16;
 
     private static AtomicInteger pACounter = new AtomicInteger(0);
     private static LRUCache<Long, Page> pageLRU = new LRUCache<>(cacheSize);
@@ -47,6 +55,12 @@ public class PageAllocator implements Closeable {
     private int numUsedHeaderPages;
     private int allocID;
     private boolean durable;
+
+    // The thread prefetches run on, which is started by the first prefetch
+    // and stopped by close, and the number of prefetches it has yet to finish.
+    private ExecutorService prefetcher;
+    private final AtomicInteger numPrefetches = new AtomicInteger(0);
+
     /**
      * Create a new PageAllocator that writes its bytes into a file named fName. If wipe is true, the
      * data in the page is completely removed.
@@ -187,6 +201,17 @@ public class PageAllocator implements Closeable {
         }
 
         numIOs.getAndIncrement();
+        return getPage(transaction, pageNum);
+    }
+
+    /** Like fetchPage, but doesn't count as an I/O. */
+    private synchronized Page getPage(BaseTransaction transaction, int pageNum) {
+        if (pageNum < 0) {
+            throw new PageException("invalid page number -- out of bounds");
+        }
+        if (this.masterPage == null) {
+            throw new PageException("page allocator is closed");
+        }
 
         synchronized(PageAllocator.class) {
             if (pageLRU.containsKey(translatePageNum(pageNum))) {
@@ -227,6 +252,58 @@ public class PageAllocator implements Closeable {
         return dataPage;
     }
 
+    /**
+     * Starts reading the page corresponding to virtual page number pageNum
+     * into memory in the background, so that a later fetchPage of it doesn't
+     * have to wait on the disk, and then passes the page to `then` on the same
+     * background thread.
+     *
+     * A prefetch is only a hint. Prefetches run one at a time on a thread of
+     * the allocator's own, and at most MAX_PREFETCHES of them wait or run at
+     * once; any more are dropped. Those that haven't run yet are cancelled
+     * when the allocator is closed. A prefetch doesn't count as an I/O (see
+     * getNumIOs), because the fetchPage it is ahead of does. If the page can't
+     * be fetched, e.g. because it has been freed since, it is skipped, and
+     * fetchPage reports the error if the page is fetched after all.
+     *
+     * @param pageNum the virtual page number
+     * @param then what to do with the page once it is in memory
+     * @return whether the prefetch was started
+     */
+    public synchronized boolean prefetchPage(int pageNum, Consumer<Page> then) {
+        if (this.masterPage == null || numPrefetches.get() >= MAX_PREFETCHES) {
+            return false;
+        }
+        if (prefetcher == null) {
+            // The thread stops when it has been idle for a second, so that
+            // allocators which are never closed don't keep it around.
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), r -> {
+                        Thread thread = new Thread(r, "prefetch of allocator " + allocID);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            prefetcher = executor;
+        }
+        numPrefetches.incrementAndGet();
+        prefetcher.execute(() -> {
+            try {
+                Page page;
+                try {
+                    page = getPage(null, pageNum);
+                } catch (PageException e) {
+                    return;
+                }
+                page.load();
+                then.accept(page);
+            } finally {
+                numPrefetches.decrementAndGet();
+            }
+        });
+        return true;
+    }
+
     /**
      * Frees the page to be returned back to the system. The page is no longer valid and can be re-used
      * the next time the user called allocPage.
@@ -299,6 +376,9 @@ public class PageAllocator implements Closeable {
         if (this.masterPage == null) {
             return;
         }
+        if (this.prefetcher != null) {
+            this.prefetcher.shutdownNow();
+        }
         if (this.durable) {
             this.masterPage.flush();
         }
@@ -346,6 +426,32 @@ public class PageAllocator implements Closeable {
         return this.numPages;
     }
 
+    /**
+     * Returns the virtual page numbers of every allocated page in increasing
+     * order. Only the master and header pages are read, so this is much
+     * cheaper than walking a PageIterator when all we need are page numbers
+     * (e.g. to split a file into page ranges).
+     *
+     * @return the allocated virtual page numbers, sorted
+     */
+    public synchronized int[] getAllocatedPageNums(BaseTransaction transaction) {
+        int[] pageNums = new int[this.numPages];
+        Buffer masterBuffer = this.masterPage.getBuffer(transaction);
+        int n = 0;
+        for (int i = 0; i < numHeaderPages && n < pageNums.length; i++) {
+            if (masterBuffer.getInt(i * 4) == 0) {
+                continue;
+            }
+            byte[] headerBytes = getHeadPage(i).readBytes(transaction);
+            for (int j = 0; j < Page.pageSize && n < pageNums.length; j++) {
+                if (headerBytes[j] != 0) {
+                    pageNums[n++] = i * Page.pageSize + j;
+                }
+            }
+        }
+        return n == pageNums.length ? pageNums : Arrays.copyOf(pageNums, n);
+    }
+
     public synchronized static long getNumIOs() {
         return PageAllocator.numIOs.get();
     }
@@ -73,17 +73,25 @@ public class BNLJOperator extends JoinOperator {
         private Record leftRecord = null;
         private Record rightRecord = null;
         private Record nextRecord = null;
+        // Whether the right table has a Bloom filter on its join column, which
+        // lets us skip left records (and whole left blocks) without a match.
+        private boolean rightHasBloomFilter = false;
+        // Whether leftRecord might join with some right record, probed once
+        // per left record (see setLeftRecord).
+        private boolean leftMightMatch = true;
 
         public BNLJIterator() throws QueryPlanException, DatabaseException {
             super();
+            this.rightHasBloomFilter = getTransaction().hasBloomFilter(this.getRightTableName(),
+                                       BNLJOperator.this.getRightColumnName());
             this.leftIterator = getTransaction().getPageIterator(this.getLeftTableName());
             this.rightIterator = getTransaction().getPageIterator(this.getRightTableName());
             this.leftIterator.next();
             this.rightIterator.next();
-            this.leftRecordIterator = BNLJOperator.this.getBlockIterator(this.getLeftTableName(), this.leftIterator, getTransaction().getNumMemoryPages());
+            this.leftRecordIterator = nextLeftBlock();
             this.rightRecordIterator = BNLJOperator.this.getBlockIterator(this.getRightTableName(), this.rightIterator, 1);
             rightIterator.mark();
-            this.leftRecord = this.leftRecordIterator.hasNext() ? this.leftRecordIterator.next() : null;
+            setLeftRecord(this.leftRecordIterator.hasNext() ? this.leftRecordIterator.next() : null);
             this.rightRecord = this.rightRecordIterator.hasNext() ? this.rightRecordIterator.next() : null;
             if (this.leftRecord != null) {
                 this.leftRecordIterator.mark();
@@ -104,7 +112,10 @@ public class BNLJOperator extends JoinOperator {
             if (this.leftRecord == null) {throw new DatabaseException("No new record to fetch");}
             this.nextRecord = null;
             do {
-                if (this.rightRecord != null) {
+                if (this.rightRecord != null && !this.leftMightMatch) {
+                    // Skip the rest of the right page for this left record.
+                    this.rightRecord = null;
+                } else if (this.rightRecord != null) {
                     DataBox leftJoinValue = this.leftRecord.getValues().get(BNLJOperator.this.getLeftColumnIndex());
                     DataBox rightJoinValue = rightRecord.getValues().get(BNLJOperator.this.getRightColumnIndex());
                     if (leftJoinValue.equals(rightJoinValue)) {
@@ -117,7 +128,7 @@ public class BNLJOperator extends JoinOperator {
                 } else {
                     if (this.leftRecordIterator.hasNext()) {
                         rightRecordIterator.reset();
-                        this.leftRecord = leftRecordIterator.next();
+                        setLeftRecord(leftRecordIterator.next());
                         this.rightRecord = rightRecordIterator.next();
                     } else {
                         try {
@@ -125,7 +136,7 @@ public class BNLJOperator extends JoinOperator {
                             this.rightRecord = rightRecordIterator.next();
                             this.rightRecordIterator.mark();
                             leftRecordIterator.reset();
-                            this.leftRecord = leftRecordIterator.next();
+                            setLeftRecord(leftRecordIterator.next());
                         } catch (DatabaseException e) {
                             rightIterator.reset();
                             rightRecordIterator = BNLJOperator.this.getBlockIterator(this.getRightTableName(), this.rightIterator, 1);
@@ -133,7 +144,7 @@ public class BNLJOperator extends JoinOperator {
                             this.rightRecordIterator.mark();
                             try {
                                 fetchNextLeftPage();
-                                this.leftRecord = leftRecordIterator.next();
+                                setLeftRecord(leftRecordIterator.next());
                                 this.leftRecordIterator.mark();
                             } catch (DatabaseException t) {
                                 this.nextRecord = null;
@@ -155,12 +166,58 @@ public class BNLJOperator extends JoinOperator {
 
         public void fetchNextLeftPage() throws DatabaseException{
             if (leftIterator.hasNext()) {
-                leftRecordIterator = BNLJOperator.this.getBlockIterator(this.getLeftTableName(), this.leftIterator, getTransaction().getNumMemoryPages());
+                leftRecordIterator = nextLeftBlock();
             } else {
                 throw new DatabaseException("No more left pages.");
             }
         }
 
+        /**
+         * Returns an iterator over the next block of left pages, skipping over
+         * the blocks in which the right table's Bloom filter rules out every
+         * record. Skipped blocks never cause a pass over the right table. The
+         * last block is returned even if it can be skipped.
+         */
+        private BacktrackingIterator<Record> nextLeftBlock() throws DatabaseException {
+            BacktrackingIterator<Record> block;
+            do {
+                block = BNLJOperator.this.getBlockIterator(this.getLeftTableName(), this.leftIterator,
+                        getTransaction().getNumMemoryPages());
+            } while (this.rightHasBloomFilter && this.leftIterator.hasNext() && !blockMightMatch(block));
+            return block;
+        }
+
+        /**
+         * Returns whether some record of block might join with the right table,
+         * leaving block positioned at its first record.
+         */
+        private boolean blockMightMatch(BacktrackingIterator<Record> block) throws DatabaseException {
+            if (!block.hasNext()) {
+                return true;
+            }
+            boolean mightMatch = leftRecordMightMatch(block.next());
+            block.mark();
+            while (!mightMatch && block.hasNext()) {
+                mightMatch = leftRecordMightMatch(block.next());
+            }
+            block.reset();
+            return mightMatch;
+        }
+
+        /**
+         * Makes record the current left record, probing the right table's
+         * Bloom filter for it once rather than once per right record.
+         */
+        private void setLeftRecord(Record record) throws DatabaseException {
+            this.leftRecord = record;
+            this.leftMightMatch = record == null || leftRecordMightMatch(record);
+        }
+
+        private boolean leftRecordMightMatch(Record leftRecord) throws DatabaseException {
+            return !this.rightHasBloomFilter
+                   || BNLJOperator.this.rightMightContain(this.getRightTableName(), leftRecord);
+        }
+
         /**
          * Checks if there are more record(s) to yield
          *
@@ -0,0 +1,118 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordIdBitmap;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+public class BitmapIndexScanOperator extends QueryOperator {
+    private Database.Transaction transaction;
+    private String tableName;
+    private List<String> columnNames;
+    private List<DataBox> values;
+
+    /**
+     * A scan over the records of tableName whose value of columnNames.get(i)
+     * is values.get(i) for every i. Every column must have a bitmap index (see
+     * Database.Transaction.createBitmapIndex): the bitmaps of the values are
+     * intersected, and the records of the result are fetched in page order,
+     * reading each page with a matching record once.
+     *
+     * @param transaction the transaction containing this operator
+     * @param tableName the table to iterate over
+     * @param columnNames the columns with bitmap indices
+     * @param values the values of the columns
+     * @throws QueryPlanException
+     * @throws DatabaseException
+     */
+    public BitmapIndexScanOperator(Database.Transaction transaction,
+                                   String tableName,
+                                   List<String> columnNames,
+                                   List<DataBox> values) throws QueryPlanException, DatabaseException {
+        super(OperatorType.BITMAPINDEXSCAN);
+        this.transaction = transaction;
+        this.tableName = tableName;
+        this.columnNames = new ArrayList<>(columnNames);
+        this.values = new ArrayList<>(values);
+        this.setOutputSchema(this.computeSchema());
+
+        this.stats = this.estimateStats();
+        this.cost = this.estimateIOCost();
+    }
+
+    public String str() {
+        return "type: " + this.getType() +
+               "\ntable: " + this.tableName +
+               "\ncolumns: " + this.columnNames +
+               "\nvalues: " + this.values;
+    }
+
+    /** Returns the columns the bitmap indices are on. */
+    public List<String> getColumnNames() {
+        return this.columnNames;
+    }
+
+    /** Returns the intersection of the bitmaps of the values. */
+    private RecordIdBitmap lookup() throws DatabaseException {
+        RecordIdBitmap rids = null;
+        for (int i = 0; i < this.columnNames.size(); i++) {
+            RecordIdBitmap bitmap = this.transaction.lookupBitmap(this.tableName, this.columnNames.get(i),
+                                    this.values.get(i));
+            rids = rids == null ? bitmap : rids.and(bitmap);
+        }
+        return rids;
+    }
+
+    public Iterator<Record> iterator() throws DatabaseException {
+        return this.transaction.getRecordIterator(this.tableName, this.lookup());
+    }
+
+    public Schema computeSchema() throws QueryPlanException {
+        try {
+            return this.transaction.getFullyQualifiedSchema(this.tableName);
+        } catch (DatabaseException de) {
+            throw new QueryPlanException(de);
+        }
+    }
+
+    /**
+     * Estimates the table statistics for the result of executing this query operator.
+     *
+     * @return estimated TableStats
+     */
+    public TableStats estimateStats() throws QueryPlanException {
+        TableStats stats;
+        try {
+            stats = this.transaction.getStats(this.tableName);
+            Schema schema = this.transaction.getFullyQualifiedSchema(this.tableName);
+            for (int i = 0; i < this.columnNames.size(); i++) {
+                String columnName = this.checkSchemaForColumn(schema, this.columnNames.get(i));
+                stats = stats.copyWithPredicate(schema.getFieldNames().indexOf(columnName),
+                                                QueryPlan.PredicateOperator.EQUALS, this.values.get(i));
+            }
+        } catch (DatabaseException de) {
+            throw new QueryPlanException(de);
+        }
+        return stats;
+    }
+
+    /**
+     * Estimates the IO cost of executing this query operator. The bitmaps are
+     * kept in memory, so their result is known exactly, and fetching its
+     * records reads each page with a matching record once.
+     */
+    public int estimateIOCost() throws QueryPlanException {
+        try {
+            return this.lookup().getNumPages();
+        } catch (DatabaseException de) {
+            throw new QueryPlanException(de);
+        }
+    }
+}
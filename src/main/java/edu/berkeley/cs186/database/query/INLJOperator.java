@@ -0,0 +1,183 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.*;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordId;
+import edu.berkeley.cs186.database.table.RecordIterator;
+
+/**
+ * An index nested loop join: for every left record, the right records with
+ * the same join value are looked up in the index on the join column of the
+ * right table, which must be a table scanned by a SequentialScanOperator.
+ *
+ * Rather than probing the index once per left record, we read the left
+ * records in blocks of B - 2 pages and look up the join values of a whole
+ * block at once, in sorted order (see Database.Transaction.multiGet). Each
+ * leaf of the index is then read at most once per block.
+ */
+public class INLJOperator extends JoinOperator {
+    private int numBuffers;
+
+    public INLJOperator(QueryOperator leftSource,
+                        QueryOperator rightSource,
+                        String leftColumnName,
+                        String rightColumnName,
+                        Database.Transaction transaction) throws QueryPlanException, DatabaseException {
+        super(leftSource, rightSource, leftColumnName, rightColumnName, transaction, JoinType.INLJ);
+
+        if (!rightSource.isSequentialScan() ||
+                !transaction.indexExists(((SequentialScanOperator) rightSource).getTableName(),
+                                         getRightColumnName())) {
+            throw new QueryPlanException("The right source of an index nested loop join must be a " +
+                                         "table with an index on " + getRightColumnName() + ".");
+        }
+        this.numBuffers = transaction.getNumMemoryPages();
+
+        // for HW4
+        this.stats = this.estimateStats();
+        this.cost = this.estimateIOCost();
+    }
+
+    public Iterator<Record> iterator() throws QueryPlanException, DatabaseException {
+        return new INLJIterator();
+    }
+
+    /**
+     * We read the left input once. For each block of B - 2 left pages, we
+     * read at most every page of the index (and at most one leaf per left
+     * record), plus one page per matching right record.
+     */
+    public int estimateIOCost() throws QueryPlanException {
+        int usableBuffers = numBuffers - 2;
+        int numLeftPages = getLeftSource().getStats().getNumPages();
+        int numLeftRecords = getLeftSource().getStats().getNumRecords();
+        int numBlocks = (int) Math.ceil((double) numLeftPages / (double) usableBuffers);
+        int numIndexPages;
+        try {
+            String rightTableName = ((SequentialScanOperator) getRightSource()).getTableName();
+            numIndexPages = getTransaction().getNumIndexPages(rightTableName, getRightColumnName());
+        } catch (DatabaseException e) {
+            throw new QueryPlanException(e);
+        }
+        int numIndexReads = Math.min(numBlocks * numIndexPages, numLeftRecords);
+        return numLeftPages + numIndexReads + this.getStats().getNumRecords();
+    }
+
+    /**
+     * An implementation of Iterator that provides an iterator interface for this operator.
+     */
+    private class INLJIterator extends JoinIterator {
+        private RecordIterator leftIterator;
+        // The number of left records in a block.
+        private int blockSize;
+        // The left records of the current block, and the index of the current
+        // one.
+        private List<Record> block;
+        private int blockIndex;
+        // The record ids of the right records with each join value of the
+        // current block.
+        private Map<DataBox, List<RecordId>> matches;
+        // The record ids of the right records that join with the current left
+        // record and have not been joined with it yet.
+        private Iterator<RecordId> rightRids;
+        private Record nextRecord;
+
+        public INLJIterator() throws QueryPlanException, DatabaseException {
+            super();
+            this.leftIterator = INLJOperator.this.getRecordIterator(this.getLeftTableName());
+            this.blockSize = Math.max(1, INLJOperator.this.numBuffers - 2) *
+                             INLJOperator.this.getNumEntriesPerPage(this.getLeftTableName());
+            this.block = new ArrayList<>();
+            this.blockIndex = 0;
+            this.rightRids = Collections.emptyIterator();
+            this.fetchNextRecord();
+        }
+
+        /**
+         * Reads the next block of left records and looks up all of their join
+         * values in the index of the right table. Returns false if there are
+         * no more left records.
+         */
+        private boolean nextBlock() throws DatabaseException {
+            this.block.clear();
+            this.blockIndex = 0;
+            while (this.block.size() < this.blockSize && this.leftIterator.hasNext()) {
+                this.block.add(this.leftIterator.next());
+            }
+            if (this.block.isEmpty()) {
+                return false;
+            }
+
+            SortedSet<DataBox> values = new TreeSet<>();
+            for (Record r : this.block) {
+                values.add(r.getValues().get(INLJOperator.this.getLeftColumnIndex()));
+            }
+            List<DataBox> sortedValues = new ArrayList<>(values);
+            List<List<RecordId>> rids = INLJOperator.this.getTransaction().multiGet(
+                                            this.getRightTableName(), INLJOperator.this.getRightColumnName(),
+                                            sortedValues);
+            this.matches = new TreeMap<>();
+            for (int i = 0; i < sortedValues.size(); ++i) {
+                this.matches.put(sortedValues.get(i), rids.get(i));
+            }
+            return true;
+        }
+
+        /**
+         * Pre-fetches what will be the next record, and puts it in this.nextRecord.
+         */
+        private void fetchNextRecord() throws DatabaseException {
+            this.nextRecord = null;
+            while (!this.rightRids.hasNext()) {
+                if (this.blockIndex == this.block.size() && !this.nextBlock()) {
+                    return;
+                }
+                Record leftRecord = this.block.get(this.blockIndex++);
+                DataBox leftJoinValue = leftRecord.getValues().get(INLJOperator.this.getLeftColumnIndex());
+                this.rightRids = this.matches.get(leftJoinValue).iterator();
+            }
+            Record leftRecord = this.block.get(this.blockIndex - 1);
+            Record rightRecord = INLJOperator.this.getRecord(this.getRightTableName(), this.rightRids.next());
+            List<DataBox> values = new ArrayList<>(leftRecord.getValues());
+            values.addAll(rightRecord.getValues());
+            this.nextRecord = new Record(values);
+        }
+
+        /**
+         * Checks if there are more record(s) to yield
+         *
+         * @return true if this iterator has another record to yield, otherwise false
+         */
+        public boolean hasNext() {
+            return this.nextRecord != null;
+        }
+
+        /**
+         * Yields the next record of this iterator.
+         *
+         * @return the next Record
+         * @throws NoSuchElementException if there are no more Records to yield
+         */
+        public Record next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            Record nextRecord = this.nextRecord;
+            try {
+                this.fetchNextRecord();
+            } catch (DatabaseException e) {
+                this.nextRecord = null;
+            }
+            return nextRecord;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
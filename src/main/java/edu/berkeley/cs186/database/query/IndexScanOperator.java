@@ -5,15 +5,20 @@ import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.concurrency.LockType;
 import edu.berkeley.cs186.database.concurrency.LockUtil;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.TupleDataBox;
+import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordIdBitmap;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 import edu.berkeley.cs186.database.table.stats.Histogram;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Optional;
 
 public class IndexScanOperator extends QueryOperator {
     private Database.Transaction transaction;
@@ -24,6 +29,24 @@ public class IndexScanOperator extends QueryOperator {
 
     private int columnIndex;
 
+    // The columns of the index, and their indices in the schema of the
+    // table.
+    private List<String> indexColumnNames;
+    private List<Integer> indexColumnIndices;
+
+    // The indices in the schema of the table of the columns compared to the
+    // value: the indexed column, or the first columns of a multi-column
+    // index, whose values are the values of a TupleDataBox.
+    private List<Integer> keyColumnIndices;
+
+    // Whether to fetch the matching records with a bitmap heap scan (see
+    // estimateIOCost) rather than one by one in key order.
+    private boolean bitmapScan;
+
+    // Whether to read the values of the indexed columns from the keys of the
+    // index rather than fetching any records (see the constructor).
+    private boolean indexOnly;
+
     /**
      * An index scan operator.
      *
@@ -38,15 +61,80 @@ public class IndexScanOperator extends QueryOperator {
                              String columnName,
                              QueryPlan.PredicateOperator predicate,
                              DataBox value) throws QueryPlanException, DatabaseException {
+        this(transaction, tableName, columnName, predicate, value, false);
+    }
+
+    /**
+     * An index scan operator that is an index-only scan if indexOnly is true.
+     * An index-only scan outputs only the indexed column, which it reads from
+     * the keys of the index without fetching any records, so it can only be
+     * used when a query references no other column of the table.
+     *
+     * @param transaction the transaction containing this operator
+     * @param tableName the table to iterate over
+     * @param columnName the name of the column the index is on
+     * @param indexOnly whether to scan only the index
+     * @throws QueryPlanException
+     * @throws DatabaseException
+     */
+    public IndexScanOperator(Database.Transaction transaction,
+                             String tableName,
+                             String columnName,
+                             QueryPlan.PredicateOperator predicate,
+                             DataBox value,
+                             boolean indexOnly) throws QueryPlanException, DatabaseException {
+        this(transaction, tableName, columnName, Collections.singletonList(columnName), 1, predicate, value,
+             indexOnly);
+    }
+
+    /**
+     * An index scan operator over a multi-column index that looks up the
+     * records whose first values.size() indexed columns are equal to values,
+     * with one descent of the index. An index-only scan outputs only the
+     * columns of the index, read from its keys.
+     *
+     * @param transaction the transaction containing this operator
+     * @param tableName the table to iterate over
+     * @param columnNames the names of the columns the index is on, in order
+     * @param values the values of the first columns of the index
+     * @param indexOnly whether to scan only the index
+     * @throws QueryPlanException
+     * @throws DatabaseException
+     */
+    public IndexScanOperator(Database.Transaction transaction,
+                             String tableName,
+                             List<String> columnNames,
+                             List<DataBox> values,
+                             boolean indexOnly) throws QueryPlanException, DatabaseException {
+        this(transaction, tableName, String.join(",", columnNames), columnNames, values.size(),
+             QueryPlan.PredicateOperator.EQUALS, new TupleDataBox(values), indexOnly);
+    }
+
+    private IndexScanOperator(Database.Transaction transaction,
+                              String tableName,
+                              String columnName,
+                              List<String> indexColumnNames,
+                              int numKeyColumns,
+                              QueryPlan.PredicateOperator predicate,
+                              DataBox value,
+                              boolean indexOnly) throws QueryPlanException, DatabaseException {
         super(OperatorType.INDEXSCAN);
         this.tableName = tableName;
         this.transaction = transaction;
         this.columnName = columnName;
         this.predicate = predicate;
         this.value = value;
+        this.indexOnly = indexOnly;
+        this.indexColumnNames = new ArrayList<>(indexColumnNames);
+        this.indexColumnIndices = new ArrayList<>();
+        Schema tableSchema = this.getTableSchema();
+        for (String indexColumnName : indexColumnNames) {
+            indexColumnName = this.checkSchemaForColumn(tableSchema, indexColumnName);
+            this.indexColumnIndices.add(tableSchema.getFieldNames().indexOf(indexColumnName));
+        }
+        this.keyColumnIndices = this.indexColumnIndices.subList(0, numKeyColumns);
+        this.columnIndex = this.keyColumnIndices.get(0);
         this.setOutputSchema(this.computeSchema());
-        columnName = this.checkSchemaForColumn(this.getOutputSchema(), columnName);
-        this.columnIndex = this.getOutputSchema().getFieldNames().indexOf(columnName);
 
         this.stats = this.estimateStats();
         this.cost = this.estimateIOCost();
@@ -57,11 +145,14 @@ public class IndexScanOperator extends QueryOperator {
                "\ntable: " + this.tableName +
                "\ncolumn: " + this.columnName +
                "\noperator: " + this.predicate +
-               "\nvalue: " + this.value;
+               "\nvalue: " + this.value +
+               (this.bitmapScan ? "\nbitmap scan: true" : "") +
+               (this.indexOnly ? "\nindex only: true" : "");
     }
 
     /**
-     * Returns the column name that the index scan is on
+     * Returns the column name that the index scan is on, or the comma-separated
+     * column names of a multi-column index.
      *
      * @return columnName
      */
@@ -83,16 +174,42 @@ public class IndexScanOperator extends QueryOperator {
             throw new QueryPlanException(de);
         }
 
-        return stats.copyWithPredicate(this.columnIndex,
-                                       this.predicate,
-                                       this.value);
+        List<DataBox> values = this.getKeyValues();
+        for (int i = 0; i < values.size(); i++) {
+            stats = stats.copyWithPredicate(this.keyColumnIndices.get(i), this.predicate, values.get(i));
+        }
+        if (this.indexOnly) {
+            stats = stats.copyWithProjection(this.indexColumnIndices);
+        }
+        return stats;
+    }
+
+    /** Returns the values the key columns are compared to. */
+    private List<DataBox> getKeyValues() {
+        if (this.value instanceof TupleDataBox) {
+            return ((TupleDataBox) this.value).getValues();
+        }
+        return Collections.singletonList(this.value);
+    }
+
+    /**
+     * Returns whether this operator fetches its records with a bitmap heap scan.
+     */
+    public boolean isBitmapScan() {
+        return this.bitmapScan;
+    }
+
+    /** Returns whether this operator is an index-only scan. */
+    public boolean isIndexOnly() {
+        return this.indexOnly;
     }
 
     /**
      * Estimates the IO cost of executing this query operator.
      * You should calculate this estimate cost with the formula
      * taught to you in class. Note that the index you've implemented
-     * in this project is an unclustered index.
+     * in this project is an unclustered index, unless the table has been
+     * clustered on the index's column (see Transaction.clusterTable).
      *
      * You will find the following instance variables helpful:
      * this.transaction, this.tableName, this.columnName,
@@ -102,6 +219,26 @@ public class IndexScanOperator extends QueryOperator {
      * this.transaction.getNumRecords, this.transaction.getNumIndexPages,
      * and tableStats.getReductionFactor.
      *
+     * This also picks how the matching records are fetched. Fetching records
+     * in key order through an unclustered index costs up to one I/O per
+     * record. When more records are expected to match than the table has
+     * data pages, we instead collect the RecordIds of all of the matches into
+     * a RecordIdBitmap and read each page holding one of them once, in page
+     * order (a bitmap heap scan). Every predicate but NOT_EQUALS reads only
+     * the range of the index it matches, so they can all use bitmap heap
+     * scans.
+     *
+     * A lookup of a prefix of a multi-column index matches the records that
+     * match an equality predicate on every column of the prefix, and is
+     * never a bitmap heap scan.
+     *
+     * An index-only scan reads the part of the index holding the matching
+     * keys and nothing else.
+     *
+     * If the index is counted (see Transaction.countMatches), the number of
+     * matching records is exact rather than estimated from the histogram of
+     * the column.
+     *
      * @return estimate IO cost
      * @throws QueryPlanException
      */
@@ -109,25 +246,96 @@ public class IndexScanOperator extends QueryOperator {
         long numRecords;
         long numIndexPages;
         TableStats tableStats;
+        boolean clustered;
+        int numDataPages;
+        Optional<Long> numExactMatches = Optional.empty();
         try {
             numRecords = this.transaction.getNumRecords(this.tableName);
-            numIndexPages = this.transaction.getNumIndexPages(this.tableName, this.columnName);
+            if (this.predicate == QueryPlan.PredicateOperator.EQUALS &&
+                    this.transaction.hashIndexExists(this.tableName, this.columnName)) {
+                // A lookup in a hash index reads one bucket.
+                numIndexPages = 1;
+            } else {
+                numIndexPages = this.transaction.getNumIndexPages(this.tableName, this.columnName);
+            }
             tableStats = this.transaction.getStats(this.tableName);
+            clustered = this.transaction.isClustered(this.tableName, this.indexColumnNames.get(0));
+            numDataPages = this.transaction.getNumDataPages(this.tableName);
+            if (!(this.value instanceof TupleDataBox)) {
+                numExactMatches = this.transaction.countMatches(this.tableName, this.columnName, this.predicate,
+                                  this.value);
+            }
 
         } catch (DatabaseException err) {
             throw new QueryPlanException("Can't find the number of records in IndexScanOperator#estimateIOCost().");
 
         }
 
+        float reductionFactor = 1;
+        List<DataBox> values = this.getKeyValues();
+        for (int i = 0; i < values.size(); i++) {
+            reductionFactor *= tableStats.getHistograms().get(this.keyColumnIndices.get(i))
+                               .computeReductionFactor(this.predicate, values.get(i));
+        }
+        if (numExactMatches.isPresent()) {
+            reductionFactor = numRecords == 0 ? 0 : (float) numExactMatches.get() / numRecords;
+        }
+        if (this.indexOnly) {
+            this.bitmapScan = false;
+            return Math.max(1, (int) Math.ceil(reductionFactor * numIndexPages));
+        }
+        if (clustered) {
+            // The matching records are stored next to each other, so we read
+            // each of the pages holding them once.
+            this.bitmapScan = false;
+            return (int) Math.ceil(reductionFactor * numDataPages + numIndexPages);
+        }
+
+        double numMatches = reductionFactor * numRecords;
+        if (this.value instanceof TupleDataBox) {
+            // One I/O per matching record.
+            this.bitmapScan = false;
+            return (int) Math.ceil(numMatches + numIndexPages);
+        }
+        this.bitmapScan = numMatches > numDataPages &&
+                          this.predicate != QueryPlan.PredicateOperator.NOT_EQUALS;
+        if (this.bitmapScan) {
+            // Every page is read at most once.
+            return (int) Math.ceil(Math.min(numMatches, numDataPages) + numIndexPages);
+        }
+
         return (int)(tableStats.getHistograms().get(columnIndex).getCount() +
                      numIndexPages); //round up and cast to an int
     }
 
     public Iterator<Record> iterator() throws QueryPlanException, DatabaseException {
+        if (this.indexOnly) {
+            return new IndexOnlyScanIterator();
+        }
+        if (this.bitmapScan) {
+            // The matching records in page order rather than key order.
+            RecordIdBitmap rids = this.transaction.lookupRecordIds(this.tableName, this.columnName,
+                                  this.predicate, this.value);
+            return this.transaction.getRecordIterator(this.tableName, rids);
+        }
         return new IndexScanIterator();
     }
 
     public Schema computeSchema() throws QueryPlanException {
+        Schema tableSchema = this.getTableSchema();
+        if (!this.indexOnly) {
+            return tableSchema;
+        }
+        List<String> names = new ArrayList<>();
+        List<Type> types = new ArrayList<>();
+        for (int i : this.indexColumnIndices) {
+            names.add(tableSchema.getFieldNames().get(i));
+            types.add(tableSchema.getFieldTypes().get(i));
+        }
+        return new Schema(names, types);
+    }
+
+    private Schema getTableSchema() throws QueryPlanException {
         try {
             return this.transaction.getFullyQualifiedSchema(this.tableName);
         } catch (DatabaseException de) {
@@ -135,44 +343,93 @@ public class IndexScanOperator extends QueryOperator {
         }
     }
 
+    /**
+     * An iterator over the keys of the index, as records of the indexed
+     * columns. The index returns exactly the matching keys for every
+     * predicate but NOT_EQUALS, whose keys are filtered as they are read.
+     */
+    private class IndexOnlyScanIterator implements Iterator<Record> {
+        private Iterator<DataBox> keys;
+        private Record nextRecord;
+
+        public IndexOnlyScanIterator() throws DatabaseException {
+            this.nextRecord = null;
+            this.keys = IndexScanOperator.this.transaction.lookupIndexKeys(
+                            IndexScanOperator.this.tableName,
+                            IndexScanOperator.this.columnName,
+                            IndexScanOperator.this.predicate,
+                            IndexScanOperator.this.value);
+        }
+
+        public boolean hasNext() {
+            while (this.nextRecord == null && this.keys.hasNext()) {
+                DataBox key = this.keys.next();
+                if (key instanceof TupleDataBox) {
+                    // Multi-column indices are only scanned for a prefix of
+                    // their keys, which the index matches exactly.
+                    this.nextRecord = new Record(new ArrayList<>(((TupleDataBox) key).getValues()));
+                    break;
+                }
+                if (IndexScanOperator.this.predicate != QueryPlan.PredicateOperator.NOT_EQUALS ||
+                        key.compareTo(IndexScanOperator.this.value) != 0) {
+                    List<DataBox> values = new ArrayList<>();
+                    values.add(key);
+                    this.nextRecord = new Record(values);
+                }
+            }
+            return this.nextRecord != null;
+        }
+
+        public Record next() {
+            if (this.hasNext()) {
+                Record r = this.nextRecord;
+                this.nextRecord = null;
+                return r;
+            }
+            throw new NoSuchElementException();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     /**
      * An implementation of Iterator that provides an iterator interface for this operator.
+     * The index returns exactly the matching records, reading only the range
+     * of the index they are in.
      */
     private class IndexScanIterator implements Iterator<Record> {
         private Iterator<Record> sourceIterator;
-        private Record nextRecord;
 
         public IndexScanIterator() throws QueryPlanException, DatabaseException {
-            this.nextRecord = null;
-            if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.EQUALS) {
+            String tableName = IndexScanOperator.this.tableName;
+            String columnName = IndexScanOperator.this.columnName;
+            Optional<DataBox> value = Optional.of(IndexScanOperator.this.value);
+            switch (IndexScanOperator.this.predicate) {
+            case EQUALS:
                 this.sourceIterator = IndexScanOperator.this.transaction.lookupKey(
-                                          IndexScanOperator.this.tableName,
-                                          IndexScanOperator.this.columnName,
-                                          IndexScanOperator.this.value);
-            } else if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN ||
-                       IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN_EQUALS) {
-                this.sourceIterator = IndexScanOperator.this.transaction.sortedScan(
-                                          IndexScanOperator.this.tableName,
-                                          IndexScanOperator.this.columnName);
-            } else if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.GREATER_THAN) {
-                this.sourceIterator = IndexScanOperator.this.transaction.sortedScanFrom(
-                                          IndexScanOperator.this.tableName,
-                                          IndexScanOperator.this.columnName,
-                                          IndexScanOperator.this.value);
-                while (this.sourceIterator.hasNext()) {
-                    Record r = this.sourceIterator.next();
-
-                    if (r.getValues().get(IndexScanOperator.this.columnIndex)
-                            .compareTo(IndexScanOperator.this.value) > 0) {
-                        this.nextRecord = r;
-                        break;
-                    }
-                }
-            } else if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.GREATER_THAN_EQUALS) {
-                this.sourceIterator = IndexScanOperator.this.transaction.sortedScanFrom(
-                                          IndexScanOperator.this.tableName,
-                                          IndexScanOperator.this.columnName,
-                                          IndexScanOperator.this.value);
+                                          tableName, columnName, IndexScanOperator.this.value);
+                break;
+            case LESS_THAN:
+                this.sourceIterator = IndexScanOperator.this.transaction.rangeScan(
+                                          tableName, columnName, Optional.empty(), false, value, false, false);
+                break;
+            case LESS_THAN_EQUALS:
+                this.sourceIterator = IndexScanOperator.this.transaction.rangeScan(
+                                          tableName, columnName, Optional.empty(), false, value, true, false);
+                break;
+            case GREATER_THAN:
+                this.sourceIterator = IndexScanOperator.this.transaction.rangeScan(
+                                          tableName, columnName, value, false, Optional.empty(), false, false);
+                break;
+            case GREATER_THAN_EQUALS:
+                this.sourceIterator = IndexScanOperator.this.transaction.rangeScan(
+                                          tableName, columnName, value, true, Optional.empty(), false, false);
+                break;
+            default:
+                throw new QueryPlanException("Index scans do not support " +
+                                             IndexScanOperator.this.predicate + ".");
             }
         }
 
@@ -182,37 +439,7 @@ public class IndexScanOperator extends QueryOperator {
          * @return true if this iterator has another record to yield, otherwise false
          */
         public boolean hasNext() {
-            if (this.nextRecord != null) {
-                return true;
-            }
-            if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN) {
-                if (this.sourceIterator.hasNext()) {
-                    Record r = this.sourceIterator.next();
-                    if (r.getValues().get(IndexScanOperator.this.columnIndex)
-                            .compareTo(IndexScanOperator.this.value) >= 0) {
-                        return false;
-                    }
-                    this.nextRecord = r;
-                    return true;
-                }
-                return false;
-            } else if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN_EQUALS) {
-                if (this.sourceIterator.hasNext()) {
-                    Record r = this.sourceIterator.next();
-                    if (r.getValues().get(IndexScanOperator.this.columnIndex)
-                            .compareTo(IndexScanOperator.this.value) > 0) {
-                        return false;
-                    }
-                    this.nextRecord = r;
-                    return true;
-                }
-                return false;
-            }
-            if (this.sourceIterator.hasNext()) {
-                this.nextRecord = this.sourceIterator.next();
-                return true;
-            }
-            return false;
+            return this.sourceIterator.hasNext();
         }
 
         /**
@@ -223,9 +450,7 @@ public class IndexScanOperator extends QueryOperator {
          */
         public Record next() {
             if (this.hasNext()) {
-                Record r = this.nextRecord;
-                this.nextRecord = null;
-                return r;
+                return this.sourceIterator.next();
             }
             throw new NoSuchElementException();
         }
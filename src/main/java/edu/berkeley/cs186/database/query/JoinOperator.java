@@ -21,6 +21,7 @@ public abstract class JoinOperator extends QueryOperator {
         SNLJ,
         PNLJ,
         BNLJ,
+        INLJ,
         GRACEHASH,
         SORTMERGE
     }
@@ -209,6 +210,16 @@ public abstract class JoinOperator extends QueryOperator {
         return this.transaction.getBlockIterator(tableName, block, maxPages);
     }
 
+    /**
+     * Returns false if the Bloom filter on the join column of the right table
+     * rightTableName shows that no right record joins with leftRecord, and
+     * true otherwise. Temporary tables never have Bloom filters.
+     */
+    public boolean rightMightContain(String rightTableName, Record leftRecord) throws DatabaseException {
+        DataBox leftJoinValue = leftRecord.getValues().get(this.leftColumnIndex);
+        return this.transaction.mightContain(rightTableName, this.rightColumnName, leftJoinValue);
+    }
+
     public RecordIterator getTableIterator(String tableName) throws DatabaseException {
         return this.transaction.getRecordIterator(tableName);
     }
@@ -21,7 +21,8 @@ public abstract class QueryOperator {
         SELECT,
         GROUPBY,
         SEQSCAN,
-        INDEXSCAN
+        INDEXSCAN,
+        BITMAPINDEXSCAN
     }
 
     private OperatorType type;
@@ -68,6 +69,10 @@ public abstract class QueryOperator {
         return this.type.equals(OperatorType.INDEXSCAN);
     }
 
+    public boolean isBitmapIndexScan() {
+        return this.type.equals(OperatorType.BITMAPINDEXSCAN);
+    }
+
     public QueryOperator getSource() throws QueryPlanException {
         return this.source;
     }
@@ -179,9 +179,15 @@ public class QueryPlan {
      */
     public Iterator<Record> execute() throws DatabaseException, QueryPlanException {
         String indexColumn = this.checkIndexEligible();
+        List<String> compositeIndex = this.checkCompositeIndexEligible();
+        List<Integer> bitmapPredicates = this.checkBitmapIndexEligible();
 
-        if (indexColumn != null) {
+        if (compositeIndex != null) {
+            this.generateCompositeIndexPlan(compositeIndex);
+        } else if (indexColumn != null) {
             this.generateIndexPlan(indexColumn);
+        } else if (!bitmapPredicates.isEmpty()) {
+            this.generateBitmapIndexPlan(bitmapPredicates);
         } else {
             // start off with the start table scan as the source
             this.finalOperator = new SequentialScanOperator(this.transaction, this.startTableName);
@@ -207,9 +213,18 @@ public class QueryPlan {
 
     }
 
+    /**
+     * Returns whether column of table has an index that is only used for
+     * EQUALS predicates: a hash index or an LSM index.
+     */
+    private boolean equalityIndexExists(String table, String column) {
+        return this.transaction.hashIndexExists(table, column) || this.transaction.lsmIndexExists(table, column);
+    }
+
     /**
      * Gets all SELECT predicates for which there exists an index on the column
-     * referenced in that predicate for the given table.
+     * referenced in that predicate for the given table. A hash or LSM index is
+     * only eligible for EQUALS predicates.
      *
      * @return an ArrayList of SELECT predicates
      */
@@ -222,6 +237,9 @@ public class QueryPlan {
             if (this.transaction.indexExists(table, column) &&
                     this.selectOperators.get(i) != PredicateOperator.NOT_EQUALS) {
                 selectIndices.add(i);
+            } else if (equalityIndexExists(table, column) &&
+                       this.selectOperators.get(i) == PredicateOperator.EQUALS) {
+                selectIndices.add(i);
             }
         }
 
@@ -394,6 +412,10 @@ public class QueryPlan {
                     if (this.selectOperators.get(index) != PredicateOperator.NOT_EQUALS) {
                         return column;
                     }
+                } else if (equalityIndexExists(this.startTableName, column)) {
+                    if (this.selectOperators.get(index) == PredicateOperator.EQUALS) {
+                        return column;
+                    }
                 }
 
                 index++;
@@ -403,14 +425,141 @@ public class QueryPlan {
         return null;
     }
 
+    /**
+     * Returns the columns of the multi-column index on the start table that
+     * answers the most of the EQUALS predicates on a prefix of its columns,
+     * or null if there is none. An index that only answers one predicate is
+     * only used if there is no single column index eligible (see
+     * checkIndexEligible).
+     */
+    private List<String> checkCompositeIndexEligible() throws DatabaseException {
+        if (this.selectColumnNames.size() == 0
+                || this.groupByColumn != null
+                || this.joinTableNames.size() != 0) {
+            return null;
+        }
+
+        List<String> best = null;
+        int bestLength = 0;
+        for (List<String> indexColumns : this.transaction.getIndexColumns(this.startTableName)) {
+            int length = this.getEqualityPrefix(indexColumns).size();
+            if (indexColumns.size() > 1 && length > bestLength) {
+                best = indexColumns;
+                bestLength = length;
+            }
+        }
+        if (bestLength > 1 || (bestLength == 1 && this.checkIndexEligible() == null)) {
+            return best;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the indices of the EQUALS predicates on the longest prefix of
+     * indexColumns that has one on each of its columns.
+     */
+    private List<Integer> getEqualityPrefix(List<String> indexColumns) {
+        List<Integer> selectIndices = new ArrayList<Integer>();
+        for (String column : indexColumns) {
+            int selectIndex = -1;
+            for (int i = 0; i < this.selectColumnNames.size(); i++) {
+                if (isSameColumn(this.selectColumnNames.get(i), column)
+                        && this.selectOperators.get(i) == PredicateOperator.EQUALS) {
+                    selectIndex = i;
+                    break;
+                }
+            }
+            if (selectIndex == -1) {
+                break;
+            }
+            selectIndices.add(selectIndex);
+        }
+        return selectIndices;
+    }
+
+    /**
+     * Returns the indices of the EQUALS predicates on columns of the start
+     * table with a bitmap index, which are only used if no B+ tree or hash
+     * index is eligible (see checkIndexEligible).
+     */
+    private List<Integer> checkBitmapIndexEligible() throws DatabaseException {
+        List<Integer> selectIndices = new ArrayList<Integer>();
+        if (this.groupByColumn != null || this.joinTableNames.size() != 0) {
+            return selectIndices;
+        }
+        for (int i = 0; i < this.selectColumnNames.size(); i++) {
+            if (this.selectOperators.get(i) == PredicateOperator.EQUALS
+                    && this.transaction.hasBitmapIndex(this.startTableName, this.selectColumnNames.get(i))) {
+                selectIndices.add(i);
+            }
+        }
+        return selectIndices;
+    }
+
+    private void generateBitmapIndexPlan(List<Integer> selectIndices) throws QueryPlanException,
+        DatabaseException {
+        List<String> columns = new ArrayList<String>();
+        List<DataBox> values = new ArrayList<DataBox>();
+        for (int selectIndex : selectIndices) {
+            columns.add(this.selectColumnNames.get(selectIndex));
+            values.add(this.selectDataBoxes.get(selectIndex));
+        }
+
+        this.finalOperator = new BitmapIndexScanOperator(this.transaction, this.startTableName, columns, values);
+
+        // Remove the predicates answered by the bitmaps, from the back so the
+        // remaining indices stay valid.
+        selectIndices.sort(Collections.reverseOrder());
+        for (int selectIndex : selectIndices) {
+            this.selectColumnNames.remove(selectIndex);
+            this.selectOperators.remove(selectIndex);
+            this.selectDataBoxes.remove(selectIndex);
+        }
+
+        this.addSelects();
+        this.addProjects();
+    }
+
+    private void generateCompositeIndexPlan(List<String> indexColumns) throws QueryPlanException,
+        DatabaseException {
+        List<Integer> selectIndices = this.getEqualityPrefix(indexColumns);
+        List<DataBox> values = new ArrayList<DataBox>();
+        for (int selectIndex : selectIndices) {
+            values.add(this.selectDataBoxes.get(selectIndex));
+        }
+
+        this.finalOperator = new IndexScanOperator(this.transaction, this.startTableName, indexColumns,
+                values, this.isCoveredBy(indexColumns));
+
+        // Remove the predicates answered by the index, from the back so the
+        // remaining indices stay valid.
+        selectIndices.sort(Collections.reverseOrder());
+        for (int selectIndex : selectIndices) {
+            this.selectColumnNames.remove(selectIndex);
+            this.selectOperators.remove(selectIndex);
+            this.selectDataBoxes.remove(selectIndex);
+        }
+
+        this.addSelects();
+        this.addProjects();
+    }
+
     private void generateIndexPlan(String indexColumn) throws QueryPlanException, DatabaseException {
         int selectIndex = this.selectColumnNames.indexOf(indexColumn);
+        if (equalityIndexExists(this.startTableName, indexColumn)) {
+            // A hash or LSM index is only used for an EQUALS predicate.
+            while (this.selectOperators.get(selectIndex) != PredicateOperator.EQUALS) {
+                selectIndex = this.selectColumnNames.subList(selectIndex + 1, this.selectColumnNames.size())
+                              .indexOf(indexColumn) + selectIndex + 1;
+            }
+        }
         PredicateOperator operator = this.selectOperators.get(selectIndex);
         DataBox value = this.selectDataBoxes.get(selectIndex);
 
         this.finalOperator = new IndexScanOperator(this.transaction, this.startTableName, indexColumn,
                 operator,
-                value);
+                value,
+                this.isCoveredBy(Collections.singletonList(indexColumn)));
 
         this.selectColumnNames.remove(selectIndex);
         this.selectOperators.remove(selectIndex);
@@ -420,15 +569,64 @@ public class QueryPlan {
         this.addProjects();
     }
 
+    /**
+     * Returns whether every column of the start table the query references
+     * is one of indexColumns, so that the query can be answered by an
+     * index-only scan of the index on indexColumns. A query without a
+     * projection or aggregate references every column.
+     */
+    private boolean isCoveredBy(List<String> indexColumns) {
+        if (this.projectColumns.isEmpty() && !this.hasCount && this.sumColumnName == null
+                && this.averageColumnName == null) {
+            return false;
+        }
+
+        List<String> columns = new ArrayList<String>(this.projectColumns);
+        columns.addAll(this.selectColumnNames);
+        if (this.sumColumnName != null) {
+            columns.add(this.sumColumnName);
+        }
+        if (this.averageColumnName != null) {
+            columns.add(this.averageColumnName);
+        }
+        for (String column : columns) {
+            boolean covered = false;
+            for (String indexColumn : indexColumns) {
+                covered |= isSameColumn(column, indexColumn);
+            }
+            if (!covered) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether two column names, each of which may be qualified with
+     * the name of its table, name the same column of the start table.
+     */
+    private static boolean isSameColumn(String a, String b) {
+        return a.substring(a.lastIndexOf('.') + 1).equals(b.substring(b.lastIndexOf('.') + 1));
+    }
+
     private void addJoins() throws QueryPlanException, DatabaseException {
         int index = 0;
 
         for (String joinTable : this.joinTableNames) {
             SequentialScanOperator scanOperator = new SequentialScanOperator(this.transaction, joinTable);
-
-            SNLJOperator joinOperator = new SNLJOperator(finalOperator, scanOperator,
-                    this.joinLeftColumnNames.get(index), this.joinRightColumnNames.get(index),
-                    this.transaction); //changed from new JoinOperator
+            String leftColumn = this.joinLeftColumnNames.get(index);
+            String rightColumn = this.joinRightColumnNames.get(index);
+
+            // Probe the index on the right join column, if there is one,
+            // rather than scanning the right table once per left record.
+            JoinOperator joinOperator;
+            if (this.transaction.indexExists(joinTable, rightColumn)) {
+                joinOperator = new INLJOperator(finalOperator, scanOperator, leftColumn, rightColumn,
+                                                this.transaction);
+            } else {
+                joinOperator = new SNLJOperator(finalOperator, scanOperator, leftColumn, rightColumn,
+                                                this.transaction); //changed from new JoinOperator
+            }
 
             this.finalOperator = joinOperator;
             index++;
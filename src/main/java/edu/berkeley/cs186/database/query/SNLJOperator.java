@@ -60,9 +60,14 @@ public class SNLJOperator extends JoinOperator {
         private Record leftRecord;
         private Record rightRecord;
         private Record nextRecord;
+        // Whether the right table has a Bloom filter on its join column, which
+        // lets us skip left records without a match.
+        private boolean rightHasBloomFilter;
 
         public SNLJIterator() throws QueryPlanException, DatabaseException {
             super();
+            this.rightHasBloomFilter = getTransaction().hasBloomFilter(this.getRightTableName(),
+                                       SNLJOperator.this.getRightColumnName());
             this.rightIterator = SNLJOperator.this.getRecordIterator(this.getRightTableName());
             this.leftIterator = SNLJOperator.this.getRecordIterator(this.getLeftTableName());
 
@@ -76,6 +81,12 @@ public class SNLJOperator extends JoinOperator {
                 rightIterator.mark();
             } else { return; }
 
+            // Don't scan the right table for a first left record that the
+            // right table's Bloom filter rules out (see nextLeftRecord).
+            if (this.leftRecord != null && !leftRecordMightMatch(this.leftRecord)) {
+                this.rightRecord = null;
+            }
+
             try {
                 fetchNextRecord();
             } catch (DatabaseException e) {
@@ -96,7 +107,8 @@ public class SNLJOperator extends JoinOperator {
         }
 
         /**
-         * Advances the left record
+         * Advances the left record, skipping records whose join value the right
+         * table's Bloom filter rules out.
          *
          * The thrown exception means we're done: there is no next record
          * It causes this.fetchNextRecord (the caller) to hand control to its caller.
@@ -104,8 +116,16 @@ public class SNLJOperator extends JoinOperator {
          * @throws DatabaseException
          */
         private void nextLeftRecord() throws DatabaseException {
-            if (!leftIterator.hasNext()) { throw new DatabaseException("All Done!"); }
-            leftRecord = leftIterator.next();
+            do {
+                if (!leftIterator.hasNext()) { throw new DatabaseException("All Done!"); }
+                leftRecord = leftIterator.next();
+            } while (!leftRecordMightMatch(leftRecord));
+        }
+
+        /** Returns whether leftRecord might join with some right record. */
+        private boolean leftRecordMightMatch(Record leftRecord) throws DatabaseException {
+            return !this.rightHasBloomFilter
+                   || SNLJOperator.this.rightMightContain(this.getRightTableName(), leftRecord);
         }
 
         /**
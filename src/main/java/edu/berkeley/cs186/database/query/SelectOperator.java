@@ -1,5 +1,6 @@
 package edu.berkeley.cs186.database.query;
 
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -79,7 +80,21 @@ public class SelectOperator extends QueryOperator {
         private Record nextRecord;
 
         public SelectIterator() throws QueryPlanException, DatabaseException {
-            this.sourceIterator = SelectOperator.this.getSource().iterator();
+            QueryOperator source = SelectOperator.this.getSource();
+            if (source.isSequentialScan()) {
+                SequentialScanOperator scan = (SequentialScanOperator) source;
+                if (SelectOperator.this.operator == QueryPlan.PredicateOperator.EQUALS
+                        && !scan.mightContain(SelectOperator.this.columnName, SelectOperator.this.value)) {
+                    // The table's Bloom filter shows that no record has the value.
+                    this.sourceIterator = Collections.emptyIterator();
+                } else {
+                    // Let the scan skip the pages that the table's zone map rules out.
+                    this.sourceIterator = scan.iterator(SelectOperator.this.columnName,
+                                                        SelectOperator.this.operator, SelectOperator.this.value);
+                }
+            } else {
+                this.sourceIterator = source.iterator();
+            }
             this.markerRecord = MarkerRecord.getMarker();
             this.nextRecord = null;
         }
@@ -4,6 +4,7 @@ import java.util.Iterator;
 
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
@@ -42,6 +43,24 @@ public class SequentialScanOperator extends QueryOperator {
         return this.transaction.getRecordIterator(tableName);
     }
 
+    /**
+     * Returns an iterator over the records of the table which skips pages that
+     * cannot contain a record satisfying `columnName operator value`. Records
+     * on the pages that are read are not filtered.
+     */
+    public Iterator<Record> iterator(String columnName, QueryPlan.PredicateOperator operator,
+                                     DataBox value) throws DatabaseException {
+        return this.transaction.getRecordIterator(tableName, columnName, operator, value);
+    }
+
+    /**
+     * Returns false if the table's Bloom filter on columnName shows that no
+     * record has value in that column, and true otherwise.
+     */
+    public boolean mightContain(String columnName, DataBox value) throws DatabaseException {
+        return this.transaction.mightContain(tableName, columnName, value);
+    }
+
     public Schema computeSchema() throws QueryPlanException {
         try {
             return this.transaction.getFullyQualifiedSchema(this.tableName);
@@ -3,7 +3,7 @@ package edu.berkeley.cs186.database.query;
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.databox.DataBox;
-import edu.berkeley.cs186.database.io.PageAllocator;
+import edu.berkeley.cs186.database.common.BacktrackingIterator;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordIterator;
 import edu.berkeley.cs186.database.table.Schema;
@@ -131,7 +131,7 @@ public class SortOperator {
      * Returns the name of the table that backs the final run.
      */
     public String sort() throws DatabaseException {
-        PageAllocator.PageIterator a = transaction.getPageIterator(tableName);
+        BacktrackingIterator<Page> a = transaction.getPageIterator(tableName);
         a.next();
         Iterator<Record> r = transaction.getBlockIterator(tableName, a);
         List<Run> sorted_runs = new ArrayList<>();
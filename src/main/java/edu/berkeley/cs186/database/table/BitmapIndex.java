@@ -0,0 +1,62 @@
+package edu.berkeley.cs186.database.table;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+
+/**
+ * A BitmapIndex maps every value of one column of a table to the bitmap of
+ * the RecordIds of the records with that value. It is meant for columns with
+ * few distinct values, like booleans or a major, where an equality predicate
+ * matches a large fraction of the table: a B+ tree would fetch the matching
+ * records one at a time in key order, and a full scan would read every page.
+ * The bitmaps of several predicates can instead be combined with
+ * RecordIdBitmap.and and RecordIdBitmap.or, and the records of the result
+ * fetched in page order (see Table.bitmapIterator). For example,
+ *
+ *   RecordIdBitmap cs = index.lookup(new StringDataBox("CS", 20));
+ *   RecordIdBitmap ee = index.lookup(new StringDataBox("EE", 20));
+ *   table.bitmapIterator(transaction, cs.or(ee));
+ *
+ * Like Bloom filters, bitmap indices are owned by their table, which keeps
+ * them up to date as records are added, updated, and deleted (see
+ * Table.createBitmapIndex). They are only kept in memory.
+ */
+public class BitmapIndex {
+    // Value -> the RecordIds of the records with that value. Values without
+    // any records are removed.
+    private Map<DataBox, RecordIdBitmap> bitmaps;
+
+    public BitmapIndex() {
+        this.bitmaps = new HashMap<>();
+    }
+
+    public void add(DataBox value, RecordId rid) {
+        bitmaps.computeIfAbsent(value, v -> new RecordIdBitmap()).add(rid);
+    }
+
+    public void remove(DataBox value, RecordId rid) {
+        RecordIdBitmap bitmap = bitmaps.get(value);
+        if (bitmap != null) {
+            bitmap.remove(rid);
+            if (bitmap.size() == 0) {
+                bitmaps.remove(value);
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the bitmap of the records with value `value`, which
+     * is empty if there are none.
+     */
+    public RecordIdBitmap lookup(DataBox value) {
+        RecordIdBitmap bitmap = bitmaps.get(value);
+        return bitmap == null ? new RecordIdBitmap() : new RecordIdBitmap(bitmap);
+    }
+
+    /** Returns the number of distinct values in the index. */
+    public int getNumValues() {
+        return bitmaps.size();
+    }
+}
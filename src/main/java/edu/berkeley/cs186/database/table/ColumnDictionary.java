@@ -0,0 +1,75 @@
+package edu.berkeley.cs186.database.table;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+
+/**
+ * A ColumnDictionary maps the distinct values of a dictionary encoded string
+ * column to small integer codes. Tables store the code of a value in place of
+ * the value itself (see Table.encodeColumn). Codes are assigned in the order
+ * values are first added, starting at 0, and never change:
+ *
+ *   ColumnDictionary dict = new ColumnDictionary();
+ *   dict.add(new StringDataBox("CS", 2));      // 0
+ *   dict.add(new StringDataBox("EE", 2));      // 1
+ *   dict.add(new StringDataBox("CS", 2));      // 0
+ *   dict.getCode(new StringDataBox("ME", 2));  // -1
+ *   dict.getValue(1);                          // "EE"
+ *
+ * getValue always returns the same DataBox for a code, so the records decoded
+ * from a table share one DataBox per distinct value, and comparing two of them
+ * for equality is a reference comparison.
+ *
+ * Scans decode records on many threads at once while inserts add values, so
+ * lookups take no lock: the codes and values are kept in concurrent
+ * collections (a copy-on-write list, since values are rarely added), and only
+ * add is synchronized.
+ */
+public class ColumnDictionary {
+    // Code -> value.
+    private List<DataBox> values;
+
+    // Value -> code.
+    private Map<DataBox, Integer> codes;
+
+    public ColumnDictionary() {
+        this.values = new CopyOnWriteArrayList<>();
+        this.codes = new ConcurrentHashMap<>();
+    }
+
+    /** Returns the code of `value`, or -1 if `value` is not in the dictionary. */
+    public int getCode(DataBox value) {
+        Integer code = codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    /** Returns the value with code `code`. */
+    public DataBox getValue(int code) {
+        return values.get(code);
+    }
+
+    /**
+     * Adds `value` to the dictionary if it isn't already in it, and returns
+     * its code.
+     */
+    public synchronized int add(DataBox value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            // The value goes in values first, so that anyone who can see its
+            // code can also look the value up.
+            code = values.size();
+            values.add(value);
+            codes.put(value, code);
+        }
+        return code;
+    }
+
+    /** Returns the number of distinct values in the dictionary. */
+    public int size() {
+        return values.size();
+    }
+}
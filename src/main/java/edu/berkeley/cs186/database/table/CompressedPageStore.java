@@ -0,0 +1,302 @@
+package edu.berkeley.cs186.database.table;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.berkeley.cs186.database.BaseTransaction;
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.common.Bits;
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.io.PageAllocator;
+import edu.berkeley.cs186.database.io.PageException;
+
+/**
+ * A CompressedPageStore holds the compressed data pages of a table (see
+ * Table.compressPages) in a file of its own, next to the table's file. Each
+ * data page compressed with PageCompressor takes a fraction of a page, so
+ * the store packs up to PAGES_PER_BLOCK of them onto every page of its file.
+ *
+ * A compressed data page keeps a page number of its own, which is what
+ * RecordIds refer to. Page numbers from FIRST_PAGE_NUM onwards, which the
+ * table's PageAllocator never hands out, are compressed pages: compressed
+ * page FIRST_PAGE_NUM + PAGES_PER_BLOCK * p + i is the ith data page packed
+ * onto page p of the store's file.
+ *
+ * Every page of the store's file is laid out as follows:
+ *
+ *   +-------+-----------+-----+-------------+---------+-----+-------------+
+ *   | n (4) | len_0 (4) | ... | len_n-1 (4) | entry_0 | ... | entry_n-1   |
+ *   +-------+-----------+-----+-------------+---------+-----+-------------+
+ *
+ * where every entry is the bitmap of a data page, stored as is, followed by
+ * the len_i bytes of its records, compressed. Keeping the bitmap
+ * uncompressed lets deletes clear a bit in place. Updates recompress the
+ * records of the page, and fail if the page no longer fits (see
+ * writeRecord). Records are never added to compressed pages.
+ *
+ * fetchPage returns the decompressed image of a compressed page, laid out
+ * like any other data page. Images are cached, and never modified once they
+ * are handed out: writes replace them.
+ */
+class CompressedPageStore implements Closeable {
+    static final int FIRST_PAGE_NUM = 1 << 22;
+    static final int PAGES_PER_BLOCK = 64;
+
+    // The number of decompressed images to cache.
+    private static final int CACHE_SIZE = 64;
+
+    // The table whose pages are stored here.
+    private Table table;
+
+    // The allocator of the pages of the store's file.
+    private PageAllocator allocator;
+
+    // Compressed page number -> decompressed image, least recently used first.
+    private Map<Integer, byte[]> images = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Opens the compressed pages of `table` stored in file `filename`,
+     * removing any that are there if wipe is true.
+     */
+    CompressedPageStore(Table table, String filename, boolean wipe, BaseTransaction transaction) {
+        this.table = table;
+        this.allocator = new PageAllocator(filename, wipe, transaction);
+    }
+
+    /** Returns whether pageNum is the page number of a compressed page. */
+    static boolean isCompressed(int pageNum) {
+        return pageNum >= FIRST_PAGE_NUM;
+    }
+
+    /** Returns the number of pages of the store's file. */
+    synchronized int getNumPages() {
+        return allocator.getNumPages();
+    }
+
+    /** Returns the page numbers of all of the compressed pages, in order. */
+    synchronized int[] getPageNums(BaseTransaction transaction) {
+        List<Integer> pageNums = new ArrayList<>();
+        for (int block : allocator.getAllocatedPageNums(transaction)) {
+            int n = allocator.fetchPage(transaction, block).getBuffer(transaction).getInt();
+            for (int i = 0; i < n; ++i) {
+                pageNums.add(FIRST_PAGE_NUM + block * PAGES_PER_BLOCK + i);
+            }
+        }
+        return pageNums.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Returns the decompressed image of compressed page pageNum. Throws a
+     * PageException if there is no such page.
+     */
+    synchronized Page fetchPage(BaseTransaction transaction, int pageNum) {
+        return new Page(getImage(transaction, pageNum), pageNum);
+    }
+
+    /**
+     * Compresses and stores the data pages with images `pages`, and returns
+     * the page number each of them is stored under, in order. Pages that
+     * don't compress to at most half a page aren't worth storing compressed;
+     * they are skipped, and their page number is returned as -1.
+     */
+    synchronized List<Integer> addPages(BaseTransaction transaction, List<byte[]> pages) {
+        List<Integer> pageNums = new ArrayList<>();
+        List<byte[]> entries = new ArrayList<>();
+        int block = -1;
+        for (byte[] image : pages) {
+            byte[] entry = compress(image);
+            if (Integer.BYTES + entry.length > Page.pageSize / 2) {
+                pageNums.add(-1);
+                continue;
+            }
+            entries.add(entry);
+            if (block != -1 && (entries.size() > PAGES_PER_BLOCK || !fits(entries))) {
+                entries.remove(entries.size() - 1);
+                writeEntries(transaction, block, entries);
+                entries.clear();
+                entries.add(entry);
+                block = -1;
+            }
+            if (block == -1) {
+                block = allocator.allocPage(transaction);
+            }
+            int pageNum = FIRST_PAGE_NUM + block * PAGES_PER_BLOCK + entries.size() - 1;
+            images.put(pageNum, image);
+            pageNums.add(pageNum);
+        }
+        if (block != -1) {
+            writeEntries(transaction, block, entries);
+        }
+        return pageNums;
+    }
+
+    /**
+     * Clears the bit of entry entryNum in the bitmap of compressed page
+     * pageNum, and returns the page's new image.
+     */
+    synchronized Page clearBit(BaseTransaction transaction, int pageNum, int entryNum) {
+        int block = getBlock(pageNum);
+        List<byte[]> entries = readEntries(transaction, block);
+        byte[] entry = entries.get(getSlot(pageNum));
+        entry[entryNum / 8] = Bits.setBit(entry[entryNum / 8], entryNum % 8, Bits.Bit.ZERO);
+        writeEntries(transaction, block, entries);
+
+        byte[] image = getImage(transaction, pageNum).clone();
+        image[entryNum / 8] = Bits.setBit(image[entryNum / 8], entryNum % 8, Bits.Bit.ZERO);
+        images.put(pageNum, image);
+        return new Page(image, pageNum);
+    }
+
+    /**
+     * Overwrites entry entryNum of compressed page pageNum with record.
+     * Throws a DatabaseException, and leaves the page as it is, if the page
+     * no longer fits in its block once the record is compressed with the
+     * rest of the page.
+     */
+    synchronized void writeRecord(BaseTransaction transaction, int pageNum, int entryNum,
+                                  Record record) throws DatabaseException {
+        Schema schema = table.getPhysicalSchema();
+        byte[] image = getImage(transaction, pageNum).clone();
+        java.nio.ByteBuffer buf = java.nio.ByteBuffer.wrap(image);
+        buf.position(table.getBitmapSizeInBytes() + entryNum * schema.getSizeInBytes());
+        buf.put(record.toBytes(schema));
+
+        int block = getBlock(pageNum);
+        List<byte[]> entries = readEntries(transaction, block);
+        entries.set(getSlot(pageNum), compress(image));
+        if (!fits(entries)) {
+            String msg = String.format("Compressed page %d has no room for the update.", pageNum);
+            throw new DatabaseException(msg);
+        }
+        writeEntries(transaction, block, entries);
+        images.put(pageNum, image);
+    }
+
+    /** Frees every page of the store's file that holds no records. */
+    synchronized void cleanup(BaseTransaction transaction) {
+        for (int block : allocator.getAllocatedPageNums(transaction)) {
+            List<byte[]> entries = readEntries(transaction, block);
+            boolean empty = true;
+            for (byte[] entry : entries) {
+                for (int i = 0; i < table.getBitmapSizeInBytes(); ++i) {
+                    empty &= entry[i] == 0;
+                }
+            }
+            if (empty) {
+                allocator.freePage(transaction, block);
+                for (int i = 0; i < entries.size(); ++i) {
+                    images.remove(FIRST_PAGE_NUM + block * PAGES_PER_BLOCK + i);
+                }
+            }
+        }
+    }
+
+    public synchronized void close() {
+        images.clear();
+        allocator.close();
+    }
+
+    // Helpers ///////////////////////////////////////////////////////////////////
+    private static int getBlock(int pageNum) {
+        return (pageNum - FIRST_PAGE_NUM) / PAGES_PER_BLOCK;
+    }
+
+    private static int getSlot(int pageNum) {
+        return (pageNum - FIRST_PAGE_NUM) % PAGES_PER_BLOCK;
+    }
+
+    private byte[] getImage(BaseTransaction transaction, int pageNum) {
+        byte[] image = images.get(pageNum);
+        if (image == null) {
+            if (!isCompressed(pageNum)) {
+                throw new PageException("invalid compressed page number " + pageNum);
+            }
+            List<byte[]> entries = readEntries(transaction, getBlock(pageNum));
+            if (getSlot(pageNum) >= entries.size()) {
+                throw new PageException("invalid compressed page number " + pageNum);
+            }
+            image = decompress(entries.get(getSlot(pageNum)));
+            images.put(pageNum, image);
+        }
+        return image;
+    }
+
+    // Returns the entry of the data page with image `image`.
+    private byte[] compress(byte[] image) {
+        Schema schema = table.getPhysicalSchema();
+        int bitmapSizeInBytes = table.getBitmapSizeInBytes();
+        Buffer buf = ByteBuffer.wrap(image);
+        buf.position(bitmapSizeInBytes);
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < table.getNumRecordsPerPage(); ++i) {
+            records.add(Record.fromBytes(buf, schema));
+        }
+        byte[] compressed = PageCompressor.compress(schema, records);
+
+        byte[] entry = new byte[bitmapSizeInBytes + compressed.length];
+        System.arraycopy(image, 0, entry, 0, bitmapSizeInBytes);
+        System.arraycopy(compressed, 0, entry, bitmapSizeInBytes, compressed.length);
+        return entry;
+    }
+
+    // The inverse of compress.
+    private byte[] decompress(byte[] entry) {
+        Schema schema = table.getPhysicalSchema();
+        int bitmapSizeInBytes = table.getBitmapSizeInBytes();
+        byte[] compressed = new byte[entry.length - bitmapSizeInBytes];
+        System.arraycopy(entry, bitmapSizeInBytes, compressed, 0, compressed.length);
+
+        byte[] image = new byte[Page.pageSize];
+        System.arraycopy(entry, 0, image, 0, bitmapSizeInBytes);
+        java.nio.ByteBuffer buf = java.nio.ByteBuffer.wrap(image);
+        buf.position(bitmapSizeInBytes);
+        for (Record r : PageCompressor.decompress(schema, compressed)) {
+            buf.put(r.toBytes(schema));
+        }
+        return image;
+    }
+
+    private static boolean fits(List<byte[]> entries) {
+        int size = Integer.BYTES;
+        for (byte[] entry : entries) {
+            size += Integer.BYTES + entry.length;
+        }
+        return size <= Page.pageSize;
+    }
+
+    private List<byte[]> readEntries(BaseTransaction transaction, int block) {
+        Buffer buf = allocator.fetchPage(transaction, block).getBuffer(transaction);
+        int n = buf.getInt();
+        int[] lengths = new int[n];
+        for (int i = 0; i < n; ++i) {
+            lengths[i] = buf.getInt();
+        }
+        List<byte[]> entries = new ArrayList<>();
+        for (int length : lengths) {
+            byte[] entry = new byte[table.getBitmapSizeInBytes() + length];
+            buf.get(entry);
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    private void writeEntries(BaseTransaction transaction, int block, List<byte[]> entries) {
+        Buffer buf = allocator.fetchPage(transaction, block).getBuffer(transaction);
+        buf.putInt(entries.size());
+        for (byte[] entry : entries) {
+            buf.putInt(entry.length - table.getBitmapSizeInBytes());
+        }
+        for (byte[] entry : entries) {
+            buf.put(entry);
+        }
+    }
+}
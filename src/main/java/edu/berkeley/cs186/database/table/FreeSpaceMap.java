@@ -0,0 +1,156 @@
+package edu.berkeley.cs186.database.table;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A FreeSpaceMap records, in four bits per page, how full every data page of a
+ * table is, and finds a page with room for one more record without scanning
+ * the table. For example, for a table whose pages hold 30 records:
+ *
+ *   FreeSpaceMap fsm = new FreeSpaceMap(30);
+ *   fsm.update(1, 30); // page 1 is full
+ *   fsm.update(2, 4);  // page 2 has 4 records
+ *   fsm.update(3, 27); // page 3 has 27 records
+ *   fsm.findPage();    // 3
+ *
+ * A page's fill level is a number between 0 and FULL. Level FULL means that
+ * the page has no room left (or is not a data page at all); otherwise, a
+ * page's level is its number of records scaled to the range [0, FULL). The
+ * capacity of a page is the number of records it may hold before it is
+ * considered full, which may be lower than the number of records that fit on
+ * it (see Table.setFillFactor).
+ *
+ * findPage picks the fullest page that still has room, breaking ties by page
+ * number, so inserts fill up partially full pages rather than spreading out
+ * over the whole file.
+ *
+ * The map is only kept in memory. A table rebuilds it when it is opened,
+ * during the scan of every data page that also recomputes the table's stats
+ * and zone map, so storing it on disk would not save any reads.
+ */
+public class FreeSpaceMap {
+    public static final int FULL = 15;
+
+    // The number of records a page may hold before its level is FULL.
+    private int capacity;
+
+    // The level of page p is stored in the low nibble of levels[p / 2] if p is
+    // even, and in the high nibble otherwise.
+    private byte[] levels;
+
+    // pagesByLevel[l] is the set of pages at level l, for every l < FULL.
+    private BitSet[] pagesByLevel;
+
+    // The set of pages at any level below FULL.
+    private BitSet openPages;
+
+    /** Construct a FreeSpaceMap in which every page is FULL. */
+    public FreeSpaceMap(int capacity) {
+        this.capacity = Math.max(capacity, 1);
+        this.levels = new byte[16];
+        Arrays.fill(this.levels, (byte) 0xFF);
+        this.pagesByLevel = new BitSet[FULL];
+        for (int i = 0; i < FULL; ++i) {
+            this.pagesByLevel[i] = new BitSet();
+        }
+        this.openPages = new BitSet();
+    }
+
+    // Accessors /////////////////////////////////////////////////////////////////
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** Returns the level of page `pageNum`. */
+    public int getLevel(int pageNum) {
+        if (pageNum / 2 >= levels.length) {
+            return FULL;
+        }
+        int b = levels[pageNum / 2] & 0xFF;
+        return (pageNum % 2 == 0) ? (b & 0x0F) : (b >>> 4);
+    }
+
+    /** Returns whether page `pageNum` has room for another record. */
+    public boolean hasRoom(int pageNum) {
+        return getLevel(pageNum) != FULL;
+    }
+
+    /**
+     * Returns the fullest page with room for another record, or -1 if there
+     * is no such page.
+     */
+    public int findPage() {
+        return findPageBefore(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the fullest page numbered below `pageNum` with room for another
+     * record, or -1 if there is no such page.
+     */
+    public int findPageBefore(int pageNum) {
+        for (int level = FULL - 1; level >= 0; --level) {
+            int p = pagesByLevel[level].nextSetBit(0);
+            if (p != -1 && p < pageNum) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the lowest numbered page at or after `pageNum` with room for
+     * another record, or -1 if there is none.
+     */
+    public int nextOpenPage(int pageNum) {
+        return openPages.nextSetBit(pageNum);
+    }
+
+    /**
+     * Returns the highest numbered page at or before `pageNum` with room for
+     * another record, or -1 if there is none.
+     */
+    public int previousOpenPage(int pageNum) {
+        return openPages.previousSetBit(pageNum);
+    }
+
+    // Modifiers /////////////////////////////////////////////////////////////////
+    /** Records that page `pageNum` now holds `numRecords` records. */
+    public void update(int pageNum, int numRecords) {
+        setLevel(pageNum, numRecords >= capacity ? FULL : numRecords * FULL / capacity);
+    }
+
+    /** Forgets page `pageNum`, e.g. because it was freed. */
+    public void remove(int pageNum) {
+        setLevel(pageNum, FULL);
+    }
+
+    private void setLevel(int pageNum, int level) {
+        int oldLevel = getLevel(pageNum);
+        if (oldLevel == level) {
+            return;
+        }
+        if (oldLevel != FULL) {
+            pagesByLevel[oldLevel].clear(pageNum);
+        }
+        if (level != FULL) {
+            pagesByLevel[level].set(pageNum);
+            openPages.set(pageNum);
+        } else {
+            openPages.clear(pageNum);
+        }
+
+        if (pageNum / 2 >= levels.length) {
+            int oldLength = levels.length;
+            levels = Arrays.copyOf(levels, Math.max(2 * oldLength, pageNum / 2 + 1));
+            Arrays.fill(levels, oldLength, levels.length, (byte) 0xFF);
+        }
+        int b = levels[pageNum / 2] & 0xFF;
+        if (pageNum % 2 == 0) {
+            b = (b & 0xF0) | level;
+        } else {
+            b = (b & 0x0F) | (level << 4);
+        }
+        levels[pageNum / 2] = (byte) b;
+    }
+}
@@ -0,0 +1,218 @@
+package edu.berkeley.cs186.database.table;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+
+/**
+ * A PageCompressor compresses the records of a data page column by column.
+ * Every column is compressed with whichever of the following encodings is
+ * smallest for it:
+ *
+ *   - RAW: the values, one after another, exactly as they are stored on a
+ *     data page.
+ *   - RLE: runs of equal consecutive values, each stored as the (4-byte)
+ *     length of the run followed by the value. Good for booleans and for
+ *     columns that repeat a value, like a dictionary encoded column of a
+ *     clustered table.
+ *   - FOR (int columns only): the smallest value of the column (the frame of
+ *     reference), followed by the difference between every value and the
+ *     frame, bit-packed with as few bits as the largest difference needs.
+ *     Good for ids, dates, and other ints that fall in a narrow range.
+ *
+ * For example, a page of 8 records t(x: int, b: bool) where x runs from 1000
+ * to 1007 and b is always true takes 8 * 5 = 40 bytes uncompressed. x takes
+ * 4 + 1 + 3 = 8 bytes with FOR (3 bits per value) and b takes 4 + 4 + 1 = 9
+ * bytes with RLE (one run), so compressed the page takes 4 + 1 + 8 + 1 + 9 =
+ * 23 bytes.
+ *
+ *   byte[] bytes = PageCompressor.compress(schema, records);
+ *   List<Record> decompressed = PageCompressor.decompress(schema, bytes);
+ *
+ * The compressed format is the number of records (4 bytes), followed by each
+ * column as a 1-byte encoding tag and the column in that encoding.
+ */
+public class PageCompressor {
+    private static final byte RAW = 0;
+    private static final byte RLE = 1;
+    private static final byte FOR = 2;
+
+    /** Compresses `records`, which all have schema `schema`. */
+    public static byte[] compress(Schema schema, List<Record> records) {
+        List<Type> types = schema.getFieldTypes();
+        int n = records.size();
+
+        List<byte[]> columns = new ArrayList<>();
+        int size = Integer.BYTES;
+        for (int c = 0; c < types.size(); ++c) {
+            List<DataBox> values = new ArrayList<>();
+            for (Record r : records) {
+                values.add(r.getValues().get(c));
+            }
+            byte[] column = compressColumn(types.get(c), values);
+            columns.add(column);
+            size += column.length;
+        }
+
+        java.nio.ByteBuffer buf = java.nio.ByteBuffer.allocate(size);
+        buf.putInt(n);
+        for (byte[] column : columns) {
+            buf.put(column);
+        }
+        return buf.array();
+    }
+
+    /** The inverse of compress. */
+    public static List<Record> decompress(Schema schema, byte[] bytes) {
+        List<Type> types = schema.getFieldTypes();
+        Buffer buf = ByteBuffer.wrap(bytes);
+        int n = buf.getInt();
+
+        List<List<DataBox>> values = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            values.add(new ArrayList<>());
+        }
+        for (Type t : types) {
+            int i = 0;
+            for (DataBox d : decompressColumn(t, n, buf)) {
+                values.get(i++).add(d);
+            }
+        }
+
+        List<Record> records = new ArrayList<>();
+        for (List<DataBox> v : values) {
+            records.add(new Record(v));
+        }
+        return records;
+    }
+
+    // Columns /////////////////////////////////////////////////////////////////
+    private static byte[] compressColumn(Type type, List<DataBox> values) {
+        int n = values.size();
+        int width = type.getSizeInBytes();
+
+        int numRuns = 0;
+        for (int i = 0; i < n; ++i) {
+            if (i == 0 || !values.get(i).equals(values.get(i - 1))) {
+                numRuns++;
+            }
+        }
+
+        byte encoding = RAW;
+        int size = n * width;
+        int rleSize = Integer.BYTES + numRuns * (Integer.BYTES + width);
+        if (rleSize < size) {
+            encoding = RLE;
+            size = rleSize;
+        }
+
+        long min = 0;
+        int bitWidth = 0;
+        if (type.getTypeId() == TypeId.INT && n > 0) {
+            min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (DataBox d : values) {
+                min = Math.min(min, d.getInt());
+                max = Math.max(max, d.getInt());
+            }
+            bitWidth = 64 - Long.numberOfLeadingZeros(max - min);
+            int forSize = Integer.BYTES + 1 + (int) (((long) n * bitWidth + 7) / 8);
+            if (forSize < size) {
+                encoding = FOR;
+                size = forSize;
+            }
+        }
+
+        java.nio.ByteBuffer buf = java.nio.ByteBuffer.allocate(1 + size);
+        buf.put(encoding);
+        switch (encoding) {
+        case RLE: {
+            buf.putInt(numRuns);
+            int i = 0;
+            while (i < n) {
+                int j = i;
+                while (j < n && values.get(j).equals(values.get(i))) {
+                    ++j;
+                }
+                buf.putInt(j - i);
+                buf.put(values.get(i).toBytes());
+                i = j;
+            }
+            break;
+        }
+        case FOR: {
+            buf.putInt((int) min);
+            buf.put((byte) bitWidth);
+            byte[] packed = new byte[size - Integer.BYTES - 1];
+            for (int i = 0; i < n; ++i) {
+                long delta = values.get(i).getInt() - min;
+                for (int b = 0; b < bitWidth; ++b) {
+                    if (((delta >>> b) & 1) == 1) {
+                        long bit = (long) i * bitWidth + b;
+                        packed[(int) (bit / 8)] |= 1 << (bit % 8);
+                    }
+                }
+            }
+            buf.put(packed);
+            break;
+        }
+        default: {
+            for (DataBox d : values) {
+                buf.put(d.toBytes());
+            }
+        }
+        }
+        return buf.array();
+    }
+
+    private static List<DataBox> decompressColumn(Type type, int n, Buffer buf) {
+        List<DataBox> values = new ArrayList<>();
+        byte encoding = buf.get();
+        switch (encoding) {
+        case RLE: {
+            int numRuns = buf.getInt();
+            for (int r = 0; r < numRuns; ++r) {
+                int length = buf.getInt();
+                DataBox d = DataBox.fromBytes(buf, type);
+                for (int i = 0; i < length; ++i) {
+                    values.add(d);
+                }
+            }
+            break;
+        }
+        case FOR: {
+            long min = buf.getInt();
+            int bitWidth = buf.get();
+            byte[] packed = new byte[(int) (((long) n * bitWidth + 7) / 8)];
+            buf.get(packed);
+            for (int i = 0; i < n; ++i) {
+                long delta = 0;
+                for (int b = 0; b < bitWidth; ++b) {
+                    long bit = (long) i * bitWidth + b;
+                    if ((packed[(int) (bit / 8)] & (1 << (bit % 8))) != 0) {
+                        delta |= 1L << b;
+                    }
+                }
+                values.add(new IntDataBox((int) (min + delta)));
+            }
+            break;
+        }
+        case RAW: {
+            for (int i = 0; i < n; ++i) {
+                values.add(DataBox.fromBytes(buf, type));
+            }
+            break;
+        }
+        default: {
+            throw new IllegalArgumentException("Unknown column encoding " + encoding + ".");
+        }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,177 @@
+package edu.berkeley.cs186.database.table;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A RecordCache is a least-recently used cache of decoded records, shared by
+ * all tables, so that repeated lookups of the same hot RecordIds don't have
+ * to fetch a page, read its bitmap, and decode the record every time (see
+ * Table.getRecord). Records are keyed by the id of their table and their
+ * RecordId:
+ *
+ *   RecordCache.put(tableId, rid, record, 42);
+ *   RecordCache.get(tableId, rid);   // a copy of record
+ *   RecordCache.invalidate(tableId, rid);
+ *   RecordCache.get(tableId, rid);   // null
+ *
+ * The cache is bounded by the (approximate) number of bytes its records take
+ * up rather than by its number of records; the least recently used records
+ * are evicted first. Tables invalidate a record whenever they update or
+ * delete it, and all of their records when they are closed.
+ *
+ * Callers may modify the records they get and put (e.g. the value lists of
+ * records are routinely modified in place), so the cache only ever hands
+ * out and stores copies. DataBoxes are immutable and so are shared.
+ */
+public class RecordCache {
+    // The default capacity of the cache, in bytes.
+    public static final long DEFAULT_MAX_BYTES = 1 << 20;
+
+    // The approximate number of bytes a cache entry takes up in addition to
+    // the serialized size of its record.
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private static LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private static long maxBytes = DEFAULT_MAX_BYTES;
+    private static long numBytes = 0;
+    private static long numHits = 0;
+    private static long numMisses = 0;
+
+    private static class Key {
+        int tableId;
+        RecordId rid;
+
+        Key(int tableId, RecordId rid) {
+            this.tableId = tableId;
+            this.rid = rid;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return tableId == k.tableId && rid.equals(k.rid);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tableId, rid);
+        }
+    }
+
+    private static class Entry {
+        Record record;
+        int numBytes;
+
+        Entry(Record record, int numBytes) {
+            this.record = record;
+            this.numBytes = numBytes;
+        }
+    }
+
+    /**
+     * Returns a copy of the cached record `rid` of table `tableId`, or null if
+     * it isn't cached.
+     */
+    public static synchronized Record get(int tableId, RecordId rid) {
+        Entry e = entries.get(new Key(tableId, rid));
+        if (e == null) {
+            numMisses++;
+            return null;
+        }
+        numHits++;
+        return copy(e.record);
+    }
+
+    /**
+     * Caches a copy of `record`, the record `rid` of table `tableId`, whose
+     * serialized size is `recordSizeInBytes`.
+     */
+    public static synchronized void put(int tableId, RecordId rid, Record record,
+                                        int recordSizeInBytes) {
+        int size = recordSizeInBytes + ENTRY_OVERHEAD_BYTES;
+        if (size > maxBytes) {
+            return;
+        }
+        Entry old = entries.put(new Key(tableId, rid), new Entry(copy(record), size));
+        if (old != null) {
+            numBytes -= old.numBytes;
+        }
+        numBytes += size;
+        evict();
+    }
+
+    /** Removes the record `rid` of table `tableId` from the cache. */
+    public static synchronized void invalidate(int tableId, RecordId rid) {
+        Entry old = entries.remove(new Key(tableId, rid));
+        if (old != null) {
+            numBytes -= old.numBytes;
+        }
+    }
+
+    /** Removes every record of table `tableId` from the cache. */
+    public static synchronized void invalidateTable(int tableId) {
+        Iterator<Map.Entry<Key, Entry>> iter = entries.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Key, Entry> e = iter.next();
+            if (e.getKey().tableId == tableId) {
+                numBytes -= e.getValue().numBytes;
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Sets the capacity of the cache to `bytes` bytes, evicting records if
+     * necessary. A capacity of 0 disables the cache.
+     */
+    public static synchronized void setMaxBytes(long bytes) {
+        maxBytes = bytes;
+        evict();
+    }
+
+    public static synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public static synchronized long getNumBytes() {
+        return numBytes;
+    }
+
+    public static synchronized long getNumHits() {
+        return numHits;
+    }
+
+    public static synchronized long getNumMisses() {
+        return numMisses;
+    }
+
+    /** Returns the fraction of lookups that hit, or 0 if there were none. */
+    public static synchronized double getHitRate() {
+        long numLookups = numHits + numMisses;
+        return numLookups == 0 ? 0 : (double) numHits / numLookups;
+    }
+
+    public static synchronized void resetStats() {
+        numHits = 0;
+        numMisses = 0;
+    }
+
+    private static void evict() {
+        Iterator<Entry> iter = entries.values().iterator();
+        while (numBytes > maxBytes && iter.hasNext()) {
+            numBytes -= iter.next().numBytes;
+            iter.remove();
+        }
+    }
+
+    private static Record copy(Record record) {
+        return new Record(new ArrayList<>(record.getValues()));
+    }
+}
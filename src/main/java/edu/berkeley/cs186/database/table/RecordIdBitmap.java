@@ -0,0 +1,157 @@
+package edu.berkeley.cs186.database.table;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * A RecordIdBitmap is a set of RecordIds stored as one bitmap of entry
+ * numbers per page. Iterating over a RecordIdBitmap yields its RecordIds in
+ * ascending order of page number and then entry number, no matter the order
+ * in which they were added. For example,
+ *
+ *   RecordIdBitmap bitmap = new RecordIdBitmap();
+ *   bitmap.add(new RecordId(3, (short) 1));
+ *   bitmap.add(new RecordId(1, (short) 7));
+ *   bitmap.add(new RecordId(3, (short) 0));
+ *   bitmap.iterator(); // (1, 7), (3, 0), (3, 1)
+ *
+ * This lets us fetch the records matched by an index, which are found in key
+ * order, page by page instead of one random page fetch per record (see
+ * Table.bitmapIterator). Only pages with at least one RecordId in the bitmap
+ * take up any space, so bitmaps can also be kept for the values of a column
+ * (see BitmapIndex) and combined with and and or.
+ */
+public class RecordIdBitmap implements Iterable<RecordId> {
+    // Page number -> entry numbers on that page.
+    private TreeMap<Integer, BitSet> pages;
+    private int size;
+
+    public RecordIdBitmap() {
+        this.pages = new TreeMap<>();
+        this.size = 0;
+    }
+
+    /** Returns a copy of other. */
+    public RecordIdBitmap(RecordIdBitmap other) {
+        this();
+        for (Map.Entry<Integer, BitSet> page : other.pages.entrySet()) {
+            this.pages.put(page.getKey(), (BitSet) page.getValue().clone());
+        }
+        this.size = other.size;
+    }
+
+    public void add(RecordId rid) {
+        BitSet entries = pages.computeIfAbsent(rid.getPageNum(), p -> new BitSet());
+        if (!entries.get(rid.getEntryNum())) {
+            entries.set(rid.getEntryNum());
+            size++;
+        }
+    }
+
+    public void remove(RecordId rid) {
+        BitSet entries = pages.get(rid.getPageNum());
+        if (entries != null && entries.get(rid.getEntryNum())) {
+            entries.clear(rid.getEntryNum());
+            size--;
+            if (entries.isEmpty()) {
+                pages.remove(rid.getPageNum());
+            }
+        }
+    }
+
+    public boolean contains(RecordId rid) {
+        BitSet entries = pages.get(rid.getPageNum());
+        return entries != null && entries.get(rid.getEntryNum());
+    }
+
+    /** Returns the number of RecordIds in the bitmap. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the number of pages with at least one RecordId in the bitmap. */
+    public int getNumPages() {
+        return pages.size();
+    }
+
+    /**
+     * Returns a new bitmap of the RecordIds in both this bitmap and other.
+     * Only the pages of the bitmap with fewer pages are looked at.
+     */
+    public RecordIdBitmap and(RecordIdBitmap other) {
+        if (other.pages.size() < this.pages.size()) {
+            return other.and(this);
+        }
+        RecordIdBitmap result = new RecordIdBitmap();
+        for (Map.Entry<Integer, BitSet> page : this.pages.entrySet()) {
+            BitSet otherEntries = other.pages.get(page.getKey());
+            if (otherEntries != null) {
+                BitSet entries = (BitSet) page.getValue().clone();
+                entries.and(otherEntries);
+                result.putPage(page.getKey(), entries);
+            }
+        }
+        return result;
+    }
+
+    /** Returns a new bitmap of the RecordIds in this bitmap or other. */
+    public RecordIdBitmap or(RecordIdBitmap other) {
+        RecordIdBitmap result = new RecordIdBitmap(this);
+        for (Map.Entry<Integer, BitSet> page : other.pages.entrySet()) {
+            BitSet entries = result.pages.remove(page.getKey());
+            if (entries == null) {
+                entries = (BitSet) page.getValue().clone();
+            } else {
+                result.size -= entries.cardinality();
+                entries.or(page.getValue());
+            }
+            result.putPage(page.getKey(), entries);
+        }
+        return result;
+    }
+
+    private void putPage(int pageNum, BitSet entries) {
+        if (!entries.isEmpty()) {
+            pages.put(pageNum, entries);
+            size += entries.cardinality();
+        }
+    }
+
+    /** Returns the page number -> entry numbers map, in ascending page order. */
+    Iterable<Map.Entry<Integer, BitSet>> pages() {
+        return pages.entrySet();
+    }
+
+    @Override
+    public Iterator<RecordId> iterator() {
+        return new Iterator<RecordId>() {
+            private Iterator<Map.Entry<Integer, BitSet>> pageIter = pages.entrySet().iterator();
+            private Map.Entry<Integer, BitSet> page = null;
+            private int entryNum = -1;
+
+            @Override
+            public boolean hasNext() {
+                while (page == null || page.getValue().nextSetBit(entryNum + 1) == -1) {
+                    if (!pageIter.hasNext()) {
+                        return false;
+                    }
+                    page = pageIter.next();
+                    entryNum = -1;
+                }
+                return true;
+            }
+
+            @Override
+            public RecordId next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                entryNum = page.getValue().nextSetBit(entryNum + 1);
+                return new RecordId(page.getKey(), (short) entryNum);
+            }
+        };
+    }
+}
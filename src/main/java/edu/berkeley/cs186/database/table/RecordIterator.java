@@ -15,16 +15,26 @@ import edu.berkeley.cs186.database.DatabaseException;
  *   recordIterator.next(); // equivalent to t.getRecord(ridIterator.next())
  *   recordIterator.next(); // equivalent to t.getRecord(ridIterator.next())
  *   recordIterator.next(); // equivalent to t.getRecord(ridIterator.next())
+ *
+ * RecordIterators that tables create to scan their own pages read records
+ * without going through the RecordCache (see Table.readRecord).
  */
 public class RecordIterator implements BacktrackingIterator<Record> {
     private Iterator<RecordId> ridIter;
     private Table table;
     private BaseTransaction transaction;
+    private boolean useCache;
 
     public RecordIterator(BaseTransaction transaction, Table table, Iterator<RecordId> ridIter) {
+        this(transaction, table, ridIter, true);
+    }
+
+    RecordIterator(BaseTransaction transaction, Table table, Iterator<RecordId> ridIter,
+                   boolean useCache) {
         this.ridIter = ridIter;
         this.table = table;
         this.transaction = transaction;
+        this.useCache = useCache;
     }
 
     public RecordIterator(Table table, Iterator<RecordId> ridIter) {
@@ -37,7 +47,8 @@ public class RecordIterator implements BacktrackingIterator<Record> {
 
     public Record next() {
         try {
-            return table.getRecord(transaction, ridIter.next());
+            RecordId rid = ridIter.next();
+            return useCache ? table.getRecord(transaction, rid) : table.readRecord(transaction, rid);
         } catch (DatabaseException e) {
             throw new IllegalStateException(e);
         }
@@ -1,7 +1,17 @@
 package edu.berkeley.cs186.database.table;
 
 import java.io.Closeable;
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import edu.berkeley.cs186.database.BaseTransaction;
 import edu.berkeley.cs186.database.DatabaseException;
@@ -9,13 +19,22 @@ import edu.berkeley.cs186.database.common.ArrayBacktrackingIterator;
 import edu.berkeley.cs186.database.common.BacktrackingIterator;
 import edu.berkeley.cs186.database.common.Bits;
 import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.concurrency.LockType;
 import edu.berkeley.cs186.database.concurrency.LockUtil;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.io.PageAllocator;
+import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.query.QueryPlan.PredicateOperator;
+import edu.berkeley.cs186.database.table.stats.BloomFilter;
 import edu.berkeley.cs186.database.table.stats.TableStats;
+import edu.berkeley.cs186.database.table.stats.ZoneMap;
 
 /**
  * # Overview
@@ -91,12 +110,34 @@ import edu.berkeley.cs186.database.table.stats.TableStats;
  *  - The third and fourth page (Page 2 and 3) are also data pages and are
  *    formatted similar to Page 1.
  *
- *  When we add a record to a table, we add it to the very first free slot in
- *  the table. See addRecord for more information.
+ *  When we add a record to a table, we add it to the first free slot of the
+ *  fullest page that still has room for it, as recorded in the table's
+ *  FreeSpaceMap. See addRecord for more information.
+ *
+ *  Data pages that inserts no longer fill can also be compressed (see
+ *  compressPages). Compressed pages are packed into a second file,
+ *  "t.table.compressed", and have page numbers of their own, from
+ *  CompressedPageStore.FIRST_PAGE_NUM onwards.
+ *
+ *  The header page also stores the table's fill factor, right after the
+ *  serialized schema (see setFillFactor), followed by the column the table is
+ *  clustered on, if any (see setClusteredColumn), and the dictionaries of its
+ *  dictionary encoded columns (see encodeColumn). Records store the codes of
+ *  the values of dictionary encoded columns, so the layout of a record on a
+ *  data page follows the table's physical schema, in which every dictionary
+ *  encoded column is an int column.
  */
 public class Table implements Closeable {
     public static final String FILENAME_PREFIX = "db";
     public static final String FILENAME_EXTENSION = ".table";
+    // Appended to the filename of a table to get the file of its compressed
+    // pages (see compressPages).
+    public static final String COMPRESSED_FILENAME_EXTENSION = ".compressed";
+
+    private static AtomicInteger tableCounter = new AtomicInteger(0);
+
+    // A number that identifies this table in the RecordCache.
+    private int tableId = tableCounter.getAndIncrement();
 
     // The name of the database.
     private String name;
@@ -107,9 +148,29 @@ public class Table implements Closeable {
     // The schema of the database.
     private Schema schema;
 
+    // The schema of the records stored on data pages. It is the same as
+    // schema, except that dictionary encoded columns are int columns.
+    private Schema physicalSchema;
+
+    // Column index -> dictionary, for every dictionary encoded column. Scans
+    // decode records without holding the table's monitor, so the map is never
+    // modified once the table is constructed; encodeColumn replaces it with a
+    // copy instead.
+    private volatile Map<Integer, ColumnDictionary> dictionaries;
+
+    // The number of dictionary entries in the header page, and the offset
+    // just past the last one.
+    private int numDictionaryEntries;
+    private int dictionaryEnd;
+
     // The allocator used to persist the database.
     private PageAllocator allocator;
 
+    // The compressed data pages of the table (see compressPages), or null if
+    // the table has never had any. Scans read it without holding the table's
+    // monitor.
+    private volatile CompressedPageStore compressedPages;
+
     // The size (in bytes) of the bitmap found at the beginning of each data page.
     private int bitmapSizeInBytes;
 
@@ -119,12 +180,38 @@ public class Table implements Closeable {
     // Statistics about the contents of the database.
     private TableStats stats;
 
-    // The page numbers of all allocated pages which have room for more records.
-    private TreeSet<Integer> freePageNums;
+    // The per-page ranges of the int and float columns, used to skip pages
+    // during filtered scans.
+    private ZoneMap zoneMap;
+
+    // Column index -> Bloom filter of the values in that column, for the
+    // columns that have one (see createBloomFilter).
+    private Map<Integer, BloomFilter> bloomFilters;
+
+    // Column index -> bitmap index on that column, for the columns that have
+    // one (see createBitmapIndex).
+    private Map<Integer, BitmapIndex> bitmapIndices;
+
+    // The fill level of every data page, used to find a page with room for a
+    // new record.
+    private FreeSpaceMap freeSpaceMap;
+
+    // The fraction of the slots of a data page that inserts may fill.
+    private float fillFactor;
+
+    // The index of the column the records of the table were last sorted on, or
+    // -1 if the table is not clustered.
+    private int clusteredColumn;
 
     // The number of records in the table.
     private long numRecords;
 
+    // Latches on the data pages, striped by page number. Writes to a data page
+    // hold its write latch (on top of the table's monitor), so that scans can
+    // copy pages holding only their read latch (see readDataPage).
+    private static final int NUM_PAGE_LATCHES = 64;
+    private final ReadWriteLock[] pageLatches = newPageLatches();
+
     // The lock context.
     private LockContext lockContext;
 
@@ -138,15 +225,27 @@ public class Table implements Closeable {
         this.name = name;
         this.filename = filename;
         this.schema = schema;
+        this.physicalSchema = schema;
+        this.dictionaries = new TreeMap<>();
         this.allocator = new PageAllocator(lockContext, filename, true, transaction);
+        this.compressedPages = null;
+        new File(filename + COMPRESSED_FILENAME_EXTENSION).delete();
         this.bitmapSizeInBytes = computeBitmapSizeInBytes(Page.pageSize, schema);
         numRecordsPerPage = computeNumRecordsPerPage(Page.pageSize, schema);
         this.stats = new TableStats(this.schema);
-        this.freePageNums = new TreeSet<Integer>();
+        this.zoneMap = new ZoneMap(this.schema);
+        this.bloomFilters = new HashMap<>();
+        this.bitmapIndices = new HashMap<>();
+        this.fillFactor = 1.0f;
+        this.clusteredColumn = -1;
+        this.freeSpaceMap = new FreeSpaceMap(computeCapacity());
         this.numRecords = 0;
         this.lockContext = lockContext;
 
         writeSchemaToHeaderPage(transaction, allocator, schema);
+        writeFillFactorToHeaderPage(transaction);
+        writeClusteredColumnToHeaderPage(transaction);
+        writeDictionaryColumnsToHeaderPage(transaction);
     }
 
     /**
@@ -159,32 +258,39 @@ public class Table implements Closeable {
         this.filename = filename;
         this.allocator = new PageAllocator(lockContext, filename, false, transaction);
         this.schema = readSchemaFromHeaderPage(transaction, this.allocator);
-        this.bitmapSizeInBytes = computeBitmapSizeInBytes(Page.pageSize, this.schema);
-        this.numRecordsPerPage = computeNumRecordsPerPage(Page.pageSize, this.schema);
-
-        // We compute the stats, free pages, and number of records naively. We
-        // iterate through every single data page of the file, and for each data
-        // data page, we use the bitmap to read every single record.
+        this.dictionaries = new TreeMap<>();
+        readDictionariesFromHeaderPage(transaction);
+        this.physicalSchema = computePhysicalSchema();
+        this.bitmapSizeInBytes = computeBitmapSizeInBytes(Page.pageSize, this.physicalSchema);
+        this.numRecordsPerPage = computeNumRecordsPerPage(Page.pageSize, this.physicalSchema);
+        this.fillFactor = readFillFactorFromHeaderPage(transaction);
+        this.clusteredColumn = readClusteredColumnFromHeaderPage(transaction);
+
+        // We compute the stats, zone map, free space map, and number of records
+        // naively. We iterate through every single data page of the file, and
+        // for each data page, we use the bitmap to read every single record.
         this.stats = new TableStats(this.schema);
-        this.freePageNums = new TreeSet<Integer>();
+        this.zoneMap = new ZoneMap(this.schema);
+        this.bloomFilters = new HashMap<>();
+        this.bitmapIndices = new HashMap<>();
+        this.freeSpaceMap = new FreeSpaceMap(computeCapacity());
         this.numRecords = 0;
 
         Iterator<Page> iter = this.allocator.iterator(transaction);
         iter.next(); // Skip the header page.
         while(iter.hasNext()) {
             Page page = iter.next();
-            byte[] bitmap = getBitMap(transaction, page);
-
-            for (short i = 0; i < numRecordsPerPage; ++i) {
-                if (Bits.getBit(bitmap, i) == Bits.Bit.ONE) {
-                    Record r = getRecord(transaction, new RecordId(page.getPageNum(), i));
-                    stats.addRecord(r);
-                    numRecords++;
-                }
-            }
+            loadDataPage(transaction, page);
+            freeSpaceMap.update(page.getPageNum(), numRecordsOnPage(transaction, page));
+        }
 
-            if (numRecordsOnPage(transaction, page) != numRecordsPerPage) {
-                freePageNums.add(page.getPageNum());
+        // Compressed pages are read the same way, except that they never get
+        // any more records, so the free space map leaves them out.
+        if (new File(filename + COMPRESSED_FILENAME_EXTENSION).exists()) {
+            this.compressedPages = new CompressedPageStore(this,
+                    filename + COMPRESSED_FILENAME_EXTENSION, false, transaction);
+            for (int pageNum : compressedPages.getPageNums(transaction)) {
+                loadDataPage(transaction, compressedPages.fetchPage(transaction, pageNum));
             }
         }
 
@@ -205,6 +311,14 @@ public class Table implements Closeable {
         return schema;
     }
 
+    public Schema getPhysicalSchema() {
+        return physicalSchema;
+    }
+
+    public boolean isDictionaryEncoded(int column) {
+        return dictionaries.containsKey(column);
+    }
+
     public PageAllocator getAllocator() {
         return allocator;
     }
@@ -217,17 +331,61 @@ public class Table implements Closeable {
         return numRecordsPerPage;
     }
 
+    public float getFillFactor() {
+        return fillFactor;
+    }
+
+    public int getClusteredColumn() {
+        return clusteredColumn;
+    }
+
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpaceMap;
+    }
+
     public TableStats getStats() {
         return stats;
     }
 
+    public ZoneMap getZoneMap() {
+        return zoneMap;
+    }
+
+    public synchronized boolean hasBloomFilter(int column) {
+        return bloomFilters.containsKey(column);
+    }
+
+    /**
+     * Returns false if the Bloom filter on column `column` shows that no record
+     * of this table has value `value` in that column. Returns true if the value
+     * might be present, or if there is no Bloom filter on the column.
+     */
+    public synchronized boolean mightContain(int column, DataBox value) {
+        BloomFilter filter = bloomFilters.get(column);
+        return filter == null || filter.mightContain(value);
+    }
+
+    public synchronized boolean hasBitmapIndex(int column) {
+        return bitmapIndices.containsKey(column);
+    }
+
+    /**
+     * Returns the bitmap of the records with value `value` in column `column`,
+     * which must have a bitmap index.
+     */
+    public synchronized RecordIdBitmap lookupBitmap(int column, DataBox value) {
+        return bitmapIndices.get(column).lookup(value);
+    }
+
     public long getNumRecords() {
         return numRecords;
     }
 
     public int getNumDataPages() {
-        // All pages but the first are data pages.
-        return allocator.getNumPages() - 1;
+        // All pages but the first are data pages, and so is every page of
+        // compressed data pages.
+        int numCompressedPages = compressedPages == null ? 0 : compressedPages.getNumPages();
+        return allocator.getNumPages() - 1 + numCompressedPages;
     }
 
     // TODO(mwhittaker): This should not be public. Right now, other code
@@ -258,33 +416,134 @@ public class Table implements Closeable {
      */
     public TableStats buildStatistics(BaseTransaction transaction, int buckets) {
         this.stats.refreshHistograms(transaction, buckets, this);
+        // Deleted and overwritten values can't be removed from a Bloom filter,
+        // so we rebuild the filters from scratch here as well.
+        synchronized (this) {
+            for (Map.Entry<Integer, BloomFilter> entry : bloomFilters.entrySet()) {
+                entry.setValue(buildBloomFilter(transaction, entry.getKey()));
+            }
+        }
         return this.stats;
     }
 
+    /**
+     * Builds a Bloom filter on column `column` from the current contents of the
+     * table. From then on, the filter is updated as records are added and
+     * updated, and rebuilt by buildStatistics. Bloom filters are only kept in
+     * memory and have to be created again after the table is reloaded.
+     */
+    public synchronized void createBloomFilter(BaseTransaction transaction, int column) {
+        bloomFilters.put(column, buildBloomFilter(transaction, column));
+    }
+
+    private synchronized BloomFilter buildBloomFilter(BaseTransaction transaction, int column) {
+        // Leave room for the table to double in size before the filter
+        // becomes noticeably less accurate.
+        BloomFilter filter = new BloomFilter(Math.max(2 * numRecords, numRecordsPerPage));
+        Iterator<Record> iter = iterator(transaction);
+        while (iter.hasNext()) {
+            filter.add(iter.next().getValues().get(column));
+        }
+        return filter;
+    }
+
+    /**
+     * Builds a bitmap index (see BitmapIndex) on column `column` from the
+     * current contents of the table. From then on, the index is updated as
+     * records are added, updated, moved, and deleted. Like Bloom filters,
+     * bitmap indices are only kept in memory and have to be created again
+     * after the table is reloaded.
+     */
+    public synchronized void createBitmapIndex(BaseTransaction transaction, int column) {
+        BitmapIndex index = new BitmapIndex();
+        Iterator<Pair<RecordId, Record>> iter = Spliterators.iterator(entrySpliterator(transaction));
+        while (iter.hasNext()) {
+            Pair<RecordId, Record> entry = iter.next();
+            index.add(entry.getSecond().getValues().get(column), entry.getFirst());
+        }
+        bitmapIndices.put(column, index);
+    }
+
+    private void addToBitmapIndices(RecordId rid, Record record) {
+        List<DataBox> values = record.getValues();
+        for (Map.Entry<Integer, BitmapIndex> entry : bitmapIndices.entrySet()) {
+            entry.getValue().add(values.get(entry.getKey()), rid);
+        }
+    }
+
+    private void removeFromBitmapIndices(RecordId rid, Record record) {
+        List<DataBox> values = record.getValues();
+        for (Map.Entry<Integer, BitmapIndex> entry : bitmapIndices.entrySet()) {
+            entry.getValue().remove(values.get(entry.getKey()), rid);
+        }
+    }
+
+    private void addToBloomFilters(Record record) {
+        List<DataBox> values = record.getValues();
+        for (Map.Entry<Integer, BloomFilter> entry : bloomFilters.entrySet()) {
+            entry.getValue().add(values.get(entry.getKey()));
+        }
+    }
+
     // Modifiers /////////////////////////////////////////////////////////////////
+    /**
+     * Writes record to slot entryNum of page and marks the slot as used in the
+     * page's bitmap.
+     */
     private synchronized void insertRecord(BaseTransaction transaction, Page page, int entryNum,
                                            Record record) {
-        int offset = bitmapSizeInBytes + (entryNum * schema.getSizeInBytes());
-        page.getBuffer(transaction).position(offset).put(record.toBytes(schema));
+        int offset = bitmapSizeInBytes + (entryNum * physicalSchema.getSizeInBytes());
+        Lock latch = pageLatch(page.getPageNum()).writeLock();
+        latch.lock();
+        try {
+            page.getBuffer(transaction).position(offset).put(record.toBytes(physicalSchema));
+            Bits.setBit(page.getBuffer(transaction), entryNum, Bits.Bit.ONE);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    private ReadWriteLock pageLatch(int pageNum) {
+        return pageLatches[pageNum % NUM_PAGE_LATCHES];
+    }
+
+    private static ReadWriteLock[] newPageLatches() {
+        ReadWriteLock[] latches = new ReadWriteLock[NUM_PAGE_LATCHES];
+        for (int i = 0; i < NUM_PAGE_LATCHES; ++i) {
+            latches[i] = new ReentrantReadWriteLock();
+        }
+        return latches;
     }
 
     /**
      * addRecord adds a record to this table and returns the record id of the
-     * newly added record. stats, freePageNums, and numRecords are updated
-     * accordingly. The record is added to the first free slot of the first free
-     * page (if one exists, otherwise one is allocated). For example, if the
-     * first free page has bitmap 0b11101000, then the record is inserted into
-     * the page with index 3 and the bitmap is updated to 0b11111000.
+     * newly added record. stats, zoneMap, bloomFilters, bitmapIndices,
+     * freeSpaceMap, and numRecords are updated accordingly. The record is
+     * added to the first free slot of the fullest page with room for it (if
+     * one exists, otherwise one is allocated). For example, if that page has
+     * bitmap 0b11101000, then the record is inserted into the page with index
+     * 3 and the bitmap is updated to 0b11111000.
      */
     public synchronized RecordId addRecord(BaseTransaction transaction,
                                            List<DataBox> values) throws DatabaseException {
         Record record = schema.verify(values);
 
         // Get a free page, allocating a new one if necessary.
-        if (freePageNums.isEmpty()) {
-            freePageNums.add(allocator.allocPage(transaction));
+        int pageNum = freeSpaceMap.findPage();
+        if (pageNum == -1) {
+            pageNum = allocator.allocPage(transaction);
         }
-        Page page = allocator.fetchPage(transaction, freePageNums.first());
+        Page page = allocator.fetchPage(transaction, pageNum);
+        return addRecordToPage(transaction, page, record);
+    }
+
+    /**
+     * Adds record to the first free slot of page, which must have one, and
+     * updates the metadata of the table.
+     */
+    private RecordId addRecordToPage(BaseTransaction transaction, Page page,
+                                     Record record) throws DatabaseException {
+        Record encoded = encode(transaction, record);
 
         // Find the first empty slot in the bitmap.
         // entry number of the first free slot and store it in entryNum; and (2) we
@@ -299,43 +558,62 @@ public class Table implements Closeable {
         assert(entryNum < numRecordsPerPage);
 
         // Insert the record and update the bitmap.
-        insertRecord(transaction, page, entryNum, record);
-        Bits.setBit(page.getBuffer(transaction), entryNum, Bits.Bit.ONE);
+        insertRecord(transaction, page, entryNum, encoded);
 
         // Update the metadata.
         stats.addRecord(record);
-        if (numRecordsOnPage(transaction, page) == numRecordsPerPage) {
-            freePageNums.pollFirst();
-        }
+        zoneMap.addRecord(page.getPageNum(), record);
+        addToBloomFilters(record);
+        RecordId rid = new RecordId(page.getPageNum(), (short) entryNum);
+        addToBitmapIndices(rid, record);
+        freeSpaceMap.update(page.getPageNum(), numRecordsOnPage(transaction, page));
         numRecords++;
 
-        return new RecordId(page.getPageNum(), (short) entryNum);
+        return rid;
     }
 
     /**
      * Retrieves a record from the table, throwing an exception if no such record
-     * exists.
+     * exists. Records are looked up in, and added to, the RecordCache.
      */
     public synchronized Record getRecord(BaseTransaction transaction,
                                          RecordId rid) throws DatabaseException {
         validateRecordId(rid);
-        Page page = allocator.fetchPage(transaction, rid.getPageNum());
+        Record record = RecordCache.get(tableId, rid);
+        if (record == null) {
+            record = readRecord(transaction, rid);
+            RecordCache.put(tableId, rid, record, physicalSchema.getSizeInBytes());
+        }
+        return record;
+    }
+
+    /**
+     * Reads a record from its data page without going through the
+     * RecordCache. Scans over whole pages read records this way, so that they
+     * don't evict the records of point lookups from the cache.
+     */
+    synchronized Record readRecord(BaseTransaction transaction,
+                                   RecordId rid) throws DatabaseException {
+        validateRecordId(rid);
+        Page page = fetchDataPage(transaction, rid.getPageNum());
         byte[] bitmap = getBitMap(transaction, page);
         if (Bits.getBit(bitmap, rid.getEntryNum()) == Bits.Bit.ZERO) {
             String msg = String.format("Record %s does not exist.", rid);
             throw new DatabaseException(msg);
         }
 
-        int offset = bitmapSizeInBytes + (rid.getEntryNum() * schema.getSizeInBytes());
+        int offset = bitmapSizeInBytes + (rid.getEntryNum() * physicalSchema.getSizeInBytes());
         Buffer buf = page.getBuffer(transaction);
         buf.position(offset);
-        return Record.fromBytes(buf, schema);
+        return decode(Record.fromBytes(buf, physicalSchema));
     }
 
     /**
      * Overwrites an existing record with new values and returns the existing
-     * record. stats is updated accordingly. An exception is thrown if rid does
-     * not correspond to an existing record in the table.
+     * record. stats, zoneMap, bloomFilters, and bitmapIndices are updated
+     * accordingly. An exception is thrown if rid does not correspond to an
+     * existing record in the table, or if rid is on a compressed page that
+     * has no room left for the new values (see compressPages).
      */
     public synchronized Record updateRecord(BaseTransaction transaction, List<DataBox> values,
                                             RecordId rid) throws DatabaseException {
@@ -343,28 +621,56 @@ public class Table implements Closeable {
         Record newRecord = schema.verify(values);
         Record oldRecord = getRecord(transaction, rid);
 
-        Page page = allocator.fetchPage(transaction, rid.getPageNum());
-        insertRecord(transaction, page, rid.getEntryNum(), newRecord);
+        if (CompressedPageStore.isCompressed(rid.getPageNum())) {
+            compressedPages.writeRecord(transaction, rid.getPageNum(), rid.getEntryNum(),
+                                        encode(transaction, newRecord));
+        } else {
+            Page page = allocator.fetchPage(transaction, rid.getPageNum());
+            insertRecord(transaction, page, rid.getEntryNum(), encode(transaction, newRecord));
+        }
+        RecordCache.invalidate(tableId, rid);
         this.stats.removeRecord(oldRecord);
         this.stats.addRecord(newRecord);
+        this.zoneMap.addRecord(rid.getPageNum(), newRecord);
+        addToBloomFilters(newRecord);
+        removeFromBitmapIndices(rid, oldRecord);
+        addToBitmapIndices(rid, newRecord);
         return oldRecord;
     }
 
     /**
      * Deletes and returns the record specified by rid from the table and updates
-     * stats, freePageNums, and numRecords as necessary. An exception is thrown
-     * if rid does not correspond to an existing record in the table.
+     * stats, zoneMap, bitmapIndices, freeSpaceMap, and numRecords as
+     * necessary. An exception is thrown if rid does not correspond to an
+     * existing record in the table.
      */
     public synchronized Record deleteRecord(BaseTransaction transaction,
                                             RecordId rid) throws DatabaseException {
         validateRecordId(rid);
-        Page page = allocator.fetchPage(transaction, rid.getPageNum());
+        Page page = fetchDataPage(transaction, rid.getPageNum());
         Record record = getRecord(transaction, rid);
-        Bits.setBit(page.getBuffer(transaction), rid.getEntryNum(), Bits.Bit.ZERO);
+        boolean compressed = CompressedPageStore.isCompressed(page.getPageNum());
+        if (compressed) {
+            page = compressedPages.clearBit(transaction, page.getPageNum(), rid.getEntryNum());
+        } else {
+            Lock latch = pageLatch(page.getPageNum()).writeLock();
+            latch.lock();
+            try {
+                Bits.setBit(page.getBuffer(transaction), rid.getEntryNum(), Bits.Bit.ZERO);
+            } finally {
+                latch.unlock();
+            }
+        }
+        RecordCache.invalidate(tableId, rid);
 
         stats.removeRecord(record);
-        if(numRecordsOnPage(transaction, page) == numRecordsPerPage - 1) {
-            freePageNums.add(page.getPageNum());
+        removeFromBitmapIndices(rid, record);
+        int numRecordsLeft = numRecordsOnPage(transaction, page);
+        if (numRecordsLeft == 0) {
+            zoneMap.removePage(page.getPageNum());
+        }
+        if (!compressed) {
+            freeSpaceMap.update(page.getPageNum(), numRecordsLeft);
         }
         numRecords--;
 
@@ -372,17 +678,234 @@ public class Table implements Closeable {
     }
 
     /**
-     * Frees all empty pages used by the table.
+     * Moves the record rid to the fullest page before rid's page that has room
+     * for it, and returns the record's new record id. Returns null and leaves
+     * the record where it is otherwise. Moving records towards the front of
+     * the file is how compaction empties out sparse pages at the back of the
+     * file (see getSparsePageNums); callers are responsible for updating any
+     * indices on the table.
+     */
+    public synchronized RecordId moveRecord(BaseTransaction transaction,
+                                            RecordId rid) throws DatabaseException {
+        validateRecordId(rid);
+        int pageNum = freeSpaceMap.findPageBefore(rid.getPageNum());
+        if (pageNum == -1) {
+            return null;
+        }
+        Record record = deleteRecord(transaction, rid);
+        Page page = allocator.fetchPage(transaction, pageNum);
+        return addRecordToPage(transaction, page, record);
+    }
+
+    /**
+     * Returns the page numbers of the data pages which hold at least one
+     * record but are at most fillThreshold (a fraction between 0 and 1) full,
+     * from the back of the file to the front. These are the pages that
+     * compaction should try to empty.
+     */
+    public synchronized List<Integer> getSparsePageNums(BaseTransaction transaction,
+            float fillThreshold) {
+        List<Integer> pageNums = new ArrayList<>();
+        int pageNum = freeSpaceMap.previousOpenPage(Integer.MAX_VALUE - 1);
+        for (; pageNum != -1; pageNum = freeSpaceMap.previousOpenPage(pageNum - 1)) {
+            int n = numRecordsOnPage(transaction, allocator.fetchPage(transaction, pageNum));
+            if (n > 0 && n <= fillThreshold * numRecordsPerPage) {
+                pageNums.add(pageNum);
+            }
+        }
+        return pageNums;
+    }
+
+    /**
+     * Returns the record ids of the records currently stored on data page
+     * pageNum.
+     */
+    public synchronized List<RecordId> getRecordIds(BaseTransaction transaction, int pageNum) {
+        List<RecordId> rids = new ArrayList<>();
+        Iterator<RecordId> iter = new RIDPageIterator(transaction, fetchDataPage(transaction, pageNum));
+        while (iter.hasNext()) {
+            rids.add(iter.next());
+        }
+        return rids;
+    }
+
+    /**
+     * Frees all empty pages used by the table, compressed pages included.
      */
     public synchronized void cleanup(BaseTransaction transaction) throws DatabaseException {
-        for (Integer pageNum : freePageNums) {
+        int pageNum = freeSpaceMap.nextOpenPage(0);
+        for (; pageNum != -1; pageNum = freeSpaceMap.nextOpenPage(pageNum + 1)) {
+            // Pages with room for more records may still hold some; only
+            // pages without any records can be returned to the allocator.
+            if (numRecordsOnPage(transaction, allocator.fetchPage(transaction, pageNum)) == 0) {
+                allocator.freePage(transaction, pageNum);
+                zoneMap.removePage(pageNum);
+                freeSpaceMap.remove(pageNum);
+            }
+        }
+        if (compressedPages != null) {
+            compressedPages.cleanup(transaction);
+        }
+    }
+
+    /**
+     * Compresses the data pages that inserts no longer fill, i.e. the pages
+     * without room for another record in the free space map, into the
+     * table's CompressedPageStore, and frees them. Every record keeps its
+     * entry number but moves to the compressed page its page was compressed
+     * into; the returned map takes the page number of every compressed page
+     * to its new page number. Pages that don't compress to at most half a
+     * page are left alone. zoneMap and bitmapIndices are updated; callers are
+     * responsible for updating any other indices on the table (see
+     * Database.Transaction.compressTable).
+     *
+     * Compressed pages can be read, updated, and deleted from like any other
+     * page, but records are never added to them, and updates that make a
+     * compressed page too big to fit in its block fail.
+     */
+    public synchronized Map<Integer, Integer> compressPages(BaseTransaction transaction)
+    throws DatabaseException {
+        List<Integer> pageNums = new ArrayList<>();
+        List<byte[]> images = new ArrayList<>();
+        int[] allocated = allocator.getAllocatedPageNums(transaction);
+        for (int i = 1; i < allocated.length; ++i) {
+            if (!freeSpaceMap.hasRoom(allocated[i])) {
+                pageNums.add(allocated[i]);
+                images.add(allocator.fetchPage(transaction, allocated[i]).readBytes(transaction));
+            }
+        }
+        if (pageNums.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        if (compressedPages == null) {
+            compressedPages = new CompressedPageStore(this,
+                    filename + COMPRESSED_FILENAME_EXTENSION, true, transaction);
+        }
+        List<Integer> newPageNums = compressedPages.addPages(transaction, images);
+
+        Map<Integer, Integer> moved = new LinkedHashMap<>();
+        for (int i = 0; i < pageNums.size(); ++i) {
+            int pageNum = pageNums.get(i);
+            int newPageNum = newPageNums.get(i);
+            if (newPageNum == -1) {
+                continue;
+            }
+            zoneMap.removePage(pageNum);
+            for (RecordId rid : getRecordIds(transaction, newPageNum)) {
+                RecordId oldRid = new RecordId(pageNum, rid.getEntryNum());
+                Record record = readRecord(transaction, rid);
+                zoneMap.addRecord(newPageNum, record);
+                removeFromBitmapIndices(oldRid, record);
+                addToBitmapIndices(rid, record);
+                RecordCache.invalidate(tableId, oldRid);
+            }
             allocator.freePage(transaction, pageNum);
+            freeSpaceMap.remove(pageNum);
+            moved.put(pageNum, newPageNum);
         }
-        freePageNums.clear();
+        return moved;
+    }
+
+    /**
+     * Sets the fraction of the slots of every data page that inserts may fill.
+     * Inserts skip pages that are filled up to the fill factor, so the rest
+     * of their slots stay free. The fill factor is persisted in the header
+     * page; it does not move records that are already stored.
+     */
+    public synchronized void setFillFactor(BaseTransaction transaction, float fillFactor) {
+        if (fillFactor <= 0 || fillFactor > 1) {
+            throw new IllegalArgumentException("fill factor must be in (0, 1]: " + fillFactor);
+        }
+        this.fillFactor = fillFactor;
+        writeFillFactorToHeaderPage(transaction);
+
+        this.freeSpaceMap = new FreeSpaceMap(computeCapacity());
+        Iterator<Page> iter = this.allocator.iterator(transaction);
+        iter.next(); // Skip the header page.
+        while (iter.hasNext()) {
+            Page page = iter.next();
+            freeSpaceMap.update(page.getPageNum(), numRecordsOnPage(transaction, page));
+        }
+    }
+
+    /**
+     * Records that the records of the table are stored in ascending order of
+     * column `column` (or, if `column` is -1, that they are not). This is only
+     * metadata: it is up to the caller to actually order the records (see
+     * Database.Transaction.clusterTable). Records added or updated later are
+     * not kept in order, so the clustering degrades until the table is
+     * clustered again. The clustered column is persisted in the header page.
+     */
+    public synchronized void setClusteredColumn(BaseTransaction transaction, int column) {
+        if (column < -1 || column >= schema.getFieldNames().size()) {
+            throw new IllegalArgumentException("invalid column: " + column);
+        }
+        this.clusteredColumn = column;
+        writeClusteredColumnToHeaderPage(transaction);
+    }
+
+    /**
+     * Dictionary encodes string column `column`. From now on, the table stores
+     * a 4-byte code in place of every value of the column, and stores each
+     * distinct value of the column once, in the header page (see
+     * ColumnDictionary). This shrinks records when the column has only a
+     * handful of distinct values; since the dictionary has to fit in the
+     * header page, adding a record fails once it is full. Because encoding a
+     * column changes the size of records, a column can only be encoded while
+     * the table has no data pages.
+     */
+    public synchronized void encodeColumn(BaseTransaction transaction,
+                                          int column) throws DatabaseException {
+        if (schema.getFieldTypes().get(column).getTypeId() != TypeId.STRING) {
+            String msg = String.format("Column %s is not a string column.",
+                                       schema.getFieldNames().get(column));
+            throw new DatabaseException(msg);
+        }
+        if (getNumDataPages() != 0) {
+            throw new DatabaseException("Only columns of empty tables can be dictionary encoded.");
+        }
+        if (dictionaries.containsKey(column)) {
+            return;
+        }
+
+        Map<Integer, ColumnDictionary> newDictionaries = new TreeMap<>(dictionaries);
+        newDictionaries.put(column, new ColumnDictionary());
+        dictionaries = newDictionaries;
+        physicalSchema = computePhysicalSchema();
+        bitmapSizeInBytes = computeBitmapSizeInBytes(Page.pageSize, physicalSchema);
+        numRecordsPerPage = computeNumRecordsPerPage(Page.pageSize, physicalSchema);
+        freeSpaceMap = new FreeSpaceMap(computeCapacity());
+
+        // The list of encoded columns precedes the dictionary entries, so we
+        // rewrite all of the entries.
+        writeDictionaryColumnsToHeaderPage(transaction);
+        for (Map.Entry<Integer, ColumnDictionary> e : dictionaries.entrySet()) {
+            for (int code = 0; code < e.getValue().size(); ++code) {
+                appendDictionaryEntry(transaction, e.getKey(), e.getValue().getValue(code));
+            }
+        }
+    }
+
+    /**
+     * Deletes every record of the table and frees all of its data pages.
+     */
+    public synchronized void clear(BaseTransaction transaction) throws DatabaseException {
+        int[] pageNums = getDataPageNums(transaction);
+        for (int i = 1; i < pageNums.length; ++i) {
+            for (RecordId rid : getRecordIds(transaction, pageNums[i])) {
+                deleteRecord(transaction, rid);
+            }
+        }
+        cleanup(transaction);
     }
 
     public void close() {
+        RecordCache.invalidateTable(tableId);
         allocator.close();
+        if (compressedPages != null) {
+            compressedPages.close();
+        }
     }
 
     // Helpers ///////////////////////////////////////////////////////////////////
@@ -400,6 +923,133 @@ public class Table implements Closeable {
         headerPage.getBuffer(transaction).put(schema.toBytes());
     }
 
+    private float readFillFactorFromHeaderPage(BaseTransaction transaction) {
+        Page headerPage = allocator.fetchPage(transaction, 0);
+        float f = headerPage.getBuffer(transaction).getFloat(schema.toBytes().length);
+        // Tables written before fill factors existed have zeros here.
+        return (f > 0 && f <= 1) ? f : 1.0f;
+    }
+
+    private void writeFillFactorToHeaderPage(BaseTransaction transaction) {
+        Page headerPage = allocator.fetchPage(transaction, 0);
+        headerPage.getBuffer(transaction).putFloat(schema.toBytes().length, fillFactor);
+    }
+
+    private int readClusteredColumnFromHeaderPage(BaseTransaction transaction) {
+        Page headerPage = allocator.fetchPage(transaction, 0);
+        int offset = schema.toBytes().length + Float.BYTES;
+        // We store the column plus one, so that the zeros of tables written
+        // before clustering existed read as -1.
+        return headerPage.getBuffer(transaction).getInt(offset) - 1;
+    }
+
+    private void writeClusteredColumnToHeaderPage(BaseTransaction transaction) {
+        Page headerPage = allocator.fetchPage(transaction, 0);
+        int offset = schema.toBytes().length + Float.BYTES;
+        headerPage.getBuffer(transaction).putInt(offset, clusteredColumn + 1);
+    }
+
+    // The offset in the header page of the number of dictionary encoded
+    // columns, which is followed by the indexes of the columns, the number of
+    // dictionary entries, and then the entries themselves. Every entry is the
+    // (2-byte) index of a column followed by a value of the column; the
+    // entries of a column are stored in order of their codes.
+    private int getDictionaryOffset() {
+        return schema.toBytes().length + Float.BYTES + Integer.BYTES;
+    }
+
+    private void readDictionariesFromHeaderPage(BaseTransaction transaction) {
+        Buffer buf = allocator.fetchPage(transaction, 0).getBuffer(transaction);
+        buf.position(getDictionaryOffset());
+        int numColumns = buf.getInt();
+        for (int i = 0; i < numColumns; ++i) {
+            dictionaries.put(buf.getInt(), new ColumnDictionary());
+        }
+        numDictionaryEntries = buf.getInt();
+        for (int i = 0; i < numDictionaryEntries; ++i) {
+            int column = buf.getShort();
+            Type t = schema.getFieldTypes().get(column);
+            dictionaries.get(column).add(DataBox.fromBytes(buf, t));
+        }
+        dictionaryEnd = buf.position();
+    }
+
+    // Writes the list of dictionary encoded columns, followed by no entries.
+    private void writeDictionaryColumnsToHeaderPage(BaseTransaction transaction) {
+        Buffer buf = allocator.fetchPage(transaction, 0).getBuffer(transaction);
+        buf.position(getDictionaryOffset());
+        buf.putInt(dictionaries.size());
+        for (int column : dictionaries.keySet()) {
+            buf.putInt(column);
+        }
+        buf.putInt(0);
+        numDictionaryEntries = 0;
+        dictionaryEnd = buf.position();
+    }
+
+    private void appendDictionaryEntry(BaseTransaction transaction, int column,
+                                       DataBox value) throws DatabaseException {
+        byte[] bytes = value.toBytes();
+        if (dictionaryEnd + Short.BYTES + bytes.length > Page.pageSize) {
+            String msg = String.format("The dictionary of column %s of table %s is full.",
+                                       schema.getFieldNames().get(column), name);
+            throw new DatabaseException(msg);
+        }
+        Buffer buf = allocator.fetchPage(transaction, 0).getBuffer(transaction);
+        buf.position(dictionaryEnd).putShort((short) column).put(bytes);
+        dictionaryEnd += Short.BYTES + bytes.length;
+        numDictionaryEntries++;
+        int countOffset = getDictionaryOffset() + Integer.BYTES * (1 + dictionaries.size());
+        buf.putInt(countOffset, numDictionaryEntries);
+    }
+
+    private Schema computePhysicalSchema() {
+        List<Type> types = new ArrayList<>(schema.getFieldTypes());
+        for (int column : dictionaries.keySet()) {
+            types.set(column, Type.intType());
+        }
+        return new Schema(schema.getFieldNames(), types);
+    }
+
+    /**
+     * Returns the record to store for record, which has the values of the
+     * dictionary encoded columns replaced with their codes. Values which are
+     * not in their dictionary yet are added to it.
+     */
+    private Record encode(BaseTransaction transaction, Record record) throws DatabaseException {
+        if (dictionaries.isEmpty()) {
+            return record;
+        }
+        List<DataBox> values = new ArrayList<>(record.getValues());
+        for (Map.Entry<Integer, ColumnDictionary> e : dictionaries.entrySet()) {
+            DataBox value = values.get(e.getKey());
+            int code = e.getValue().getCode(value);
+            if (code == -1) {
+                appendDictionaryEntry(transaction, e.getKey(), value);
+                code = e.getValue().add(value);
+            }
+            values.set(e.getKey(), new IntDataBox(code));
+        }
+        return new Record(values);
+    }
+
+    /** The inverse of encode. Modifies and returns record. */
+    private Record decode(Record record) {
+        if (dictionaries.isEmpty()) {
+            return record;
+        }
+        List<DataBox> values = record.getValues();
+        for (Map.Entry<Integer, ColumnDictionary> e : dictionaries.entrySet()) {
+            values.set(e.getKey(), e.getValue().getValue(values.get(e.getKey()).getInt()));
+        }
+        return record;
+    }
+
+    // The number of records inserts may place on a data page.
+    private int computeCapacity() {
+        return Math.max(1, (int) Math.floor(fillFactor * numRecordsPerPage));
+    }
+
     /**
      * Recall that every data page contains an m-byte bitmap followed by n
      * records. The following three functions computes m and n such that n is
@@ -426,6 +1076,45 @@ public class Table implements Closeable {
         return pageSizeInBits / recordOverheadInBits;
     }
 
+    // Adds the records of page to stats, zoneMap, and numRecords.
+    private void loadDataPage(BaseTransaction transaction, Page page) throws DatabaseException {
+        byte[] bitmap = getBitMap(transaction, page);
+        for (short i = 0; i < numRecordsPerPage; ++i) {
+            if (Bits.getBit(bitmap, i) == Bits.Bit.ONE) {
+                Record r = readRecord(transaction, new RecordId(page.getPageNum(), i));
+                stats.addRecord(r);
+                zoneMap.addRecord(page.getPageNum(), r);
+                numRecords++;
+            }
+        }
+    }
+
+    // Fetches data page pageNum, which may be a compressed page.
+    private Page fetchDataPage(BaseTransaction transaction, int pageNum) {
+        if (CompressedPageStore.isCompressed(pageNum)) {
+            CompressedPageStore store = compressedPages;
+            if (store == null) {
+                throw new PageException("invalid compressed page number " + pageNum);
+            }
+            return store.fetchPage(transaction, pageNum);
+        }
+        return allocator.fetchPage(transaction, pageNum);
+    }
+
+    // Returns the page numbers of the header page, followed by those of the
+    // data pages, followed by those of the compressed pages.
+    private int[] getDataPageNums(BaseTransaction transaction) {
+        int[] pageNums = allocator.getAllocatedPageNums(transaction);
+        CompressedPageStore store = compressedPages;
+        if (store == null) {
+            return pageNums;
+        }
+        int[] compressed = store.getPageNums(transaction);
+        int[] all = Arrays.copyOf(pageNums, pageNums.length + compressed.length);
+        System.arraycopy(compressed, 0, all, pageNums.length, compressed.length);
+        return all;
+    }
+
     private int numRecordsOnPage(BaseTransaction transaction, Page page) {
         byte[] bitmap = getBitMap(transaction, page);
         int numRecords = 0;
@@ -464,21 +1153,313 @@ public class Table implements Closeable {
     }
 
     public RecordIterator iterator(BaseTransaction transaction) {
-        return new RecordIterator(transaction, this, ridIterator(transaction));
+        return new RecordIterator(transaction, this, ridIterator(transaction), false);
+    }
+
+    /**
+     * Returns an iterator over the records of this table, skipping every page
+     * whose zone map shows that none of its records satisfies the predicate
+     * `column operator value`. Records on the pages that are read are returned
+     * whether or not they satisfy the predicate, so callers still have to
+     * filter them.
+     */
+    public RecordIterator iterator(BaseTransaction transaction, int column,
+                                   PredicateOperator operator, DataBox value) {
+        if (dictionaries.containsKey(column) &&
+                (operator == PredicateOperator.EQUALS || operator == PredicateOperator.NOT_EQUALS)) {
+            int[] pageNums = getDataPageNums(transaction);
+            int code = dictionaries.get(column).getCode(value);
+            Iterator<RecordId> ridIter = new DictionaryRIDIterator(transaction, pageNums, column,
+                    operator == PredicateOperator.EQUALS, code);
+            return new RecordIterator(transaction, this, ridIter, false);
+        }
+        if (!zoneMap.tracks(column)) {
+            return iterator(transaction);
+        }
+        int[] pageNums = getDataPageNums(transaction);
+        Iterator<RecordId> ridIter = new ZoneMapRIDIterator(transaction, pageNums, column, operator,
+                value);
+        return new RecordIterator(transaction, this, ridIter, false);
+    }
+
+    /**
+     * Returns an iterator over the pages of this table: the header page,
+     * followed by the data pages, followed by the compressed pages (see
+     * compressPages). Like the iterator of a PageAllocator, mark marks the
+     * page last returned by next, and reset goes back to it.
+     */
+    public BacktrackingIterator<Page> pageIterator(BaseTransaction transaction) {
+        return new DataPageIterator(transaction, getDataPageNums(transaction));
     }
 
     public BacktrackingIterator<Record> blockIterator(BaseTransaction transaction, Page[] block) {
-        return new RecordIterator(transaction, this, new RIDBlockIterator(transaction, block));
+        return new RecordIterator(transaction, this, new RIDBlockIterator(transaction, block), false);
     }
 
     public BacktrackingIterator<Record> blockIterator(BaseTransaction transaction,
             BacktrackingIterator<Page> block) {
-        return new RecordIterator(transaction, this, new RIDBlockIterator(transaction, block));
+        return new RecordIterator(transaction, this, new RIDBlockIterator(transaction, block), false);
     }
 
     public BacktrackingIterator<Record> blockIterator(BaseTransaction transaction, Iterator<Page> block,
             int maxRecords) {
-        return new RecordIterator(transaction, this, new RIDBlockIterator(transaction, block, maxRecords));
+        return new RecordIterator(transaction, this, new RIDBlockIterator(transaction, block, maxRecords), false);
+    }
+
+    /**
+     * Returns an iterator over the records with the RecordIds in `rids`, in
+     * ascending page order. Each page is read once, and all of the records
+     * from `rids` on it are decoded together, so fetching the records matched
+     * by an unclustered index costs at most one I/O per page rather than one
+     * per record. Records that have been deleted since they were added to
+     * `rids` are skipped.
+     */
+    public Iterator<Record> bitmapIterator(BaseTransaction transaction, RecordIdBitmap rids) {
+        return new BitmapRecordIterator(transaction, rids);
+    }
+
+    /**
+     * Returns a Spliterator over the records of this table. The spliterator
+     * splits on page ranges, so it can back a parallel stream:
+     *
+     *   Stream<Record> records = StreamSupport.stream(t.spliterator(transaction), true);
+     */
+    public Spliterator<Record> spliterator(BaseTransaction transaction) {
+        int[] pageNums = getDataPageNums(transaction);
+        // The header page is always page 0, the first allocated page.
+        return new RecordSpliterator<>(transaction, pageNums, 1, pageNums.length, (rid, r) -> r);
+    }
+
+    /**
+     * Like spliterator, but each record comes paired with its RecordId. This
+     * is what building an index over an existing table needs (see
+     * Database.Transaction.createIndex).
+     */
+    public Spliterator<Pair<RecordId, Record>> entrySpliterator(BaseTransaction transaction) {
+        int[] pageNums = getDataPageNums(transaction);
+        return new RecordSpliterator<>(transaction, pageNums, 1, pageNums.length, Pair::new);
+    }
+
+    /**
+     * Returns a parallel stream of the records of this table that satisfy
+     * predicate. The data pages are divided into ranges which are scanned
+     * concurrently on the common fork-join pool, so filters and aggregates
+     * over large tables scale with the number of cores. For example,
+     *
+     *   long n = t.parallelScan(transaction, r -> r.getValues().get(0).getInt() > 10).count();
+     */
+    public Stream<Record> parallelScan(BaseTransaction transaction, Predicate<Record> predicate) {
+        return StreamSupport.stream(spliterator(transaction), true).filter(predicate);
+    }
+
+    /**
+     * Copies the contents of a data page out of the page cache, returning null
+     * if the page has been freed in the meantime. The copy is made while
+     * holding the page's read latch rather than the table's monitor, so scans
+     * only wait on writes to the pages they read, and we never observe a
+     * half-written record.
+     */
+    private byte[] readDataPage(BaseTransaction transaction, int pageNum) {
+        Lock latch = pageLatch(pageNum).readLock();
+        latch.lock();
+        try {
+            return fetchDataPage(transaction, pageNum).readBytes(transaction);
+        } catch (PageException e) {
+            return null;
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * DataPageIterator is a BacktrackingIterator over a list of pages of the
+     * table, which may include compressed pages. Pages that are freed before
+     * the iterator gets to them are skipped.
+     */
+    private class DataPageIterator implements BacktrackingIterator<Page> {
+        private BaseTransaction transaction;
+        private int[] pageNums;
+        // The next page number to fetch is pageNums[index]; nextPage is the
+        // page hasNext fetched, pageNums[nextIndex], if next hasn't returned
+        // it yet; and pageNums[lastIndex] is the page next returned last.
+        private int index = 0;
+        private Page nextPage = null;
+        private int nextIndex = -1;
+        private int lastIndex = -1;
+        private int markedIndex = -1;
+
+        DataPageIterator(BaseTransaction transaction, int[] pageNums) {
+            this.transaction = transaction;
+            this.pageNums = pageNums;
+        }
+
+        public boolean hasNext() {
+            while (nextPage == null && index < pageNums.length) {
+                try {
+                    nextPage = fetchDataPage(transaction, pageNums[index]);
+                    nextIndex = index;
+                } catch (PageException e) {
+                    // The page was freed since we listed the pages.
+                }
+                index++;
+            }
+            return nextPage != null;
+        }
+
+        public Page next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Page page = nextPage;
+            nextPage = null;
+            lastIndex = nextIndex;
+            return page;
+        }
+
+        public void mark() {
+            if (lastIndex == -1) {
+                throw new UnsupportedOperationException("cannot mark() before next()");
+            }
+            markedIndex = lastIndex;
+        }
+
+        public void reset() {
+            if (markedIndex != -1) {
+                index = markedIndex;
+                nextPage = null;
+            }
+        }
+    }
+
+    /**
+     * RecordSpliterator is a Spliterator over the records stored on a range of
+     * data pages. trySplit hands off the first half of the remaining page
+     * range, so different threads always work on disjoint pages. Each page is
+     * copied once (see readDataPage) and its records are decoded outside of the
+     * table's monitor. Every record, together with its RecordId, is turned
+     * into an element of the spliterator by `entry`.
+     */
+    public class RecordSpliterator<T> implements Spliterator<T> {
+        private BaseTransaction transaction;
+        private int[] pageNums;
+        private BiFunction<RecordId, Record, T> entry;
+        // The next page to load is pageNums[index]; pages from fence onwards
+        // belong to some other spliterator.
+        private int index;
+        private int fence;
+        // The page currently being read, and the next entry to look at on it.
+        private byte[] pageBytes = null;
+        private int entryNum = 0;
+
+        // The page number of pageBytes.
+        private int pageNum;
+
+        RecordSpliterator(BaseTransaction transaction, int[] pageNums, int origin, int fence,
+                          BiFunction<RecordId, Record, T> entry) {
+            this.transaction = transaction;
+            this.pageNums = pageNums;
+            this.index = origin;
+            this.fence = fence;
+            this.entry = entry;
+        }
+
+        public boolean tryAdvance(Consumer<? super T> action) {
+            while (true) {
+                if (pageBytes != null) {
+                    for (; entryNum < numRecordsPerPage; ++entryNum) {
+                        if (Bits.getBit(pageBytes, entryNum) == Bits.Bit.ONE) {
+                            Buffer buf = ByteBuffer.wrap(pageBytes);
+                            buf.position(bitmapSizeInBytes + entryNum * physicalSchema.getSizeInBytes());
+                            RecordId rid = new RecordId(pageNum, (short) entryNum++);
+                            action.accept(entry.apply(rid, decode(Record.fromBytes(buf, physicalSchema))));
+                            return true;
+                        }
+                    }
+                    pageBytes = null;
+                }
+                if (index >= fence) {
+                    return false;
+                }
+                pageNum = pageNums[index++];
+                pageBytes = readDataPage(transaction, pageNum);
+                entryNum = 0;
+            }
+        }
+
+        public Spliterator<T> trySplit() {
+            int mid = (index + fence) >>> 1;
+            // Only split between pages; splitting while in the middle of a page
+            // would hand out records that come before the rest of that page.
+            if (pageBytes != null || mid <= index) {
+                return null;
+            }
+            Spliterator<T> prefix = new RecordSpliterator<>(transaction, pageNums, index, mid, entry);
+            index = mid;
+            return prefix;
+        }
+
+        public long estimateSize() {
+            return (long) (fence - index) * numRecordsPerPage;
+        }
+
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.NONNULL;
+        }
+    }
+
+    /**
+     * BitmapRecordIterator is an iterator over the records of a RecordIdBitmap.
+     * Like RecordSpliterator, it copies each page once (see readDataPage) and
+     * decodes its records outside of the table's monitor.
+     */
+    private class BitmapRecordIterator implements Iterator<Record> {
+        private BaseTransaction transaction;
+        private Iterator<Map.Entry<Integer, BitSet>> pageIter;
+        // The page currently being read, the entries to read on it, and the
+        // last entry read.
+        private byte[] pageBytes = null;
+        private BitSet entries = null;
+        private int entryNum = -1;
+        private Record nextRecord = null;
+
+        BitmapRecordIterator(BaseTransaction transaction, RecordIdBitmap rids) {
+            this.transaction = transaction;
+            this.pageIter = rids.pages().iterator();
+        }
+
+        public boolean hasNext() {
+            while (nextRecord == null) {
+                if (pageBytes != null) {
+                    entryNum = entries.nextSetBit(entryNum + 1);
+                    if (entryNum >= 0 && entryNum < numRecordsPerPage) {
+                        if (Bits.getBit(pageBytes, entryNum) == Bits.Bit.ONE) {
+                            Buffer buf = ByteBuffer.wrap(pageBytes);
+                            buf.position(bitmapSizeInBytes + entryNum * physicalSchema.getSizeInBytes());
+                            nextRecord = decode(Record.fromBytes(buf, physicalSchema));
+                        }
+                        continue;
+                    }
+                    pageBytes = null;
+                }
+                if (!pageIter.hasNext()) {
+                    return false;
+                }
+                Map.Entry<Integer, BitSet> page = pageIter.next();
+                pageBytes = readDataPage(transaction, page.getKey());
+                entries = page.getValue();
+                entryNum = -1;
+            }
+            return true;
+        }
+
+        public Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Record record = nextRecord;
+            nextRecord = null;
+            return record;
+        }
     }
 
     /**
@@ -555,6 +1536,127 @@ public class Table implements Closeable {
         }
     }
 
+    /**
+     * ZoneMapRIDIterator is an Iterator over the RecordIds of the data pages
+     * that the zone map cannot rule out for a predicate. Pages which are ruled
+     * out are never fetched.
+     */
+    private class ZoneMapRIDIterator implements Iterator<RecordId> {
+        private BaseTransaction transaction;
+        private int[] pageNums;
+        private int index;
+        private int column;
+        private PredicateOperator operator;
+        private DataBox value;
+        private Iterator<RecordId> pageIter = null;
+
+        ZoneMapRIDIterator(BaseTransaction transaction, int[] pageNums, int column,
+                           PredicateOperator operator, DataBox value) {
+            this.transaction = transaction;
+            this.pageNums = pageNums;
+            this.index = 1; // Skip the header page.
+            this.column = column;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        public boolean hasNext() {
+            while (pageIter == null || !pageIter.hasNext()) {
+                if (index >= pageNums.length) {
+                    return false;
+                }
+                int pageNum = pageNums[index++];
+                if (!zoneMap.mightMatch(pageNum, column, operator, value)) {
+                    continue;
+                }
+                try {
+                    pageIter = new RIDPageIterator(transaction, fetchDataPage(transaction, pageNum));
+                } catch (PageException e) {
+                    // The page was freed since we listed the allocated pages.
+                    pageIter = null;
+                }
+            }
+            return true;
+        }
+
+        public RecordId next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return pageIter.next();
+        }
+    }
+
+    /**
+     * DictionaryRIDIterator is an Iterator over the RecordIds of the records
+     * whose code in a dictionary encoded column is (or, if equal is false, is
+     * not) a given code. It compares the codes stored on the data pages, so
+     * only the records it returns are ever decoded.
+     */
+    private class DictionaryRIDIterator implements Iterator<RecordId> {
+        private BaseTransaction transaction;
+        private int[] pageNums;
+        private int index;
+        private int codeOffset;
+        private boolean equal;
+        private int code;
+        private List<RecordId> pageRids = new ArrayList<>();
+        private int pageIndex = 0;
+
+        DictionaryRIDIterator(BaseTransaction transaction, int[] pageNums, int column,
+                              boolean equal, int code) {
+            this.transaction = transaction;
+            this.pageNums = pageNums;
+            this.index = 1; // Skip the header page.
+            this.codeOffset = 0;
+            for (int i = 0; i < column; ++i) {
+                this.codeOffset += physicalSchema.getFieldTypes().get(i).getSizeInBytes();
+            }
+            this.equal = equal;
+            this.code = code;
+            if (equal && code == -1) {
+                // The value isn't in the dictionary, so no record has it.
+                this.index = pageNums.length;
+            }
+        }
+
+        public boolean hasNext() {
+            while (pageIndex >= pageRids.size()) {
+                if (index >= pageNums.length) {
+                    return false;
+                }
+                pageRids.clear();
+                pageIndex = 0;
+                Page page;
+                try {
+                    page = fetchDataPage(transaction, pageNums[index++]);
+                } catch (PageException e) {
+                    // The page was freed since we listed the allocated pages.
+                    continue;
+                }
+                byte[] bitmap = getBitMap(transaction, page);
+                Buffer buf = page.getBuffer(transaction);
+                for (short i = 0; i < numRecordsPerPage; ++i) {
+                    if (Bits.getBit(bitmap, i) == Bits.Bit.ZERO) {
+                        continue;
+                    }
+                    int offset = bitmapSizeInBytes + i * physicalSchema.getSizeInBytes() + codeOffset;
+                    if ((buf.getInt(offset) == code) == equal) {
+                        pageRids.add(new RecordId(page.getPageNum(), i));
+                    }
+                }
+            }
+            return true;
+        }
+
+        public RecordId next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return pageRids.get(pageIndex++);
+        }
+    }
+
     /**
      * Helper function to create a BacktrackingIterator from an Iterator of
      * Pages, and a maximum number of pages.
@@ -762,7 +1864,7 @@ public class Table implements Closeable {
     public class TableIterator extends RIDBlockIterator {
         TableIterator(BaseTransaction transaction) {
             super(transaction, (BacktrackingIterator<Page>) Table.iteratorSkipPage(
-                      Table.this.allocator.iterator(transaction)));
+                      Table.this.pageIterator(transaction)));
         }
     }
 
@@ -0,0 +1,77 @@
+package edu.berkeley.cs186.database.table.stats;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+
+/**
+ * A BloomFilter is a compact, probabilistic summary of a set of values. It
+ * answers the question "might this value be in the set?": mightContain never
+ * returns false for a value that was added, but may return true for a value
+ * that was not. For example,
+ *
+ *   BloomFilter filter = new BloomFilter(1000);
+ *   filter.add(new IntDataBox(1));
+ *   filter.mightContain(new IntDataBox(1)); // true
+ *   filter.mightContain(new IntDataBox(2)); // almost certainly false
+ *
+ * Values can't be removed from a Bloom filter. Tables instead rebuild their
+ * filters from scratch whenever statistics are rebuilt (see
+ * Table.buildStatistics).
+ *
+ * We use BITS_PER_VALUE bits for every value we expect to add, and set
+ * NUM_HASHES bits per value, which gives a false positive rate of roughly 1%
+ * as long as no more values than expected are added.
+ */
+public class BloomFilter {
+    private static final int BITS_PER_VALUE = 10;
+    private static final int NUM_HASHES = 7;
+
+    private long[] bits;
+    private long numBits;
+
+    /**
+     * Construct an empty BloomFilter sized for `expectedNumValues` values.
+     */
+    public BloomFilter(long expectedNumValues) {
+        long numWords = Math.max(1, (expectedNumValues * BITS_PER_VALUE + 63) / 64);
+        this.bits = new long[(int) Math.min(numWords, Integer.MAX_VALUE)];
+        this.numBits = 64L * this.bits.length;
+    }
+
+    public void add(DataBox value) {
+        long h = hash(value);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < NUM_HASHES; ++i) {
+            long bit = Math.floorMod(h1 + (long) i * h2, numBits);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(DataBox value) {
+        long h = hash(value);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < NUM_HASHES; ++i) {
+            long bit = Math.floorMod(h1 + (long) i * h2, numBits);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * DataBox hash codes are often the values themselves (e.g. for ints), so
+     * we spread them over 64 bits with the finalizer of MurmurHash3 before
+     * deriving bit positions from them.
+     */
+    private static long hash(DataBox value) {
+        long h = value.hashCode();
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,156 @@
+package edu.berkeley.cs186.database.table.stats;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+import edu.berkeley.cs186.database.query.QueryPlan.PredicateOperator;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+
+/**
+ * A ZoneMap records, for every data page of a table, the smallest and largest
+ * value of each int and float column stored on that page. Scans with a
+ * predicate on one of these columns consult the zone map to skip pages whose
+ * range cannot possibly satisfy the predicate. For example, if page 3 of a
+ * table t(x: int) only stores values of x between 10 and 20, then a scan for
+ * x > 30 does not have to read page 3 at all:
+ *
+ *   ZoneMap zoneMap = new ZoneMap(schema);
+ *   zoneMap.addRecord(3, record); // record has x = 10
+ *   ...
+ *   zoneMap.mightMatch(3, 0, PredicateOperator.GREATER_THAN, new IntDataBox(30)); // false
+ *
+ * Zone maps are conservative. Deleting or overwriting a record never shrinks
+ * the range of its page, so a page may be read even though none of its
+ * records qualify, but a page is never skipped if one of its records does.
+ * Pages which have never held a record have no range at all and are always
+ * skipped.
+ */
+public class ZoneMap {
+    // For every column of the schema, the position of its minimum in a page's
+    // summary (its maximum immediately follows), or -1 if the column is not
+    // an int or float column.
+    private int[] offsets;
+
+    // The number of int and float columns.
+    private int numColumns;
+
+    // Page number -> [min_0, max_0, min_1, max_1, ...]. Every int and float
+    // value is exactly representable as a double.
+    private Map<Integer, double[]> zones;
+
+    /** Construct an empty ZoneMap for a table with schema `schema`. */
+    public ZoneMap(Schema schema) {
+        List<Type> types = schema.getFieldTypes();
+        this.offsets = new int[types.size()];
+        this.numColumns = 0;
+        for (int i = 0; i < types.size(); ++i) {
+            TypeId typeId = types.get(i).getTypeId();
+            if (typeId == TypeId.INT || typeId == TypeId.FLOAT) {
+                offsets[i] = 2 * numColumns;
+                numColumns++;
+            } else {
+                offsets[i] = -1;
+            }
+        }
+        this.zones = new HashMap<>();
+    }
+
+    // Accessors /////////////////////////////////////////////////////////////////
+    /** Returns whether the zone map keeps ranges for column `column`. */
+    public boolean tracks(int column) {
+        return offsets[column] != -1;
+    }
+
+    /**
+     * Returns false if no record on page `pageNum` can satisfy the predicate
+     * `column operator value`, and true if some record might.
+     */
+    public synchronized boolean mightMatch(int pageNum, int column, PredicateOperator operator,
+                                           DataBox value) {
+        if (!tracks(column)) {
+            return true;
+        }
+        double[] zone = zones.get(pageNum);
+        if (zone == null) {
+            return false;
+        }
+
+        double v;
+        switch (value.type().getTypeId()) {
+        case INT:
+            v = value.getInt();
+            break;
+        case FLOAT:
+            v = value.getFloat();
+            break;
+        default:
+            return true;
+        }
+
+        double min = zone[offsets[column]];
+        double max = zone[offsets[column] + 1];
+        switch (operator) {
+        case EQUALS:
+            return min <= v && v <= max;
+        case NOT_EQUALS:
+            return min != v || max != v;
+        case LESS_THAN:
+            return min < v;
+        case LESS_THAN_EQUALS:
+            return min <= v;
+        case GREATER_THAN:
+            return max > v;
+        case GREATER_THAN_EQUALS:
+            return max >= v;
+        default:
+            return true;
+        }
+    }
+
+    // Modifiers /////////////////////////////////////////////////////////////////
+    /**
+     * Widens the ranges of page `pageNum` to include the values of `record`.
+     * Call this whenever a record is written to the page, including when an
+     * existing record is overwritten.
+     */
+    public synchronized void addRecord(int pageNum, Record record) {
+        if (numColumns == 0) {
+            return;
+        }
+        List<DataBox> values = record.getValues();
+        double[] zone = zones.get(pageNum);
+        if (zone == null) {
+            zone = new double[2 * numColumns];
+            Arrays.fill(zone, Double.NaN);
+            zones.put(pageNum, zone);
+        }
+        for (int i = 0; i < offsets.length; ++i) {
+            if (offsets[i] == -1) {
+                continue;
+            }
+            DataBox d = values.get(i);
+            double v = d.type().getTypeId() == TypeId.INT ? d.getInt() : d.getFloat();
+            int o = offsets[i];
+            if (Double.isNaN(zone[o]) || v < zone[o]) {
+                zone[o] = v;
+            }
+            if (Double.isNaN(zone[o + 1]) || v > zone[o + 1]) {
+                zone[o + 1] = v;
+            }
+        }
+    }
+
+    /**
+     * Forgets the ranges of page `pageNum`. Call this when the page is freed
+     * or once all of its records have been deleted.
+     */
+    public synchronized void removePage(int pageNum) {
+        zones.remove(pageNum);
+    }
+}
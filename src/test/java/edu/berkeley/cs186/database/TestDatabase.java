@@ -1,6 +1,15 @@
 package edu.berkeley.cs186.database;
 
 import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.databox.BoolDataBox;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.TupleDataBox;
+import edu.berkeley.cs186.database.query.IndexScanOperator;
+import edu.berkeley.cs186.database.query.QueryPlan;
+import edu.berkeley.cs186.database.query.QueryPlanException;
 import edu.berkeley.cs186.database.table.*;
 
 import org.junit.After;
@@ -13,6 +22,13 @@ import org.junit.rules.TemporaryFolder;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Category({HW99Tests.class, SystemTests.class})
 public class TestDatabase {
@@ -134,4 +150,645 @@ public class TestDatabase {
         t1.end();
     }
 
+    @Test
+    public void testClusterTable() throws DatabaseException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTableWithIndices(s, tableName, Arrays.asList("int"));
+        int numRecords = t1.getNumEntriesPerPage(tableName) * 3;
+        for (int i = 0; i < numRecords; ++i) {
+            Record r = TestUtils.createRecordWithAllTypes();
+            r.getValues().set(1, new IntDataBox(numRecords - 1 - i));
+            t1.addRecord(tableName, r.getValues());
+        }
+        assertFalse(t1.isClustered(tableName, "int"));
+
+        t1.clusterTable(tableName, "int");
+        assertTrue(t1.isClustered(tableName, "int"));
+        assertFalse(t1.isClustered(tableName, "float"));
+        assertEquals(numRecords, t1.getNumRecords(tableName));
+        assertEquals(3, t1.getNumDataPages(tableName));
+        t1.end();
+
+        db.close();
+        db = new Database(this.filename);
+        Database.Transaction t2 = db.beginTransaction();
+        assertTrue(t2.isClustered(tableName, "int"));
+        Iterator<Record> iter = t2.getRecordIterator(tableName);
+        for (int i = 0; i < numRecords; ++i) {
+            assertEquals(i, iter.next().getValues().get(1).getInt());
+        }
+        assertFalse(iter.hasNext());
+        t2.end();
+    }
+
+    @Test
+    public void testCompactTableWithIndices() throws DatabaseException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTable(s, tableName);
+        t1.createIndex(tableName, "int");
+        t1.createHashIndex(tableName, "float", true);
+        t1.createLSMIndex(tableName, "string");
+        t1.createBitmapIndex(tableName, "bool");
+
+        // Fill four pages, then leave a quarter of the records on each page
+        // but the first.
+        int numEntriesPerPage = t1.getNumEntriesPerPage(tableName);
+        int numRecords = numEntriesPerPage * 4;
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            rids.add(t1.addRecord(tableName, compactionRecord(i)));
+        }
+        List<Integer> kept = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            if (i >= numEntriesPerPage && i % 4 != 0) {
+                t1.deleteRecord(tableName, rids.get(i));
+            } else {
+                kept.add(i);
+            }
+        }
+        assertEquals(4, t1.getNumDataPages(tableName));
+
+        // Each call moves at most maxMoves records.
+        assertEquals(3, t1.compactTable(tableName, 0.5f, 3));
+        int numMoved = 3;
+        for (int moved = t1.compactTable(tableName, 0.5f, 3); moved > 0;
+                moved = t1.compactTable(tableName, 0.5f, 3)) {
+            assertTrue(moved <= 3);
+            numMoved += moved;
+        }
+        assertTrue(numMoved > 3);
+        assertTrue(t1.getNumDataPages(tableName) < 4);
+        assertEquals(kept.size(), t1.getNumRecords(tableName));
+
+        // Every index finds every record at its new record id, and nothing
+        // else.
+        for (int i = 0; i < numRecords; ++i) {
+            List<DataBox> values = compactionRecord(i);
+            List<Iterator<Record>> lookups = Arrays.asList(
+                t1.lookupKey(tableName, "int", values.get(1)),
+                t1.lookupKey(tableName, "float", values.get(3)),
+                t1.lookupKey(tableName, "string", values.get(2)));
+            for (Iterator<Record> iter : lookups) {
+                if (kept.contains(i)) {
+                    assertEquals(values, iter.next().getValues());
+                }
+                assertFalse(iter.hasNext());
+            }
+        }
+        for (boolean b : new boolean[] {true, false}) {
+            Iterator<Record> iter = t1.getRecordIterator(tableName,
+                                    t1.lookupBitmap(tableName, "bool", new BoolDataBox(b)));
+            int count = 0;
+            while (iter.hasNext()) {
+                assertEquals(b, iter.next().getValues().get(0).getBool());
+                count++;
+            }
+            int expected = 0;
+            for (int i : kept) {
+                expected += (i % 2 == 0) == b ? 1 : 0;
+            }
+            assertEquals(expected, count);
+        }
+        t1.end();
+    }
+
+    @Test
+    public void testCompressTableWithIndices() throws DatabaseException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTable(s, tableName);
+        t1.createIndex(tableName, "int");
+        t1.createBitmapIndex(tableName, "bool");
+
+        // Four full pages, which get compressed, and a half full one, which
+        // doesn't.
+        int numEntriesPerPage = t1.getNumEntriesPerPage(tableName);
+        int numRecords = numEntriesPerPage * 4 + numEntriesPerPage / 2;
+        for (int i = 0; i < numRecords; ++i) {
+            t1.addRecord(tableName, compressionRecord(i));
+        }
+        assertEquals(5, t1.getNumDataPages(tableName));
+        assertEquals(4, t1.compressTable(tableName));
+        assertEquals(2, t1.getNumDataPages(tableName));
+        assertEquals(0, t1.compressTable(tableName));
+
+        for (int i = 0; i < numRecords; ++i) {
+            Iterator<Record> iter = t1.lookupKey(tableName, "int", new IntDataBox(i));
+            assertEquals(compressionRecord(i), iter.next().getValues());
+            assertFalse(iter.hasNext());
+        }
+        Iterator<Record> iter = t1.getRecordIterator(tableName,
+                                t1.lookupBitmap(tableName, "bool", new BoolDataBox(true)));
+        int count = 0;
+        while (iter.hasNext()) {
+            assertTrue(iter.next().getValues().get(0).getBool());
+            count++;
+        }
+        assertEquals((numRecords + 1) / 2, count);
+        t1.end();
+    }
+
+    private static List<DataBox> compressionRecord(int i) {
+        return Arrays.asList(new BoolDataBox(i % 2 == 0), new IntDataBox(i),
+                             new StringDataBox("abcde", 5), new FloatDataBox(1.2f));
+    }
+
+    private static List<DataBox> compactionRecord(int i) {
+        return Arrays.asList(new BoolDataBox(i % 2 == 0), new IntDataBox(i),
+                             new StringDataBox(String.format("%05d", i), 5), new FloatDataBox(i));
+    }
+
+    @Test
+    public void testClusterTableKeepsFillFactor() throws DatabaseException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTable(s, tableName);
+        int numRecords = t1.getNumEntriesPerPage(tableName) * 20;
+        for (int i = 0; i < numRecords; ++i) {
+            Record r = TestUtils.createRecordWithAllTypes();
+            r.getValues().set(1, new IntDataBox(numRecords - 1 - i));
+            t1.addRecord(tableName, r.getValues());
+        }
+        t1.createIndex(tableName, "int", true, 0.5f);
+        int numIndexPages = t1.getNumIndexPages(tableName, "int");
+
+        // The index is rebuilt half full, just as it was built, rather than
+        // packed into fewer pages.
+        t1.clusterTable(tableName, "int");
+        assertEquals(numIndexPages, t1.getNumIndexPages(tableName, "int"));
+        for (int i = 0; i < numRecords; i += 17) {
+            Iterator<Record> iter = t1.lookupKey(tableName, "int", new IntDataBox(i));
+            assertEquals(i, iter.next().getValues().get(1).getInt());
+            assertFalse(iter.hasNext());
+        }
+        t1.end();
+    }
+
+    @Test
+    public void testCreateIndex() throws DatabaseException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTable(s, tableName);
+        // Enough pages for more runs than can be merged at once.
+        int numRecords = t1.getNumEntriesPerPage(tableName) * 30;
+        for (int i = 0; i < numRecords; ++i) {
+            Record r = TestUtils.createRecordWithAllTypes();
+            r.getValues().set(1, new IntDataBox(i % 2 == 0 ? i / 2 : numRecords - 1 - i / 2));
+            t1.addRecord(tableName, r.getValues());
+        }
+
+        t1.createIndex(tableName, "int");
+        assertTrue(t1.indexExists(tableName, "int"));
+        for (int i = 0; i < numRecords; i += 97) {
+            Iterator<Record> iter = t1.lookupKey(tableName, "int", new IntDataBox(i));
+            assertEquals(i, iter.next().getValues().get(1).getInt());
+            assertFalse(iter.hasNext());
+        }
+        Iterator<Record> iter = t1.sortedScan(tableName, "int");
+        for (int i = 0; i < numRecords; ++i) {
+            assertEquals(i, iter.next().getValues().get(1).getInt());
+        }
+        assertFalse(iter.hasNext());
+
+        // The new index is maintained like any other.
+        Record r = TestUtils.createRecordWithAllTypes();
+        r.getValues().set(1, new IntDataBox(numRecords));
+        t1.addRecord(tableName, r.getValues());
+        assertTrue(t1.lookupKey(tableName, "int", new IntDataBox(numRecords)).hasNext());
+
+        // Every record has the same bool, so it can only have a non-unique index.
+        try {
+            t1.createIndex(tableName, "bool");
+            fail();
+        } catch (DatabaseException e) {
+            assertFalse(t1.indexExists(tableName, "bool"));
+        }
+        t1.createIndex(tableName, "bool", false, 0.5f);
+        iter = t1.lookupKey(tableName, "bool", new BoolDataBox(true));
+        int count = 0;
+        for (; iter.hasNext(); iter.next()) {
+            ++count;
+        }
+        assertEquals(numRecords + 1, count);
+        t1.end();
+
+        db.close();
+        db = new Database(this.filename);
+        Database.Transaction t2 = db.beginTransaction();
+        assertTrue(t2.indexExists(tableName, "int"));
+        assertTrue(t2.indexExists(tableName, "bool"));
+        t2.end();
+    }
+
+    @Test
+    public void testCreateIndexOnline() throws Exception {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTable(s, tableName);
+        int numRecords = t1.getNumEntriesPerPage(tableName) * 30;
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            Record r = TestUtils.createRecordWithAllTypes();
+            r.getValues().set(1, new IntDataBox(i));
+            rids.add(t1.addRecord(tableName, r.getValues()));
+        }
+
+        AtomicReference<Exception> error = new AtomicReference<>();
+        Thread builder = new Thread(() -> {
+            Database.Transaction t2 = db.beginTransaction();
+            try {
+                t2.createIndex(tableName, "int", true, 0.75f, true);
+            } catch (DatabaseException e) {
+                error.set(e);
+            }
+            t2.end();
+        });
+        builder.start();
+
+        // Add, delete, and update records while the index is being built, and
+        // for a while after, whichever takes longer.
+        for (int i = 0; i < numRecords && (i < 500 || builder.isAlive()); ++i) {
+            Record r = TestUtils.createRecordWithAllTypes();
+            r.getValues().set(1, new IntDataBox(numRecords + i));
+            t1.addRecord(tableName, r.getValues());
+            if (i % 3 == 0) {
+                t1.deleteRecord(tableName, rids.get(i));
+            } else if (i % 3 == 1) {
+                r.getValues().set(1, new IntDataBox(-i - 1));
+                t1.updateRecord(tableName, r.getValues(), rids.get(i));
+            }
+        }
+        builder.join();
+        assertNull(error.get());
+        assertTrue(t1.indexExists(tableName, "int"));
+
+        // The index has exactly the records of the table.
+        List<Integer> expected = new ArrayList<>();
+        t1.getRecordIterator(tableName).forEachRemaining(r -> expected.add(r.getValues().get(1).getInt()));
+        Collections.sort(expected);
+        List<Integer> actual = new ArrayList<>();
+        t1.sortedScan(tableName, "int").forEachRemaining(r -> actual.add(r.getValues().get(1).getInt()));
+        assertEquals(expected, actual);
+        t1.end();
+    }
+
+    @Test
+    public void testHashIndex() throws DatabaseException, QueryPlanException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTable(s, tableName);
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            Record r = TestUtils.createRecordWithAllTypes();
+            r.getValues().set(1, new IntDataBox(i));
+            rids.add(t1.addRecord(tableName, r.getValues()));
+        }
+        t1.createHashIndex(tableName, "int", true);
+        assertTrue(t1.hashIndexExists(tableName, "int"));
+        assertFalse(t1.indexExists(tableName, "int"));
+        assertTrue(t1.contains(tableName, "int", new IntDataBox(999)));
+        assertFalse(t1.contains(tableName, "int", new IntDataBox(1000)));
+
+        // The index is maintained by every write.
+        Record r = TestUtils.createRecordWithAllTypes();
+        r.getValues().set(1, new IntDataBox(1000));
+        t1.addRecord(tableName, r.getValues());
+        t1.deleteRecord(tableName, rids.get(0));
+        r.getValues().set(1, new IntDataBox(-1));
+        t1.updateRecord(tableName, r.getValues(), rids.get(1));
+        assertTrue(t1.contains(tableName, "int", new IntDataBox(1000)));
+        assertTrue(t1.contains(tableName, "int", new IntDataBox(-1)));
+        assertFalse(t1.contains(tableName, "int", new IntDataBox(0)));
+        assertFalse(t1.contains(tableName, "int", new IntDataBox(1)));
+        try {
+            t1.addRecord(tableName, r.getValues());
+            fail();
+        } catch (DatabaseException e) {
+            // The unique index has -1 already.
+        }
+
+        // Every record has the same bool, so it can only have a non-unique index.
+        try {
+            t1.createHashIndex(tableName, "bool", true);
+            fail();
+        } catch (DatabaseException e) {
+            assertFalse(t1.hashIndexExists(tableName, "bool"));
+        }
+
+        // Equality predicates on the column are answered by the index.
+        QueryPlan query = t1.query(tableName);
+        query.select("int", QueryPlan.PredicateOperator.EQUALS, new IntDataBox(500));
+        Iterator<Record> iter = query.execute();
+        assertTrue(query.getFinalOperator() instanceof IndexScanOperator);
+        assertEquals(500, iter.next().getValues().get(1).getInt());
+        assertFalse(iter.hasNext());
+        t1.end();
+
+        db.close();
+        db = new Database(this.filename);
+        Database.Transaction t2 = db.beginTransaction();
+        assertTrue(t2.hashIndexExists(tableName, "int"));
+        iter = t2.lookupKey(tableName, "int", new IntDataBox(-1));
+        assertEquals(-1, iter.next().getValues().get(1).getInt());
+        assertFalse(iter.hasNext());
+        t2.end();
+    }
+
+    @Test
+    public void testCountedIndex() throws DatabaseException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTable(s, tableName);
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            Record r = TestUtils.createRecordWithAllTypes();
+            r.getValues().set(1, new IntDataBox(i % 100));
+            rids.add(t1.addRecord(tableName, r.getValues()));
+        }
+        t1.createIndex(tableName, "int", false, 1.0f, false, true);
+        t1.createIndex(tableName, "float", false, 1.0f, false);
+        assertEquals(Optional.of(10L), t1.countMatches(tableName, "int", QueryPlan.PredicateOperator.EQUALS,
+                     new IntDataBox(42)));
+        assertEquals(Optional.of(500L), t1.countMatches(tableName, "int", QueryPlan.PredicateOperator.LESS_THAN,
+                     new IntDataBox(50)));
+        assertEquals(Optional.of(990L), t1.countMatches(tableName, "int",
+                     QueryPlan.PredicateOperator.NOT_EQUALS, new IntDataBox(42)));
+        // Only counted indices count matches.
+        assertEquals(Optional.empty(), t1.countMatches(tableName, "float", QueryPlan.PredicateOperator.EQUALS,
+                     new FloatDataBox(1.0f)));
+
+        // The counts are maintained by every write.
+        t1.deleteRecord(tableName, rids.get(42));
+        Record r = TestUtils.createRecordWithAllTypes();
+        r.getValues().set(1, new IntDataBox(7));
+        t1.updateRecord(tableName, r.getValues(), rids.get(142));
+        t1.addRecord(tableName, r.getValues());
+        assertEquals(Optional.of(8L), t1.countMatches(tableName, "int", QueryPlan.PredicateOperator.EQUALS,
+                     new IntDataBox(42)));
+        assertEquals(Optional.of(12L), t1.countMatches(tableName, "int", QueryPlan.PredicateOperator.EQUALS,
+                     new IntDataBox(7)));
+        t1.end();
+
+        db.close();
+        db = new Database(this.filename);
+        Database.Transaction t2 = db.beginTransaction();
+        assertEquals(Optional.of(1000L), t2.countMatches(tableName, "int",
+                     QueryPlan.PredicateOperator.GREATER_THAN_EQUALS, new IntDataBox(0)));
+        t2.end();
+    }
+
+    @Test
+    public void testLSMIndex() throws DatabaseException, QueryPlanException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTable(s, tableName);
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            Record r = TestUtils.createRecordWithAllTypes();
+            r.getValues().set(1, new IntDataBox(i % 100));
+            rids.add(t1.addRecord(tableName, r.getValues()));
+        }
+        t1.createLSMIndex(tableName, "int");
+        assertTrue(t1.lsmIndexExists(tableName, "int"));
+        assertFalse(t1.indexExists(tableName, "int"));
+        assertFalse(t1.hashIndexExists(tableName, "int"));
+        try {
+            t1.createHashIndex(tableName, "int", false);
+            fail();
+        } catch (DatabaseException e) {
+            // The column already has an index.
+        }
+
+        // The index is maintained by every write.
+        Record r = TestUtils.createRecordWithAllTypes();
+        r.getValues().set(1, new IntDataBox(100));
+        t1.addRecord(tableName, r.getValues());
+        for (int i = 0; i < 1000; i += 100) {
+            t1.deleteRecord(tableName, rids.get(i));
+        }
+        r.getValues().set(1, new IntDataBox(-1));
+        t1.updateRecord(tableName, r.getValues(), rids.get(1));
+        assertTrue(t1.contains(tableName, "int", new IntDataBox(100)));
+        assertTrue(t1.contains(tableName, "int", new IntDataBox(-1)));
+        assertFalse(t1.contains(tableName, "int", new IntDataBox(0)));
+        assertTrue(t1.contains(tableName, "int", new IntDataBox(1)));
+
+        // Equality predicates on the column are answered by the index.
+        QueryPlan query = t1.query(tableName);
+        query.select("int", QueryPlan.PredicateOperator.EQUALS, new IntDataBox(1));
+        Iterator<Record> iter = query.execute();
+        assertTrue(query.getFinalOperator() instanceof IndexScanOperator);
+        int count = 0;
+        while (iter.hasNext()) {
+            assertEquals(1, iter.next().getValues().get(1).getInt());
+            ++count;
+        }
+        assertEquals(9, count);
+        t1.end();
+
+        db.close();
+        db = new Database(this.filename);
+        Database.Transaction t2 = db.beginTransaction();
+        assertTrue(t2.lsmIndexExists(tableName, "int"));
+        iter = t2.lookupKey(tableName, "int", new IntDataBox(-1));
+        assertEquals(-1, iter.next().getValues().get(1).getInt());
+        assertFalse(iter.hasNext());
+        assertFalse(t2.contains(tableName, "int", new IntDataBox(0)));
+        t2.deleteTable(tableName);
+        assertFalse(t2.lsmIndexExists(tableName, "int"));
+        t2.end();
+    }
+
+    @Test
+    public void testDeleteTableThenReopen() throws DatabaseException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTable(s, tableName);
+        for (int i = 0; i < 10; ++i) {
+            Record r = TestUtils.createRecordWithAllTypes();
+            r.getValues().set(1, new IntDataBox(i));
+            t1.addRecord(tableName, r.getValues());
+        }
+        t1.createIndex(tableName, "int");
+        t1.createHashIndex(tableName, "float", false);
+        assertTrue(t1.deleteTable(tableName));
+        t1.end();
+
+        // The files of the table and its indices are gone, so none of them
+        // come back when the database is opened again.
+        String[] files = new File(this.filename).list((dir, name) -> name.startsWith(tableName));
+        assertEquals(0, files.length);
+        db.close();
+        db = new Database(this.filename);
+        Database.Transaction t2 = db.beginTransaction();
+        assertNull(db.getTable(tableName));
+        assertFalse(t2.indexExists(tableName, "int"));
+        assertFalse(t2.hashIndexExists(tableName, "float"));
+        t2.end();
+    }
+
+    @Test
+    public void testBitmapIndex() throws DatabaseException, QueryPlanException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTable(s, tableName);
+        for (int i = 0; i < 1000; ++i) {
+            Record r = TestUtils.createRecordWithAllTypes();
+            r.getValues().set(0, new BoolDataBox(i % 2 == 0));
+            r.getValues().set(1, new IntDataBox(i % 5));
+            t1.addRecord(tableName, r.getValues());
+        }
+        t1.createBitmapIndex(tableName, "bool");
+        t1.createBitmapIndex(tableName, "int");
+        assertTrue(t1.hasBitmapIndex(tableName, "int"));
+
+        // bool = true OR int = 1
+        RecordIdBitmap rids = t1.lookupBitmap(tableName, "bool", new BoolDataBox(true))
+                              .or(t1.lookupBitmap(tableName, "int", new IntDataBox(1)));
+        int count = 0;
+        for (Iterator<Record> iter = t1.getRecordIterator(tableName, rids); iter.hasNext(); ++count) {
+            Record r = iter.next();
+            assertTrue(r.getValues().get(0).getBool() || r.getValues().get(1).getInt() == 1);
+        }
+        assertEquals(600, count);
+
+        // Conjunctive equality predicates on columns with bitmap indices are
+        // answered by intersecting their bitmaps.
+        QueryPlan query = t1.query(tableName);
+        query.select("bool", QueryPlan.PredicateOperator.EQUALS, new BoolDataBox(true));
+        query.select("int", QueryPlan.PredicateOperator.EQUALS, new IntDataBox(2));
+        Iterator<Record> iter = query.execute();
+        assertTrue(query.getFinalOperator().isBitmapIndexScan());
+        count = 0;
+        for (; iter.hasNext(); ++count) {
+            Record r = iter.next();
+            assertTrue(r.getValues().get(0).getBool());
+            assertEquals(2, r.getValues().get(1).getInt());
+        }
+        assertEquals(100, count);
+        t1.end();
+    }
+
+    @Test(expected = DatabaseException.class)
+    public void testCreateIndexExists() throws DatabaseException {
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTableWithIndices(TestUtils.createSchemaWithAllTypes(), "testTable1", Arrays.asList("int"));
+        t1.createIndex("testTable1", "int");
+    }
+
+    @Test
+    public void testCompositeIndex() throws DatabaseException, QueryPlanException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTableWithIndices(s, tableName, Arrays.asList("int,float"));
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            Record r = TestUtils.createRecordWithAllTypes();
+            r.getValues().set(1, new IntDataBox(i % 10));
+            r.getValues().set(3, new FloatDataBox(i));
+            rids.add(t1.addRecord(tableName, r.getValues()));
+        }
+        assertTrue(t1.indexExists(tableName, "int,float"));
+        assertTrue(t1.indexExists(tableName, "testTable1.int,testTable1.float"));
+        assertFalse(t1.indexExists(tableName, "int"));
+
+        // A prefix of the key finds every record with that prefix, in key order.
+        List<DataBox> prefix = Arrays.asList(new IntDataBox(3));
+        Iterator<Record> iter = t1.lookupKey(tableName, "int,float", new TupleDataBox(prefix));
+        for (int i = 3; i < 100; i += 10) {
+            Record r = iter.next();
+            assertEquals(new IntDataBox(3), r.getValues().get(1));
+            assertEquals(new FloatDataBox(i), r.getValues().get(3));
+        }
+        assertFalse(iter.hasNext());
+
+        // Deleted and updated records are removed from the index.
+        t1.deleteRecord(tableName, rids.get(3));
+        Record r = TestUtils.createRecordWithAllTypes();
+        r.getValues().set(1, new IntDataBox(4));
+        r.getValues().set(3, new FloatDataBox(13));
+        t1.updateRecord(tableName, r.getValues(), rids.get(13));
+        List<DataBox> key = Arrays.asList(new IntDataBox(4), new FloatDataBox(13));
+        assertTrue(t1.lookupKey(tableName, "int,float", new TupleDataBox(key)).hasNext());
+        int count = 0;
+        for (iter = t1.lookupKey(tableName, "int,float", new TupleDataBox(prefix)); iter.hasNext(); iter.next()) {
+            count++;
+        }
+        assertEquals(8, count);
+
+        // Conjunctive equality predicates on the key are answered by the index.
+        QueryPlan query = t1.query(tableName);
+        query.select("int", QueryPlan.PredicateOperator.EQUALS, new IntDataBox(5));
+        query.select("float", QueryPlan.PredicateOperator.EQUALS, new FloatDataBox(25));
+        iter = query.execute();
+        assertTrue(query.getFinalOperator() instanceof IndexScanOperator);
+        assertEquals(new FloatDataBox(25), iter.next().getValues().get(3));
+        assertFalse(iter.hasNext());
+        t1.end();
+    }
+
+    @Test
+    public void testIndexOnlyScan() throws DatabaseException, QueryPlanException {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        String tableName = "testTable1";
+
+        Database.Transaction t1 = db.beginTransaction();
+        t1.createTableWithIndices(s, tableName, Arrays.asList("int,float"));
+        for (int i = 0; i < 100; ++i) {
+            Record r = TestUtils.createRecordWithAllTypes();
+            r.getValues().set(1, new IntDataBox(i % 10));
+            r.getValues().set(3, new FloatDataBox(i));
+            t1.addRecord(tableName, r.getValues());
+        }
+
+        // The query only references indexed columns, so no record is fetched.
+        QueryPlan query = t1.query(tableName);
+        query.select("int", QueryPlan.PredicateOperator.EQUALS, new IntDataBox(3));
+        query.project(new ArrayList<>(Arrays.asList("float")));
+        long numLookups = RecordCache.getNumHits() + RecordCache.getNumMisses();
+        Iterator<Record> iter = query.execute();
+        IndexScanOperator scan = (IndexScanOperator) query.getFinalOperator().getSource();
+        assertTrue(scan.isIndexOnly());
+        for (int i = 3; i < 100; i += 10) {
+            assertEquals(Arrays.asList(new FloatDataBox(i)), iter.next().getValues());
+        }
+        assertFalse(iter.hasNext());
+        assertEquals(numLookups, RecordCache.getNumHits() + RecordCache.getNumMisses());
+
+        // The string column is not indexed.
+        query = t1.query(tableName);
+        query.select("int", QueryPlan.PredicateOperator.EQUALS, new IntDataBox(3));
+        query.project(new ArrayList<>(Arrays.asList("float", "string")));
+        iter = query.execute();
+        scan = (IndexScanOperator) query.getFinalOperator().getSource();
+        assertFalse(scan.isIndexOnly());
+        assertEquals(new FloatDataBox(3), iter.next().getValues().get(0));
+        t1.end();
+    }
 }
@@ -9,7 +9,6 @@ import edu.berkeley.cs186.database.LoggingLockManager;
 import edu.berkeley.cs186.database.common.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.io.Page;
-import edu.berkeley.cs186.database.io.PageAllocator.PageIterator;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
@@ -127,7 +126,7 @@ public class DummyTransaction extends BaseTransaction {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
-    public PageIterator getPageIterator(String tableName) throws DatabaseException {
+    public BacktrackingIterator<Page> getPageIterator(String tableName) throws DatabaseException {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
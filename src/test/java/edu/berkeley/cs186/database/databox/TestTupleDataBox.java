@@ -0,0 +1,67 @@
+package edu.berkeley.cs186.database.databox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({HW99Tests.class, SystemTests.class})
+public class TestTupleDataBox {
+    private static TupleDataBox tuple(DataBox... values) {
+        return new TupleDataBox(Arrays.asList(values));
+    }
+
+    @Test
+    public void testType() {
+        Type t = Type.tupleType(Arrays.asList(Type.intType(), Type.stringType(3)));
+        assertEquals(TypeId.TUPLE, t.getTypeId());
+        assertEquals(7, t.getSizeInBytes());
+        assertEquals(t, tuple(new IntDataBox(0), new StringDataBox("a", 3)).type());
+        assertEquals(t, Type.fromBytes(ByteBuffer.wrap(t.toBytes())));
+        assertNotEquals(t, Type.tupleType(Arrays.asList(Type.intType(), Type.stringType(4))));
+        assertNotEquals(t, Type.tupleType(Arrays.asList(Type.stringType(3), Type.intType())));
+    }
+
+    @Test(expected = DataBoxException.class)
+    public void testGetInt() {
+        tuple(new IntDataBox(0)).getInt();
+    }
+
+    @Test
+    public void testToAndFromBytes() {
+        for (int i = -10; i < 10; ++i) {
+            TupleDataBox d = tuple(new IntDataBox(i), new BoolDataBox(i % 2 == 0), new FloatDataBox(i));
+            byte[] bytes = d.toBytes();
+            assertEquals(d, DataBox.fromBytes(ByteBuffer.wrap(bytes), d.type()));
+        }
+    }
+
+    @Test
+    public void testCompareTo() {
+        TupleDataBox a = tuple(new IntDataBox(1), new IntDataBox(2));
+        TupleDataBox b = tuple(new IntDataBox(1), new IntDataBox(3));
+        TupleDataBox c = tuple(new IntDataBox(2), new IntDataBox(0));
+        TupleDataBox p = tuple(new IntDataBox(1));
+        assertTrue(a.compareTo(a) == 0);
+        assertTrue(a.compareTo(b) < 0);
+        assertTrue(b.compareTo(c) < 0);
+        assertTrue(c.compareTo(a) > 0);
+
+        // A prefix sorts before its extensions and after smaller tuples.
+        assertTrue(p.compareTo(a) < 0);
+        assertTrue(b.compareTo(p) > 0);
+        assertTrue(p.compareTo(c) < 0);
+        assertTrue(p.isPrefixOf(a));
+        assertTrue(p.isPrefixOf(b));
+        assertFalse(p.isPrefixOf(c));
+        assertFalse(a.isPrefixOf(p));
+    }
+}
@@ -1,5 +1,7 @@
 package edu.berkeley.cs186.database.index;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
@@ -9,6 +11,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import edu.berkeley.cs186.database.TimeoutScaling;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
@@ -23,7 +27,9 @@ import edu.berkeley.cs186.database.categories.*;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.table.RecordId;
 
 @Category(HW2Tests.class)
@@ -57,6 +63,17 @@ public class TestBPlusTree {
         return xs;
     }
 
+    // Returns the number of inner node levels of tree. Every inner node level
+    // adds one leading parenthesis to the sexp of a tree; a leaf has two.
+    private static int getHeight(BPlusTree tree) {
+        String sexp = tree.toSexp(null);
+        int n = 0;
+        while (n < sexp.length() && sexp.charAt(n) == '(') {
+            ++n;
+        }
+        return n - 2;
+    }
+
     // Tests ///////////////////////////////////////////////////////////////////
 
     @Test
@@ -394,6 +411,561 @@ public class TestBPlusTree {
         }
     }
 
+    /**
+     * Readers running concurrently with a writer always see every key that was
+     * inserted before they started, and scans never return a key twice or out
+     * of order.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testConcurrentGetsAndPuts() throws Exception {
+        BPlusTree tree = getBPlusTree(Type.intType(), 2);
+        int n = 1000;
+        for (int i = 0; i < n; i += 2) {
+            tree.put(null, new IntDataBox(i), new RecordId(i, (short) 0));
+        }
+
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> {
+            try {
+                for (int i = 1; i < n; i += 2) {
+                    tree.put(null, new IntDataBox(i), new RecordId(i, (short) 0));
+                }
+            } catch (Throwable t) {
+                errors.add(t);
+            }
+        }));
+        for (int t = 0; t < 4; ++t) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int round = 0; round < 5; ++round) {
+                        for (int i = 0; i < n; i += 2) {
+                            assertEquals(Optional.of(new RecordId(i, (short) 0)),
+                                         tree.get(null, new IntDataBox(i)));
+                        }
+                        int prev = -1;
+                        int numEven = 0;
+                        Iterator<RecordId> iter = tree.scanAll(null);
+                        while (iter.hasNext()) {
+                            int pageNum = iter.next().getPageNum();
+                            assertTrue(pageNum > prev);
+                            prev = pageNum;
+                            numEven += pageNum % 2 == 0 ? 1 : 0;
+                        }
+                        assertEquals(n / 2, numEven);
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(Collections.emptyList(), errors);
+
+        List<RecordId> expected = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            expected.add(new RecordId(i, (short) 0));
+        }
+        assertEquals(expected, iteratorToList(tree.scanAll(null)));
+    }
+
+    /**
+     * Several writers putting and removing keys in parallel, some of them
+     * splitting nodes that readers are descending through, never lose an
+     * entry, and readers running alongside them always see the keys no
+     * writer touches. Both plain and counted trees are checked.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testConcurrentReadersAndWriters() throws Exception {
+        int n = 2000;
+        int numWriters = 4;
+        for (boolean counted : new boolean[] {false, true}) {
+            BPlusTree tree = new BPlusTree(tempFolder.newFile(filename + counted).getAbsolutePath(),
+                                           Type.intType(), 2, true, counted, new DummyLockContext(), null);
+            // Keys i with i % 4 == 2 are never touched; those with i % 4 == 0
+            // are removed, and the odd ones are put.
+            for (int i = 0; i < n; i += 2) {
+                tree.put(null, new IntDataBox(i), new RecordId(i, (short) 0));
+            }
+
+            List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+            List<Thread> threads = new ArrayList<>();
+            for (int w = 0; w < numWriters; ++w) {
+                int first = w;
+                threads.add(new Thread(() -> {
+                    try {
+                        for (int i = first; i < n; i += numWriters) {
+                            if (i % 2 == 1) {
+                                tree.put(null, new IntDataBox(i), new RecordId(i, (short) 0));
+                            } else if (i % 4 == 0) {
+                                tree.remove(null, new IntDataBox(i));
+                            }
+                        }
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }));
+            }
+            for (int r = 0; r < 4; ++r) {
+                threads.add(new Thread(() -> {
+                    try {
+                        for (int round = 0; round < 3; ++round) {
+                            List<DataBox> stable = new ArrayList<>();
+                            for (int i = 2; i < n; i += 4) {
+                                RecordId rid = new RecordId(i, (short) 0);
+                                assertEquals(Optional.of(rid), tree.get(null, new IntDataBox(i)));
+                                stable.add(new IntDataBox(i));
+                            }
+                            for (List<RecordId> rids : tree.multiGet(null, stable)) {
+                                assertEquals(1, rids.size());
+                            }
+                            assertEquals(1, tree.count(null, Optional.of(new IntDataBox(6)), true,
+                                                       Optional.of(new IntDataBox(6)), true));
+
+                            int prev = -1;
+                            int numStable = 0;
+                            Iterator<RecordId> iter = tree.scanAll(null);
+                            while (iter.hasNext()) {
+                                int i = iter.next().getPageNum();
+                                assertTrue(i > prev);
+                                prev = i;
+                                numStable += i % 4 == 2 ? 1 : 0;
+                            }
+                            assertEquals(n / 4, numStable);
+
+                            prev = n;
+                            numStable = 0;
+                            iter = tree.scanRangeReverse(null, Optional.empty(), false, Optional.empty(), false);
+                            while (iter.hasNext()) {
+                                int i = iter.next().getPageNum();
+                                assertTrue(i < prev);
+                                prev = i;
+                                numStable += i % 4 == 2 ? 1 : 0;
+                            }
+                            assertEquals(n / 4, numStable);
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }));
+            }
+
+            for (Thread t : threads) {
+                t.start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            assertEquals(Collections.emptyList(), errors);
+
+            List<RecordId> expected = new ArrayList<>();
+            for (int i = 0; i < n; ++i) {
+                if (i % 4 != 0) {
+                    expected.add(new RecordId(i, (short) 0));
+                }
+            }
+            assertEquals(expected, iteratorToList(tree.scanAll(null)));
+            assertEquals(expected.size(), tree.count(null, Optional.empty(), false, Optional.empty(), false));
+            if (counted) {
+                checkCounts(tree, -1, n + 1, 250);
+            }
+
+            // Node latches are dropped once nothing holds them.
+            assertEquals(0, tree.getNumLatches());
+        }
+    }
+
+    /**
+     * Not a test: measures how lookup throughput scales with the number of
+     * reader threads, while one writer keeps putting into the tree, and
+     * prints the results. Run it with -P system.
+     */
+    @Test
+    @Category(SystemTests.class)
+    public void benchmarkConcurrentReads() throws Exception {
+        BPlusTree tree = getBPlusTree(Type.intType(), BPlusTree.maxOrder(Page.pageSize, Type.intType()));
+        int n = 20000;
+        for (int i = 0; i < n; i += 2) {
+            tree.put(null, new IntDataBox(i), new RecordId(i, (short) 0));
+        }
+
+        long millis = 500;
+        for (int numReaders : new int[] {1, 2, 4, 8}) {
+            AtomicLong numReads = new AtomicLong();
+            AtomicBoolean done = new AtomicBoolean(false);
+            List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+            List<Thread> threads = new ArrayList<>();
+            for (int r = 0; r < numReaders; ++r) {
+                int seed = r;
+                threads.add(new Thread(() -> {
+                    try {
+                        Random random = new Random(seed);
+                        long reads = 0;
+                        while (!done.get()) {
+                            tree.get(null, new IntDataBox(2 * random.nextInt(n / 2)));
+                            ++reads;
+                        }
+                        numReads.addAndGet(reads);
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }));
+            }
+            int firstKey = 1 + 2 * numReaders;
+            threads.add(new Thread(() -> {
+                try {
+                    // Every round puts a different set of odd keys, so puts never collide.
+                    for (int i = firstKey; i < n && !done.get(); i += 32) {
+                        tree.put(null, new IntDataBox(i), new RecordId(i, (short) 0));
+                    }
+                } catch (Throwable t) {
+                    errors.add(t);
+                }
+            }));
+
+            for (Thread t : threads) {
+                t.start();
+            }
+            Thread.sleep(millis);
+            done.set(true);
+            for (Thread t : threads) {
+                t.join();
+            }
+            assertEquals(Collections.emptyList(), errors);
+            System.out.printf("BPlusTree reads with %d reader(s): %d reads/s%n", numReaders,
+                              numReads.get() * 1000 / millis);
+        }
+    }
+
+    /**
+     * Once the inner nodes of a small tree have been decoded, lookups descend
+     * the tree without decoding them again, and still see every put.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testNodeCache() throws BPlusTreeException, IOException {
+        BPlusTree tree = getBPlusTree(Type.intType(), 5);
+        BPlusTreeMetadata metadata = tree.getMetadata();
+        for (int i = 0; i < 500; i += 2) {
+            tree.put(null, new IntDataBox(i), new RecordId(i, (short) i));
+        }
+
+        long numMisses = metadata.getNumNodeCacheMisses();
+        long numHits = metadata.getNumNodeCacheHits();
+        for (int i = 0; i < 500; i += 2) {
+            assertEquals(Optional.of(new RecordId(i, (short) i)), tree.get(null, new IntDataBox(i)));
+        }
+        assertEquals(numMisses, metadata.getNumNodeCacheMisses());
+        assertTrue(metadata.getNumNodeCacheHits() > numHits);
+
+        // Puts that split inner nodes are visible to later lookups.
+        for (int i = 1; i < 500; i += 2) {
+            tree.put(null, new IntDataBox(i), new RecordId(i, (short) i));
+        }
+        for (int i = 0; i < 500; ++i) {
+            assertEquals(Optional.of(new RecordId(i, (short) i)), tree.get(null, new IntDataBox(i)));
+        }
+        BPlusTree fromDisk = new BPlusTree(file.getAbsolutePath(), new DummyLockContext(), null);
+        assertEquals(tree.toSexp(null), fromDisk.toSexp(null));
+    }
+
+    /**
+     * String-keyed trees truncate their separators, so their inner nodes hold
+     * more keys and the tree is shallower than a tree of fixed-width keys.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testStringKeys() throws BPlusTreeException, IOException {
+        List<Integer> is = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            is.add(i);
+        }
+        Collections.shuffle(is, new Random(42));
+
+        BPlusTree tree = getBPlusTree(Type.stringType(20), 2);
+        BPlusTree intTree = new BPlusTree(tempFolder.newFile("ints").getAbsolutePath(),
+                                          Type.intType(), 2, new DummyLockContext(), null);
+        for (int i : is) {
+            tree.put(null, new StringDataBox(String.format("%05d", i), 20), new RecordId(i, (short) 0));
+            intTree.put(null, new IntDataBox(i), new RecordId(i, (short) 0));
+        }
+
+        List<RecordId> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            expected.add(new RecordId(i, (short) 0));
+            assertEquals(Optional.of(new RecordId(i, (short) 0)),
+                         tree.get(null, new StringDataBox(String.format("%05d", i), 20)));
+        }
+        assertEquals(Optional.empty(), tree.get(null, new StringDataBox("0001", 20)));
+        assertEquals(expected, iteratorToList(tree.scanAll(null)));
+        assertEquals(expected.subList(500, 1000),
+                     iteratorToList(tree.scanGreaterEqual(null, new StringDataBox("005", 20))));
+
+        BPlusTree fromDisk = new BPlusTree(file.getAbsolutePath(), new DummyLockContext(), null);
+        assertEquals(expected, iteratorToList(fromDisk.scanAll(null)));
+        assertEquals(tree.toSexp(null), fromDisk.toSexp(null));
+
+        assertTrue(getHeight(tree) < getHeight(intTree));
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testNonUniqueKeys() throws BPlusTreeException, IOException {
+        List<Integer> is = new ArrayList<>();
+        for (int i = 0; i < 300; ++i) {
+            is.add(i);
+        }
+        Collections.shuffle(is, new Random(42));
+
+        // Every key is repeated 30 times, so its entries span several leaves.
+        BPlusTree tree = new BPlusTree(file.getAbsolutePath(), Type.intType(), 2, false,
+                                       new DummyLockContext(), null);
+        List<List<RecordId>> expected = new ArrayList<>();
+        for (int k = 0; k < 10; ++k) {
+            expected.add(new ArrayList<>());
+        }
+        for (int i : is) {
+            tree.put(null, new IntDataBox(i % 10), new RecordId(i, (short) 0));
+            expected.get(i % 10).add(new RecordId(i, (short) 0));
+        }
+        for (int k = 0; k < 10; ++k) {
+            assertEquals(expected.get(k), iteratorToList(tree.scanEqual(null, new IntDataBox(k))));
+            assertEquals(Optional.of(expected.get(k).get(0)), tree.get(null, new IntDataBox(k)));
+        }
+        assertEquals(300, iteratorToList(tree.scanAll(null)).size());
+        assertEquals(90, iteratorToList(tree.scanGreaterEqual(null, new IntDataBox(7))).size());
+
+        // Remove every other entry of key 3, and all of key 5.
+        List<RecordId> threes = expected.get(3);
+        for (int j = 0; j < threes.size(); j += 2) {
+            tree.remove(null, new IntDataBox(3), threes.get(j));
+        }
+        List<RecordId> remaining = new ArrayList<>();
+        for (int j = 1; j < threes.size(); j += 2) {
+            remaining.add(threes.get(j));
+        }
+        tree.remove(null, new IntDataBox(5));
+        assertEquals(remaining, iteratorToList(tree.scanEqual(null, new IntDataBox(3))));
+        assertEquals(Optional.empty(), tree.get(null, new IntDataBox(5)));
+        assertEquals(expected.get(4), iteratorToList(tree.scanEqual(null, new IntDataBox(4))));
+        assertEquals(expected.get(6), iteratorToList(tree.scanEqual(null, new IntDataBox(6))));
+
+        BPlusTree fromDisk = new BPlusTree(file.getAbsolutePath(), new DummyLockContext(), null);
+        assertTrue(!fromDisk.isUnique());
+        assertEquals(remaining, iteratorToList(fromDisk.scanEqual(null, new IntDataBox(3))));
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testUniqueKeysFromDisk() throws BPlusTreeException, IOException {
+        BPlusTree tree = getBPlusTree(Type.intType(), 2);
+        for (int i = 0; i < 20; ++i) {
+            tree.put(null, new IntDataBox(i), new RecordId(i, (short) 0));
+        }
+
+        // A tree read back from disk still rejects duplicate keys.
+        BPlusTree fromDisk = new BPlusTree(file.getAbsolutePath(), new DummyLockContext(), null);
+        assertTrue(fromDisk.isUnique());
+        assertTrue(!fromDisk.isCounted());
+        try {
+            fromDisk.put(null, new IntDataBox(7), new RecordId(100, (short) 0));
+            fail();
+        } catch (BPlusTreeException e) {
+            assertEquals(Optional.of(new RecordId(7, (short) 0)), fromDisk.get(null, new IntDataBox(7)));
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testScanRange() throws BPlusTreeException, IOException {
+        List<Integer> is = new ArrayList<>();
+        for (int i = 0; i < 500; ++i) {
+            is.add(i);
+        }
+        Collections.shuffle(is, new Random(42));
+
+        // Remove every key from 100 to 199, which leaves some leaves empty.
+        BPlusTree tree = getBPlusTree(Type.intType(), 2);
+        for (int i : is) {
+            tree.put(null, new IntDataBox(i), new RecordId(i, (short) 0));
+        }
+        for (int i = 100; i < 200; ++i) {
+            tree.remove(null, new IntDataBox(i));
+        }
+
+        int[][] ranges = {{-10, 600}, {0, 499}, {50, 250}, {120, 180}, {99, 100}, {250, 250}, {300, 200}};
+        for (int[] range : ranges) {
+            for (int bounds = 0; bounds < 4; ++bounds) {
+                boolean loInclusive = (bounds & 1) != 0;
+                boolean hiInclusive = (bounds & 2) != 0;
+                List<RecordId> expected = new ArrayList<>();
+                for (int i = 0; i < 500; ++i) {
+                    if ((i < 100 || i >= 200) &&
+                            (loInclusive ? i >= range[0] : i > range[0]) &&
+                            (hiInclusive ? i <= range[1] : i < range[1])) {
+                        expected.add(new RecordId(i, (short) 0));
+                    }
+                }
+                Optional<DataBox> lo = Optional.of(new IntDataBox(range[0]));
+                Optional<DataBox> hi = Optional.of(new IntDataBox(range[1]));
+                assertEquals(expected, iteratorToList(tree.scanRange(null, lo, loInclusive, hi, hiInclusive)));
+                Collections.reverse(expected);
+                assertEquals(expected,
+                             iteratorToList(tree.scanRangeReverse(null, lo, loInclusive, hi, hiInclusive)));
+            }
+        }
+
+        List<RecordId> all = iteratorToList(tree.scanAll(null));
+        assertEquals(400, all.size());
+        Collections.reverse(all);
+        assertEquals(all, iteratorToList(tree.scanRangeReverse(null, Optional.empty(), false,
+                                         Optional.empty(), false)));
+
+        // In a tree with non-unique keys, the entries of a key span several
+        // leaves, and a reverse scan returns them last to first.
+        tree = new BPlusTree(tempFolder.newFile(filename + "NonUnique").getAbsolutePath(), Type.intType(), 2,
+                             false, new DummyLockContext(), null);
+        List<RecordId> expected = new ArrayList<>();
+        for (int i : is) {
+            tree.put(null, new IntDataBox(i % 10), new RecordId(i, (short) 0));
+            if (i % 10 == 3 || i % 10 == 4) {
+                expected.add(new RecordId(i, (short) 0));
+            }
+        }
+        Optional<DataBox> lo = Optional.of(new IntDataBox(2));
+        Optional<DataBox> hi = Optional.of(new IntDataBox(4));
+        expected.sort((a, b) -> Integer.compare(a.getPageNum() % 10, b.getPageNum() % 10));
+        assertEquals(expected, iteratorToList(tree.scanRange(null, lo, false, hi, true)));
+        Collections.reverse(expected);
+        assertEquals(expected, iteratorToList(tree.scanRangeReverse(null, lo, false, hi, true)));
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testMultiGet() throws BPlusTreeException, IOException {
+        List<Integer> is = new ArrayList<>();
+        for (int i = 0; i < 1000; i += 2) {
+            is.add(i);
+        }
+        Collections.shuffle(is, new Random(42));
+        BPlusTree tree = getBPlusTree(Type.intType(), 2);
+        for (int i : is) {
+            tree.put(null, new IntDataBox(i), new RecordId(i, (short) 0));
+        }
+
+        // Every multiple of 3 from -3 to 1002. Only the even ones below 1000
+        // are in the tree.
+        List<DataBox> keys = new ArrayList<>();
+        List<List<RecordId>> expected = new ArrayList<>();
+        for (int i = -3; i < 1005; i += 3) {
+            keys.add(new IntDataBox(i));
+            Optional<RecordId> rid = tree.get(null, new IntDataBox(i));
+            expected.add(rid.isPresent() ? Collections.singletonList(rid.get()) : Collections.emptyList());
+        }
+        assertEquals(expected, tree.multiGet(null, keys));
+
+        // Repeated keys, and every entry of a key of a tree with non-unique
+        // keys, even if they span several leaves.
+        tree = new BPlusTree(tempFolder.newFile(filename + "NonUnique").getAbsolutePath(), Type.intType(), 2,
+                             false, new DummyLockContext(), null);
+        for (int i : is) {
+            tree.put(null, new IntDataBox(i % 20), new RecordId(i, (short) 0));
+        }
+        keys = new ArrayList<>();
+        expected = new ArrayList<>();
+        for (int i : new int[] {-1, 0, 0, 5, 6, 18, 19, 20}) {
+            keys.add(new IntDataBox(i));
+            expected.add(iteratorToList(tree.scanEqual(null, new IntDataBox(i))));
+        }
+        assertEquals(50, expected.get(1).size());
+        assertEquals(expected, tree.multiGet(null, keys));
+    }
+
+    // Checks that tree.count agrees with tree.scanRange on every range with
+    // bounds in lo, lo + step, lo + 2 * step, ..., up to hi.
+    private static void checkCounts(BPlusTree tree, int lo, int hi, int step) {
+        for (int i = lo; i <= hi; i += step) {
+            for (int j = i; j <= hi; j += step) {
+                for (int bounds = 0; bounds < 4; ++bounds) {
+                    boolean loInclusive = (bounds & 1) != 0;
+                    boolean hiInclusive = (bounds & 2) != 0;
+                    Optional<DataBox> l = Optional.of(new IntDataBox(i));
+                    Optional<DataBox> h = Optional.of(new IntDataBox(j));
+                    assertEquals(iteratorToList(tree.scanRange(null, l, loInclusive, h, hiInclusive)).size(),
+                                 tree.count(null, l, loInclusive, h, hiInclusive));
+                }
+            }
+        }
+        assertEquals(iteratorToList(tree.scanAll(null)).size(),
+                     tree.count(null, Optional.empty(), false, Optional.empty(), false));
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testCountedTree() throws BPlusTreeException, IOException {
+        List<Integer> is = new ArrayList<>();
+        for (int i = 0; i < 600; ++i) {
+            is.add(i);
+        }
+        Collections.shuffle(is, new Random(42));
+
+        // Every key is repeated 20 times, so its entries span several leaves.
+        BPlusTree tree = new BPlusTree(file.getAbsolutePath(), Type.intType(), 2, false, true,
+                                       new DummyLockContext(), null);
+        for (int i : is) {
+            tree.put(null, new IntDataBox(i % 30), new RecordId(i, (short) 0));
+        }
+        assertEquals(600, tree.count(null, Optional.empty(), false, Optional.empty(), false));
+        assertEquals(20, tree.count(null, Optional.of(new IntDataBox(7)), true,
+                                    Optional.of(new IntDataBox(7)), true));
+        checkCounts(tree, -1, 31, 4);
+
+        // Remove some entries of key 3, all of key 5, and an entry that is
+        // not in the tree.
+        for (int i = 3; i < 600; i += 60) {
+            tree.remove(null, new IntDataBox(3), new RecordId(i, (short) 0));
+        }
+        tree.remove(null, new IntDataBox(5));
+        tree.remove(null, new IntDataBox(6), new RecordId(7, (short) 0));
+        assertEquals(570, tree.count(null, Optional.empty(), false, Optional.empty(), false));
+        assertEquals(10, tree.count(null, Optional.of(new IntDataBox(3)), true,
+                                    Optional.of(new IntDataBox(3)), true));
+        assertEquals(30, tree.count(null, Optional.of(new IntDataBox(3)), true,
+                                    Optional.of(new IntDataBox(5)), true));
+        checkCounts(tree, -1, 31, 4);
+
+        // The counts are persisted.
+        BPlusTree fromDisk = new BPlusTree(file.getAbsolutePath(), new DummyLockContext(), null);
+        assertTrue(fromDisk.isCounted());
+        assertEquals(tree.toSexp(null), fromDisk.toSexp(null));
+        checkCounts(fromDisk, -1, 31, 4);
+
+        // A bulk loaded tree is counted as well.
+        tree = new BPlusTree(tempFolder.newFile(filename + "BulkLoad").getAbsolutePath(), Type.intType(), 2,
+                             true, true, new DummyLockContext(), null);
+        List<Pair<DataBox, RecordId>> data = new ArrayList<>();
+        for (int i = 0; i < 600; i += 3) {
+            data.add(new Pair<>(new IntDataBox(i), new RecordId(i, (short) 0)));
+        }
+        tree.bulkLoad(null, data.iterator(), 0.75f);
+        assertEquals(200, tree.count(null, Optional.empty(), false, Optional.empty(), false));
+        assertEquals(33, tree.count(null, Optional.of(new IntDataBox(100)), false,
+                                    Optional.of(new IntDataBox(200)), true));
+        for (int i = 1; i < 600; i += 3) {
+            tree.put(null, new IntDataBox(i), new RecordId(i, (short) 0));
+        }
+        checkCounts(tree, -1, 601, 40);
+        assertEquals(400, tree.count(null, Optional.empty(), false, Optional.empty(), false));
+    }
+
     @Test
     @Category(SystemTests.class)
     public void testMaxOrder() {
@@ -407,5 +979,10 @@ public class TestBPlusTree {
         assertEquals(4, LeafNode.maxOrder(pageSizeInBytes, keySchema));
         assertEquals(5, InnerNode.maxOrder(pageSizeInBytes, keySchema));
         assertEquals(4, BPlusTree.maxOrder(pageSizeInBytes, keySchema));
+
+        // Each child of an inner node of a counted tree also takes up 4 bytes
+        // for its entry count.
+        assertEquals(3, InnerNode.maxOrder(pageSizeInBytes, keySchema, true));
+        assertEquals(3, BPlusTree.maxOrder(pageSizeInBytes, keySchema, true));
     }
 }
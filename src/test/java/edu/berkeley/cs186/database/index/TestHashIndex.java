@@ -0,0 +1,131 @@
+package edu.berkeley.cs186.database.index;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.RecordId;
+
+@Category(HW2Tests.class)
+public class TestHashIndex {
+    public static final String filename = "TestHashIndex";
+    private File file;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 40 seconds max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (40000 * TimeoutScaling.factor)));
+
+    // Helpers /////////////////////////////////////////////////////////////////
+    @Before
+    public void initFile() throws IOException {
+        this.file = tempFolder.newFile(filename);
+    }
+
+    private HashIndex getHashIndex(boolean unique) {
+        return new HashIndex(file.getAbsolutePath(), Type.intType(), unique, new DummyLockContext(), null);
+    }
+
+    private static <T> List<T> iteratorToList(Iterator<T> iter) {
+        List<T> xs = new ArrayList<>();
+        while (iter.hasNext()) {
+            xs.add(iter.next());
+        }
+        return xs;
+    }
+
+    // Tests ///////////////////////////////////////////////////////////////////
+
+    @Test
+    @Category(PublicTests.class)
+    public void testPutGetRemove() throws HashIndexException {
+        HashIndex index = getHashIndex(true);
+        // Enough keys to split buckets and grow the directory several times.
+        int n = 10000;
+        for (int i = 0; i < n; ++i) {
+            index.put(null, new IntDataBox(i), new RecordId(i, (short) i));
+        }
+        assertTrue(index.getGlobalDepth() > 0);
+        for (int i = 0; i < n; ++i) {
+            assertEquals(Optional.of(new RecordId(i, (short) i)), index.get(null, new IntDataBox(i)));
+        }
+        assertEquals(Optional.empty(), index.get(null, new IntDataBox(n)));
+
+        for (int i = 0; i < n; i += 2) {
+            index.remove(null, new IntDataBox(i), new RecordId(i, (short) i));
+        }
+        // Removing a pair that is not in the index does nothing.
+        index.remove(null, new IntDataBox(1), new RecordId(2, (short) 2));
+        for (int i = 0; i < n; ++i) {
+            assertEquals(i % 2 == 1, index.get(null, new IntDataBox(i)).isPresent());
+        }
+        index.close();
+
+        // The index is persisted.
+        index = new HashIndex(file.getAbsolutePath(), new DummyLockContext(), null);
+        assertTrue(index.isUnique());
+        for (int i = 0; i < n; ++i) {
+            assertEquals(i % 2 == 1, index.get(null, new IntDataBox(i)).isPresent());
+        }
+        index.put(null, new IntDataBox(0), new RecordId(0, (short) 0));
+        assertTrue(index.get(null, new IntDataBox(0)).isPresent());
+    }
+
+    @Test(expected = HashIndexException.class)
+    @Category(PublicTests.class)
+    public void testDuplicateKey() throws HashIndexException {
+        HashIndex index = getHashIndex(true);
+        index.put(null, new IntDataBox(1), new RecordId(1, (short) 1));
+        index.put(null, new IntDataBox(1), new RecordId(2, (short) 2));
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testNonUniqueOverflow() throws HashIndexException {
+        HashIndex index = getHashIndex(false);
+        // Far more copies of one key than fit on a page, which can only be
+        // stored in overflow pages, and some other keys.
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < 2000; ++i) {
+            RecordId rid = new RecordId(i, (short) 0);
+            index.put(null, new IntDataBox(42), rid);
+            index.put(null, new IntDataBox(i + 100), rid);
+            rids.add(rid);
+        }
+        // Copies of one key never split a bucket.
+        assertTrue(index.getGlobalDepth() < 10);
+
+        List<RecordId> found = iteratorToList(index.scanEqual(null, new IntDataBox(42)));
+        Collections.sort(found);
+        assertEquals(rids, found);
+        for (int i = 0; i < 2000; ++i) {
+            assertEquals(Collections.singletonList(rids.get(i)),
+                         iteratorToList(index.scanEqual(null, new IntDataBox(i + 100))));
+        }
+
+        index.remove(null, new IntDataBox(42), rids.get(7));
+        assertEquals(1999, iteratorToList(index.scanEqual(null, new IntDataBox(42))).size());
+        assertFalse(iteratorToList(index.scanEqual(null, new IntDataBox(42))).contains(rids.get(7)));
+    }
+}
@@ -0,0 +1,237 @@
+package edu.berkeley.cs186.database.index;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+import edu.berkeley.cs186.database.TimeoutScaling;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.RecordId;
+
+@Category(HW2Tests.class)
+public class TestLSMIndex {
+    public static final String filename = "TestLSMIndex";
+    private File file;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 40 seconds max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (40000 * TimeoutScaling.factor)));
+
+    // Helpers /////////////////////////////////////////////////////////////////
+    @Before
+    public void initFile() throws IOException {
+        this.file = tempFolder.newFile(filename);
+    }
+
+    private LSMIndex getLSMIndex(int bufferCapacity, int maxRuns) {
+        return new LSMIndex(file.getAbsolutePath(), Type.intType(), bufferCapacity, maxRuns,
+                            new DummyLockContext(), null);
+    }
+
+    private static <T> List<T> iteratorToList(Iterator<T> iter) {
+        List<T> xs = new ArrayList<>();
+        while (iter.hasNext()) {
+            xs.add(iter.next());
+        }
+        return xs;
+    }
+
+    // Tests ///////////////////////////////////////////////////////////////////
+
+    @Test
+    @Category(PublicTests.class)
+    public void testPutGetRemove() {
+        LSMIndex index = getLSMIndex(100, 3);
+        // Enough keys, in no particular order, to fill many runs and compact
+        // them a few times.
+        int n = 5000;
+        for (int i = 0; i < n; ++i) {
+            int k = i % 2 == 0 ? i / 2 : n - 1 - i / 2;
+            index.put(null, new IntDataBox(k), new RecordId(k, (short) k));
+        }
+        for (int i = 0; i < n; i += 2) {
+            index.remove(null, new IntDataBox(i), new RecordId(i, (short) i));
+        }
+        // Removing a pair that is not in the index does nothing.
+        index.remove(null, new IntDataBox(1), new RecordId(2, (short) 2));
+        for (int i = 0; i < n; ++i) {
+            Optional<RecordId> expected = i % 2 == 1 ? Optional.of(new RecordId(i, (short) i)) : Optional.empty();
+            assertEquals(expected, index.get(null, new IntDataBox(i)));
+        }
+        index.awaitCompaction();
+        assertTrue(index.getNumRuns() <= 7);
+
+        // A removed pair can be put back.
+        index.put(null, new IntDataBox(0), new RecordId(0, (short) 0));
+        assertTrue(index.get(null, new IntDataBox(0)).isPresent());
+        index.close();
+
+        // The index, including its buffer, is persisted.
+        index = new LSMIndex(file.getAbsolutePath(), new DummyLockContext(), null);
+        for (int i = 0; i < n; ++i) {
+            assertEquals(i == 0 || i % 2 == 1, index.get(null, new IntDataBox(i)).isPresent());
+        }
+        List<DataBox> keys = iteratorToList(index.scanRangeKeys(null, Optional.of(new IntDataBox(10)), false,
+                                            Optional.of(new IntDataBox(20)), true));
+        assertEquals(Arrays.asList(new IntDataBox(11), new IntDataBox(13), new IntDataBox(15),
+                                   new IntDataBox(17), new IntDataBox(19)), keys);
+        index.close();
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testTombstones() {
+        // Every two changes are written out as a run, and runs are never
+        // compacted while there are at most 64 of them.
+        LSMIndex index = getLSMIndex(2, 64);
+        RecordId rid0 = new RecordId(0, (short) 0);
+        RecordId rid1 = new RecordId(0, (short) 1);
+        index.put(null, new IntDataBox(7), rid0);
+        index.put(null, new IntDataBox(7), rid1);
+        index.remove(null, new IntDataBox(7), rid0);
+        index.put(null, new IntDataBox(8), rid0);
+        assertEquals(2, index.getNumRuns());
+
+        // The tombstone for (7, rid0) in the newer run hides the pair in the
+        // older one.
+        assertEquals(Collections.singletonList(rid1), iteratorToList(index.scanEqual(null, new IntDataBox(7))));
+        assertEquals(Arrays.asList(rid1, rid0),
+                     iteratorToList(index.scanRange(null, Optional.empty(), false, Optional.empty(), false)));
+
+        // Putting the pair back hides the tombstone.
+        index.put(null, new IntDataBox(7), rid0);
+        assertEquals(Arrays.asList(rid0, rid1), iteratorToList(index.scanEqual(null, new IntDataBox(7))));
+        index.close();
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testCompaction() {
+        LSMIndex index = getLSMIndex(50, 2);
+        // Far more copies of one key than fit in the buffer, and some other
+        // keys, some of them removed.
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            RecordId rid = new RecordId(i, (short) 0);
+            index.put(null, new IntDataBox(42), rid);
+            index.put(null, new IntDataBox(i + 100), rid);
+            if (i % 10 == 0) {
+                index.remove(null, new IntDataBox(i + 100), rid);
+            }
+            rids.add(rid);
+        }
+        index.awaitCompaction();
+        // Compaction keeps the number of runs down.
+        assertTrue(index.getNumRuns() <= 5);
+
+        assertEquals(rids, iteratorToList(index.scanEqual(null, new IntDataBox(42))));
+        for (int i = 0; i < 1000; ++i) {
+            List<RecordId> expected = i % 10 == 0 ? Collections.emptyList()
+                                      : Collections.singletonList(rids.get(i));
+            assertEquals(expected, iteratorToList(index.scanEqual(null, new IntDataBox(i + 100))));
+        }
+        index.drop();
+        assertTrue(!file.exists());
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testCompactionFailure() {
+        // The second run written out makes one too many, and the compaction
+        // it starts writes run 2, whose file can't be created.
+        File blocked = new File(file.getAbsolutePath() + ".2");
+        assertTrue(blocked.mkdir());
+        LSMIndex index = getLSMIndex(2, 1);
+        for (int i = 0; i < 5; ++i) {
+            index.put(null, new IntDataBox(i), new RecordId(i, (short) 0));
+        }
+        index.awaitCompaction();
+        assertTrue(index.getCompactionFailure().isPresent());
+        assertEquals(2, index.getNumRuns());
+        for (int i = 0; i < 5; ++i) {
+            assertEquals(Optional.of(new RecordId(i, (short) 0)), index.get(null, new IntDataBox(i)));
+        }
+
+        // Closing the index still writes out the buffer.
+        index.close();
+        index = new LSMIndex(file.getAbsolutePath(), new DummyLockContext(), null);
+        assertEquals(3, index.getNumRuns());
+        for (int i = 0; i < 5; ++i) {
+            assertEquals(Optional.of(new RecordId(i, (short) 0)), index.get(null, new IntDataBox(i)));
+        }
+
+        // Dropping it deletes its files.
+        index.drop();
+        assertTrue(!file.exists());
+        assertTrue(!new File(file.getAbsolutePath() + ".0").exists());
+        assertTrue(!new File(file.getAbsolutePath() + ".3").exists());
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testCompactionKeepsFailing() {
+        // Runs 0, 1, and 3 are written out; every compaction, which writes
+        // run 2, 4, or 5, fails until the blocked files are removed.
+        List<File> blocked = new ArrayList<>();
+        for (int id : new int[] {2, 4, 5}) {
+            File f = new File(file.getAbsolutePath() + "." + id);
+            assertTrue(f.mkdir());
+            blocked.add(f);
+        }
+        LSMIndex index = getLSMIndex(2, 1);
+        for (int i = 0; i < 7; ++i) {
+            index.put(null, new IntDataBox(i), new RecordId(i, (short) 0));
+        }
+        assertEquals(3, index.getNumRuns());
+
+        // Writing out the buffer again would make more runs than the
+        // manifest has room for, so the put is refused once the compaction
+        // it retries fails too.
+        try {
+            index.put(null, new IntDataBox(7), new RecordId(7, (short) 0));
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        assertEquals(3, index.getNumRuns());
+        assertEquals(Optional.empty(), index.get(null, new IntDataBox(7)));
+        for (int i = 0; i < 7; ++i) {
+            assertEquals(Optional.of(new RecordId(i, (short) 0)), index.get(null, new IntDataBox(i)));
+        }
+
+        // Once a compaction succeeds, puts go through again. (A failed
+        // compaction may already have deleted the directory in its way.)
+        for (File f : blocked) {
+            f.delete();
+        }
+        index.put(null, new IntDataBox(7), new RecordId(7, (short) 0));
+        index.awaitCompaction();
+        assertEquals(1, index.getNumRuns());
+        for (int i = 0; i < 8; ++i) {
+            assertEquals(Optional.of(new RecordId(i, (short) 0)), index.get(null, new IntDataBox(i)));
+        }
+        index.close();
+    }
+}
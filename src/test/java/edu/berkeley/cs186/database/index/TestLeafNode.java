@@ -292,4 +292,33 @@ public class TestLeafNode {
             assertEquals(leaf, LeafNode.fromBytes(null, meta, pageNum));
         }
     }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testLookupInPage() throws BPlusTreeException, IOException {
+        int d = 5;
+        BPlusTreeMetadata meta = getBPlusTreeMetadata(Type.intType(), d);
+        LeafNode leaf = getEmptyLeaf(meta, Optional.empty());
+
+        List<Integer> evens = new ArrayList<>();
+        for (int i = 0; i < 4 * d; i += 2) {
+            evens.add(i);
+        }
+        Collections.shuffle(evens, new Random(42));
+        for (int i : evens) {
+            leaf.put(null, new IntDataBox(i), new RecordId(i, (short) i));
+        }
+
+        for (int i = -1; i <= 4 * d; ++i) {
+            Optional<RecordId> expected = i >= 0 && i < 4 * d && i % 2 == 0 ?
+                                          Optional.of(new RecordId(i, (short) i)) : Optional.empty();
+            assertEquals(expected, LeafNode.lookup(null, meta, leaf.getPage(), new IntDataBox(i)));
+            assertEquals(expected, leaf.getKey(new IntDataBox(i)));
+        }
+
+        leaf.remove(null, new IntDataBox(4));
+        assertEquals(Optional.empty(), LeafNode.lookup(null, meta, leaf.getPage(), new IntDataBox(4)));
+        assertEquals(Optional.of(new RecordId(6, (short) 6)),
+                     LeafNode.lookup(null, meta, leaf.getPage(), new IntDataBox(6)));
+    }
 }
@@ -17,6 +17,10 @@ import java.io.File;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
 * Tests PageAllocator.java
@@ -438,4 +442,53 @@ public class TestPageAllocator {
         }
     }
 
+
+    @Test
+    public void TestPageAllocatorPrefetchPage() throws Exception {
+        File tempFile = tempFolder.newFile(fName);
+        PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, null);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, pA.allocPage(null));
+        }
+
+        // A prefetch reads the page into the cache without counting an I/O;
+        // the fetch that follows it does.
+        long numIOs = PageAllocator.getNumIOs();
+        CompletableFuture<Page> prefetched = new CompletableFuture<>();
+        assertTrue(pA.prefetchPage(3, prefetched::complete));
+        Page page = prefetched.get(10, TimeUnit.SECONDS);
+        assertEquals(numIOs, PageAllocator.getNumIOs());
+        assertEquals(page, pA.fetchPage(null, 3));
+        assertEquals(numIOs + 1, PageAllocator.getNumIOs());
+
+        // Pages that can't be fetched are skipped.
+        CompletableFuture<Page> invalid = new CompletableFuture<>();
+        assertTrue(pA.prefetchPage(20, invalid::complete));
+        assertTrue(pA.prefetchPage(4, p -> invalid.complete(null)));
+        assertEquals(null, invalid.get(10, TimeUnit.SECONDS));
+
+        // While the first prefetch is stuck, the rest wait, up to
+        // MAX_PREFETCHES in all, and close cancels them.
+        CountDownLatch stuck = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger numRun = new AtomicInteger(0);
+        assertTrue(pA.prefetchPage(0, p -> {
+            numRun.incrementAndGet();
+            stuck.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        assertTrue(stuck.await(10, TimeUnit.SECONDS));
+        for (int i = 1; i < PageAllocator.MAX_PREFETCHES; i++) {
+            assertTrue(pA.prefetchPage(i % 10, p -> numRun.incrementAndGet()));
+        }
+        assertFalse(pA.prefetchPage(5, p -> numRun.incrementAndGet()));
+        pA.close();
+        release.countDown();
+        assertFalse(pA.prefetchPage(5, p -> numRun.incrementAndGet()));
+        assertEquals(1, numRun.get());
+    }
 }
@@ -456,4 +456,95 @@ public class TestJoinOperator {
         }
         assertTrue(count == 82944);
     }
+
+    /**
+     * SNLJ and BNLJ should produce the same joins whether or not the right
+     * table has a Bloom filter that rules out most left records.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testJoinWithBloomFilter() throws QueryPlanException, DatabaseException, IOException {
+        File tempDir = tempFolder.newFolder("joinTest");
+        Database d = new Database(tempDir.getAbsolutePath(), 3);
+        Database.Transaction transaction = d.beginTransaction();
+        transaction.createTable(TestUtils.createSchemaWithAllTypes(), "leftTable");
+        transaction.createTable(TestUtils.createSchemaWithAllTypes(), "rightTable");
+        for (int i = 0; i < 288 * 8; i++) {
+            transaction.addRecord("leftTable", TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+        }
+        // Only the left records on the fourth page have a match.
+        for (int i = 288 * 3; i < 288 * 3 + 100; i++) {
+            transaction.addRecord("rightTable", TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+        }
+
+        for (boolean withBloomFilter : new boolean[] {false, true}) {
+            if (withBloomFilter) {
+                transaction.createBloomFilter("rightTable", "int");
+            }
+            QueryOperator s1 = new SequentialScanOperator(transaction, "leftTable");
+            QueryOperator s2 = new SequentialScanOperator(transaction, "rightTable");
+            List<JoinOperator> joins = Arrays.asList(
+                                           new SNLJOperator(s1, s2, "int", "int", transaction),
+                                           new BNLJOperator(s1, s2, "int", "int", transaction));
+            for (JoinOperator join : joins) {
+                Iterator<Record> outputIterator = join.iterator();
+                int count = 0;
+                while (outputIterator.hasNext()) {
+                    Record r = outputIterator.next();
+                    assertEquals(r.getValues().get(1), r.getValues().get(5));
+                    count++;
+                }
+                assertEquals(100, count);
+            }
+        }
+    }
+
+    /**
+     * INLJ looks up the join values of each block of left records in the
+     * index of the right table, and should produce the same joins as SNLJ.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testSimpleJoinINLJ() throws QueryPlanException, DatabaseException, IOException {
+        File tempDir = tempFolder.newFolder("joinTest");
+        Database d = new Database(tempDir.getAbsolutePath(), 3);
+        Database.Transaction transaction = d.beginTransaction();
+        transaction.createTable(TestUtils.createSchemaWithAllTypes(), "leftTable");
+        transaction.createTableWithIndices(TestUtils.createSchemaWithAllTypes(), "rightTable",
+                                           Collections.singletonList("int"), false);
+        for (int i = 0; i < 288 * 4; i++) {
+            transaction.addRecord("leftTable", TestUtils.createRecordWithAllTypesWithValue(i % 500).getValues());
+        }
+        // Every multiple of 3 has two matches.
+        for (int i = 0; i < 600; i += 3) {
+            transaction.addRecord("rightTable", TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+            transaction.addRecord("rightTable", TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+        }
+
+        QueryOperator s1 = new SequentialScanOperator(transaction, "leftTable");
+        QueryOperator s2 = new SequentialScanOperator(transaction, "rightTable");
+        List<String> expected = new ArrayList<>();
+        Iterator<Record> snlj = new SNLJOperator(s1, s2, "int", "int", transaction).iterator();
+        while (snlj.hasNext()) {
+            expected.add(snlj.next().toString());
+        }
+        List<String> actual = new ArrayList<>();
+        Iterator<Record> inlj = new INLJOperator(s1, s2, "int", "int", transaction).iterator();
+        while (inlj.hasNext()) {
+            actual.add(inlj.next().toString());
+        }
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(2 * (167 * 2 + 51), actual.size());
+        assertEquals(expected, actual);
+
+        // An IN list probes the index the same way.
+        List<DataBox> keys = Arrays.asList(new IntDataBox(9), new IntDataBox(4), new IntDataBox(3));
+        Iterator<Record> records = transaction.lookupKeys("rightTable", "int", keys);
+        List<Integer> values = new ArrayList<>();
+        while (records.hasNext()) {
+            values.add(records.next().getValues().get(1).getInt());
+        }
+        assertEquals(Arrays.asList(3, 3, 9, 9), values);
+    }
 }
@@ -0,0 +1,64 @@
+package edu.berkeley.cs186.database.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.databox.BoolDataBox;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+
+@Category(HW3Tests.class)
+public class TestPageCompressor {
+    private static Schema schema = new Schema(
+        Arrays.asList("id", "flag", "major", "gpa"),
+        Arrays.asList(Type.intType(), Type.boolType(), Type.stringType(10), Type.floatType()));
+
+    private static Record record(int id, boolean flag, String major, float gpa) {
+        List<DataBox> values = new ArrayList<>();
+        values.add(new IntDataBox(id));
+        values.add(new BoolDataBox(flag));
+        values.add(new StringDataBox(major, 10));
+        values.add(new FloatDataBox(gpa));
+        return new Record(values);
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testRoundTrip() {
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            records.add(record(100000 + i, i < 150, i < 100 ? "CS" : "Math", i / 7.0f));
+        }
+        byte[] bytes = PageCompressor.compress(schema, records);
+        assertEquals(records, PageCompressor.decompress(schema, bytes));
+
+        // The ids are bit-packed into a byte each, the flags and majors are
+        // two runs each, and only the floats are stored as is.
+        int uncompressed = records.size() * schema.getSizeInBytes();
+        assertTrue(bytes.length < uncompressed / 2);
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testEdgeCases() {
+        List<Record> records = new ArrayList<>();
+        assertEquals(records, PageCompressor.decompress(schema, PageCompressor.compress(schema, records)));
+
+        records.add(record(Integer.MIN_VALUE, true, "a", 0.0f));
+        records.add(record(Integer.MAX_VALUE, false, "b", 1.0f));
+        records.add(record(0, true, "a", -1.0f));
+        records.add(record(0, true, "a", -1.0f));
+        assertEquals(records, PageCompressor.decompress(schema, PageCompressor.compress(schema, records)));
+    }
+}
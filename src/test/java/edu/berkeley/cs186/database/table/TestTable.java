@@ -3,6 +3,7 @@ package edu.berkeley.cs186.database.table;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
@@ -10,6 +11,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
 import edu.berkeley.cs186.database.categories.*;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
@@ -27,8 +33,10 @@ import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.TestUtils;
 import edu.berkeley.cs186.database.common.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.query.QueryPlan.PredicateOperator;
 
 @Category(HW3Tests.class)
 public class TestTable {
@@ -524,4 +532,500 @@ public class TestTable {
         checkSequentialRecords(1, numRecords, 2, iter);
         assertFalse(iter.hasNext());
     }
+
+    /**
+     * Sequential and parallel streams over the table's spliterator should see
+     * exactly the records left after deleting every other record.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testParallelScan() throws DatabaseException {
+        int numRecords = table.getNumRecordsPerPage() * 5 + 42;
+
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            Record r = createRecordWithAllTypes(i);
+            rids.add(table.addRecord(null, r.getValues()));
+        }
+        for (int i = 0; i < numRecords; i += 2) {
+            table.deleteRecord(null, rids.get(i));
+        }
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 1; i < numRecords; i += 2) {
+            expected.add(i);
+        }
+        List<Integer> sequential = StreamSupport.stream(table.spliterator(null), false)
+                                   .map(r -> r.getValues().get(1).getInt())
+                                   .collect(Collectors.toList());
+        assertEquals(expected, sequential);
+        List<Integer> parallel = table.parallelScan(null, r -> true)
+                                 .map(r -> r.getValues().get(1).getInt())
+                                 .collect(Collectors.toList());
+        assertEquals(expected, parallel);
+
+        long numMultiplesOfThree = table.parallelScan(null, r -> r.getValues().get(1).getInt() % 3 == 0)
+                                   .count();
+        assertEquals(expected.stream().filter(i -> i % 3 == 0).count(), numMultiplesOfThree);
+    }
+
+    /**
+     * Scans don't take the table's monitor, so they aren't held up by a
+     * writer that holds it.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testParallelScanDuringWrite() throws Exception {
+        int numRecords = table.getNumRecordsPerPage() * 5;
+        for (int i = 0; i < numRecords; ++i) {
+            table.addRecord(null, createRecordWithAllTypes(i).getValues());
+        }
+
+        synchronized (table) {
+            CompletableFuture<Long> count = CompletableFuture.supplyAsync(() ->
+                                            table.parallelScan(null, r -> true).count());
+            assertEquals(numRecords, (long) count.get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * A scan with a predicate on a naturally ordered int column should only
+     * read the pages whose ranges overlap the predicate.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testZoneMapIterator() throws DatabaseException {
+        int numRecordsPerPage = table.getNumRecordsPerPage();
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecordsPerPage * 3; ++i) {
+            Record r = createRecordWithAllTypes(i);
+            rids.add(table.addRecord(null, r.getValues()));
+        }
+
+        // Only the first page holds values below numRecordsPerPage.
+        IntDataBox bound = new IntDataBox(numRecordsPerPage);
+        BacktrackingIterator<Record> iter = table.iterator(null, 1, PredicateOperator.LESS_THAN, bound);
+        checkSequentialRecords(0, numRecordsPerPage, 1, iter);
+        assertFalse(iter.hasNext());
+
+        // Writing a small value to the last page widens that page's range.
+        RecordId last = rids.get(rids.size() - 1);
+        table.updateRecord(null, createRecordWithAllTypes(0).getValues(), last);
+        int count = 0;
+        iter = table.iterator(null, 1, PredicateOperator.LESS_THAN, bound);
+        while (iter.hasNext()) {
+            iter.next();
+            count++;
+        }
+        assertEquals(numRecordsPerPage * 2, count);
+
+        // The zone map is rebuilt when the table is reloaded.
+        table.close();
+        table = new Table(table.getName(), table.getFilename(), new DummyLockContext(), null);
+        iter = table.iterator(null, 1, PredicateOperator.GREATER_THAN_EQUALS,
+                              new IntDataBox(numRecordsPerPage * 2));
+        checkSequentialRecords(numRecordsPerPage * 2, numRecordsPerPage * 3 - 1, 1, iter);
+        iter.next();
+        assertFalse(iter.hasNext());
+    }
+
+    /**
+     * A Bloom filter never rejects a present value, rejects most absent values,
+     * and picks up values that are added or written after it is built.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testBloomFilter() throws DatabaseException {
+        int numRecords = table.getNumRecordsPerPage() * 2;
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            Record r = createRecordWithAllTypes(i);
+            rids.add(table.addRecord(null, r.getValues()));
+        }
+
+        // Without a filter, every value might be present.
+        assertTrue(table.mightContain(1, new IntDataBox(-1)));
+
+        table.createBloomFilter(null, 1);
+        for (int i = 0; i < numRecords; ++i) {
+            assertTrue(table.mightContain(1, new IntDataBox(i)));
+        }
+        int falsePositives = 0;
+        for (int i = numRecords; i < numRecords * 2; ++i) {
+            if (table.mightContain(1, new IntDataBox(i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < numRecords / 10);
+
+        table.addRecord(null, createRecordWithAllTypes(-1).getValues());
+        table.updateRecord(null, createRecordWithAllTypes(-2).getValues(), rids.get(0));
+        assertTrue(table.mightContain(1, new IntDataBox(-1)));
+        assertTrue(table.mightContain(1, new IntDataBox(-2)));
+    }
+
+    /**
+     * A bitmap index finds exactly the records with a value, is kept up to
+     * date by every change to the table, and its bitmaps can be combined.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testBitmapIndex() throws DatabaseException {
+        int numRecords = table.getNumRecordsPerPage() * 3;
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            rids.add(table.addRecord(null, createRecordWithAllTypes(i % 4).getValues()));
+        }
+        table.createBitmapIndex(null, 1);
+        assertTrue(table.hasBitmapIndex(1));
+        assertFalse(table.hasBitmapIndex(0));
+
+        RecordIdBitmap zeros = table.lookupBitmap(1, new IntDataBox(0));
+        RecordIdBitmap ones = table.lookupBitmap(1, new IntDataBox(1));
+        assertEquals(numRecords / 4, zeros.size());
+        assertEquals(3, zeros.getNumPages());
+        for (int i = 0; i < numRecords; i += 4) {
+            assertTrue(zeros.contains(rids.get(i)));
+        }
+        assertEquals(numRecords / 2, zeros.or(ones).size());
+        assertEquals(0, zeros.and(ones).size());
+        assertEquals(zeros.size(), zeros.and(zeros.or(ones)).size());
+        assertEquals(0, table.lookupBitmap(1, new IntDataBox(4)).size());
+
+        // Updates move a record between bitmaps, and deletes remove it.
+        table.updateRecord(null, createRecordWithAllTypes(1).getValues(), rids.get(0));
+        table.deleteRecord(null, rids.get(4));
+        RecordId rid = table.addRecord(null, createRecordWithAllTypes(4).getValues());
+        zeros = table.lookupBitmap(1, new IntDataBox(0));
+        assertEquals(numRecords / 4 - 2, zeros.size());
+        assertFalse(zeros.contains(rids.get(0)));
+        assertFalse(zeros.contains(rids.get(4)));
+        assertTrue(table.lookupBitmap(1, new IntDataBox(1)).contains(rids.get(0)));
+        assertTrue(table.lookupBitmap(1, new IntDataBox(4)).contains(rid));
+
+        // Looked up bitmaps are copies.
+        zeros.remove(rids.get(8));
+        assertTrue(table.lookupBitmap(1, new IntDataBox(0)).contains(rids.get(8)));
+    }
+
+    /**
+     * Moving records out of sparse pages at the back of the table lets cleanup
+     * free those pages without losing any records.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testCompaction() throws DatabaseException {
+        int numRecordsPerPage = table.getNumRecordsPerPage();
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecordsPerPage * 3; ++i) {
+            rids.add(table.addRecord(null, createRecordWithAllTypes(i).getValues()));
+        }
+        assertEquals(3, table.getNumDataPages());
+
+        // Leave one record on each of the last two pages, and make room for
+        // them on the first page.
+        table.deleteRecord(null, rids.get(2));
+        for (int i = numRecordsPerPage; i < numRecordsPerPage * 3; ++i) {
+            if (i % numRecordsPerPage != 0) {
+                table.deleteRecord(null, rids.get(i));
+            }
+        }
+
+        int firstPage = rids.get(0).getPageNum();
+        List<Integer> sparse = table.getSparsePageNums(null, 0.5f);
+        assertEquals(Arrays.asList(rids.get(numRecordsPerPage * 2).getPageNum(),
+                                   rids.get(numRecordsPerPage).getPageNum()), sparse);
+
+        List<RecordId> moved = new ArrayList<>();
+        for (int pageNum : sparse) {
+            for (RecordId rid : table.getRecordIds(null, pageNum)) {
+                RecordId newRid = table.moveRecord(null, rid);
+                if (newRid != null) {
+                    moved.add(newRid);
+                }
+            }
+        }
+        // The first page only had room for one of the two records.
+        assertEquals(1, moved.size());
+        assertEquals(firstPage, moved.get(0).getPageNum());
+        assertEquals(createRecordWithAllTypes(numRecordsPerPage * 2), table.getRecord(null, moved.get(0)));
+
+        table.cleanup(null);
+        assertEquals(2, table.getNumDataPages());
+        assertEquals(numRecordsPerPage + 1, table.getNumRecords());
+        assertEquals(createRecordWithAllTypes(numRecordsPerPage),
+                     table.getRecord(null, rids.get(numRecordsPerPage)));
+    }
+
+    /**
+     * Inserts go to the fullest page with room, never fill a page past the
+     * fill factor, and the fill factor survives reloading the table.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testFreeSpaceMap() throws DatabaseException {
+        int numRecordsPerPage = table.getNumRecordsPerPage();
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecordsPerPage * 3; ++i) {
+            rids.add(table.addRecord(null, createRecordWithAllTypes(i).getValues()));
+        }
+
+        // The third page loses one record and the second page loses half of
+        // them. The next insert fills the fuller third page, even though the
+        // second page comes first.
+        table.deleteRecord(null, rids.get(numRecordsPerPage * 2));
+        for (int i = 1; i <= numRecordsPerPage / 2; ++i) {
+            table.deleteRecord(null, rids.get(numRecordsPerPage + i));
+        }
+        RecordId rid = table.addRecord(null, createRecordWithAllTypes(-1).getValues());
+        assertEquals(rids.get(numRecordsPerPage * 2), rid);
+        rid = table.addRecord(null, createRecordWithAllTypes(-2).getValues());
+        assertEquals(rids.get(numRecordsPerPage + 1), rid);
+
+        table.setFillFactor(null, 0.5f);
+        table.close();
+        table = new Table(table.getName(), table.getFilename(), new DummyLockContext(), null);
+        assertEquals(0.5f, table.getFillFactor(), 0.0f);
+
+        int numDataPages = table.getNumDataPages();
+        for (int i = 0; i < numRecordsPerPage; ++i) {
+            rid = table.addRecord(null, createRecordWithAllTypes(i).getValues());
+            assertTrue(rid.getEntryNum() < numRecordsPerPage / 2);
+        }
+        assertEquals(numDataPages + 2, table.getNumDataPages());
+    }
+
+    /**
+     * A dictionary encoded column stores codes instead of values, which fits
+     * more records on a page, and survives reloading the table.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testDictionaryEncoding() throws DatabaseException {
+        int numRecordsPerPage = table.getNumRecordsPerPage();
+        table.encodeColumn(null, 2);
+        assertTrue(table.isDictionaryEncoded(2));
+        assertTrue(table.getNumRecordsPerPage() >= numRecordsPerPage);
+
+        String[] majors = {"CS", "EECS", "Math"};
+        List<Record> records = new ArrayList<>();
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < table.getNumRecordsPerPage() * 2; ++i) {
+            Record r = createRecordWithAllTypes(i);
+            r.getValues().set(2, new StringDataBox(majors[i % majors.length], 5));
+            records.add(r);
+            rids.add(table.addRecord(null, r.getValues()));
+        }
+
+        table.close();
+        table = new Table(table.getName(), table.getFilename(), new DummyLockContext(), null);
+        assertTrue(table.isDictionaryEncoded(2));
+        for (int i = 0; i < records.size(); ++i) {
+            assertEquals(records.get(i), table.getRecord(null, rids.get(i)));
+        }
+
+        Iterator<Record> iter = table.iterator(null, 2, PredicateOperator.EQUALS,
+                                               new StringDataBox("EECS", 5));
+        for (int i = 1; i < records.size(); i += majors.length) {
+            assertTrue(iter.hasNext());
+            assertEquals(records.get(i), iter.next());
+        }
+        assertFalse(iter.hasNext());
+        iter = table.iterator(null, 2, PredicateOperator.EQUALS, new StringDataBox("Bio", 5));
+        assertFalse(iter.hasNext());
+
+        // New values are added to the dictionary as they are written.
+        table.updateRecord(null, records.get(0).getValues(), rids.get(1));
+        Record r = createRecordWithAllTypes(-1);
+        r.getValues().set(2, new StringDataBox("Bio", 5));
+        RecordId rid = table.addRecord(null, r.getValues());
+        assertEquals(r, table.getRecord(null, rid));
+        assertEquals(records.get(0), table.getRecord(null, rids.get(1)));
+    }
+
+    /**
+     * Scans decode records correctly while inserts add new values to the
+     * dictionary.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testDictionaryEncodingConcurrentScans() throws Exception {
+        table.encodeColumn(null, 2);
+        int numRecords = table.getNumRecordsPerPage() * 4;
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+            for (int i = 0; i < numRecords; ++i) {
+                Record r = createRecordWithAllTypes(i);
+                r.getValues().set(2, new StringDataBox(String.format("%05d", i % 200), 5));
+                try {
+                    table.addRecord(null, r.getValues());
+                } catch (DatabaseException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        do {
+            table.parallelScan(null, r -> true).forEach(r -> {
+                int i = r.getValues().get(1).getInt();
+                assertEquals(String.format("%05d", i % 200), r.getValues().get(2).getString());
+            });
+        } while (!writer.isDone());
+        writer.get();
+        assertEquals(numRecords, table.parallelScan(null, r -> true).count());
+    }
+
+    @Test(expected = DatabaseException.class)
+    @Category(PublicTests.class)
+    public void testDictionaryEncodingNonEmptyTable() throws DatabaseException {
+        table.addRecord(null, createRecordWithAllTypes(0).getValues());
+        table.encodeColumn(null, 2);
+    }
+
+    /**
+     * Point lookups are served from the record cache, which never returns a
+     * stale record after an update or delete and respects its byte budget.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testRecordCache() throws DatabaseException {
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            rids.add(table.addRecord(null, createRecordWithAllTypes(i).getValues()));
+        }
+
+        RecordCache.resetStats();
+        assertEquals(createRecordWithAllTypes(3), table.getRecord(null, rids.get(3)));
+        assertEquals(1, RecordCache.getNumMisses());
+        Record r = table.getRecord(null, rids.get(3));
+        assertEquals(createRecordWithAllTypes(3), r);
+        assertEquals(1, RecordCache.getNumHits());
+        assertEquals(0.5, RecordCache.getHitRate(), 1e-9);
+
+        // Modifying a record we got must not modify the cached copy.
+        r.getValues().set(1, new IntDataBox(-1));
+        assertEquals(createRecordWithAllTypes(3), table.getRecord(null, rids.get(3)));
+
+        table.updateRecord(null, createRecordWithAllTypes(42).getValues(), rids.get(3));
+        assertEquals(createRecordWithAllTypes(42), table.getRecord(null, rids.get(3)));
+        table.deleteRecord(null, rids.get(3));
+        try {
+            table.getRecord(null, rids.get(3));
+            fail("Deleted record " + rids.get(3) + " was returned.");
+        } catch (DatabaseException e) {
+            // The record no longer exists.
+        }
+
+        long maxBytes = RecordCache.getMaxBytes();
+        try {
+            RecordCache.setMaxBytes(0);
+            assertEquals(0, RecordCache.getNumBytes());
+            RecordCache.resetStats();
+            table.getRecord(null, rids.get(4));
+            table.getRecord(null, rids.get(4));
+            assertEquals(0, RecordCache.getNumHits());
+        } finally {
+            RecordCache.setMaxBytes(maxBytes);
+        }
+    }
+
+    /**
+     * A bitmap iterator returns the records of a RecordIdBitmap in page order,
+     * no matter the order in which the RecordIds were added, and skips records
+     * that have since been deleted.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testBitmapIterator() throws DatabaseException {
+        List<RecordId> rids = new ArrayList<>();
+        int numRecords = setupIteratorTest(rids, 3);
+
+        // Every third record, added in reverse.
+        RecordIdBitmap bitmap = new RecordIdBitmap();
+        for (int i = numRecords - 1; i >= 0; i -= 3) {
+            bitmap.add(rids.get(i));
+        }
+        bitmap.add(rids.get(numRecords - 1));
+        assertEquals((numRecords + 2) / 3, bitmap.size());
+        assertEquals(3, bitmap.getNumPages());
+
+        RecordId prev = null;
+        for (RecordId rid : bitmap) {
+            assertTrue(prev == null || prev.compareTo(rid) < 0);
+            prev = rid;
+        }
+
+        table.deleteRecord(null, rids.get(numRecords - 1));
+        Iterator<Record> iter = table.bitmapIterator(null, bitmap);
+        for (int i = (numRecords - 1) % 3; i < numRecords - 1; i += 3) {
+            assertTrue(iter.hasNext());
+            assertEquals(createRecordWithAllTypes(i), iter.next());
+        }
+        assertFalse(iter.hasNext());
+    }
+
+    /**
+     * Compressing a table packs its full data pages into a handful of pages.
+     * Records on compressed pages keep their entry numbers, and can still be
+     * read, scanned, updated, and deleted, also after the table is reloaded.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testCompressPages() throws DatabaseException {
+        int numRecordsPerPage = table.getNumRecordsPerPage();
+        int numRecords = numRecordsPerPage * 10 + numRecordsPerPage / 2;
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < numRecords; ++i) {
+            rids.add(table.addRecord(null, createRecordWithAllTypes(i).getValues()));
+        }
+        assertEquals(11, table.getNumDataPages());
+
+        // The half full last page is left alone.
+        Map<Integer, Integer> moved = table.compressPages(null);
+        assertEquals(10, moved.size());
+        assertEquals(3, table.getNumDataPages());
+        assertEquals(numRecords, table.getNumRecords());
+
+        for (int i = 0; i < numRecords; ++i) {
+            RecordId rid = rids.get(i);
+            rid = new RecordId(moved.getOrDefault(rid.getPageNum(), rid.getPageNum()), rid.getEntryNum());
+            rids.set(i, rid);
+            assertEquals(createRecordWithAllTypes(i), table.getRecord(null, rid));
+        }
+        assertEquals(numRecords, table.parallelScan(null, r -> true).count());
+        Iterator<Record> iter = table.iterator(null);
+        int count = 0;
+        while (iter.hasNext()) {
+            iter.next();
+            count++;
+        }
+        assertEquals(numRecords, count);
+
+        table.deleteRecord(null, rids.get(0));
+        table.updateRecord(null, createRecordWithAllTypes(-1).getValues(), rids.get(1));
+        assertEquals(createRecordWithAllTypes(-1), table.getRecord(null, rids.get(1)));
+
+        // Values far outside the range of the rest of the page don't compress
+        // nearly as well, so the page no longer fits with its neighbours.
+        try {
+            table.updateRecord(null, createRecordWithAllTypes(Integer.MAX_VALUE).getValues(),
+                               rids.get(2));
+            fail("Update of compressed page was too big to fit, but did not fail.");
+        } catch (DatabaseException e) {
+            assertEquals(createRecordWithAllTypes(2), table.getRecord(null, rids.get(2)));
+        }
+
+        table.close();
+        table = new Table(table.getName(), table.getFilename(), new DummyLockContext(), null);
+        assertEquals(3, table.getNumDataPages());
+        assertEquals(numRecords - 1, table.getNumRecords());
+        try {
+            table.getRecord(null, rids.get(0));
+            fail("Deleted record " + rids.get(0) + " was returned.");
+        } catch (DatabaseException e) {
+            // The record no longer exists.
+        }
+        assertEquals(createRecordWithAllTypes(-1), table.getRecord(null, rids.get(1)));
+        for (int i = 2; i < numRecords; ++i) {
+            assertEquals(createRecordWithAllTypes(i), table.getRecord(null, rids.get(i)));
+        }
+    }
 }